@@ -14,6 +14,8 @@ android {
         versionCode = 1
         versionName = "1.0"
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+        // Backend that ratings are synced to; left empty, ratings stay on the device
+        buildConfigField("String", "SYNC_URL", "\"\"")
     }
 
     buildTypes {
@@ -31,6 +33,23 @@ android {
     // Enable View Binding (required by the Java fragments)
     buildFeatures {
         viewBinding = true
+        // BuildConfig.SYNC_URL
+        buildConfig = true
+    }
+
+    // RatingBenchmark, and the timing tests that call RatingBenchmark.assumeEnabled, only run with
+    // -Pbenchmark; RatingBenchmark writes its JSON report under build/benchmarks
+    testOptions {
+        // TabSwitchTest inflates the real layouts under Robolectric
+        unitTests.isIncludeAndroidResources = true
+        unitTests.all {
+            it.systemProperty("benchmark", project.hasProperty("benchmark").toString())
+            it.systemProperty("benchmark.output",
+                layout.buildDirectory.file("benchmarks/rating-benchmarks.json").get().asFile.path)
+            if (project.hasProperty("benchmark")) {
+                it.maxHeapSize = "2g"
+            }
+        }
     }
 }
 
@@ -39,6 +58,8 @@ dependencies {
     implementation("androidx.appcompat:appcompat:1.6.1")
     implementation("com.google.android.material:material:1.11.0")
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
+    // ViewHolder.getBindingAdapterPosition needs 1.2 or later; material only brings in 1.1
+    implementation("androidx.recyclerview:recyclerview:1.3.2")
 
     // Fragment (Required for FragmentManager and Fragments)
     implementation("androidx.fragment:fragment:1.6.2")
@@ -46,6 +67,16 @@ dependencies {
     // ViewModel and LiveData (Shared Data communication)
     implementation("androidx.lifecycle:lifecycle-viewmodel:2.7.0")
     implementation("androidx.lifecycle:lifecycle-livedata:2.7.0")
+    // SavedStateHandle, which keeps the ratings snapshot across process death
+    implementation("androidx.lifecycle:lifecycle-viewmodel-savedstate:2.7.0")
     // ViewModel integration for Java (if needed, but 2.7.0 usually works fine without extensions)
     // implementation("androidx.lifecycle:lifecycle-extensions:2.2.0")
+
+    // Local JVM unit tests (src/test)
+    testImplementation("junit:junit:4.13.2")
+    // Lets RatingBenchmark and RatingTransferTest update LiveData off the Android main thread
+    testImplementation("androidx.arch.core:core-testing:2.2.0")
+    // Runs MainActivity on the JVM for TabSwitchTest
+    testImplementation("org.robolectric:robolectric:4.11.1")
+    testImplementation("androidx.test:core:1.5.0")
 }
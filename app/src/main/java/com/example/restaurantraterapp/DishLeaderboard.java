@@ -0,0 +1,182 @@
+package com.example.restaurantraterapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Ranks distinct dishes by their smoothed mean rating, kept up to date incrementally.
+ *
+ * Each dish's score is a Bayesian average that pulls dishes with few votes towards a fixed prior:
+ * (priorMean * priorWeight + sum) / (priorWeight + count). Because the prior is fixed, a rating
+ * only changes the score of its own dish, so every add or remove is one hash lookup plus one
+ * removal and reinsertion in a sorted tree, O(log n) in the number of dishes. Dishes with fewer
+ * than minVotes ratings are tracked but not ranked.
+ *
+ * Dishes are grouped by normalized name, so "Pizza" and "pizza " count as the same dish.
+ */
+public class DishLeaderboard {
+
+    /**
+     * One ranked dish. Immutable, so lists of entries can be published through LiveData.
+     */
+    public static final class Entry {
+        private final String dishName;
+        private final int count;
+        private final float average;
+        private final float score;
+
+        Entry(String dishName, int count, float average, float score) {
+            this.dishName = dishName;
+            this.count = count;
+            this.average = average;
+            this.score = score;
+        }
+
+        public String getDishName() {
+            return dishName;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return The plain mean of the dish's ratings.
+         */
+        public float getAverage() {
+            return average;
+        }
+
+        /**
+         * @return The smoothed mean the dish is ranked by.
+         */
+        public float getScore() {
+            return score;
+        }
+    }
+
+    // Running totals for one dish
+    private static final class Dish {
+        final String key;
+        String displayName;
+        int count;
+        double sum;
+        double score;
+
+        Dish(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // Highest score first, ties broken by name so the order is total
+    private static final Comparator<Dish> BY_SCORE = (a, b) -> {
+        int byScore = Double.compare(b.score, a.score);
+        return byScore != 0 ? byScore : a.key.compareTo(b.key);
+    };
+
+    private final double priorMean;
+    private final double priorWeight;
+    private final int minVotes;
+
+    // Every dish with at least one rating, by normalized name
+    private final Map<String, Dish> dishes = new HashMap<>();
+
+    // Dishes with at least minVotes ratings, best first
+    private final TreeSet<Dish> ranked = new TreeSet<>(BY_SCORE);
+
+    /**
+     * @param priorMean The rating a dish is assumed to have before any votes.
+     * @param priorWeight How many votes the prior is worth; 0 ranks by the plain mean.
+     * @param minVotes The number of ratings a dish needs before it is ranked.
+     */
+    public DishLeaderboard(double priorMean, double priorWeight, int minVotes) {
+        this.priorMean = priorMean;
+        this.priorWeight = priorWeight;
+        this.minVotes = Math.max(1, minVotes);
+    }
+
+    public void add(RatingViewModel.DishRating rating) {
+        String key = keyOf(rating.getDishName());
+        Dish dish = dishes.get(key);
+        if (dish == null) {
+            dish = new Dish(key);
+            dishes.put(key, dish);
+        } else if (dish.count >= minVotes) {
+            ranked.remove(dish);
+        }
+        dish.displayName = rating.getDishName().trim();
+        dish.count++;
+        dish.sum += rating.getRating();
+        rank(dish);
+    }
+
+    public void remove(RatingViewModel.DishRating rating) {
+        String key = keyOf(rating.getDishName());
+        Dish dish = dishes.get(key);
+        if (dish == null) {
+            return;
+        }
+        if (dish.count >= minVotes) {
+            ranked.remove(dish);
+        }
+        dish.count--;
+        dish.sum -= rating.getRating();
+        if (dish.count == 0) {
+            dishes.remove(key);
+        } else {
+            rank(dish);
+        }
+    }
+
+    public void clear() {
+        dishes.clear();
+        ranked.clear();
+    }
+
+    /**
+     * @return Up to k of the best dishes, best first.
+     */
+    public List<Entry> top(int k) {
+        if (ranked.isEmpty() || k <= 0) {
+            return Collections.emptyList();
+        }
+        List<Entry> top = new ArrayList<>(Math.min(k, ranked.size()));
+        Iterator<Dish> iterator = ranked.iterator();
+        while (top.size() < k && iterator.hasNext()) {
+            Dish dish = iterator.next();
+            top.add(new Entry(dish.displayName, dish.count, (float) (dish.sum / dish.count), (float) dish.score));
+        }
+        return top;
+    }
+
+    /**
+     * @return The number of distinct dishes with at least one rating.
+     */
+    public int getDishCount() {
+        return dishes.size();
+    }
+
+    // Recomputes the dish's score and reinserts it if it has enough votes
+    private void rank(Dish dish) {
+        dish.score = (priorMean * priorWeight + dish.sum) / (priorWeight + dish.count);
+        if (dish.count >= minVotes) {
+            ranked.add(dish);
+        }
+    }
+
+    /**
+     * @return The name dishes are grouped by: normalized, with runs of whitespace collapsed.
+     */
+    static String keyOf(String dishName) {
+        return WHITESPACE.matcher(RatingSearchIndex.normalize(dishName).trim()).replaceAll(" ");
+    }
+}
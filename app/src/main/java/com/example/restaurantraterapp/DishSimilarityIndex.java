@@ -0,0 +1,627 @@
+package com.example.restaurantraterapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Item-to-item similarity between the dishes of one restaurant, for "you might also like"
+ * suggestions, kept up to date incrementally as ratings are added and removed.
+ *
+ * A dish is identified by the set of normalized words of its name, so "Pizza Margherita" and
+ * "margherita pizza" are the same dish. Two dishes are similar when they were eaten together or
+ * when their names share words:
+ *  - Ratings of one VISIT_WINDOW_MS window of local time form a visit, so lunch and dinner on the
+ *    same day are separate meals. For every pair of dishes the index counts the visits containing
+ *    both; their similarity is that count divided by the geometric mean of the visits of each dish
+ *    (the cosine of their visit vectors). A window with more than MAX_VISIT_DISHES distinct dishes
+ *    is an import or a back-fill rather than a meal, and pairs no dishes.
+ *
+ * Windows are fixed, starting at local midnight, rather than split on gaps between ratings: a gap
+ * based session could merge or split whenever a rating is added or removed, where a fixed window
+ * only ever gains or loses one dish. The cost is that a meal running across a window boundary, say
+ * from 20:30 to 21:30, counts as two visits and pairs only the dishes rated on the same side.
+ *  - Sharing words counts NAME_WEIGHT times the Jaccard index of the two word sets.
+ *
+ * Adding a rating that brings a new dish into a visit updates one pair count per other dish of
+ * the visit, so at most MAX_VISIT_DISHES sparse map updates. Pair counts and word memberships are
+ * kept in open-addressing int maps, without boxing. A lookup scores only the dishes that share a
+ * visit or a word with the given one and keeps the best in a small array.
+ *
+ * Suggestions are ranked by similarity times the dish's mean rating smoothed towards a prior, and
+ * dishes averaging below MIN_AVERAGE are never suggested. The index is not thread-safe;
+ * RatingSearch confines it to its background thread.
+ */
+public class DishSimilarityIndex {
+
+    // Length of the local time window whose ratings form one visit; windows start at midnight
+    static final long VISIT_WINDOW_MS = 3 * 3_600_000L;
+
+    // Distinct dishes a window can hold and still count as a visit
+    static final int MAX_VISIT_DISHES = 24;
+
+    // Weight of the name overlap next to the visit similarity, which weighs 1
+    static final float NAME_WEIGHT = 0.5f;
+
+    // Dishes rated below this on average are not suggested
+    static final float MIN_AVERAGE = 3f;
+
+    // Same smoothing as the leaderboard, so a single 5-star vote does not outrank everything
+    private static final double PRIOR_MEAN = 3.0;
+    private static final double PRIOR_WEIGHT = 2.0;
+
+    /**
+     * One suggested dish. Immutable, so suggestions can be published through LiveData.
+     */
+    public static final class Suggestion {
+        private final String dishName;
+        private final String dishType;
+        private final int count;
+        private final float average;
+        private final float similarity;
+
+        Suggestion(String dishName, String dishType, int count, float average, float similarity) {
+            this.dishName = dishName;
+            this.dishType = dishType;
+            this.count = count;
+            this.average = average;
+            this.similarity = similarity;
+        }
+
+        public String getDishName() {
+            return dishName;
+        }
+
+        public String getDishType() {
+            return dishType;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public float getAverage() {
+            return average;
+        }
+
+        /**
+         * @return How similar the dish is to the one suggestions were asked for, from 0 to 1.
+         */
+        public float getSimilarity() {
+            return similarity;
+        }
+    }
+
+    /**
+     * The dishes suggested for one dish, best first.
+     */
+    public static final class Recommendations {
+        private final String dishName;
+        private final List<Suggestion> suggestions;
+
+        Recommendations(String dishName, List<Suggestion> suggestions) {
+            this.dishName = dishName;
+            this.suggestions = suggestions;
+        }
+
+        /**
+         * @return The name of the dish the suggestions are for, as it was asked for.
+         */
+        public String getDishName() {
+            return dishName;
+        }
+
+        public List<Suggestion> getSuggestions() {
+            return suggestions;
+        }
+    }
+
+    // Running totals and neighbours of one dish
+    private static final class Dish {
+        final int id;
+        final String key;
+        final String[] words;
+        String displayName;
+        String dishType;
+        int count;
+        double sum;
+        // Visits that count and contain this dish
+        int visits;
+        // Other dish id -> visits that count and contain both
+        final IntIntMap together = new IntIntMap();
+
+        Dish(int id, String key, String[] words) {
+            this.id = id;
+            this.key = key;
+            this.words = words;
+        }
+
+        double smoothedMean() {
+            return (PRIOR_MEAN * PRIOR_WEIGHT + sum) / (PRIOR_WEIGHT + count);
+        }
+    }
+
+    private final TimeZone timeZone;
+
+    // Dishes by key, and by id; ids of removed dishes are reused
+    private final Map<String, Dish> dishesByKey = new HashMap<>();
+    private Dish[] dishes = new Dish[16];
+    private final IntStack freeDishIds = new IntStack();
+    private int dishIdCount;
+
+    // Ids of the dishes with each word, as a set
+    private final Map<String, IntIntMap> dishesByWord = new HashMap<>();
+
+    // Window -> slot of its visit; each visit maps dish id -> ratings of that dish in the window
+    private final IntIntMap visitSlots = new IntIntMap();
+    private IntIntMap[] visits = new IntIntMap[16];
+    private final IntStack freeVisitSlots = new IntStack();
+    private int visitSlotCount;
+
+    public DishSimilarityIndex() {
+        this(TimeZone.getDefault());
+    }
+
+    DishSimilarityIndex(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    public void add(RatingViewModel.DishRating rating) {
+        String[] words = wordsOf(rating.getDishName());
+        if (words.length == 0) {
+            return;
+        }
+        String key = keyOf(words);
+        Dish dish = dishesByKey.get(key);
+        if (dish == null) {
+            dish = newDish(key, words);
+        }
+        dish.displayName = rating.getDishName().trim();
+        dish.dishType = rating.getDishType();
+        dish.count++;
+        dish.sum += rating.getRating();
+
+        IntIntMap visit = visitFor(windowOf(rating));
+        if (visit.increment(dish.id, 1) > 1) {
+            // The dish was already part of the visit
+            return;
+        }
+        if (visit.size() <= MAX_VISIT_DISHES) {
+            pairWithVisit(visit, dish, 1);
+        } else if (visit.size() == MAX_VISIT_DISHES + 1) {
+            // Too many dishes for a meal: the visit stops pairing the ones it had
+            countVisit(visit, dish.id, -1);
+        }
+    }
+
+    /**
+     * Removes a rating. Its name, type, rating and timestamp must be the ones it was added with.
+     */
+    public void remove(RatingViewModel.DishRating rating) {
+        String[] words = wordsOf(rating.getDishName());
+        if (words.length == 0) {
+            return;
+        }
+        Dish dish = dishesByKey.get(keyOf(words));
+        int window = windowOf(rating);
+        int slot = visitSlots.get(window) - 1;
+        if (dish == null || slot < 0) {
+            return;
+        }
+        IntIntMap visit = visits[slot];
+        int ratings = visit.get(dish.id);
+        if (ratings == 0) {
+            return;
+        }
+        if (ratings > 1) {
+            visit.increment(dish.id, -1);
+        } else {
+            int size = visit.size();
+            if (size <= MAX_VISIT_DISHES) {
+                pairWithVisit(visit, dish, -1);
+            }
+            visit.increment(dish.id, -1);
+            if (size == MAX_VISIT_DISHES + 1) {
+                // Back to the size of a meal: the remaining dishes pair again
+                countVisit(visit, IntIntMap.FREE, 1);
+            } else if (visit.size() == 0) {
+                visitSlots.increment(window, -(slot + 1));
+                visits[slot] = null;
+                freeVisitSlots.push(slot);
+            }
+        }
+
+        dish.count--;
+        dish.sum -= rating.getRating();
+        if (dish.count == 0) {
+            removeDish(dish);
+        }
+    }
+
+    public void clear() {
+        dishesByKey.clear();
+        Arrays.fill(dishes, null);
+        freeDishIds.clear();
+        dishIdCount = 0;
+        dishesByWord.clear();
+        visitSlots.clear();
+        Arrays.fill(visits, null);
+        freeVisitSlots.clear();
+        visitSlotCount = 0;
+    }
+
+    /**
+     * @param dishName The dish to find similar dishes for; matched by its words, in any order.
+     * @param limit The maximum number of suggestions.
+     * @return Up to limit dishes, best first, never including the dish itself. Empty if the dish
+     * has no ratings.
+     */
+    public Recommendations recommend(String dishName, int limit) {
+        String[] words = wordsOf(dishName);
+        Dish dish = words.length == 0 ? null : dishesByKey.get(keyOf(words));
+        if (dish == null || limit <= 0) {
+            return new Recommendations(dishName, Collections.<Suggestion>emptyList());
+        }
+
+        // Words shared with each dish that has any of this dish's words
+        IntIntMap sharedWords = new IntIntMap();
+        for (String word : dish.words) {
+            IntIntMap holders = dishesByWord.get(word);
+            for (int slot = 0; slot < holders.capacity(); slot++) {
+                int other = holders.keyAt(slot);
+                if (other != IntIntMap.FREE && other != dish.id) {
+                    sharedWords.increment(other, 1);
+                }
+            }
+        }
+
+        TopDishes top = new TopDishes(limit);
+        IntIntMap together = dish.together;
+        for (int slot = 0; slot < together.capacity(); slot++) {
+            int other = together.keyAt(slot);
+            if (other != IntIntMap.FREE) {
+                offer(top, dish, dishes[other], together.valueAt(slot), sharedWords.get(other));
+            }
+        }
+        for (int slot = 0; slot < sharedWords.capacity(); slot++) {
+            int other = sharedWords.keyAt(slot);
+            // Dishes eaten together were scored above, with their shared words
+            if (other != IntIntMap.FREE && together.get(other) == 0) {
+                offer(top, dish, dishes[other], 0, sharedWords.valueAt(slot));
+            }
+        }
+
+        List<Suggestion> suggestions = new ArrayList<>(top.size);
+        for (int i = 0; i < top.size; i++) {
+            Dish other = top.dishes[i];
+            suggestions.add(new Suggestion(other.displayName, other.dishType, other.count,
+                    (float) (other.sum / other.count), top.similarities[i]));
+        }
+        return new Recommendations(dishName, suggestions);
+    }
+
+    /**
+     * @return The number of distinct dishes with at least one rating.
+     */
+    public int getDishCount() {
+        return dishesByKey.size();
+    }
+
+    // Scores a candidate and keeps it if it is among the best so far
+    private static void offer(TopDishes top, Dish dish, Dish other, int visitsTogether, int sharedWords) {
+        if (other.sum < MIN_AVERAGE * other.count) {
+            return;
+        }
+        double similarity = 0;
+        if (visitsTogether > 0) {
+            similarity += visitsTogether / Math.sqrt((double) dish.visits * other.visits);
+        }
+        if (sharedWords > 0) {
+            similarity += NAME_WEIGHT * sharedWords / (double) (dish.words.length + other.words.length - sharedWords);
+        }
+        similarity /= 1 + NAME_WEIGHT;
+        top.offer(other, (float) similarity, similarity * other.smoothedMean());
+    }
+
+    // Adds or withdraws the pairs between a dish and the other dishes of a visit
+    private void pairWithVisit(IntIntMap visit, Dish dish, int delta) {
+        dish.visits += delta;
+        for (int slot = 0; slot < visit.capacity(); slot++) {
+            int other = visit.keyAt(slot);
+            if (other != IntIntMap.FREE && other != dish.id) {
+                dish.together.increment(other, delta);
+                dishes[other].together.increment(dish.id, delta);
+            }
+        }
+    }
+
+    // Adds or withdraws every pair of a visit's dishes, leaving out one dish id, or none for FREE
+    private void countVisit(IntIntMap visit, int excludedId, int delta) {
+        for (int slot = 0; slot < visit.capacity(); slot++) {
+            int id = visit.keyAt(slot);
+            if (id == IntIntMap.FREE || id == excludedId) {
+                continue;
+            }
+            Dish dish = dishes[id];
+            dish.visits += delta;
+            for (int otherSlot = slot + 1; otherSlot < visit.capacity(); otherSlot++) {
+                int other = visit.keyAt(otherSlot);
+                if (other != IntIntMap.FREE && other != excludedId) {
+                    dish.together.increment(other, delta);
+                    dishes[other].together.increment(id, delta);
+                }
+            }
+        }
+    }
+
+    private Dish newDish(String key, String[] words) {
+        int id = freeDishIds.isEmpty() ? dishIdCount++ : freeDishIds.pop();
+        if (id == dishes.length) {
+            dishes = Arrays.copyOf(dishes, id * 2);
+        }
+        Dish dish = new Dish(id, key, words);
+        dishes[id] = dish;
+        dishesByKey.put(key, dish);
+        for (String word : words) {
+            IntIntMap holders = dishesByWord.get(word);
+            if (holders == null) {
+                holders = new IntIntMap();
+                dishesByWord.put(word, holders);
+            }
+            holders.increment(id, 1);
+        }
+        return dish;
+    }
+
+    // Drops a dish whose last rating was removed; it is in no visit any more
+    private void removeDish(Dish dish) {
+        dishesByKey.remove(dish.key);
+        for (String word : dish.words) {
+            IntIntMap holders = dishesByWord.get(word);
+            if (holders.increment(dish.id, -1) == 0 && holders.size() == 0) {
+                dishesByWord.remove(word);
+            }
+        }
+        dishes[dish.id] = null;
+        freeDishIds.push(dish.id);
+    }
+
+    // The visit of a window, created if it has none; slots are stored plus one so 0 means absent
+    private IntIntMap visitFor(int window) {
+        int slot = visitSlots.get(window) - 1;
+        if (slot >= 0) {
+            return visits[slot];
+        }
+        slot = freeVisitSlots.isEmpty() ? visitSlotCount++ : freeVisitSlots.pop();
+        if (slot == visits.length) {
+            visits = Arrays.copyOf(visits, slot * 2);
+        }
+        IntIntMap visit = new IntIntMap();
+        visits[slot] = visit;
+        visitSlots.increment(window, slot + 1);
+        return visit;
+    }
+
+    private int windowOf(RatingViewModel.DishRating rating) {
+        long utcMillis = rating.getTimestamp();
+        return (int) Math.floorDiv(utcMillis + timeZone.getOffset(utcMillis), VISIT_WINDOW_MS);
+    }
+
+    /**
+     * @return The distinct normalized words of a dish name, sorted, so word order does not matter.
+     */
+    static String[] wordsOf(String dishName) {
+        String[] words = RatingSearchIndex.tokenize(dishName).toArray(new String[0]);
+        Arrays.sort(words);
+        int unique = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (unique == 0 || !words[unique - 1].equals(words[i])) {
+                words[unique++] = words[i];
+            }
+        }
+        return unique == words.length ? words : Arrays.copyOf(words, unique);
+    }
+
+    /**
+     * @return The words joined by single spaces; String.join needs API 26.
+     */
+    static String keyOf(String[] words) {
+        StringBuilder key = new StringBuilder();
+        for (String word : words) {
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+            key.append(word);
+        }
+        return key.toString();
+    }
+
+    // The best candidates seen so far, best first; insertion is linear in the limit, which is small
+    private static final class TopDishes {
+        final Dish[] dishes;
+        final float[] similarities;
+        final double[] scores;
+        int size;
+
+        TopDishes(int limit) {
+            dishes = new Dish[limit];
+            similarities = new float[limit];
+            scores = new double[limit];
+        }
+
+        void offer(Dish dish, float similarity, double score) {
+            if (score <= 0) {
+                return;
+            }
+            int position = size;
+            // Ties go to the key so the order does not depend on the order dishes were added in
+            while (position > 0 && (scores[position - 1] < score
+                    || scores[position - 1] == score && dishes[position - 1].key.compareTo(dish.key) > 0)) {
+                position--;
+            }
+            if (position == dishes.length) {
+                return;
+            }
+            int moved = Math.min(size, dishes.length - 1) - position;
+            System.arraycopy(dishes, position, dishes, position + 1, moved);
+            System.arraycopy(similarities, position, similarities, position + 1, moved);
+            System.arraycopy(scores, position, scores, position + 1, moved);
+            dishes[position] = dish;
+            similarities[position] = similarity;
+            scores[position] = score;
+            size = Math.min(size + 1, dishes.length);
+        }
+    }
+
+    // Growable stack of ints, for free ids and slots
+    private static final class IntStack {
+        int[] values = new int[8];
+        int size;
+
+        void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    /**
+     * Map from int keys, other than FREE, to int counts, with open addressing and linear probing.
+     * A key whose count drops to 0 is removed, shifting later entries of its probe run back so
+     * lookups never need tombstones.
+     */
+    private static final class IntIntMap {
+        static final int FREE = Integer.MIN_VALUE;
+
+        private int[] keys;
+        private int[] values;
+        private int size;
+
+        IntIntMap() {
+            keys = new int[4];
+            values = new int[4];
+            Arrays.fill(keys, FREE);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return The count of a key, 0 if it is absent.
+         */
+        int get(int key) {
+            int slot = slotOf(key);
+            return keys[slot] == FREE ? 0 : values[slot];
+        }
+
+        /**
+         * Adds delta to a key's count, inserting or removing the key as needed.
+         * @return The new count.
+         */
+        int increment(int key, int delta) {
+            int slot = slotOf(key);
+            if (keys[slot] == FREE) {
+                if (delta == 0) {
+                    return 0;
+                }
+                keys[slot] = key;
+                values[slot] = delta;
+                if (++size * 4 > keys.length * 3) {
+                    grow();
+                }
+                return delta;
+            }
+            int count = values[slot] + delta;
+            if (count == 0) {
+                removeSlot(slot);
+            } else {
+                values[slot] = count;
+            }
+            return count;
+        }
+
+        void clear() {
+            Arrays.fill(keys, FREE);
+            size = 0;
+        }
+
+        // Iteration: slots from 0 to capacity, skipping the FREE ones
+        int capacity() {
+            return keys.length;
+        }
+
+        int keyAt(int slot) {
+            return keys[slot];
+        }
+
+        int valueAt(int slot) {
+            return values[slot];
+        }
+
+        // The slot holding the key, or the free slot where it would go
+        private int slotOf(int key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != FREE && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void removeSlot(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (keys[next] != FREE) {
+                int home = hash(keys[next]) & mask;
+                // Move the entry back if the hole lies between its home slot and where it is now
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = FREE;
+            size--;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(keys, FREE);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int slot = slotOf(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
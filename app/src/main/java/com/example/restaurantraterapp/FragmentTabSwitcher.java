@@ -0,0 +1,131 @@
+package com.example.restaurantraterapp;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentManager;
+import androidx.fragment.app.FragmentTransaction;
+import androidx.lifecycle.Lifecycle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Switches the bottom navigation tabs inside one fragment container.
+ *
+ * Every tab fragment is added once and then only shown or hidden, so its view,
+ * RecyclerView, pooled ViewHolders and adapter survive a switch. The visible tab is capped at
+ * RESUMED and hidden tabs at STARTED, which keeps their views without resuming them. Tabs other
+ * than the first one shown are created hidden once the main thread is idle, so their inflation
+ * does not delay the first frame but has already happened by the time the user taps them.
+ */
+final class FragmentTabSwitcher {
+
+    /**
+     * Creates the fragment of a tab the first time it is needed.
+     */
+    interface TabFactory {
+        Fragment create();
+    }
+
+    private final FragmentManager fragmentManager;
+    private final int containerId;
+
+    // Tabs by fragment tag, in the order they were registered
+    private final Map<String, TabFactory> tabs = new LinkedHashMap<>();
+
+    // Tag of the tab currently shown, or null before the first switch
+    private String currentTag;
+
+    private boolean preloadScheduled;
+
+    FragmentTabSwitcher(@NonNull FragmentManager fragmentManager, int containerId) {
+        this.fragmentManager = fragmentManager;
+        this.containerId = containerId;
+    }
+
+    void addTab(String tag, TabFactory factory) {
+        tabs.put(tag, factory);
+    }
+
+    /**
+     * Picks up the tab the fragment manager restored after a configuration change or process
+     * death, so it is not added a second time.
+     */
+    void restore() {
+        for (String tag : tabs.keySet()) {
+            Fragment fragment = fragmentManager.findFragmentByTag(tag);
+            if (fragment != null && !fragment.isHidden()) {
+                currentTag = tag;
+            }
+        }
+        schedulePreload();
+    }
+
+    /**
+     * Shows the given tab, creating its fragment if this is the first time.
+     */
+    void switchTo(String tag) {
+        if (tag.equals(currentTag)) {
+            return;
+        }
+        FragmentTransaction transaction = fragmentManager.beginTransaction().setReorderingAllowed(true);
+        Fragment previous = currentTag == null ? null : fragmentManager.findFragmentByTag(currentTag);
+        if (previous != null) {
+            transaction.hide(previous).setMaxLifecycle(previous, Lifecycle.State.STARTED);
+        }
+        Fragment next = fragmentManager.findFragmentByTag(tag);
+        if (next == null) {
+            transaction.add(containerId, tabs.get(tag).create(), tag);
+        } else {
+            transaction.show(next).setMaxLifecycle(next, Lifecycle.State.RESUMED);
+        }
+        // Synchronous, so the next switch or preload already sees this tab's fragment
+        transaction.commitNow();
+        currentTag = tag;
+        schedulePreload();
+    }
+
+    String getCurrentTag() {
+        return currentTag;
+    }
+
+    // Creates the tabs that have not been shown yet, hidden, once the main thread has nothing else to do
+    private void schedulePreload() {
+        if (preloadScheduled) {
+            return;
+        }
+        preloadScheduled = true;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                preloadHiddenTabs();
+                return false;
+            }
+        });
+    }
+
+    private void preloadHiddenTabs() {
+        if (fragmentManager.isStateSaved() || fragmentManager.isDestroyed()) {
+            return;
+        }
+        FragmentTransaction transaction = null;
+        for (Map.Entry<String, TabFactory> tab : tabs.entrySet()) {
+            if (tab.getKey().equals(currentTag) || fragmentManager.findFragmentByTag(tab.getKey()) != null) {
+                continue;
+            }
+            if (transaction == null) {
+                transaction = fragmentManager.beginTransaction().setReorderingAllowed(true);
+            }
+            Fragment fragment = tab.getValue().create();
+            transaction.add(containerId, fragment, tab.getKey())
+                    .hide(fragment)
+                    .setMaxLifecycle(fragment, Lifecycle.State.STARTED);
+        }
+        if (transaction != null) {
+            transaction.commitNow();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.restaurantraterapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Posts sync batches to the backend over HTTP(S).
+ */
+public class HttpSyncTransport implements SyncTransport {
+
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private final URL endpoint;
+
+    public HttpSyncTransport(URL endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public int upload(String idempotencyKey, byte[] gzippedBody) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(gzippedBody.length);
+            connection.setRequestProperty("Content-Type", "application/x-ndjson; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("Idempotency-Key", idempotencyKey);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(gzippedBody);
+            }
+            int status = connection.getResponseCode();
+            // Drain the response so the connection can be reused
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                try (InputStream response = in) {
+                    byte[] buffer = new byte[1024];
+                    while (response.read(buffer) != -1) {
+                        // Discard
+                    }
+                }
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
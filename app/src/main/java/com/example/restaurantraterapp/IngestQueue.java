@@ -0,0 +1,142 @@
+package com.example.restaurantraterapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Lock-free multi-producer, single-consumer queue that hands its items to one applier in batches.
+ *
+ * Any thread may {@link #offer} items. Offering never blocks: it is one atomic swap of the tail
+ * node. The first item offered while no drain is pending schedules one on the applier's executor;
+ * later items ride along with it. The drain takes everything queued at that moment, up to
+ * maxBatchSize, and passes it to the applier as a single list, so a burst from many producers
+ * becomes one update instead of one per item. Items come out in the order their offers
+ * completed; items of one producer keep their relative order.
+ *
+ * The applier always runs on the given executor, one batch at a time, so the state it changes
+ * needs no locking as long as nothing else changes it from another thread.
+ */
+final class IngestQueue<T> {
+
+    /**
+     * Applies a batch of items. Runs on the queue's executor.
+     */
+    interface Applier<T> {
+        void apply(List<T> batch);
+    }
+
+    private static final class Node<T> {
+        // Class literals cannot carry type arguments, so the updater is declared on the raw type
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        T value;
+        volatile Node<T> next;
+
+        Node(T value) {
+            this.value = value;
+        }
+    }
+
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final Applier<T> applier;
+
+    // Last node; producers swap themselves in here
+    private final AtomicReference<Node<T>> tail;
+
+    // Node before the first queued item. Only the drain touches it.
+    private Node<T> head;
+
+    // True while a drain is scheduled or running and has not started taking items yet
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private final Runnable drain = this::drain;
+
+    /**
+     * @param executor Runs the applier; typically the main thread.
+     * @param maxBatchSize Most items per batch, so a huge backlog does not block the executor for
+     *                     long. Larger backlogs are applied over several drains.
+     */
+    IngestQueue(Executor executor, int maxBatchSize, Applier<T> applier) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+        this.applier = applier;
+        head = new Node<>(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Queues an item for the applier. Safe to call from any thread; never blocks.
+     */
+    void offer(T item) {
+        Node<T> node = new Node<>(item);
+        Node<T> previous = tail.getAndSet(node);
+        // Until this link is set the drain cannot see the node; it is then picked up by the drain
+        // scheduled below, since the flag is only checked after linking
+        Node.NEXT.lazySet(previous, node);
+        scheduleDrain();
+    }
+
+    /**
+     * Queues several items; they stay together unless the batch limit splits them.
+     */
+    void offerAll(List<? extends T> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        // Link the items among themselves first, then publish the whole chain with one swap
+        Node<T> first = new Node<>(items.get(0));
+        Node<T> last = first;
+        for (int i = 1; i < items.size(); i++) {
+            Node<T> node = new Node<>(items.get(i));
+            last.next = node;
+            last = node;
+        }
+        Node<T> previous = tail.getAndSet(last);
+        Node.NEXT.lazySet(previous, first);
+        scheduleDrain();
+    }
+
+    /**
+     * @return True if no item is waiting. Only meaningful on the applier's executor.
+     */
+    boolean isEmpty() {
+        return head.next == null;
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+    }
+
+    private void drain() {
+        // Cleared before taking items, so an item linked from now on schedules another drain
+        drainScheduled.set(false);
+        List<T> batch = new ArrayList<>();
+        Node<T> node = head;
+        Node<T> next;
+        while (batch.size() < maxBatchSize && (next = node.next) != null) {
+            batch.add(next.value);
+            next.value = null;
+            node = next;
+        }
+        head = node;
+        if (node.next != null) {
+            // More than one batch was waiting; give the executor a chance to run other work first
+            scheduleDrain();
+        }
+        if (!batch.isEmpty()) {
+            applier.apply(batch);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.restaurantraterapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory, lock-free histogram of latencies in nanoseconds, in the style of HdrHistogram.
+ *
+ * Values below 32 ns get a bucket each; above that every power of two is split into 16 linear
+ * sub-buckets, so a recorded value is off by at most 1/16 (about 6%). Values above 2^40 ns
+ * (about 18 minutes) land in the last bucket. All 608 counters are allocated up front, and
+ * recording is a few atomic increments, so {@link #record(long)} never allocates or blocks and
+ * can be called from any thread.
+ */
+public final class LatencyHistogram {
+
+    // Values below this are counted exactly
+    private static final int LINEAR_LIMIT = 32;
+    // Sub-buckets per power of two above LINEAR_LIMIT
+    private static final int SUB_BUCKETS = 16;
+    // log2 of LINEAR_LIMIT, the first exponent that is split into sub-buckets
+    private static final int FIRST_EXPONENT = 5;
+    // Highest exponent with its own buckets; larger values are clamped into the last bucket
+    private static final int LAST_EXPONENT = 40;
+
+    static final int BUCKET_COUNT = LINEAR_LIMIT + (LAST_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one latency. Negative values are counted as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        totalNanos.addAndGet(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since a System.nanoTime() reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /**
+     * Copies the counters. Recording may continue meanwhile, so the copy can be off by the
+     * values recorded while it was taken.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalNanos.get(), maxNanos.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > LAST_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        // The 4 bits below the leading one pick the sub-bucket
+        int subBucket = (int) (value >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    // Smallest value that falls into the bucket
+    static long lowestValueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = FIRST_EXPONENT + (bucket - LINEAR_LIMIT) / SUB_BUCKETS;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - 4);
+    }
+
+    // Largest value that falls into the bucket
+    static long highestValueOf(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowestValueOf(bucket + 1) - 1;
+    }
+
+    /**
+     * An immutable copy of a histogram's counters.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @param percentile Between 0 and 100.
+         * @return An upper bound for the given percentile, accurate to the bucket width.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        /**
+         * @return How many values fell into a bucket; see {@link #getBucketLowestNanos(int)}.
+         */
+        public long getCountInBucket(int bucket) {
+            return counts[bucket];
+        }
+
+        public long getBucketLowestNanos(int bucket) {
+            return lowestValueOf(bucket);
+        }
+
+        public int getBucketCount() {
+            return counts.length;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.restaurantraterapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Debug instrumentation for the path from a tap on "Submit" to the new row being bound.
+ *
+ * Each {@link Stage} records into its own LatencyHistogram. Instrumented code reads
+ * {@link #now()} at the start of a stage and passes it to {@link #record(Stage, long)} at the
+ * end; both are allocation-free and safe on any thread. The end-to-end stage is matched by
+ * rating id: {@link #markSubmitted(long, long)} remembers the last submitted rating and
+ * {@link #onBound(long)} records once that rating's row is bound.
+ *
+ * Read the results with {@link #snapshot(Stage)}, {@link #report()} or {@link #dump(File)}.
+ */
+public final class LatencyMetrics {
+
+    /**
+     * The timed stages, in the order they happen after a submit.
+     */
+    public enum Stage {
+        // RatingFragment's click handler, including the ViewModel update it triggers
+        SUBMIT,
+        // RatingViewModel.submitRating up to publishing the new list
+        VIEW_MODEL_UPDATE,
+        // LiveData.setValue of the new list, which runs the observers synchronously
+        LIVE_DATA_DISPATCH,
+        // RatingListDiffer computing the update, on its background thread
+        DIFF,
+        // RatingsAdapter.onBindViewHolder
+        BIND,
+        // From RatingViewModel.submitRating to the submitted rating's row being bound
+        SUBMIT_TO_BIND
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[STAGES.length];
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram();
+        }
+    }
+
+    // Lets the hooks be switched off entirely; they then cost one volatile read
+    private static volatile boolean enabled = true;
+
+    // Id and submit time of the last submitted rating whose row has not been bound yet, or -1
+    private static volatile long pendingId = -1;
+    private static volatile long pendingStartNanos;
+
+    private LatencyMetrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        LatencyMetrics.enabled = enabled;
+    }
+
+    /**
+     * @return The start time to pass to {@link #record(Stage, long)}, or 0 when disabled.
+     */
+    public static long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a value returned by {@link #now()}.
+     */
+    public static void record(Stage stage, long startNanos) {
+        if (enabled && startNanos != 0) {
+            HISTOGRAMS[stage.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records a duration that was measured elsewhere, e.g. by RatingListDiffer.
+     */
+    public static void recordDuration(Stage stage, long nanos) {
+        if (enabled) {
+            HISTOGRAMS[stage.ordinal()].record(nanos);
+        }
+    }
+
+    /**
+     * Starts the end-to-end measurement for a rating submitted at {@code startNanos}.
+     */
+    public static void markSubmitted(long ratingId, long startNanos) {
+        if (enabled && startNanos != 0) {
+            pendingStartNanos = startNanos;
+            pendingId = ratingId;
+        }
+    }
+
+    /**
+     * Called whenever a row is bound; finishes the end-to-end measurement if it is the submitted rating.
+     */
+    public static void onBound(long ratingId) {
+        if (ratingId == pendingId) {
+            long start = pendingStartNanos;
+            pendingId = -1;
+            record(Stage.SUBMIT_TO_BIND, start);
+        }
+    }
+
+    public static LatencyHistogram.Snapshot snapshot(Stage stage) {
+        return HISTOGRAMS[stage.ordinal()].snapshot();
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        pendingId = -1;
+    }
+
+    /**
+     * @return One line per stage with its count, mean, percentiles and maximum, in milliseconds.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%-20s %8s %9s %9s %9s %9s %9s%n",
+                "stage", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Stage stage : STAGES) {
+            LatencyHistogram.Snapshot snapshot = snapshot(stage);
+            report.append(String.format(Locale.ROOT, "%-20s %8d %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    stage.name(), snapshot.getCount(), snapshot.getMeanNanos() / 1e6,
+                    snapshot.getPercentileNanos(50) / 1e6, snapshot.getPercentileNanos(90) / 1e6,
+                    snapshot.getPercentileNanos(99) / 1e6, snapshot.getMaxNanos() / 1e6));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the report followed by the raw bucket counts of every stage, as
+     * "stage,bucketLowestNanos,count" lines for the non-empty buckets.
+     */
+    public static void dump(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(report());
+            writer.write("\nstage,bucketLowestNanos,count\n");
+            for (Stage stage : STAGES) {
+                LatencyHistogram.Snapshot snapshot = snapshot(stage);
+                for (int bucket = 0; bucket < snapshot.getBucketCount(); bucket++) {
+                    long count = snapshot.getCountInBucket(bucket);
+                    if (count > 0) {
+                        writer.write(stage.name() + "," + snapshot.getBucketLowestNanos(bucket) + "," + count + "\n");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -5,20 +5,23 @@ import android.view.MenuItem;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.fragment.app.Fragment;
-import androidx.fragment.app.FragmentManager;
-import androidx.fragment.app.FragmentTransaction;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.example.restaurantraterapp.databinding.ActivityMainBinding;
 
 public class MainActivity extends AppCompatActivity {
 
+    // Fragment tags of the bottom navigation tabs
+    static final String TAG_RESTAURANT = "restaurant";
+    static final String TAG_RATE = "rate";
+
     // using viewbinding object to access layout views.
     private ActivityMainBinding binding;
-    // Creates instances of fragments once to reuse them and preserve their state across switches
-    private final Fragment restaurantFragment = new RestaurantFragment();
-    private final Fragment dishRatingFragment = new RatingFragment();
+    // Keeps each tab's fragment and view alive across switches instead of recreating them
+    private FragmentTabSwitcher tabSwitcher;
+    // Rating rows shared by every list of ratings in this activity
+    private final RecyclerView.RecycledViewPool ratingViewPool = RatingsAdapter.createViewPool();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -27,56 +30,49 @@ public class MainActivity extends AppCompatActivity {
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
-        // This will set the initial fragment only if it's the first time running
+        tabSwitcher = new FragmentTabSwitcher(getSupportFragmentManager(), binding.fragmentContainer.getId());
+        tabSwitcher.addTab(TAG_RESTAURANT, RestaurantFragment::new);
+        tabSwitcher.addTab(TAG_RATE, RatingFragment::new);
+
+        // This will set the initial fragment only if it's the first time running; otherwise the
+        // fragment manager has already restored the tabs
         if (savedInstanceState == null) {
-            loadFragment(restaurantFragment);
+            tabSwitcher.switchTo(TAG_RESTAURANT);
+        } else {
+            tabSwitcher.restore();
         }
 
         // Bottom navigation listener to switch between fragments.
         setupBottomNavigationView();
     }
 
+    /**
+     * @return The pool of rating rows that the fragments' RecyclerViews share.
+     */
+    RecyclerView.RecycledViewPool getRatingViewPool() {
+        return ratingViewPool;
+    }
+
     /**
      * This function initializes the BottomNavigationView and handles navigation when items are clicked.
-     * It loads the corresponding fragment when a menu item is selected.
+     * It shows the corresponding tab when a menu item is selected.
      */
     private void setupBottomNavigationView() {
         binding.bottomNavigation.setOnItemSelectedListener(new BottomNavigationView.OnItemSelectedListener() {
             @Override
             public boolean onNavigationItemSelected(@NonNull MenuItem item) {
-                Fragment selectedFragment = null;
                 int itemId = item.getItemId();
 
-                // Determine which fragment to load based on the Bottom Navigation item ID
+                // Determine which tab to show based on the Bottom Navigation item ID
                 if (itemId == R.id.nav_restaurant) {
-                    selectedFragment = restaurantFragment;
+                    tabSwitcher.switchTo(TAG_RESTAURANT);
+                    return true;
                 } else if (itemId == R.id.nav_rate) {
-                    selectedFragment = dishRatingFragment;
-                }
-
-                // Load the selected fragment into the fragment container.
-                if (selectedFragment != null) {
-                    loadFragment(selectedFragment);
+                    tabSwitcher.switchTo(TAG_RATE);
                     return true;
                 }
                 return false;
             }
         });
     }
-
-
-    /**
-     * This function replaces the current fragment inside the fragment container
-     * with the one passed as a parameter
-     */
-    private void loadFragment(Fragment fragment) {
-        FragmentManager fragmentManager = getSupportFragmentManager();
-        FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
-
-        // Replace the fragment container with the new fragment
-        fragmentTransaction.replace(binding.fragmentContainer.getId(), fragment);
-
-        // Commit the transaction to apply the change
-        fragmentTransaction.commit();
-    }
 }
@@ -0,0 +1,462 @@
+package com.example.restaurantraterapp;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list with structural sharing, used as the value of RatingViewModel's ratings LiveData.
+ *
+ * Elements live in a counted B-tree with up to 32 entries per node. Every update copies only
+ * the nodes on the path from the root to the changed leaf and shares the rest with the previous
+ * version, so appends and index removals cost O(log n) time and garbage instead of the O(n) of
+ * copying an ArrayList. Each update returns a new instance, which is what LiveData needs to
+ * notice a change, and the list can be handed straight to ListAdapter.submitList().
+ *
+ * A removal that leaves a node with fewer than NODE_SIZE / 2 entries merges it with a neighbour,
+ * or evens out the two when they do not fit in one node, so a list that shrinks also gets
+ * shallower. Only the nodes on the right edge may stay less than half full, because appends
+ * split off a single element, so the tree is O(log n) deep whatever mix of updates built it.
+ *
+ * The mutating methods inherited from List throw UnsupportedOperationException; use
+ * {@link #plus(Object)}, {@link #plus(int, Object)} and {@link #minus(int)} instead.
+ *
+ * Leaves keep object references by default. A list created from a custom {@link LeafFactory}
+ * stores its leaves in that factory's layout instead (see RatingColumns).
+ */
+public final class PersistentList<E> extends AbstractList<E> implements RandomAccess {
+
+    // Maximum number of elements per leaf and children per branch
+    static final int NODE_SIZE = 32;
+
+    // Entries below which a node that lost one is rebalanced with a neighbour
+    private static final int MIN_ENTRIES = NODE_SIZE / 2;
+
+    /**
+     * Creates leaves in a particular storage layout.
+     */
+    interface LeafFactory {
+        Leaf leafOf(Object[] items, int from, int to);
+    }
+
+    // Default layout: leaves hold an Object[] of the elements
+    private static final LeafFactory OBJECT_LEAVES = (items, from, to) ->
+            new ObjectLeaf(Arrays.copyOfRange(items, from, to));
+
+    private static final PersistentList<Object> EMPTY = new PersistentList<>(OBJECT_LEAVES, null, 0);
+
+    // Layout used for every leaf of this list and the lists derived from it
+    private final LeafFactory leaves;
+    // Root of the tree, or null when the list is empty
+    private final Node root;
+    private final int size;
+
+    private PersistentList(LeafFactory leaves, Node root, int size) {
+        this.leaves = leaves;
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return The shared empty list.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentList<E> empty() {
+        return (PersistentList<E>) EMPTY;
+    }
+
+    /**
+     * @return An empty list whose leaves are created by the given factory.
+     */
+    static <E> PersistentList<E> empty(LeafFactory leaves) {
+        return new PersistentList<>(leaves, null, 0);
+    }
+
+    /**
+     * Builds a list holding the given elements in O(n), packing every node full.
+     */
+    public static <E> PersistentList<E> copyOf(Collection<? extends E> elements) {
+        if (elements instanceof PersistentList) {
+            @SuppressWarnings("unchecked")
+            PersistentList<E> list = (PersistentList<E>) elements;
+            return list;
+        }
+        return PersistentList.<E>empty().plusAll(elements);
+    }
+
+    /**
+     * @return A new list with the given elements appended, in the same leaf layout as this list.
+     */
+    public PersistentList<E> plusAll(Collection<? extends E> elements) {
+        if (elements.isEmpty()) {
+            return this;
+        }
+        if (elements.size() < size) {
+            // Small additions to a large list: path copying is cheaper than a rebuild
+            PersistentList<E> result = this;
+            for (E element : elements) {
+                result = result.plus(element);
+            }
+            return result;
+        }
+
+        // Otherwise rebuild the whole tree, packing the existing and new elements into full leaves
+        Object[] items = new Object[size + elements.size()];
+        int count = 0;
+        for (E element : this) {
+            items[count++] = element;
+        }
+        for (E element : elements) {
+            items[count++] = element;
+        }
+        Node[] level = new Node[(items.length + NODE_SIZE - 1) / NODE_SIZE];
+        for (int i = 0; i < level.length; i++) {
+            int from = i * NODE_SIZE;
+            level[i] = leaves.leafOf(items, from, Math.min(items.length, from + NODE_SIZE));
+        }
+
+        // Then group each level into branches until a single root is left
+        while (level.length > 1) {
+            Node[] parents = new Node[(level.length + NODE_SIZE - 1) / NODE_SIZE];
+            for (int i = 0; i < parents.length; i++) {
+                int from = i * NODE_SIZE;
+                parents[i] = new Branch(Arrays.copyOfRange(level, from, Math.min(level.length, from + NODE_SIZE)));
+            }
+            level = parents;
+        }
+        return new PersistentList<>(leaves, level[0], items.length);
+    }
+
+    /**
+     * @return An empty list with the same leaf layout as this list.
+     */
+    public PersistentList<E> cleared() {
+        if (root == null) {
+            return this;
+        }
+        return leaves == OBJECT_LEAVES ? PersistentList.<E>empty() : new PersistentList<>(leaves, null, 0);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        checkIndex(index, size);
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int child = branch.childFor(index);
+            index -= branch.offset(child);
+            node = branch.children[child];
+        }
+        return (E) ((Leaf) node).get(index);
+    }
+
+    /**
+     * @return A new list with the element appended at the end.
+     */
+    public PersistentList<E> plus(E element) {
+        return plus(size, element);
+    }
+
+    /**
+     * @return A new list with the element inserted at the given position.
+     */
+    public PersistentList<E> plus(int index, E element) {
+        checkIndex(index, size + 1);
+        if (root == null) {
+            return new PersistentList<>(leaves, leaves.leafOf(new Object[]{element}, 0, 1), 1);
+        }
+        Node[] result = insert(root, index, element);
+        Node newRoot = result.length == 1 ? result[0] : new Branch(result);
+        return new PersistentList<>(leaves, newRoot, size + 1);
+    }
+
+    /**
+     * @return A new list without the element at the given position.
+     */
+    public PersistentList<E> minus(int index) {
+        checkIndex(index, size);
+        Node newRoot = remove(root, index, leaves);
+        // Drop branches left with a single child so the tree does not stay taller than needed
+        while (newRoot instanceof Branch && ((Branch) newRoot).children.length == 1) {
+            newRoot = ((Branch) newRoot).children[0];
+        }
+        return newRoot == null ? cleared() : new PersistentList<>(leaves, newRoot, size - 1);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new LeafIterator();
+    }
+
+    /**
+     * @return The number of levels of the tree, 0 for the empty list.
+     */
+    int depth() {
+        int depth = 0;
+        for (Node node = root; node != null; node = node instanceof Branch ? ((Branch) node).children[0] : null) {
+            depth++;
+        }
+        return depth;
+    }
+
+    // Returns the updated node, or two nodes if it had to be split
+    private static Node[] insert(Node node, int index, Object element) {
+        if (node instanceof Leaf) {
+            Leaf updated = ((Leaf) node).inserted(index, element);
+            int length = updated.size();
+            if (length <= NODE_SIZE) {
+                return new Node[]{updated};
+            }
+            int split = splitPoint(index, length);
+            return new Node[]{updated.slice(0, split), updated.slice(split, length)};
+        }
+
+        Branch branch = (Branch) node;
+        int child = branch.childFor(Math.min(index, branch.size - 1));
+        Node[] replaced = insert(branch.children[child], index - branch.offset(child), element);
+        Node[] children = replaceChildren(branch.children, child, 1, replaced);
+        if (children.length <= NODE_SIZE) {
+            return new Node[]{new Branch(children)};
+        }
+        int split = splitPoint(child + 1, children.length);
+        return new Node[]{
+                new Branch(Arrays.copyOfRange(children, 0, split)),
+                new Branch(Arrays.copyOfRange(children, split, children.length))};
+    }
+
+    // Returns the updated node, or null if it became empty. The node itself may end up underfull;
+    // its parent rebalances it
+    private static Node remove(Node node, int index, LeafFactory leaves) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return leaf.size() == 1 ? null : leaf.removed(index);
+        }
+
+        Branch branch = (Branch) node;
+        int child = branch.childFor(index);
+        Node replaced = remove(branch.children[child], index - branch.offset(child), leaves);
+        Node[] children;
+        if (replaced == null) {
+            children = replaceChildren(branch.children, child, 1, new Node[0]);
+        } else if (entries(replaced) < MIN_ENTRIES && branch.children.length > 1) {
+            // Rebalance with the left neighbour, or with the right one for the first child
+            int first = child > 0 ? child - 1 : child;
+            Node[] pair = first < child
+                    ? new Node[]{branch.children[first], replaced}
+                    : new Node[]{replaced, branch.children[child + 1]};
+            children = replaceChildren(branch.children, first, 2, rebalanced(pair[0], pair[1], leaves));
+        } else {
+            children = replaceChildren(branch.children, child, 1, new Node[]{replaced});
+        }
+        return children.length == 0 ? null : new Branch(children);
+    }
+
+    // Merges two neighbouring nodes of the same height into one, or splits their entries evenly
+    // between two nodes when they do not fit in one
+    private static Node[] rebalanced(Node first, Node second, LeafFactory leaves) {
+        if (first instanceof Leaf) {
+            Leaf left = (Leaf) first;
+            Leaf right = (Leaf) second;
+            Object[] items = new Object[left.size() + right.size()];
+            for (int i = 0; i < left.size(); i++) {
+                items[i] = left.peek(i);
+            }
+            for (int i = 0; i < right.size(); i++) {
+                items[left.size() + i] = right.peek(i);
+            }
+            if (items.length <= NODE_SIZE) {
+                return new Node[]{leaves.leafOf(items, 0, items.length)};
+            }
+            int half = items.length / 2;
+            return new Node[]{leaves.leafOf(items, 0, half), leaves.leafOf(items, half, items.length)};
+        }
+
+        Node[] left = ((Branch) first).children;
+        Node[] right = ((Branch) second).children;
+        Node[] children = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, children, left.length, right.length);
+        if (children.length <= NODE_SIZE) {
+            return new Node[]{new Branch(children)};
+        }
+        int half = children.length / 2;
+        return new Node[]{
+                new Branch(Arrays.copyOfRange(children, 0, half)),
+                new Branch(Arrays.copyOfRange(children, half, children.length))};
+    }
+
+    // Elements of a leaf, or children of a branch
+    private static int entries(Node node) {
+        return node instanceof Branch ? ((Branch) node).children.length : node.size();
+    }
+
+    // Copies the child array with count children from the given slot replaced by the given nodes
+    private static Node[] replaceChildren(Node[] children, int slot, int count, Node[] replacement) {
+        Node[] updated = new Node[children.length - count + replacement.length];
+        System.arraycopy(children, 0, updated, 0, slot);
+        System.arraycopy(replacement, 0, updated, slot, replacement.length);
+        System.arraycopy(children, slot + count, updated, slot + replacement.length, children.length - slot - count);
+        return updated;
+    }
+
+    // Appends keep the left node full, so a list built by appending stays densely packed
+    private static int splitPoint(int insertedAt, int length) {
+        return insertedAt == length - 1 ? length - 1 : length / 2;
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + bound);
+        }
+    }
+
+    abstract static class Node {
+        abstract int size();
+    }
+
+    /**
+     * Holds up to NODE_SIZE elements. Leaves are immutable: every update returns a copy.
+     */
+    abstract static class Leaf extends Node {
+        abstract Object get(int index);
+
+        // Element for a one-off read such as iteration; a layout may build it without keeping it
+        Object peek(int index) {
+            return get(index);
+        }
+
+        // Returns a copy with the element inserted; it may briefly hold NODE_SIZE + 1 elements
+        abstract Leaf inserted(int index, Object element);
+
+        abstract Leaf removed(int index);
+
+        abstract Leaf slice(int from, int to);
+    }
+
+    private static final class ObjectLeaf extends Leaf {
+        final Object[] items;
+
+        ObjectLeaf(Object[] items) {
+            this.items = items;
+        }
+
+        @Override
+        int size() {
+            return items.length;
+        }
+
+        @Override
+        Object get(int index) {
+            return items[index];
+        }
+
+        @Override
+        Leaf inserted(int index, Object element) {
+            Object[] updated = new Object[items.length + 1];
+            System.arraycopy(items, 0, updated, 0, index);
+            updated[index] = element;
+            System.arraycopy(items, index, updated, index + 1, items.length - index);
+            return new ObjectLeaf(updated);
+        }
+
+        @Override
+        Leaf removed(int index) {
+            Object[] updated = new Object[items.length - 1];
+            System.arraycopy(items, 0, updated, 0, index);
+            System.arraycopy(items, index + 1, updated, index, items.length - index - 1);
+            return new ObjectLeaf(updated);
+        }
+
+        @Override
+        Leaf slice(int from, int to) {
+            return new ObjectLeaf(Arrays.copyOfRange(items, from, to));
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node[] children;
+        // ends[i] is the number of elements held by children 0..i
+        final int[] ends;
+        final int size;
+
+        Branch(Node[] children) {
+            this.children = children;
+            this.ends = new int[children.length];
+            int total = 0;
+            for (int i = 0; i < children.length; i++) {
+                total += children[i].size();
+                ends[i] = total;
+            }
+            this.size = total;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        int offset(int child) {
+            return child == 0 ? 0 : ends[child - 1];
+        }
+
+        // Binary search for the child holding the given index
+        int childFor(int index) {
+            int low = 0;
+            int high = ends.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] <= index) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    // Walks the list one leaf at a time instead of descending from the root for every element
+    private final class LeafIterator implements Iterator<E> {
+        private int index;
+        private Leaf leaf;
+        private int leafStart;
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (index >= size) {
+                throw new NoSuchElementException();
+            }
+            if (leaf == null || index - leafStart >= leaf.size()) {
+                findLeaf(index);
+            }
+            return (E) leaf.peek(index++ - leafStart);
+        }
+
+        private void findLeaf(int target) {
+            Node node = root;
+            int start = 0;
+            while (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                int child = branch.childFor(target - start);
+                start += branch.offset(child);
+                node = branch.children[child];
+            }
+            leaf = (Leaf) node;
+            leafStart = start;
+        }
+    }
+}
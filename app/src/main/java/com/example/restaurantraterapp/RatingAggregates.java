@@ -0,0 +1,284 @@
+package com.example.restaurantraterapp;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Running aggregates (count, sum, min/max and a 1-5 star histogram) over the submitted ratings,
+ * kept both overall and per dish type. Every update is O(1), so the summary shown in
+ * RestaurantFragment never needs a rescan of the full ratings list.
+ */
+public class RatingAggregates {
+
+    // Number of buckets in the star histogram (1 to 5 stars)
+    public static final int STAR_BUCKETS = 5;
+
+    // Ratings come from a RatingBar, or are rounded by toHalfStar when they come from elsewhere, so
+    // they always fall on a half-star step between 0.0 and 5.0. Counting each step separately lets
+    // min/max be recovered exactly after a removal.
+    private static final int HALF_STAR_SLOTS = 11;
+
+    // Mutable running totals for one group of ratings; RatingRollups keeps one per time bucket
+    static class Accumulator {
+        private int count;
+        private double sum;
+        private final int[] halfStarCounts = new int[HALF_STAR_SLOTS];
+
+        void add(float rating) {
+            count++;
+            sum += rating;
+            halfStarCounts[halfStarSlot(rating)]++;
+        }
+
+        void remove(float rating) {
+            count--;
+            sum -= rating;
+            halfStarCounts[halfStarSlot(rating)]--;
+            if (count == 0) {
+                // Reset the sum so floating point drift cannot leak into the next average
+                sum = 0;
+            }
+        }
+
+        // Adds another group's totals, e.g. to merge time buckets into a range
+        void addAll(Accumulator other) {
+            count += other.count;
+            sum += other.sum;
+            for (int slot = 0; slot < HALF_STAR_SLOTS; slot++) {
+                halfStarCounts[slot] += other.halfStarCounts[slot];
+            }
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        Stats toStats() {
+            if (count == 0) {
+                return Stats.EMPTY;
+            }
+            int[] stars = new int[STAR_BUCKETS];
+            int minSlot = -1;
+            int maxSlot = -1;
+            for (int slot = 0; slot < HALF_STAR_SLOTS; slot++) {
+                int slotCount = halfStarCounts[slot];
+                if (slotCount == 0) {
+                    continue;
+                }
+                if (minSlot < 0) {
+                    minSlot = slot;
+                }
+                maxSlot = slot;
+                stars[starBucket(slot / 2f) - 1] += slotCount;
+            }
+            return new Stats(count, sum, minSlot / 2f, maxSlot / 2f, stars);
+        }
+    }
+
+    /**
+     * Immutable view of the aggregates for one group of ratings.
+     */
+    public static final class Stats {
+        static final Stats EMPTY = new Stats(0, 0, 0f, 0f, new int[STAR_BUCKETS]);
+
+        private final int count;
+        private final double sum;
+        private final float min;
+        private final float max;
+        private final int[] starCounts;
+
+        Stats(int count, double sum, float min, float max, int[] starCounts) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+            this.starCounts = starCounts;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public float getMin() {
+            return min;
+        }
+
+        public float getMax() {
+            return max;
+        }
+
+        /**
+         * @return The average rating, or 0.0 if the group is empty.
+         */
+        public float getAverage() {
+            return count == 0 ? 0.0f : (float) (sum / count);
+        }
+
+        /**
+         * @param stars The histogram bucket, from 1 to 5.
+         * @return The number of ratings that fall into the given star bucket.
+         */
+        public int getStarCount(int stars) {
+            return starCounts[stars - 1];
+        }
+    }
+
+    /**
+     * Immutable snapshot of all aggregates, published through LiveData by RatingViewModel.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Stats.EMPTY, Collections.<String, Stats>emptyMap());
+
+        private final Stats overall;
+        private final Map<String, Stats> byDishType;
+
+        Snapshot(Stats overall, Map<String, Stats> byDishType) {
+            this.overall = overall;
+            this.byDishType = byDishType;
+        }
+
+        public Stats getOverall() {
+            return overall;
+        }
+
+        /**
+         * @return The aggregates for a single dish type, or empty stats if it has no ratings.
+         */
+        public Stats getDishTypeStats(String dishType) {
+            Stats stats = byDishType.get(dishType);
+            return stats != null ? stats : Stats.EMPTY;
+        }
+
+        public Set<String> getDishTypes() {
+            return byDishType.keySet();
+        }
+    }
+
+    private final Accumulator overall = new Accumulator();
+    // Insertion ordered so snapshots list dish types in the order they were first rated
+    private final Map<String, Accumulator> byDishType = new LinkedHashMap<>();
+
+    /**
+     * Adds a rating to the overall and per dish type totals.
+     */
+    public void add(RatingViewModel.DishRating rating) {
+        overall.add(rating.getRating());
+        Accumulator typeTotals = byDishType.get(rating.getDishType());
+        if (typeTotals == null) {
+            typeTotals = new Accumulator();
+            byDishType.put(rating.getDishType(), typeTotals);
+        }
+        typeTotals.add(rating.getRating());
+    }
+
+    /**
+     * Removes a previously added rating from the overall and per dish type totals.
+     */
+    public void remove(RatingViewModel.DishRating rating) {
+        overall.remove(rating.getRating());
+        Accumulator typeTotals = byDishType.get(rating.getDishType());
+        if (typeTotals != null) {
+            typeTotals.remove(rating.getRating());
+            if (typeTotals.count == 0) {
+                byDishType.remove(rating.getDishType());
+            }
+        }
+    }
+
+    /**
+     * Resets every total back to empty.
+     */
+    public void clear() {
+        overall.count = 0;
+        overall.sum = 0;
+        Arrays.fill(overall.halfStarCounts, 0);
+        byDishType.clear();
+    }
+
+    public int getCount() {
+        return overall.count;
+    }
+
+    public float getAverage() {
+        return overall.count == 0 ? 0.0f : (float) (overall.sum / overall.count);
+    }
+
+    /**
+     * Builds an immutable snapshot. Cost depends only on the number of dish types, not ratings.
+     */
+    public Snapshot snapshot() {
+        if (overall.count == 0) {
+            return Snapshot.EMPTY;
+        }
+        Map<String, Stats> typeStats = new LinkedHashMap<>();
+        for (Map.Entry<String, Accumulator> entry : byDishType.entrySet()) {
+            typeStats.put(entry.getKey(), entry.getValue().toStats());
+        }
+        return new Snapshot(overall.toStats(), Collections.unmodifiableMap(typeStats));
+    }
+
+    /**
+     * Combines the snapshots of separate groups of ratings, e.g. one per restaurant, into the
+     * snapshot of all of them. Cost depends on the number of snapshots and dish types only.
+     */
+    public static Snapshot combine(Collection<Snapshot> snapshots) {
+        Stats overall = Stats.EMPTY;
+        Map<String, Stats> typeStats = new LinkedHashMap<>();
+        for (Snapshot snapshot : snapshots) {
+            overall = combine(overall, snapshot.overall);
+            for (Map.Entry<String, Stats> entry : snapshot.byDishType.entrySet()) {
+                Stats previous = typeStats.get(entry.getKey());
+                typeStats.put(entry.getKey(), previous == null ? entry.getValue() : combine(previous, entry.getValue()));
+            }
+        }
+        if (overall.count == 0) {
+            return Snapshot.EMPTY;
+        }
+        return new Snapshot(overall, Collections.unmodifiableMap(typeStats));
+    }
+
+    private static Stats combine(Stats first, Stats second) {
+        if (first.count == 0) {
+            return second;
+        }
+        if (second.count == 0) {
+            return first;
+        }
+        int[] stars = new int[STAR_BUCKETS];
+        for (int i = 0; i < STAR_BUCKETS; i++) {
+            stars[i] = first.starCounts[i] + second.starCounts[i];
+        }
+        return new Stats(first.count + second.count, first.sum + second.sum,
+                Math.min(first.min, second.min), Math.max(first.max, second.max), stars);
+    }
+
+    /**
+     * Rounds a rating between 0 and 5 to the nearest half star, half-up. Ratings that do not come
+     * from a RatingBar, such as imports, go through this, so min and max always match a rating.
+     */
+    static float toHalfStar(float rating) {
+        return Math.round(rating * 2) / 2f;
+    }
+
+    // Maps a rating onto its half-star slot (0 to 10)
+    private static int halfStarSlot(float rating) {
+        int slot = Math.round(rating * 2);
+        return Math.max(0, Math.min(HALF_STAR_SLOTS - 1, slot));
+    }
+
+    /**
+     * Maps a rating onto its 1-5 star histogram bucket. Half stars round up and a
+     * zero rating is counted as one star.
+     */
+    static int starBucket(float rating) {
+        return Math.max(1, Math.min(STAR_BUCKETS, Math.round(rating)));
+    }
+}
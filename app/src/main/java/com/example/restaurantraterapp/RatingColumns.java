@@ -0,0 +1,151 @@
+package com.example.restaurantraterapp;
+
+import java.util.Arrays;
+
+/**
+ * Columnar leaf layout for a PersistentList of ratings.
+ *
+ * Instead of one DishRating object per rating, each leaf keeps its rows in primitive arrays:
+ * a long[] of rating ids, a float[] of ratings, a long[] of timestamps and int[] dictionary ids
+ * for the dish name and type. Names and types repeat heavily, so they are interned once in a shared StringDictionary.
+ * For a large history this retains a few bytes per row instead of an object plus two strings.
+ *
+ * {@link #get(int)} hands out a DishRating view built from the columns and caches it in the
+ * leaf, so a row read by position again (a bound list row, a page of RatingPagedList) is the same
+ * object, binding allocates nothing and its cached formatted text survives. Updated copies of a
+ * leaf keep the views of the rows they copy; an edited or inserted row gets a new view. Views are
+ * only kept for rows read by position: iterating the list builds throwaway views through
+ * {@link #peek(int)}, so a full scan (export, snapshot, search indexing) does not turn the columns
+ * back into one object per row.
+ */
+final class RatingColumns extends PersistentList.Leaf {
+
+    private final StringDictionary dictionary;
+    private final long[] ids;
+    private final float[] ratings;
+    private final long[] timestamps;
+    private final int[] nameIds;
+    private final int[] typeIds;
+    // Views handed out by get(), created on first access. Two threads racing on a row may each
+    // build one and the last stored wins; ratings are immutable, so either is correct.
+    private RatingViewModel.DishRating[] views;
+
+    private RatingColumns(StringDictionary dictionary, long[] ids, float[] ratings, long[] timestamps,
+                          int[] nameIds, int[] typeIds) {
+        this.dictionary = dictionary;
+        this.ids = ids;
+        this.ratings = ratings;
+        this.timestamps = timestamps;
+        this.nameIds = nameIds;
+        this.typeIds = typeIds;
+    }
+
+    /**
+     * @return An empty ratings list that stores its leaves as columns, interning
+     * names and types in the given dictionary.
+     */
+    static PersistentList<RatingViewModel.DishRating> emptyList(StringDictionary dictionary) {
+        return PersistentList.empty((items, from, to) -> {
+            int length = to - from;
+            RatingColumns leaf = allocate(dictionary, length);
+            for (int i = 0; i < length; i++) {
+                leaf.setRow(i, (RatingViewModel.DishRating) items[from + i]);
+            }
+            return leaf;
+        });
+    }
+
+    @Override
+    int size() {
+        return ratings.length;
+    }
+
+    @Override
+    Object get(int index) {
+        RatingViewModel.DishRating[] cached = views;
+        if (cached == null) {
+            cached = new RatingViewModel.DishRating[ratings.length];
+            views = cached;
+        }
+        RatingViewModel.DishRating view = cached[index];
+        if (view == null) {
+            view = view(index);
+            cached[index] = view;
+        }
+        return view;
+    }
+
+    @Override
+    Object peek(int index) {
+        RatingViewModel.DishRating[] cached = views;
+        RatingViewModel.DishRating view = cached == null ? null : cached[index];
+        return view != null ? view : view(index);
+    }
+
+    private RatingViewModel.DishRating view(int index) {
+        return new RatingViewModel.DishRating(ids[index], dictionary.get(nameIds[index]),
+                dictionary.get(typeIds[index]), ratings[index], timestamps[index]);
+    }
+
+    @Override
+    PersistentList.Leaf inserted(int index, Object element) {
+        RatingColumns updated = allocate(dictionary, ratings.length + 1);
+        updated.copyRows(this, 0, 0, index);
+        updated.setRow(index, (RatingViewModel.DishRating) element);
+        updated.copyRows(this, index, index + 1, ratings.length - index);
+        return updated;
+    }
+
+    @Override
+    PersistentList.Leaf removed(int index) {
+        int length = ratings.length - 1;
+        RatingColumns updated = allocate(dictionary, length);
+        updated.copyRows(this, 0, 0, index);
+        updated.copyRows(this, index + 1, index, length - index);
+        return updated;
+    }
+
+    @Override
+    PersistentList.Leaf slice(int from, int to) {
+        RatingColumns slice = new RatingColumns(dictionary,
+                Arrays.copyOfRange(ids, from, to),
+                Arrays.copyOfRange(ratings, from, to),
+                Arrays.copyOfRange(timestamps, from, to),
+                Arrays.copyOfRange(nameIds, from, to),
+                Arrays.copyOfRange(typeIds, from, to));
+        RatingViewModel.DishRating[] cached = views;
+        if (cached != null) {
+            slice.views = Arrays.copyOfRange(cached, from, to);
+        }
+        return slice;
+    }
+
+    private static RatingColumns allocate(StringDictionary dictionary, int length) {
+        return new RatingColumns(dictionary, new long[length], new float[length], new long[length],
+                new int[length], new int[length]);
+    }
+
+    // Only used while building a new leaf, before it is shared
+    private void setRow(int row, RatingViewModel.DishRating rating) {
+        ids[row] = rating.getId();
+        ratings[row] = rating.getRating();
+        timestamps[row] = rating.getTimestamp();
+        nameIds[row] = dictionary.intern(rating.getDishName());
+        typeIds[row] = dictionary.intern(rating.getDishType());
+    }
+
+    private void copyRows(RatingColumns source, int sourceRow, int targetRow, int count) {
+        System.arraycopy(source.ids, sourceRow, ids, targetRow, count);
+        System.arraycopy(source.ratings, sourceRow, ratings, targetRow, count);
+        System.arraycopy(source.timestamps, sourceRow, timestamps, targetRow, count);
+        System.arraycopy(source.nameIds, sourceRow, nameIds, targetRow, count);
+        System.arraycopy(source.typeIds, sourceRow, typeIds, targetRow, count);
+        RatingViewModel.DishRating[] cached = source.views;
+        if (cached != null && count > 0) {
+            if (views == null) {
+                views = new RatingViewModel.DishRating[ratings.length];
+            }
+            System.arraycopy(cached, sourceRow, views, targetRow, count);
+        }
+    }
+}
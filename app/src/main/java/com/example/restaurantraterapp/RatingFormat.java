@@ -0,0 +1,122 @@
+package com.example.restaurantraterapp;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats ratings with one decimal without going through String.format.
+ *
+ * Ratings and averages between 0.0 and 5.0 are looked up in tables of the 51 possible strings,
+ * built once per locale, so formatting them on the bind path allocates nothing. Other values
+ * are appended digit by digit. Rounding is half-up, like String.format("%.1f").
+ */
+public final class RatingFormat {
+
+    // Number of one-decimal values from 0.0 to 5.0
+    private static final int TABLE_SIZE = 51;
+
+    // Tables for the locale they were last built for
+    private static volatile Tables tables;
+
+    private RatingFormat() {
+    }
+
+    /**
+     * @return The value with one decimal, e.g. "4.5".
+     */
+    public static String oneDecimal(float value) {
+        int index = tableIndex(value);
+        if (index >= 0) {
+            return tables().oneDecimal[index];
+        }
+        return appendOneDecimal(new StringBuilder(8), value, separator()).toString();
+    }
+
+    /**
+     * @return The rating as shown on a list row, e.g. "4.5 stars".
+     */
+    public static String stars(float value) {
+        int index = tableIndex(value);
+        if (index >= 0) {
+            return tables().stars[index];
+        }
+        return appendOneDecimal(new StringBuilder(16), value, separator()).append(" stars").toString();
+    }
+
+    /**
+     * @return The average as shown in the summary line, e.g. "Avg: 4.5 ★".
+     */
+    public static String average(float value) {
+        int index = tableIndex(value);
+        if (index >= 0) {
+            return tables().average[index];
+        }
+        return appendOneDecimal(new StringBuilder("Avg: "), value, separator()).append(" ★").toString();
+    }
+
+    /**
+     * Appends the value with one decimal to a builder, for callers assembling longer text.
+     */
+    public static StringBuilder appendOneDecimal(StringBuilder builder, float value) {
+        int index = tableIndex(value);
+        if (index >= 0) {
+            return builder.append(tables().oneDecimal[index]);
+        }
+        return appendOneDecimal(builder, value, separator());
+    }
+
+    // Position of the value in the tables, or -1 if it rounds to something outside 0.0-5.0
+    private static int tableIndex(float value) {
+        // Negative values, including -0.0, keep their sign like String.format does
+        if (Float.floatToRawIntBits(value) < 0 || !(value <= 5.05f)) {
+            return -1;
+        }
+        // The float times ten is exact as a double, so this rounds the value itself half-up
+        long tenths = Math.round(value * 10.0);
+        return tenths < TABLE_SIZE ? (int) tenths : -1;
+    }
+
+    private static StringBuilder appendOneDecimal(StringBuilder builder, float value, char separator) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return builder.append(value);
+        }
+        long tenths = Math.round(Math.abs(value) * 10.0);
+        if (Float.floatToRawIntBits(value) < 0) {
+            builder.append('-');
+        }
+        return builder.append(tenths / 10).append(separator).append((char) ('0' + tenths % 10));
+    }
+
+    private static char separator() {
+        return tables().separator;
+    }
+
+    private static Tables tables() {
+        Tables current = tables;
+        Locale locale = Locale.getDefault();
+        if (current == null || current.locale != locale) {
+            current = new Tables(locale);
+            tables = current;
+        }
+        return current;
+    }
+
+    // Every one-decimal string from 0.0 to 5.0 in one locale
+    private static final class Tables {
+        final Locale locale;
+        final char separator;
+        final String[] oneDecimal = new String[TABLE_SIZE];
+        final String[] stars = new String[TABLE_SIZE];
+        final String[] average = new String[TABLE_SIZE];
+
+        Tables(Locale locale) {
+            this.locale = locale;
+            this.separator = DecimalFormatSymbols.getInstance(locale).getDecimalSeparator();
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                oneDecimal[i] = String.valueOf(i / 10) + separator + (char) ('0' + i % 10);
+                stars[i] = oneDecimal[i] + " stars";
+                average[i] = "Avg: " + oneDecimal[i] + " ★";
+            }
+        }
+    }
+}
@@ -89,6 +89,8 @@ public class RatingFragment extends Fragment {
      */
     private void setupSubmitButton() {
         binding.btnSubmitRating.setOnClickListener(v -> {
+            long start = LatencyMetrics.now();
+
             // Retrieving the entered dish name and rating value
             String dishName = binding.etDishName.getText().toString().trim();
             float rating = binding.ratingBar.getRating(); // RatingBar captures rating from 1.0 to 5.0
@@ -103,13 +105,14 @@ public class RatingFragment extends Fragment {
             viewModel.submitRating(dishName, selectedDishType, rating);
 
             // Display the entered information as a Toast (Requirement 3)
-            String toastMessage = String.format("Rating Submitted!\nDish: %s | Rating: %.1f stars",
-                    dishName, rating);
+            String toastMessage = "Rating Submitted!\nDish: " + dishName + " | Rating: " + RatingFormat.stars(rating);
             Toast.makeText(requireContext(), toastMessage, Toast.LENGTH_SHORT).show();
 
             // Clear inputs for next entry
             binding.etDishName.setText("");
             binding.ratingBar.setRating(3.0f); // Reset rating to a default of 3
+
+            LatencyMetrics.record(LatencyMetrics.Stage.SUBMIT, start);
         });
     }
 
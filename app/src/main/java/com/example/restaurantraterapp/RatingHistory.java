@@ -0,0 +1,152 @@
+package com.example.restaurantraterapp;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Undo and redo stacks of the changes a user made to one restaurant's ratings.
+ *
+ * Changes are never undone by rewriting the log. Undoing a change applies the change that
+ * reverses it, which is journaled and synced like any other: undoing a removal adds the rating
+ * back, undoing an edit edits it back. A rating added back this way gets a new id, because its
+ * old id may already be deleted on the backend and ids are never reused. The history records
+ * each such move in {@link #resolve}, so older changes still find the rating they refer to.
+ *
+ * The list is ordered by id, so a rating added back shows up at the end of the list rather than
+ * where it was removed from; it keeps its timestamp. Putting it back in place would take an order
+ * key of its own, stored next to the id in the journal, snapshots and uploads.
+ *
+ * Pushing and popping are O(1); the stacks keep at most {@link #MAX_DEPTH} changes and drop the
+ * oldest beyond that.
+ */
+final class RatingHistory {
+
+    // How many changes can be undone
+    static final int MAX_DEPTH = 100;
+
+    enum Kind { ADD, EDIT, REMOVE, REMOVE_ALL, CLEAR }
+
+    /**
+     * One user change. The ratings it holds keep the ids they had when the change was made;
+     * {@link #resolve} maps them to the ids they have now.
+     */
+    static final class Change {
+        final Kind kind;
+        // The rating before and after the change; before is null for an add, after for a removal
+        final RatingViewModel.DishRating before;
+        final RatingViewModel.DishRating after;
+        // Every rating a bulk removal or clear took out, sorted by id
+        final List<RatingViewModel.DishRating> ratings;
+
+        private Change(Kind kind, RatingViewModel.DishRating before, RatingViewModel.DishRating after,
+                       List<RatingViewModel.DishRating> ratings) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+            this.ratings = ratings;
+        }
+
+        static Change add(RatingViewModel.DishRating added) {
+            return new Change(Kind.ADD, null, added, null);
+        }
+
+        static Change edit(RatingViewModel.DishRating before, RatingViewModel.DishRating after) {
+            return new Change(Kind.EDIT, before, after, null);
+        }
+
+        static Change remove(RatingViewModel.DishRating removed) {
+            return new Change(Kind.REMOVE, removed, null, null);
+        }
+
+        static Change removeAll(List<RatingViewModel.DishRating> removed) {
+            return new Change(Kind.REMOVE_ALL, null, null, removed);
+        }
+
+        static Change clear(List<RatingViewModel.DishRating> cleared) {
+            return new Change(Kind.CLEAR, null, null, cleared);
+        }
+    }
+
+    private final ArrayDeque<Change> undo = new ArrayDeque<>();
+    private final ArrayDeque<Change> redo = new ArrayDeque<>();
+
+    // Ids of ratings that were added back under a new id, mapped to that id
+    private final Map<Long, Long> movedIds = new HashMap<>();
+
+    /**
+     * Records a new user change. Anything that was undone can no longer be redone.
+     */
+    void record(Change change) {
+        push(undo, change);
+        redo.clear();
+        if (undo.size() == 1) {
+            // Nothing older can refer to a moved id any more
+            movedIds.clear();
+        }
+    }
+
+    boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    /**
+     * @return The most recent change, or null if there is none. Pass it to {@link #undone} once it
+     * has been undone; a change that could not be undone is dropped.
+     */
+    Change popUndo() {
+        return undo.pollFirst();
+    }
+
+    void undone(Change change) {
+        push(redo, change);
+    }
+
+    /**
+     * @return The most recently undone change, or null if there is none. Pass it to
+     * {@link #redone} once it has been redone; a change that could not be redone is dropped.
+     */
+    Change popRedo() {
+        return redo.pollFirst();
+    }
+
+    void redone(Change change) {
+        push(undo, change);
+    }
+
+    /**
+     * Notes that the rating with an id was added back under a new id.
+     */
+    void moved(long oldId, long newId) {
+        movedIds.put(oldId, newId);
+    }
+
+    /**
+     * @return The id a rating has now, given the id it had when a change was recorded.
+     */
+    long resolve(long id) {
+        long current = id;
+        Long moved = movedIds.get(current);
+        while (moved != null) {
+            current = moved;
+            moved = movedIds.get(current);
+        }
+        if (current != id) {
+            // Shortcut a rating undone and redone many times straight to its latest id
+            movedIds.put(id, current);
+        }
+        return current;
+    }
+
+    private static void push(ArrayDeque<Change> stack, Change change) {
+        stack.addFirst(change);
+        if (stack.size() > MAX_DEPTH) {
+            stack.pollLast();
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package com.example.restaurantraterapp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal that persists RatingViewModel's ratings across process death.
+ *
+ * Every change to the ratings list is appended as one record through a FileChannel:
+ * <pre>
+ *   int  payload length
+ *   int  CRC32 of the payload
+ *   byte op (add, edit, remove or clear)
+ *   ...  op specific body: the rating for an add or edit, the rating id for a remove
+ * </pre>
+ * The journal is the event log of the ratings list: an edit record replaces the rating with the
+ * same id, and undoing a change is journaled as the change that reverses it.
+ * On startup the file is memory mapped and replayed in a single pass, which avoids the parsing
+ * cost of JSON or SQLite rows. A record that was only partly written when the process died
+ * fails its length or CRC check; replay stops there and the torn tail is truncated away.
+ *
+ * Edits, removals and clears leave dead records behind, so the journal is periodically rewritten
+ * as a snapshot holding only the live ratings, after which new records form the tail that is
+ * replayed on top of it (see {@link #shouldCompact()}).
+ */
+public class RatingJournal implements Closeable {
+
+    // Written at the start of every journal file ("RRJ2")
+    private static final int MAGIC = 0x52524A32;
+    private static final int FILE_HEADER_BYTES = 4;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    static final byte OP_ADD = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_CLEAR = 3;
+    static final byte OP_EDIT = 4;
+
+    // Strings are stored with an unsigned short length prefix
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int MAX_PAYLOAD_BYTES = 1 + 8 + 8 + 4 + 2 * (2 + MAX_STRING_BYTES);
+
+    // Compaction is skipped until at least this many records are dead, so small journals are left alone
+    private static final int COMPACT_MIN_DEAD_RECORDS = 1024;
+    // A snapshot is taken at the latest once this many dead records follow it, however many
+    // ratings are live, so replay never reads more than the live ratings plus this tail
+    static final int SNAPSHOT_INTERVAL_RECORDS = 64 * 1024;
+    // Compaction writes the rewritten journal in chunks of about this size
+    private static final int COMPACT_WRITE_CHUNK_BYTES = 64 * 1024;
+
+    /**
+     * One change to the ratings list, waiting to be appended.
+     */
+    public static final class Entry {
+        final byte op;
+        final RatingViewModel.DishRating rating;
+        final long id;
+
+        private Entry(byte op, RatingViewModel.DishRating rating, long id) {
+            this.op = op;
+            this.rating = rating;
+            this.id = id;
+        }
+
+        public static Entry add(RatingViewModel.DishRating rating) {
+            return new Entry(OP_ADD, rating, rating.getId());
+        }
+
+        public static Entry edit(RatingViewModel.DishRating rating) {
+            return new Entry(OP_EDIT, rating, rating.getId());
+        }
+
+        public static Entry remove(long id) {
+            return new Entry(OP_REMOVE, null, id);
+        }
+
+        public static Entry clear() {
+            return new Entry(OP_CLEAR, null, -1);
+        }
+
+        /**
+         * A clear made when throughId was the highest rating id. The journal record is the same
+         * as for {@link #clear()}; the id tells a snapshot of queued changes which ratings it hit.
+         */
+        public static Entry clear(long throughId) {
+            return new Entry(OP_CLEAR, null, throughId);
+        }
+    }
+
+    private final File file;
+    private FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    // Reused for encoding so that appends do not allocate a buffer per record
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(256);
+
+    // Number of records in the file, and how many ratings they add up to
+    private int recordCount;
+    private int liveCount;
+    // End of the last valid record found by the most recent replay
+    private long replayEnd;
+    // Highest rating id added by any replayed record, including ratings removed since
+    private long maxId;
+
+    public RatingJournal(File file) throws IOException {
+        this.file = file;
+        this.channel = openChannel(file);
+    }
+
+    /**
+     * Replays the journal and returns the ratings it holds, in submission order.
+     * A torn or corrupt tail is truncated so that new records are appended after the last good one.
+     */
+    public List<RatingViewModel.DishRating> load() throws IOException {
+        List<RatingViewModel.DishRating> ratings = replay();
+        long validEnd = replayEnd;
+        if (validEnd < channel.size()) {
+            // Drop the torn tail left by a write that did not complete
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+        liveCount = ratings.size();
+        return ratings;
+    }
+
+    // Maps the file and replays every valid record, leaving the end of the valid data in replayEnd
+    private List<RatingViewModel.DishRating> replay() throws IOException {
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+        // Removed ratings stay in the list, marked here, until the end of the replay; removing
+        // them one by one would shift the list on every record
+        BitSet removed = new BitSet();
+        long fileSize = channel.size();
+        recordCount = 0;
+        replayEnd = FILE_HEADER_BYTES;
+        if (fileSize > FILE_HEADER_BYTES) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a rating journal: " + file);
+            }
+            buffer.position(FILE_HEADER_BYTES);
+            while (readRecord(buffer, ratings, removed)) {
+                recordCount++;
+                replayEnd = buffer.position();
+            }
+        }
+        return withoutRemoved(ratings, removed);
+    }
+
+    private static List<RatingViewModel.DishRating> withoutRemoved(List<RatingViewModel.DishRating> ratings,
+                                                                   BitSet removed) {
+        if (removed.isEmpty()) {
+            return ratings;
+        }
+        List<RatingViewModel.DishRating> live = new ArrayList<>(ratings.size() - removed.cardinality());
+        for (int i = 0; i < ratings.size(); i++) {
+            if (!removed.get(i)) {
+                live.add(ratings.get(i));
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Appends a newly submitted rating.
+     */
+    public void appendAdd(RatingViewModel.DishRating rating) throws IOException {
+        append(Entry.add(rating));
+    }
+
+    /**
+     * Appends a new version of a rating, which replaces the rating with the same id.
+     */
+    public void appendEdit(RatingViewModel.DishRating rating) throws IOException {
+        append(Entry.edit(rating));
+    }
+
+    /**
+     * Appends the removal of the rating with the given id.
+     */
+    public void appendRemove(long id) throws IOException {
+        append(Entry.remove(id));
+    }
+
+    /**
+     * Appends the removal of every rating.
+     */
+    public void appendClear() throws IOException {
+        append(Entry.clear());
+    }
+
+    /**
+     * Appends a single change.
+     */
+    public void append(Entry entry) throws IOException {
+        int records = recordCount;
+        int live = liveCount;
+        try {
+            writeBuffer.clear();
+            encodeRecord(entry);
+            writeBuffered();
+        } catch (IOException | RuntimeException e) {
+            recordCount = records;
+            liveCount = live;
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a batch of changes with a single write and forces it to storage, so a whole
+     * batch costs one group commit instead of one per record. If it throws, nothing of the batch
+     * is kept, so the same batch can be committed again.
+     */
+    public void commit(List<Entry> batch) throws IOException {
+        int records = recordCount;
+        int live = liveCount;
+        long start = channel.position();
+        try {
+            writeBuffer.clear();
+            for (Entry entry : batch) {
+                encodeRecord(entry);
+            }
+            writeBuffered();
+            sync();
+        } catch (IOException | RuntimeException e) {
+            // The counts go back to what the file holds, and records written but not forced are
+            // cut off, so a retry does not append them twice
+            recordCount = records;
+            liveCount = live;
+            try {
+                if (channel.size() > start) {
+                    channel.truncate(start);
+                }
+                channel.position(start);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Forces appended records to storage. Records reach the OS page cache as soon as they are
+     * appended, which already survives the app process being killed; this also covers power loss.
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * @return The highest rating id found by {@link #load()}, or 0 for an empty journal. New ids
+     * should start above it so they keep increasing across restarts.
+     */
+    public long getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * @return True once there are enough dead records to matter and they either outnumber the live
+     * ratings or have reached {@link #SNAPSHOT_INTERVAL_RECORDS}. Replay then reads at most the
+     * live ratings plus one interval, and the rewrite costs a bounded amount per appended record.
+     */
+    public boolean shouldCompact() {
+        int deadRecords = recordCount - liveCount;
+        return deadRecords >= COMPACT_MIN_DEAD_RECORDS
+                && (deadRecords > liveCount || deadRecords >= SNAPSHOT_INTERVAL_RECORDS);
+    }
+
+    /**
+     * @return How many records a replay of the file would read.
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Rewrites the journal so that it only holds add records for the ratings that are still live,
+     * plus the removal of the highest id if that rating is gone.
+     * The live ratings are replayed from the journal itself, so compaction can run on whichever
+     * thread owns the journal without a copy of the in-memory list. The new file is written beside
+     * the old one and renamed over it, so a crash part way through leaves the old journal intact.
+     * If the rewrite fails the old journal stays open and appends carry on after its last record.
+     */
+    public void compact() throws IOException {
+        List<RatingViewModel.DishRating> liveRatings = replay();
+        File compacted = new File(file.getPath() + ".compact");
+        if (compacted.exists() && !compacted.delete()) {
+            throw new IOException("Could not delete " + compacted);
+        }
+
+        FileChannel previous = channel;
+        int records = recordCount;
+        int live = liveCount;
+        channel = openChannel(compacted);
+        recordCount = 0;
+        liveCount = 0;
+        boolean written = false;
+        try {
+            writeBuffer.clear();
+            for (RatingViewModel.DishRating rating : liveRatings) {
+                encodeRecord(Entry.add(rating));
+                if (writeBuffer.position() > COMPACT_WRITE_CHUNK_BYTES) {
+                    writeBuffered();
+                    writeBuffer.clear();
+                }
+            }
+            long lastLiveId = liveRatings.isEmpty() ? 0 : liveRatings.get(liveRatings.size() - 1).getId();
+            if (maxId > lastLiveId) {
+                // Keeps the highest id ever used, so ids of removed ratings are not reused after a restart
+                encodeRecord(Entry.remove(maxId));
+                liveCount = liveRatings.size();
+            }
+            writeBuffered();
+            channel.force(true);
+            written = true;
+        } finally {
+            channel.close();
+            if (!written) {
+                compacted.delete();
+                channel = previous;
+                recordCount = records;
+                liveCount = live;
+            }
+        }
+
+        previous.close();
+        if (!compacted.renameTo(file)) {
+            compacted.delete();
+            // The old journal was left untouched, so it is reopened as it was
+            channel = openChannel(file);
+            recordCount = records;
+            liveCount = live;
+            throw new IOException("Could not replace " + file);
+        }
+        channel = openChannel(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Opens the file for appending, writing the file header if it is new
+    private static FileChannel openChannel(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        if (channel.size() < FILE_HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+            header.putInt(MAGIC).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+        }
+        channel.position(channel.size());
+        return channel;
+    }
+
+    // Reads one record and applies it to the list. Returns false at the end of the valid data.
+    private boolean readRecord(ByteBuffer buffer, List<RatingViewModel.DishRating> ratings, BitSet removed) {
+        if (buffer.remaining() < RECORD_HEADER_BYTES) {
+            return false;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > MAX_PAYLOAD_BYTES || length > buffer.remaining()) {
+            buffer.position(start);
+            return false;
+        }
+
+        int payloadStart = buffer.position();
+        crc.reset();
+        for (int i = 0; i < length; i++) {
+            crc.update(buffer.get(payloadStart + i));
+        }
+        if ((int) crc.getValue() != checksum) {
+            buffer.position(start);
+            return false;
+        }
+
+        byte op = buffer.get();
+        if (op == OP_ADD || op == OP_EDIT) {
+            long id = buffer.getLong();
+            long timestamp = buffer.getLong();
+            float rating = buffer.getFloat();
+            String dishName = decode(buffer);
+            String dishType = decode(buffer);
+            RatingViewModel.DishRating decoded = new RatingViewModel.DishRating(id, dishName, dishType, rating, timestamp);
+            if (op == OP_ADD) {
+                ratings.add(decoded);
+                maxId = Math.max(maxId, id);
+            } else {
+                int position = RatingViewModel.indexOfId(ratings, id);
+                if (position >= 0 && !removed.get(position)) {
+                    ratings.set(position, decoded);
+                }
+            }
+        } else if (op == OP_REMOVE) {
+            long id = buffer.getLong();
+            // Removed ids count too, so they are never handed out again
+            maxId = Math.max(maxId, id);
+            int position = RatingViewModel.indexOfId(ratings, id);
+            if (position >= 0) {
+                removed.set(position);
+            }
+        } else if (op == OP_CLEAR) {
+            ratings.clear();
+            removed.clear();
+        }
+        buffer.position(payloadStart + length);
+        return true;
+    }
+
+    // Encodes one record after the records already in writeBuffer
+    private void encodeRecord(Entry entry) {
+        byte[] name = null;
+        byte[] type = null;
+        int payloadLength = 1;
+        if (entry.op == OP_ADD || entry.op == OP_EDIT) {
+            name = encode(entry.rating.getDishName());
+            type = encode(entry.rating.getDishType());
+            payloadLength += 8 + 8 + 4 + 2 + name.length + 2 + type.length;
+        } else if (entry.op == OP_REMOVE) {
+            payloadLength += 8;
+        }
+        ensureWriteCapacity(RECORD_HEADER_BYTES + payloadLength);
+
+        int recordStart = writeBuffer.position();
+        writeBuffer.position(recordStart + RECORD_HEADER_BYTES);
+        writeBuffer.put(entry.op);
+        if (entry.op == OP_ADD || entry.op == OP_EDIT) {
+            writeBuffer.putLong(entry.rating.getId());
+            writeBuffer.putLong(entry.rating.getTimestamp());
+            writeBuffer.putFloat(entry.rating.getRating());
+            writeBuffer.putShort((short) name.length).put(name);
+            writeBuffer.putShort((short) type.length).put(type);
+            if (entry.op == OP_ADD) {
+                liveCount++;
+            }
+        } else if (entry.op == OP_REMOVE) {
+            writeBuffer.putLong(entry.id);
+            liveCount--;
+        } else {
+            liveCount = 0;
+        }
+
+        crc.reset();
+        crc.update(writeBuffer.array(), recordStart + RECORD_HEADER_BYTES, payloadLength);
+        writeBuffer.putInt(recordStart, payloadLength);
+        writeBuffer.putInt(recordStart + 4, (int) crc.getValue());
+        recordCount++;
+    }
+
+    // Grows writeBuffer, keeping the records already encoded into it
+    private void ensureWriteCapacity(int needed) {
+        if (writeBuffer.remaining() >= needed) {
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(writeBuffer.position() + needed, writeBuffer.capacity() * 2));
+        writeBuffer.flip();
+        grown.put(writeBuffer);
+        writeBuffer = grown;
+    }
+
+    // Writes the encoded records at the end of the file. If the write fails part way, the file is
+    // cut back to where it was, so a torn record cannot end the replay before records appended later.
+    private void writeBuffered() throws IOException {
+        long start = channel.position();
+        writeBuffer.flip();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Value too long to journal: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
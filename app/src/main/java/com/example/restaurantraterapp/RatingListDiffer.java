@@ -0,0 +1,288 @@
+package com.example.restaurantraterapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes list updates for RatingsAdapter on a background executor, like AsyncListDiffer,
+ * with a fast path for the common case of ratings being added or removed in one place.
+ *
+ * When the new list differs from the current one by one contiguous block of inserted or removed
+ * rows (a submitted rating, an imported batch), the differ finds that block in one linear pass and
+ * dispatches a precise insert or remove instead of running a full Myers diff. Anything else falls
+ * back to DiffUtil. Every diff reports its duration and list sizes to an optional {@link DiffListener}.
+ *
+ * Lists may contain null placeholders (see RatingPagedList); two placeholders count as the same
+ * unchanged row. A paged list over a snapshot is diffed on all of the snapshot's rows, so a row
+ * that is loaded in one list and a placeholder in the other is not mistaken for a change. Other
+ * paged lists are snapshotted before they are diffed, since their pages keep loading on the main
+ * thread while the diff runs.
+ *
+ * Each differ keeps at most one diff waiting for the executor: a submission made while an earlier
+ * one is still queued replaces it, since the older result would be ignored anyway. Differs sharing
+ * the executor never drop each other's diffs.
+ */
+class RatingListDiffer {
+
+    /**
+     * Metrics hook called on the main thread after each diff is dispatched.
+     */
+    public interface DiffListener {
+        void onDiffDispatched(int oldSize, int newSize, long durationNanos, boolean fastPath);
+    }
+
+    // Shared diff executor: one thread for every differ. Its queue holds at most one task per differ,
+    // since each differ coalesces its own submissions into pendingDiff.
+    private static Executor diffExecutor;
+
+    private final ListUpdateCallback updateCallback;
+    private final AsyncDifferConfig<RatingViewModel.DishRating> config;
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private List<RatingViewModel.DishRating> currentList = Collections.emptyList();
+    // Incremented on every submission so that results of superseded diffs are ignored
+    private int maxScheduledGeneration;
+    // The newest diff not yet started; a task is queued on the executor only while this was empty
+    private final AtomicReference<Runnable> pendingDiff = new AtomicReference<>();
+    private DiffListener diffListener;
+
+    RatingListDiffer(@NonNull ListUpdateCallback updateCallback,
+                     @NonNull AsyncDifferConfig<RatingViewModel.DishRating> config) {
+        this.updateCallback = updateCallback;
+        this.config = config;
+    }
+
+    /**
+     * @return A differ config that runs diffs on the shared diff executor.
+     */
+    static AsyncDifferConfig<RatingViewModel.DishRating> defaultConfig(
+            @NonNull DiffUtil.ItemCallback<RatingViewModel.DishRating> itemCallback) {
+        return new AsyncDifferConfig.Builder<>(itemCallback)
+                .setBackgroundThreadExecutor(sharedDiffExecutor())
+                .build();
+    }
+
+    private static synchronized Executor sharedDiffExecutor() {
+        if (diffExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "RatingListDiffer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            diffExecutor = executor;
+        }
+        return diffExecutor;
+    }
+
+    void setDiffListener(DiffListener diffListener) {
+        this.diffListener = diffListener;
+    }
+
+    List<RatingViewModel.DishRating> getCurrentList() {
+        return currentList;
+    }
+
+    /**
+     * Replaces the current list. Must be called on the main thread; updates are dispatched
+     * on the main thread once computed.
+     */
+    void submitList(List<RatingViewModel.DishRating> newList) {
+        final int generation = ++maxScheduledGeneration;
+        if (newList == null) {
+            newList = Collections.emptyList();
+        }
+        if (newList == currentList) {
+            return;
+        }
+
+        final List<RatingViewModel.DishRating> oldList = diffRows(currentList);
+        // Inserting into or clearing an empty list needs no diff at all
+        if (oldList.isEmpty() || newList.isEmpty()) {
+            pendingDiff.set(null);
+            currentList = newList;
+            if (!oldList.isEmpty()) {
+                updateCallback.onRemoved(0, oldList.size());
+            } else {
+                updateCallback.onInserted(0, newList.size());
+            }
+            reportDiff(oldList.size(), newList.size(), 0, true);
+            return;
+        }
+
+        final List<RatingViewModel.DishRating> submitted = newList;
+        final List<RatingViewModel.DishRating> newRows = diffRows(newList);
+        Runnable diff = () -> {
+            long start = System.nanoTime();
+            DiffUtil.ItemCallback<RatingViewModel.DishRating> itemCallback = config.getDiffCallback();
+            int inserted = -1;
+            int removed = -1;
+            DiffUtil.DiffResult result = null;
+            if (newRows.size() > oldList.size()) {
+                inserted = findInsertedRange(oldList, newRows, itemCallback);
+            } else if (newRows.size() < oldList.size()) {
+                removed = findInsertedRange(newRows, oldList, itemCallback);
+            }
+            if (inserted < 0 && removed < 0) {
+                result = DiffUtil.calculateDiff(new ListCallback(oldList, newRows, itemCallback));
+            }
+            long duration = System.nanoTime() - start;
+            LatencyMetrics.recordDuration(LatencyMetrics.Stage.DIFF, duration);
+
+            final int insertedAt = inserted;
+            final int removedAt = removed;
+            final DiffUtil.DiffResult diffResult = result;
+            mainThreadHandler.post(() -> {
+                if (generation != maxScheduledGeneration) {
+                    return;
+                }
+                currentList = submitted;
+                if (insertedAt >= 0) {
+                    updateCallback.onInserted(insertedAt, submitted.size() - oldList.size());
+                } else if (removedAt >= 0) {
+                    updateCallback.onRemoved(removedAt, oldList.size() - submitted.size());
+                } else {
+                    diffResult.dispatchUpdatesTo(updateCallback);
+                }
+                reportDiff(oldList.size(), submitted.size(), duration, diffResult == null);
+            });
+        };
+        if (pendingDiff.getAndSet(diff) == null) {
+            config.getBackgroundThreadExecutor().execute(this::runPendingDiff);
+        }
+    }
+
+    // Runs on the diff executor: takes the newest diff submitted since this task was queued
+    private void runPendingDiff() {
+        Runnable diff = pendingDiff.getAndSet(null);
+        if (diff != null) {
+            diff.run();
+        }
+    }
+
+    // The rows a list is diffed on, safe to read on the diff executor
+    private static List<RatingViewModel.DishRating> diffRows(List<RatingViewModel.DishRating> list) {
+        if (!(list instanceof RatingPagedList)) {
+            return list;
+        }
+        RatingPagedList pagedList = (RatingPagedList) list;
+        List<RatingViewModel.DishRating> rows = pagedList.getSourceRows();
+        return rows != null ? rows : pagedList.snapshot();
+    }
+
+    private void reportDiff(int oldSize, int newSize, long durationNanos, boolean fastPath) {
+        if (diffListener != null) {
+            diffListener.onDiffDispatched(oldSize, newSize, durationNanos, fastPath);
+        }
+    }
+
+    /**
+     * Checks whether {@code longer} equals {@code shorter} with one contiguous block of extra rows,
+     * such as a single submitted rating or an imported batch, comparing both ids and contents in
+     * a single pass.
+     * @return The position of the first extra row in {@code longer}, or -1 if the lists differ in any other way.
+     */
+    static <T> int findInsertedRange(List<T> shorter, List<T> longer, DiffUtil.ItemCallback<T> itemCallback) {
+        int extra = longer.size() - shorter.size();
+        if (extra < 1) {
+            return -1;
+        }
+        Iterator<T> longerItems = longer.iterator();
+        int insertedAt = -1;
+        int position = 0;
+        for (T expected : shorter) {
+            T item = longerItems.next();
+            if (insertedAt < 0 && !areItemsTheSame(itemCallback, expected, item)) {
+                // The block starts here; skip over it and carry on matching after it
+                insertedAt = position;
+                for (int i = 1; i < extra; i++) {
+                    longerItems.next();
+                }
+                item = longerItems.next();
+                position += extra;
+            }
+            if (!areItemsTheSame(itemCallback, expected, item) || !areContentsTheSame(itemCallback, expected, item)) {
+                return -1;
+            }
+            position++;
+        }
+        return insertedAt < 0 ? position : insertedAt;
+    }
+
+    // Placeholders only match other placeholders
+    private static <T> boolean areItemsTheSame(DiffUtil.ItemCallback<T> itemCallback, T oldItem, T newItem) {
+        if (oldItem == null || newItem == null) {
+            return oldItem == newItem;
+        }
+        return itemCallback.areItemsTheSame(oldItem, newItem);
+    }
+
+    private static <T> boolean areContentsTheSame(DiffUtil.ItemCallback<T> itemCallback, T oldItem, T newItem) {
+        if (oldItem == null || newItem == null) {
+            return oldItem == newItem;
+        }
+        return itemCallback.areContentsTheSame(oldItem, newItem);
+    }
+
+    // Adapts two lists to DiffUtil for the general case
+    private static final class ListCallback extends DiffUtil.Callback {
+        private final List<RatingViewModel.DishRating> oldList;
+        private final List<RatingViewModel.DishRating> newList;
+        private final DiffUtil.ItemCallback<RatingViewModel.DishRating> itemCallback;
+
+        ListCallback(List<RatingViewModel.DishRating> oldList, List<RatingViewModel.DishRating> newList,
+                     DiffUtil.ItemCallback<RatingViewModel.DishRating> itemCallback) {
+            this.oldList = oldList;
+            this.newList = newList;
+            this.itemCallback = itemCallback;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return RatingListDiffer.areItemsTheSame(itemCallback,
+                    oldList.get(oldItemPosition), newList.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return RatingListDiffer.areContentsTheSame(itemCallback,
+                    oldList.get(oldItemPosition), newList.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            RatingViewModel.DishRating oldItem = oldList.get(oldItemPosition);
+            RatingViewModel.DishRating newItem = newList.get(newItemPosition);
+            if (oldItem == null || newItem == null) {
+                return null;
+            }
+            return itemCallback.getChangePayload(oldItem, newItem);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.restaurantraterapp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads pages of ratings for RatingPagedList, in ascending id order.
+ *
+ * Sequential pages are fetched by key (the id of the last or first loaded rating), so a page
+ * boundary never skips or repeats a row. Loading by position is only used for the first page
+ * and when the user jumps far away from the loaded window.
+ */
+public interface RatingPageSource {
+
+    /**
+     * @return The total number of ratings, used to size the placeholders.
+     */
+    int count();
+
+    /**
+     * @return Up to {@code size} ratings starting at the given position.
+     */
+    List<RatingViewModel.DishRating> loadRange(int position, int size);
+
+    /**
+     * @return Up to {@code size} ratings with ids greater than {@code afterId}.
+     */
+    List<RatingViewModel.DishRating> loadAfter(long afterId, int size);
+
+    /**
+     * @return Up to {@code size} ratings with ids less than {@code beforeId}, still in ascending order.
+     */
+    List<RatingViewModel.DishRating> loadBefore(long beforeId, int size);
+
+    /**
+     * Pages over an immutable list sorted by id, such as a value of RatingViewModel's ratings LiveData.
+     */
+    final class Snapshot implements RatingPageSource {
+        private final List<RatingViewModel.DishRating> ratings;
+
+        public Snapshot(List<RatingViewModel.DishRating> ratings) {
+            this.ratings = ratings == null ? Collections.<RatingViewModel.DishRating>emptyList() : ratings;
+        }
+
+        // Every rating of the snapshot, which is immutable and so safe to read from any thread
+        List<RatingViewModel.DishRating> getRatings() {
+            return ratings;
+        }
+
+        @Override
+        public int count() {
+            return ratings.size();
+        }
+
+        @Override
+        public List<RatingViewModel.DishRating> loadRange(int position, int size) {
+            int from = Math.max(0, Math.min(position, ratings.size()));
+            return copy(from, Math.min(ratings.size(), from + size));
+        }
+
+        @Override
+        public List<RatingViewModel.DishRating> loadAfter(long afterId, int size) {
+            int from = firstIndexAbove(afterId);
+            return copy(from, Math.min(ratings.size(), from + size));
+        }
+
+        @Override
+        public List<RatingViewModel.DishRating> loadBefore(long beforeId, int size) {
+            int to = firstIndexAbove(beforeId - 1);
+            return copy(Math.max(0, to - size), to);
+        }
+
+        // Binary search for the first rating whose id is greater than the given one
+        private int firstIndexAbove(long id) {
+            int low = 0;
+            int high = ratings.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ratings.get(mid).getId() <= id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Copies the rows out so a page does not keep the whole snapshot reachable
+        private List<RatingViewModel.DishRating> copy(int from, int to) {
+            RatingViewModel.DishRating[] page = new RatingViewModel.DishRating[Math.max(0, to - from)];
+            for (int i = 0; i < page.length; i++) {
+                page[i] = ratings.get(from + i);
+            }
+            return Arrays.asList(page);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.restaurantraterapp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A list of ratings that only keeps a bounded window of pages in memory.
+ *
+ * The list reports the full number of ratings, and positions outside the loaded window return
+ * null placeholders so the scrollbar and positions stay stable. RatingsAdapter calls
+ * {@link #loadAround(int)} as rows are bound: pages within the prefetch distance are fetched by
+ * key on the fetch executor, applied on the notify executor, and the page furthest from the
+ * user is dropped back to placeholders once the window holds more than the configured number
+ * of pages. Jumping far outside the window reloads it around the new position.
+ *
+ * All methods except {@link #get(int)} on a {@link #snapshot()} must be called on the notify
+ * executor's thread, normally the main thread.
+ */
+public final class RatingPagedList extends AbstractList<RatingViewModel.DishRating> implements RandomAccess {
+
+    /**
+     * Page size, prefetch distance and window size, in rows and pages.
+     */
+    public static final class Config {
+        public static final Config DEFAULT = new Config(20, 20, 6);
+
+        final int pageSize;
+        final int prefetchDistance;
+        final int maxPages;
+
+        public Config(int pageSize, int prefetchDistance, int maxPages) {
+            if (pageSize <= 0 || prefetchDistance < 0 || prefetchDistance > pageSize) {
+                throw new IllegalArgumentException("Prefetch distance must be between 0 and the page size");
+            }
+            // The initial load is three pages, and one more must fit before a page is dropped
+            if (maxPages < 4) {
+                throw new IllegalArgumentException("The window must hold at least 4 pages");
+            }
+            this.pageSize = pageSize;
+            this.prefetchDistance = prefetchDistance;
+            this.maxPages = maxPages;
+        }
+    }
+
+    /**
+     * Told about rows that were loaded or dropped back to placeholders. The size never changes.
+     */
+    public interface Callback {
+        void onRangeChanged(int position, int count);
+    }
+
+    // Shared fetch executor for every paged list; pages come from memory so one thread is plenty
+    private static Executor fetchExecutor;
+
+    private final RatingPageSource source;
+    private final Config config;
+    private final Executor pageFetchExecutor;
+    private final Executor notifyExecutor;
+    // Total number of rows including placeholders, fixed for the life of the list
+    private final int size;
+    // Snapshots are frozen copies that never load
+    private final boolean frozen;
+
+    // Loaded pages, covering the contiguous positions windowStart..windowEnd-1
+    private final List<List<RatingViewModel.DishRating>> pages;
+    private int windowStart;
+    private int windowEnd;
+    private boolean loadingBefore;
+    private boolean loadingAfter;
+    // Incremented when the window is reloaded so that fetches for the old window are ignored
+    private int generation;
+    // Start of the window being loaded by a jump, or -1 when no jump is in flight
+    private int jumpStart = -1;
+    private int lastAccessed;
+    private Callback callback;
+
+    /**
+     * Creates the list and synchronously loads the pages around the initial position.
+     */
+    public RatingPagedList(RatingPageSource source, Config config, int initialPosition,
+                           Executor fetchExecutor, Executor notifyExecutor) {
+        this.source = source;
+        this.config = config;
+        this.pageFetchExecutor = fetchExecutor;
+        this.notifyExecutor = notifyExecutor;
+        this.size = source.count();
+        this.frozen = false;
+        this.pages = new ArrayList<>();
+
+        int start = initialLoadStart(initialPosition);
+        replaceWindow(start, source.loadRange(start, initialLoadSize()));
+        lastAccessed = Math.max(0, Math.min(initialPosition, size - 1));
+    }
+
+    // Copy constructor used by snapshot()
+    private RatingPagedList(RatingPagedList list) {
+        this.source = list.source;
+        this.config = list.config;
+        this.pageFetchExecutor = list.pageFetchExecutor;
+        this.notifyExecutor = list.notifyExecutor;
+        this.size = list.size;
+        this.frozen = true;
+        this.pages = new ArrayList<>(list.pages);
+        this.windowStart = list.windowStart;
+        this.windowEnd = list.windowEnd;
+    }
+
+    /**
+     * @return The executor shared by paged lists for fetching pages off the main thread.
+     */
+    public static synchronized Executor sharedFetchExecutor() {
+        if (fetchExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "RatingPagedList");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            fetchExecutor = executor;
+        }
+        return fetchExecutor;
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The rating at the position, or null if its page is not loaded.
+     */
+    @Override
+    public RatingViewModel.DishRating get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (index < windowStart || index >= windowEnd) {
+            return null;
+        }
+        int offset = index - windowStart;
+        for (List<RatingViewModel.DishRating> page : pages) {
+            if (offset < page.size()) {
+                return page.get(offset);
+            }
+            offset -= page.size();
+        }
+        return null;
+    }
+
+    /**
+     * Records that the row at the position is about to be shown and fetches any pages needed around it.
+     */
+    public void loadAround(int position) {
+        if (frozen || size == 0) {
+            return;
+        }
+        lastAccessed = position;
+        if (jumpStart >= 0 && position >= jumpStart && position < jumpStart + initialLoadSize()) {
+            // Already on its way
+            return;
+        }
+
+        // Too far from the window to catch up page by page: reload around the position
+        int jumpDistance = config.prefetchDistance + config.pageSize;
+        if (pages.isEmpty() || position < windowStart - jumpDistance || position >= windowEnd + jumpDistance) {
+            jumpTo(position);
+            return;
+        }
+        if (position - config.prefetchDistance < windowStart && windowStart > 0 && !loadingBefore) {
+            loadBefore();
+        }
+        if (position + config.prefetchDistance >= windowEnd && windowEnd < size && !loadingAfter) {
+            loadAfter();
+        }
+    }
+
+    /**
+     * @return An immutable copy of the currently loaded window, safe to read from any thread.
+     */
+    public RatingPagedList snapshot() {
+        return frozen ? this : new RatingPagedList(this);
+    }
+
+    /**
+     * @return Every row of the list, loaded or not, if the source is an immutable
+     * {@link RatingPageSource.Snapshot}; otherwise null. Safe to read from any thread.
+     */
+    List<RatingViewModel.DishRating> getSourceRows() {
+        return source instanceof RatingPageSource.Snapshot
+                ? ((RatingPageSource.Snapshot) source).getRatings() : null;
+    }
+
+    /**
+     * @return The number of rows currently held in memory.
+     */
+    public int getLoadedCount() {
+        return windowEnd - windowStart;
+    }
+
+    private void loadAfter() {
+        loadingAfter = true;
+        final int expectedGeneration = generation;
+        final long afterId = lastLoaded().getId();
+        pageFetchExecutor.execute(() -> {
+            List<RatingViewModel.DishRating> page = source.loadAfter(afterId, config.pageSize);
+            notifyExecutor.execute(() -> {
+                if (expectedGeneration != generation) {
+                    return;
+                }
+                loadingAfter = false;
+                if (page.isEmpty()) {
+                    return;
+                }
+                int position = windowEnd;
+                pages.add(page);
+                windowEnd += page.size();
+                dispatchChanged(position, page.size());
+                while (pages.size() > config.maxPages) {
+                    List<RatingViewModel.DishRating> dropped = pages.remove(0);
+                    dispatchChanged(windowStart, dropped.size());
+                    windowStart += dropped.size();
+                }
+                // Keep prefetching if the user scrolled on while this page was loading
+                loadAround(lastAccessed);
+            });
+        });
+    }
+
+    private void loadBefore() {
+        loadingBefore = true;
+        final int expectedGeneration = generation;
+        final long beforeId = pages.get(0).get(0).getId();
+        pageFetchExecutor.execute(() -> {
+            List<RatingViewModel.DishRating> page = source.loadBefore(beforeId, config.pageSize);
+            notifyExecutor.execute(() -> {
+                if (expectedGeneration != generation) {
+                    return;
+                }
+                loadingBefore = false;
+                if (page.isEmpty()) {
+                    return;
+                }
+                pages.add(0, page);
+                windowStart -= page.size();
+                dispatchChanged(windowStart, page.size());
+                while (pages.size() > config.maxPages) {
+                    List<RatingViewModel.DishRating> dropped = pages.remove(pages.size() - 1);
+                    windowEnd -= dropped.size();
+                    dispatchChanged(windowEnd, dropped.size());
+                }
+                loadAround(lastAccessed);
+            });
+        });
+    }
+
+    private void jumpTo(int position) {
+        final int expectedGeneration = ++generation;
+        loadingBefore = true;
+        loadingAfter = true;
+        final int start = initialLoadStart(position);
+        jumpStart = start;
+        pageFetchExecutor.execute(() -> {
+            List<RatingViewModel.DishRating> rows = source.loadRange(start, initialLoadSize());
+            notifyExecutor.execute(() -> {
+                if (expectedGeneration != generation) {
+                    return;
+                }
+                loadingBefore = false;
+                loadingAfter = false;
+                jumpStart = -1;
+                int oldStart = windowStart;
+                int oldEnd = windowEnd;
+                replaceWindow(start, rows);
+                dispatchChanged(oldStart, oldEnd - oldStart);
+                dispatchChanged(windowStart, windowEnd - windowStart);
+            });
+        });
+    }
+
+    // Replaces the whole window with rows loaded from the given position, split into pages
+    private void replaceWindow(int start, List<RatingViewModel.DishRating> rows) {
+        pages.clear();
+        for (int from = 0; from < rows.size(); from += config.pageSize) {
+            pages.add(rows.subList(from, Math.min(rows.size(), from + config.pageSize)));
+        }
+        windowStart = start;
+        windowEnd = start + rows.size();
+    }
+
+    // The initial load covers one page before the position and two from it
+    private int initialLoadStart(int position) {
+        return Math.max(0, Math.min(position, size) - config.pageSize);
+    }
+
+    private int initialLoadSize() {
+        return 3 * config.pageSize;
+    }
+
+    private RatingViewModel.DishRating lastLoaded() {
+        List<RatingViewModel.DishRating> page = pages.get(pages.size() - 1);
+        return page.get(page.size() - 1);
+    }
+
+    private void dispatchChanged(int position, int count) {
+        if (callback != null && count > 0) {
+            callback.onRangeChanged(position, count);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.restaurantraterapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Hourly and daily rollups of the ratings by their timestamp, overall, per dish type and per dish,
+ * kept up to date incrementally like RatingAggregates. Each bucket holds the count, sum and
+ * half-star histogram of the ratings submitted in that hour or day, so range queries and trend
+ * series are answered from the buckets instead of rescanning the ratings list.
+ *
+ * Buckets follow the local clock of the given time zone. Hourly buckets are only kept for the last
+ * HOURLY_RETENTION_DAYS days; {@link #downsample(long)} drops older ones, after which those hours
+ * are only available through their daily buckets. Daily buckets never depend on the raw ratings
+ * again, so the rollups stay correct however the list itself is trimmed.
+ *
+ * Dishes are grouped by normalized name, the same way as DishLeaderboard.
+ */
+public class RatingRollups {
+
+    static final long HOUR_MS = 60L * 60 * 1000;
+    static final long DAY_MS = 24 * HOUR_MS;
+
+    // Hourly buckets older than this are merged away into their daily buckets
+    static final int HOURLY_RETENTION_DAYS = 14;
+
+    // Weeks start on Monday; epoch day 0 was a Thursday
+    private static final long EPOCH_DAY_OF_WEEK_OFFSET = 3;
+
+    private static final NavigableMap<Long, RatingAggregates.Accumulator> EMPTY_RANGE = new TreeMap<>();
+
+    /**
+     * Bucket size of a series. Weeks are not stored, they are merged from days when queried.
+     */
+    public enum Granularity {
+        HOUR, DAY, WEEK
+    }
+
+    /**
+     * One bucket of a series: its local start time and the aggregates of its ratings.
+     */
+    public static final class Point {
+        private final long startMillis;
+        private final RatingAggregates.Stats stats;
+
+        Point(long startMillis, RatingAggregates.Stats stats) {
+            this.startMillis = startMillis;
+            this.stats = stats;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public RatingAggregates.Stats getStats() {
+            return stats;
+        }
+    }
+
+    // Hourly and daily buckets for one group of ratings, by bucket index since the local epoch
+    private static final class Series {
+        final TreeMap<Long, RatingAggregates.Accumulator> hours = new TreeMap<>();
+        final TreeMap<Long, RatingAggregates.Accumulator> days = new TreeMap<>();
+
+        boolean isEmpty() {
+            return days.isEmpty();
+        }
+    }
+
+    private final TimeZone timeZone;
+
+    private final Series overall = new Series();
+    private final Map<String, Series> byDishType = new HashMap<>();
+    // By normalized dish name
+    private final Map<String, Series> byDish = new HashMap<>();
+
+    // Hours before this index have been downsampled and no longer have hourly buckets
+    private long firstHourlyIndex = Long.MIN_VALUE;
+
+    public RatingRollups() {
+        this(TimeZone.getDefault());
+    }
+
+    RatingRollups(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Adds a rating to the buckets of its hour and day.
+     */
+    public void add(RatingViewModel.DishRating rating) {
+        long localMillis = toLocal(rating.getTimestamp());
+        long hour = Math.floorDiv(localMillis, HOUR_MS);
+        long day = Math.floorDiv(localMillis, DAY_MS);
+        float value = rating.getRating();
+        add(overall, hour, day, value);
+        add(seriesFor(byDishType, rating.getDishType()), hour, day, value);
+        add(seriesFor(byDish, DishLeaderboard.keyOf(rating.getDishName())), hour, day, value);
+    }
+
+    /**
+     * Removes a previously added rating from the buckets of its hour and day.
+     */
+    public void remove(RatingViewModel.DishRating rating) {
+        long localMillis = toLocal(rating.getTimestamp());
+        long hour = Math.floorDiv(localMillis, HOUR_MS);
+        long day = Math.floorDiv(localMillis, DAY_MS);
+        float value = rating.getRating();
+        remove(overall, hour, day, value);
+        removeFrom(byDishType, rating.getDishType(), hour, day, value);
+        removeFrom(byDish, DishLeaderboard.keyOf(rating.getDishName()), hour, day, value);
+    }
+
+    /**
+     * Resets every bucket back to empty.
+     */
+    public void clear() {
+        overall.hours.clear();
+        overall.days.clear();
+        byDishType.clear();
+        byDish.clear();
+    }
+
+    /**
+     * Drops the hourly buckets older than HOURLY_RETENTION_DAYS before the given time. Cheap to
+     * call after every change: it only does work when the cutoff has moved to a new hour.
+     */
+    public void downsample(long nowMillis) {
+        long cutoff = Math.floorDiv(toLocal(nowMillis), HOUR_MS) - HOURLY_RETENTION_DAYS * 24L;
+        if (cutoff <= firstHourlyIndex) {
+            return;
+        }
+        firstHourlyIndex = cutoff;
+        overall.hours.headMap(cutoff).clear();
+        for (Series series : byDishType.values()) {
+            series.hours.headMap(cutoff).clear();
+        }
+        for (Series series : byDish.values()) {
+            series.hours.headMap(cutoff).clear();
+        }
+    }
+
+    /**
+     * Aggregates the ratings between two times, both rounded down to the start of their bucket.
+     * Hourly ranges that reach back past the hourly retention only count the hours still kept.
+     * @param dishType Limits the range to one dish type, or null for all of them.
+     * @param dishName Limits the range to one dish, or null for all of them. Takes precedence over dishType.
+     * @param fromMillis Start of the range, inclusive.
+     * @param toMillis End of the range, exclusive.
+     */
+    public RatingAggregates.Stats getStats(Granularity granularity, String dishType, String dishName,
+                                           long fromMillis, long toMillis) {
+        RatingAggregates.Accumulator total = new RatingAggregates.Accumulator();
+        for (RatingAggregates.Accumulator bucket : range(granularity, dishType, dishName, fromMillis, toMillis).values()) {
+            total.addAll(bucket);
+        }
+        return total.toStats();
+    }
+
+    /**
+     * Lists the non-empty buckets between two times, oldest first, e.g. the daily averages of the
+     * last week or the weekly averages of the last quarter.
+     * @see #getStats(Granularity, String, String, long, long)
+     */
+    public List<Point> getSeries(Granularity granularity, String dishType, String dishName,
+                                 long fromMillis, long toMillis) {
+        NavigableMap<Long, RatingAggregates.Accumulator> buckets =
+                range(granularity, dishType, dishName, fromMillis, toMillis);
+        List<Point> points = new ArrayList<>();
+        if (granularity != Granularity.WEEK) {
+            long bucketMillis = granularity == Granularity.HOUR ? HOUR_MS : DAY_MS;
+            for (Map.Entry<Long, RatingAggregates.Accumulator> entry : buckets.entrySet()) {
+                points.add(new Point(fromLocal(entry.getKey() * bucketMillis), entry.getValue().toStats()));
+            }
+            return points;
+        }
+        // Merge the days of each week
+        long week = Long.MIN_VALUE;
+        RatingAggregates.Accumulator weekTotal = null;
+        for (Map.Entry<Long, RatingAggregates.Accumulator> entry : buckets.entrySet()) {
+            long dayWeek = weekOf(entry.getKey());
+            if (weekTotal == null || dayWeek != week) {
+                if (weekTotal != null) {
+                    points.add(new Point(fromLocal(firstDayOfWeek(week) * DAY_MS), weekTotal.toStats()));
+                }
+                week = dayWeek;
+                weekTotal = new RatingAggregates.Accumulator();
+            }
+            weekTotal.addAll(entry.getValue());
+        }
+        if (weekTotal != null) {
+            points.add(new Point(fromLocal(firstDayOfWeek(week) * DAY_MS), weekTotal.toStats()));
+        }
+        return points;
+    }
+
+    /**
+     * Fits a line through the bucket averages between two times, each bucket weighted by its
+     * number of ratings.
+     * @return The change in average rating per bucket; negative when the ratings are getting
+     * worse. Zero when fewer than two buckets have ratings.
+     * @see #getStats(Granularity, String, String, long, long)
+     */
+    public float getTrend(Granularity granularity, String dishType, String dishName,
+                          long fromMillis, long toMillis) {
+        List<Point> points = getSeries(granularity, dishType, dishName, fromMillis, toMillis);
+        if (points.size() < 2) {
+            return 0f;
+        }
+        long bucketMillis = granularity == Granularity.HOUR ? HOUR_MS
+                : granularity == Granularity.DAY ? DAY_MS : 7 * DAY_MS;
+        long origin = points.get(0).startMillis;
+        double weight = 0;
+        double meanX = 0;
+        double meanY = 0;
+        for (Point point : points) {
+            int count = point.stats.getCount();
+            weight += count;
+            meanX += count * (double) Math.round((point.startMillis - origin) / (double) bucketMillis);
+            meanY += point.stats.getSum();
+        }
+        meanX /= weight;
+        meanY /= weight;
+        double covariance = 0;
+        double variance = 0;
+        for (Point point : points) {
+            int count = point.stats.getCount();
+            double dx = Math.round((point.startMillis - origin) / (double) bucketMillis) - meanX;
+            covariance += count * dx * (point.stats.getAverage() - meanY);
+            variance += count * dx * dx;
+        }
+        return variance == 0 ? 0f : (float) (covariance / variance);
+    }
+
+    // Buckets of the requested series and granularity between two times; days for a weekly query
+    private NavigableMap<Long, RatingAggregates.Accumulator> range(Granularity granularity, String dishType,
+                                                                   String dishName, long fromMillis, long toMillis) {
+        Series series = dishName != null ? byDish.get(DishLeaderboard.keyOf(dishName))
+                : dishType != null ? byDishType.get(dishType) : overall;
+        if (series == null || fromMillis >= toMillis) {
+            return EMPTY_RANGE;
+        }
+        long from = toLocal(fromMillis);
+        long to = toLocal(toMillis);
+        if (granularity == Granularity.HOUR) {
+            return series.hours.subMap(Math.floorDiv(from, HOUR_MS), true, Math.floorDiv(to - 1, HOUR_MS), true);
+        }
+        long firstDay = Math.floorDiv(from, DAY_MS);
+        long lastDay = Math.floorDiv(to - 1, DAY_MS);
+        if (granularity == Granularity.WEEK) {
+            firstDay = firstDayOfWeek(weekOf(firstDay));
+            lastDay = firstDayOfWeek(weekOf(lastDay)) + 6;
+        }
+        return series.days.subMap(firstDay, true, lastDay, true);
+    }
+
+    private void add(Series series, long hour, long day, float value) {
+        if (hour >= firstHourlyIndex) {
+            bucketFor(series.hours, hour).add(value);
+        }
+        bucketFor(series.days, day).add(value);
+    }
+
+    private void remove(Series series, long hour, long day, float value) {
+        if (hour >= firstHourlyIndex) {
+            removeFromBucket(series.hours, hour, value);
+        }
+        removeFromBucket(series.days, day, value);
+    }
+
+    private void removeFrom(Map<String, Series> groups, String key, long hour, long day, float value) {
+        Series series = groups.get(key);
+        if (series != null) {
+            remove(series, hour, day, value);
+            if (series.isEmpty()) {
+                groups.remove(key);
+            }
+        }
+    }
+
+    private static Series seriesFor(Map<String, Series> groups, String key) {
+        Series series = groups.get(key);
+        if (series == null) {
+            series = new Series();
+            groups.put(key, series);
+        }
+        return series;
+    }
+
+    private static RatingAggregates.Accumulator bucketFor(TreeMap<Long, RatingAggregates.Accumulator> buckets,
+                                                          long index) {
+        RatingAggregates.Accumulator bucket = buckets.get(index);
+        if (bucket == null) {
+            bucket = new RatingAggregates.Accumulator();
+            buckets.put(index, bucket);
+        }
+        return bucket;
+    }
+
+    private static void removeFromBucket(TreeMap<Long, RatingAggregates.Accumulator> buckets, long index,
+                                         float value) {
+        RatingAggregates.Accumulator bucket = buckets.get(index);
+        if (bucket != null) {
+            bucket.remove(value);
+            if (bucket.isEmpty()) {
+                buckets.remove(index);
+            }
+        }
+    }
+
+    private static long weekOf(long day) {
+        return Math.floorDiv(day + EPOCH_DAY_OF_WEEK_OFFSET, 7);
+    }
+
+    private static long firstDayOfWeek(long week) {
+        return week * 7 - EPOCH_DAY_OF_WEEK_OFFSET;
+    }
+
+    // Shifts a UTC time onto the local clock, so buckets start on local hours and midnights
+    private long toLocal(long utcMillis) {
+        return utcMillis + timeZone.getOffset(utcMillis);
+    }
+
+    private long fromLocal(long localMillis) {
+        return localMillis - timeZone.getOffset(localMillis - timeZone.getRawOffset());
+    }
+}
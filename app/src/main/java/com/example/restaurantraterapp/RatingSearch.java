@@ -0,0 +1,189 @@
+package com.example.restaurantraterapp;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a RatingSearchIndex and a DishSimilarityIndex in step with RatingViewModel's ratings and
+ * runs searches and dish suggestions against them off the main thread.
+ *
+ * The indexes live on a single background thread: updates and queries are queued to it in the
+ * order they are made on the main thread, so a query always sees every change made before it
+ * without any locking. Results are published through {@link #getResults()} and
+ * {@link #getRecommendations()}; a query superseded by a newer one before it finishes is dropped.
+ */
+public class RatingSearch {
+
+    // Upper bound on the number of ratings a search returns, newest first
+    static final int MAX_RESULTS = 500;
+
+    private final RatingSearchIndex index = new RatingSearchIndex();
+    private final DishSimilarityIndex similarDishes = new DishSimilarityIndex();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RatingSearch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Matching ratings sorted by id, or null when no search is active
+    private final MutableLiveData<List<RatingViewModel.DishRating>> results = new MutableLiveData<>();
+
+    // Incremented for every query so that stale results are not published
+    private final AtomicInteger generation = new AtomicInteger();
+
+    // Dishes suggested for the last dish asked about, or null when there is nothing to show
+    private final MutableLiveData<DishSimilarityIndex.Recommendations> recommendations = new MutableLiveData<>();
+    private final AtomicInteger recommendationGeneration = new AtomicInteger();
+
+    // Current query, kept so results can be refreshed when the ratings change
+    private String query = "";
+    private String dishType;
+
+    /**
+     * @return LiveData holding the results of the current search, or null when no search is active.
+     */
+    public LiveData<List<RatingViewModel.DishRating>> getResults() {
+        return results;
+    }
+
+    /**
+     * @return LiveData holding the dishes suggested by {@link #recommend}, or null when there are none to show.
+     */
+    public LiveData<DishSimilarityIndex.Recommendations> getRecommendations() {
+        return recommendations;
+    }
+
+    public void add(RatingViewModel.DishRating rating) {
+        executor.execute(() -> {
+            index.add(rating);
+            similarDishes.add(rating);
+        });
+    }
+
+    /**
+     * Indexes every rating of a list, e.g. the ones restored at startup.
+     */
+    public void addAll(List<RatingViewModel.DishRating> ratings) {
+        executor.execute(() -> {
+            for (RatingViewModel.DishRating rating : ratings) {
+                index.add(rating);
+                similarDishes.add(rating);
+            }
+        });
+    }
+
+    public void remove(RatingViewModel.DishRating rating) {
+        executor.execute(() -> {
+            index.remove(rating);
+            similarDishes.remove(rating);
+        });
+    }
+
+    /**
+     * Removes many ratings from the index with one task, e.g. after a bulk removal.
+     */
+    public void removeAll(List<RatingViewModel.DishRating> ratings) {
+        executor.execute(() -> {
+            index.removeAll(ratings);
+            for (RatingViewModel.DishRating rating : ratings) {
+                similarDishes.remove(rating);
+            }
+        });
+    }
+
+    /**
+     * Empties both indexes, e.g. before another restaurant's ratings are added. Suggestions still
+     * being computed for the old ratings are dropped.
+     */
+    public void clear() {
+        dismissRecommendations();
+        executor.execute(() -> {
+            index.clear();
+            similarDishes.clear();
+        });
+    }
+
+    /**
+     * @return Whether a search is active, i.e. its results are shown instead of the full list.
+     */
+    public boolean isActive() {
+        return !query.trim().isEmpty() || dishType != null;
+    }
+
+    /**
+     * Starts a search. Results are posted to {@link #getResults()} when ready.
+     * @param query Words to match against the start of the words of dish names.
+     * @param dishType Only match ratings of this type, or null for all types.
+     * @param ratings The current ratings, sorted by id, used to look up the matching ids.
+     */
+    public void search(String query, String dishType, List<RatingViewModel.DishRating> ratings) {
+        this.query = query == null ? "" : query;
+        this.dishType = dishType;
+        refresh(ratings);
+    }
+
+    /**
+     * Runs the current search again after the ratings changed. Does nothing when no search is active.
+     */
+    public void refresh(List<RatingViewModel.DishRating> ratings) {
+        final int expectedGeneration = generation.incrementAndGet();
+        if (!isActive()) {
+            results.setValue(null);
+            return;
+        }
+        final String currentQuery = query;
+        final String currentDishType = dishType;
+        executor.execute(() -> {
+            long[] ids = index.search(currentQuery, currentDishType, MAX_RESULTS);
+            List<RatingViewModel.DishRating> matches = new ArrayList<>(ids.length);
+            for (long id : ids) {
+                int position = RatingViewModel.indexOfId(ratings, id);
+                if (position >= 0) {
+                    matches.add(ratings.get(position));
+                }
+            }
+            if (expectedGeneration == generation.get()) {
+                results.postValue(matches);
+            }
+        });
+    }
+
+    /**
+     * Looks up dishes similar to a dish that the user may also like. They are posted to
+     * {@link #getRecommendations()} when ready, even if there are none.
+     * @param dishName The dish to find similar dishes for.
+     * @param limit The maximum number of dishes to suggest.
+     */
+    public void recommend(String dishName, int limit) {
+        final int expectedGeneration = recommendationGeneration.incrementAndGet();
+        executor.execute(() -> {
+            DishSimilarityIndex.Recommendations found = similarDishes.recommend(dishName, limit);
+            if (expectedGeneration == recommendationGeneration.get()) {
+                recommendations.postValue(found);
+            }
+        });
+    }
+
+    /**
+     * Clears the suggestions once they were shown, so they are not shown again, and drops any
+     * still being computed.
+     */
+    public void dismissRecommendations() {
+        recommendationGeneration.incrementAndGet();
+        recommendations.setValue(null);
+    }
+
+    /**
+     * Stops the search thread. Pending updates and queries are discarded.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+}
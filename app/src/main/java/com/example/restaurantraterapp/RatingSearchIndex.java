@@ -0,0 +1,320 @@
+package com.example.restaurantraterapp;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index over dish names and dish types, for prefix search.
+ *
+ * Dish names are normalized (lower case, accents stripped) and split into words. Each word maps
+ * to a posting list of the ids of the ratings containing it, kept in a sorted map so that all
+ * words starting with a prefix form one contiguous range. Each dish type has its own posting list.
+ * Posting lists are sorted arrays of ids; since new ratings get increasing ids, adding a rating
+ * is an append.
+ *
+ * A query matches ratings that have, for every word in the query, a word starting with it.
+ * The index is not thread-safe; RatingSearch confines it to a single thread.
+ */
+public class RatingSearchIndex {
+
+    private static final long[] NO_IDS = new long[0];
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    // Posting list per normalized word of the dish names
+    private final NavigableMap<String, Postings> words = new TreeMap<>();
+
+    // Posting list per dish type, exactly as submitted
+    private final Map<String, Postings> dishTypes = new HashMap<>();
+
+    /**
+     * Adds a rating to the index.
+     */
+    public void add(RatingViewModel.DishRating rating) {
+        long id = rating.getId();
+        for (String word : tokenize(rating.getDishName())) {
+            Postings postings = words.get(word);
+            if (postings == null) {
+                postings = new Postings();
+                words.put(word, postings);
+            }
+            postings.add(id);
+        }
+        Postings typePostings = dishTypes.get(rating.getDishType());
+        if (typePostings == null) {
+            typePostings = new Postings();
+            dishTypes.put(rating.getDishType(), typePostings);
+        }
+        typePostings.add(id);
+    }
+
+    /**
+     * Removes a rating from the index. Its name and type must be the ones it was added with.
+     */
+    public void remove(RatingViewModel.DishRating rating) {
+        long id = rating.getId();
+        for (String word : tokenize(rating.getDishName())) {
+            Postings postings = words.get(word);
+            if (postings != null && postings.remove(id) && postings.size == 0) {
+                words.remove(word);
+            }
+        }
+        Postings typePostings = dishTypes.get(rating.getDishType());
+        if (typePostings != null && typePostings.remove(id) && typePostings.size == 0) {
+            dishTypes.remove(rating.getDishType());
+        }
+    }
+
+    /**
+     * Removes many ratings at once, e.g. after a bulk removal. Each affected posting list is
+     * compacted in a single pass, instead of shifting it once per removed id.
+     * Their names and types must be the ones they were added with.
+     */
+    public void removeAll(Collection<RatingViewModel.DishRating> ratings) {
+        Map<Postings, Removal> removals = new HashMap<>();
+        for (RatingViewModel.DishRating rating : ratings) {
+            long id = rating.getId();
+            for (String word : tokenize(rating.getDishName())) {
+                Postings postings = words.get(word);
+                if (postings != null) {
+                    removal(removals, postings, word, false).add(id);
+                }
+            }
+            Postings typePostings = dishTypes.get(rating.getDishType());
+            if (typePostings != null) {
+                removal(removals, typePostings, rating.getDishType(), true).add(id);
+            }
+        }
+        for (Map.Entry<Postings, Removal> entry : removals.entrySet()) {
+            Postings postings = entry.getKey();
+            Removal removal = entry.getValue();
+            postings.removeAll(removal.sortedIds(), removal.count);
+            if (postings.size == 0) {
+                (removal.dishType ? dishTypes : words).remove(removal.key);
+            }
+        }
+    }
+
+    private static Removal removal(Map<Postings, Removal> removals, Postings postings, String key, boolean dishType) {
+        Removal removal = removals.get(postings);
+        if (removal == null) {
+            removal = new Removal(key, dishType);
+            removals.put(postings, removal);
+        }
+        return removal;
+    }
+
+    public void clear() {
+        words.clear();
+        dishTypes.clear();
+    }
+
+    /**
+     * Finds ratings whose dish name has a word starting with each word of the query.
+     * @param query The search text; a blank query matches every rating of the dish type.
+     * @param dishType Only return ratings of this type, or null for all types.
+     * @param limit The maximum number of ids to return; the newest ratings are kept.
+     * @return The matching rating ids in ascending order.
+     */
+    public long[] search(String query, String dishType, int limit) {
+        long[] result = null;
+        if (dishType != null) {
+            Postings typePostings = dishTypes.get(dishType);
+            if (typePostings == null) {
+                return NO_IDS;
+            }
+            result = typePostings.toArray();
+        }
+        for (String prefix : tokenize(query)) {
+            long[] matches = prefixMatches(prefix);
+            result = result == null ? matches : intersect(result, matches);
+            if (result.length == 0) {
+                return NO_IDS;
+            }
+        }
+        if (result == null) {
+            return NO_IDS;
+        }
+        return result.length <= limit ? result : Arrays.copyOfRange(result, result.length - limit, result.length);
+    }
+
+    /**
+     * @return The number of distinct words indexed.
+     */
+    public int getWordCount() {
+        return words.size();
+    }
+
+    // Union of the posting lists of every word starting with the prefix, sorted and without duplicates
+    private long[] prefixMatches(String prefix) {
+        NavigableMap<String, Postings> range = words.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        if (range.isEmpty()) {
+            return NO_IDS;
+        }
+        if (range.size() == 1) {
+            return range.firstEntry().getValue().toArray();
+        }
+
+        int total = 0;
+        for (Postings postings : range.values()) {
+            total += postings.size;
+        }
+        long[] ids = new long[total];
+        int count = 0;
+        for (Postings postings : range.values()) {
+            System.arraycopy(postings.ids, 0, ids, count, postings.size);
+            count += postings.size;
+        }
+        // A name can contain several words with the same prefix, so drop repeated ids
+        Arrays.sort(ids);
+        int unique = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (unique == 0 || ids[unique - 1] != ids[i]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        return unique == ids.length ? ids : Arrays.copyOf(ids, unique);
+    }
+
+    // Merges two sorted id arrays, keeping the ids present in both
+    private static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return count == out.length ? out : Arrays.copyOf(out, count);
+    }
+
+    /**
+     * Lower-cases the text and strips accents, so that "Crème Brûlée" matches "creme brulee".
+     */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return The normalized words of the text, split on anything that is not a letter or digit.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String normalized = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Ids to drop from one posting list, and the key the list is stored under
+    private static final class Removal {
+        final String key;
+        final boolean dishType;
+        long[] ids = new long[4];
+        int count;
+
+        Removal(String key, boolean dishType) {
+            this.key = key;
+            this.dishType = dishType;
+        }
+
+        void add(long id) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+
+        long[] sortedIds() {
+            Arrays.sort(ids, 0, count);
+            return ids;
+        }
+    }
+
+    // Sorted array of rating ids
+    private static final class Postings {
+        long[] ids = new long[4];
+        int size;
+
+        void add(long id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                // Out of order, or a repeated word in the same name
+                int index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0) {
+                    return;
+                }
+                insertAt(-index - 1, id);
+                return;
+            }
+            insertAt(size, id);
+        }
+
+        boolean remove(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        // Drops every id found in the sorted array in one pass over the list
+        void removeAll(long[] sortedIds, int count) {
+            int kept = 0;
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                long id = ids[i];
+                while (next < count && sortedIds[next] < id) {
+                    next++;
+                }
+                if (next == count || sortedIds[next] != id) {
+                    ids[kept++] = id;
+                }
+            }
+            size = kept;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+
+        private void insertAt(int index, long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,758 @@
+package com.example.restaurantraterapp;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The ratings of one restaurant: the list itself, its running aggregates, time rollups and
+ * leaderboard, and the journal that persists it.
+ *
+ * A shard is loaded on a background thread by {@link #load} and then only used on the main
+ * thread, except for its journal, which belongs to the shard's own write-behind writer thread.
+ * Every change updates the list and the derived state together; RatingViewModel publishes the
+ * results of the shard that is currently shown. Changes the user makes are also recorded in the
+ * shard's history, so they can be undone and redone.
+ */
+final class RatingShard {
+
+    private static final String TAG = "RatingShard";
+
+    // How long a change may wait before it is committed to the journal, and the largest group commit
+    private static final long JOURNAL_FLUSH_INTERVAL_MS = 200;
+    private static final int JOURNAL_MAX_BATCH_SIZE = 256;
+
+    // Best dishes leaderboard: the prior that dishes with few votes are pulled towards
+    private static final double LEADERBOARD_PRIOR_MEAN = 3.0;
+    private static final double LEADERBOARD_PRIOR_WEIGHT = 5;
+    private static final int LEADERBOARD_MIN_VOTES = 1;
+
+    // A bulk removal of fewer than one in this many ratings removes them one by one from the
+    // persistent list, at O(log n) each; larger ones rebuild the list in a single O(n) pass
+    private static final int BULK_REMOVE_REBUILD_RATIO = 64;
+
+    // Dish names and types are cut to this many characters when they enter the shard, the same
+    // limit imports use, which keeps every rating well inside the journal's record size
+    static final int MAX_FIELD_LENGTH = RatingTransfer.MAX_FIELD_LENGTH;
+
+    private final Restaurant restaurant;
+
+    // Current ratings, sorted by id. Each change produces a new PersistentList that shares most
+    // of its structure with the previous one; rows are stored in columnar leaves.
+    private PersistentList<RatingViewModel.DishRating> ratings;
+
+    // Id given to the next rating added to this shard
+    private long nextRatingId;
+
+    // Running totals kept in step with the list so the summary never rescans it
+    private final RatingAggregates aggregates = new RatingAggregates();
+
+    // Hourly and daily buckets for trend queries, kept in step with the list
+    private final RatingRollups rollups = new RatingRollups();
+
+    // Dishes ranked by smoothed mean rating, kept in step with the list
+    private final DishLeaderboard leaderboard = new DishLeaderboard(LEADERBOARD_PRIOR_MEAN,
+            LEADERBOARD_PRIOR_WEIGHT, LEADERBOARD_MIN_VOTES);
+
+    // Journal that persists every change, or null when the shard is in memory only.
+    // After loading it is only used on the write-behind writer thread.
+    private RatingJournal journal;
+
+    // Queues journal writes for the background writer, or null when there is no journal
+    private RatingWriteBehind writeBehind;
+
+    // Highest rating id whose add the journal has committed, written by the writer thread. Ratings
+    // above it are only in memory until the writer catches up.
+    private volatile long journaledId;
+
+    // Uploads the changes to the backend, or null when sync is off
+    private RatingSyncEngine sync;
+
+    // The user's changes that can be undone or redone; kept in memory only
+    private final RatingHistory history = new RatingHistory();
+
+    /**
+     * What an undo or redo did to the list, so the caller can keep its own indexes in step.
+     */
+    static final class Applied {
+        // Ratings taken out of the list, and ratings put into it; an edit is one of each
+        final List<RatingViewModel.DishRating> removed;
+        final List<RatingViewModel.DishRating> added;
+        // True if the list was cleared; removed is then empty
+        final boolean cleared;
+
+        Applied(List<RatingViewModel.DishRating> removed, List<RatingViewModel.DishRating> added, boolean cleared) {
+            this.removed = removed;
+            this.added = added;
+            this.cleared = cleared;
+        }
+    }
+
+    private RatingShard(Restaurant restaurant, List<RatingViewModel.DishRating> restored, long maxId) {
+        this.restaurant = restaurant;
+        this.ratings = RatingColumns.emptyList(new StringDictionary()).plusAll(restored);
+        this.nextRatingId = maxId + 1;
+        for (RatingViewModel.DishRating rating : ratings) {
+            aggregates.add(rating);
+            rollups.add(rating);
+            leaderboard.add(rating);
+        }
+        rollups.downsample(System.currentTimeMillis());
+    }
+
+    /**
+     * Opens the restaurant's journal in the given directory and replays it. Does disk I/O, so
+     * call it off the main thread. If the journal cannot be opened the shard works in memory only.
+     * @param journalDir Directory holding the journals, or null for a shard that is never saved.
+     * @param statsListener Receives the write-behind queue statistics, may be null.
+     * @param sync Receives every change for upload, may be null.
+     */
+    static RatingShard load(Restaurant restaurant, File journalDir, RatingWriteBehind.StatsListener statsListener,
+                            RatingSyncEngine sync) {
+        RatingShard shard = open(restaurant, journalDir, statsListener);
+        if (sync != null) {
+            shard.sync = sync;
+            // Ratings added while offline or before the last upload finished are still above the mark
+            sync.onRatingsChanged(restaurant.getId(), shard.ratings, 0);
+        }
+        return shard;
+    }
+
+    private static RatingShard open(Restaurant restaurant, File journalDir, RatingWriteBehind.StatsListener statsListener) {
+        if (journalDir == null) {
+            return new RatingShard(restaurant, new ArrayList<RatingViewModel.DishRating>(), 0);
+        }
+        RatingJournal journal = null;
+        try {
+            journal = new RatingJournal(new File(journalDir, restaurant.getJournalFileName()));
+            List<RatingViewModel.DishRating> restored = journal.load();
+            RatingShard shard = new RatingShard(restaurant, restored, journal.getMaxId());
+            shard.journal = journal;
+            shard.journaledId = journal.getMaxId();
+            shard.writeBehind = new RatingWriteBehind(shard::commitToJournal, JOURNAL_FLUSH_INTERVAL_MS,
+                    JOURNAL_MAX_BATCH_SIZE, statsListener);
+            return shard;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open the rating journal of " + restaurant.getName()
+                    + ", its ratings will not be saved", e);
+            closeQuietly(journal);
+            return new RatingShard(restaurant, new ArrayList<RatingViewModel.DishRating>(), 0);
+        }
+    }
+
+    /**
+     * Replays a restaurant's journal into aggregates only, without keeping its ratings or
+     * starting a writer. Does disk I/O, so call it off the main thread.
+     * @return The aggregates, or an empty snapshot if there is no readable journal.
+     */
+    static RatingAggregates.Snapshot summarize(Restaurant restaurant, File journalDir) {
+        File file = journalDir == null ? null : new File(journalDir, restaurant.getJournalFileName());
+        if (file == null || !file.exists()) {
+            return RatingAggregates.Snapshot.EMPTY;
+        }
+        RatingJournal journal = null;
+        try {
+            journal = new RatingJournal(file);
+            RatingAggregates aggregates = new RatingAggregates();
+            for (RatingViewModel.DishRating rating : journal.load()) {
+                aggregates.add(rating);
+            }
+            return aggregates.snapshot();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the rating journal of " + restaurant.getName(), e);
+            return RatingAggregates.Snapshot.EMPTY;
+        } finally {
+            closeQuietly(journal);
+        }
+    }
+
+    Restaurant getRestaurant() {
+        return restaurant;
+    }
+
+    PersistentList<RatingViewModel.DishRating> getRatings() {
+        return ratings;
+    }
+
+    int size() {
+        return ratings.size();
+    }
+
+    /**
+     * @return The ratings the journal has not committed yet, in list order: every rating above the
+     * highest journaled id, or all of them when the shard has no journal. Found by binary search,
+     * so it costs O(log n) however large the list is.
+     */
+    List<RatingViewModel.DishRating> getUnjournaledRatings() {
+        long committed = journal == null ? 0 : journaledId;
+        return ratings.subList(countUpTo(committed), ratings.size());
+    }
+
+    /**
+     * @return The removals, edits and clears queued for the journal but not committed yet, in the
+     * order they were made. Together with {@link #getUnjournaledRatings()} they are every change
+     * the shard would lose if the process died now. Each clear carries the highest id it removed.
+     */
+    List<RatingJournal.Entry> getUnjournaledChanges() {
+        if (writeBehind == null) {
+            return Collections.emptyList();
+        }
+        List<RatingJournal.Entry> changes = new ArrayList<>();
+        for (RatingJournal.Entry entry : writeBehind.getUncommitted()) {
+            if (entry.op != RatingJournal.OP_ADD) {
+                changes.add(entry);
+            }
+        }
+        return changes;
+    }
+
+    // Number of ratings with an id up to the given one, found by binary search
+    private int countUpTo(long id) {
+        int low = 0;
+        int high = ratings.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ratings.get(mid).getId() <= id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    RatingAggregates getAggregates() {
+        return aggregates;
+    }
+
+    RatingRollups getRollups() {
+        return rollups;
+    }
+
+    DishLeaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    /**
+     * Adds a new rating with the next id, as a change that can be undone.
+     * @return The added rating.
+     */
+    RatingViewModel.DishRating add(String dishName, String dishType, float rating) {
+        RatingViewModel.DishRating newRating = insert(
+                new RatingViewModel.DishRating(nextRatingId++, capped(dishName), capped(dishType), rating));
+        history.record(RatingHistory.Change.add(newRating));
+        return newRating;
+    }
+
+    // Adds a rating that already has the next id
+    private RatingViewModel.DishRating insert(RatingViewModel.DishRating newRating) {
+        ratings = ratings.plus(newRating);
+        aggregates.add(newRating);
+        rollups.add(newRating);
+        rollups.downsample(System.currentTimeMillis());
+        leaderboard.add(newRating);
+        persist(RatingJournal.Entry.add(newRating));
+        if (sync != null) {
+            sync.onRatingsChanged(restaurant.getId(), ratings, 1);
+        }
+        return newRating;
+    }
+
+    // Adds a copy of a rating under the next id, keeping everything else
+    private RatingViewModel.DishRating insertCopy(RatingViewModel.DishRating rating) {
+        return insert(new RatingViewModel.DishRating(nextRatingId++,
+                rating.getDishName(), rating.getDishType(), rating.getRating(), rating.getTimestamp()));
+    }
+
+    /**
+     * Adds many ratings with new ids, keeping their names, types, ratings and timestamps.
+     * @return The added ratings, in list order.
+     */
+    List<RatingViewModel.DishRating> addAll(List<RatingViewModel.DishRating> batch) {
+        List<RatingViewModel.DishRating> added = new ArrayList<>(batch.size());
+        for (RatingViewModel.DishRating rating : batch) {
+            added.add(new RatingViewModel.DishRating(nextRatingId++, capped(rating.getDishName()),
+                    capped(rating.getDishType()), rating.getRating(), rating.getTimestamp()));
+        }
+        append(added);
+        return added;
+    }
+
+    /**
+     * Adds the ratings of a saved snapshot that are newer than every rating of the shard, keeping
+     * their ids. After process death these are the ones the journal never received because they
+     * were still queued for the writer.
+     * @param saved A snapshot of this restaurant's ratings, sorted by id.
+     * @return The restored ratings, in list order.
+     */
+    List<RatingViewModel.DishRating> restoreNewer(List<RatingViewModel.DishRating> saved) {
+        int first = saved.size();
+        while (first > 0 && saved.get(first - 1).getId() >= nextRatingId) {
+            first--;
+        }
+        List<RatingViewModel.DishRating> restored = new ArrayList<>(saved.subList(first, saved.size()));
+        if (!restored.isEmpty()) {
+            nextRatingId = restored.get(restored.size() - 1).getId() + 1;
+            append(restored);
+        }
+        return restored;
+    }
+
+    /**
+     * Applies the removals, edits and clears of a saved snapshot after {@link #restoreNewer}, to
+     * the ratings of the journal and the snapshot. The journal may have committed some of them
+     * before the process died; those find their rating gone or already changed and are skipped,
+     * and a clear only removes ratings up to the id it carries, so none is applied twice.
+     * @param changes As returned by {@link #getUnjournaledChanges()}.
+     * @return The number of ratings removed or changed.
+     */
+    int restoreChanges(List<RatingJournal.Entry> changes) {
+        int applied = 0;
+        for (RatingJournal.Entry change : changes) {
+            if (change.op == RatingJournal.OP_REMOVE) {
+                applied += deleteIds(Collections.singletonList(change.id)).size();
+            } else if (change.op == RatingJournal.OP_EDIT) {
+                int position = RatingViewModel.indexOfId(ratings, change.id);
+                if (position >= 0 && !sameFields(ratings.get(position), change.rating)) {
+                    replace(position, change.rating);
+                    applied++;
+                }
+            } else if (change.op == RatingJournal.OP_CLEAR) {
+                int count = countUpTo(change.id);
+                int[] positions = new int[count];
+                for (int i = 0; i < count; i++) {
+                    positions[i] = i;
+                }
+                applied += deletePositions(positions, count).size();
+            }
+        }
+        return applied;
+    }
+
+    private static boolean sameFields(RatingViewModel.DishRating first, RatingViewModel.DishRating second) {
+        return first.getDishName().equals(second.getDishName())
+                && first.getDishType().equals(second.getDishType())
+                && first.getRating() == second.getRating()
+                && first.getTimestamp() == second.getTimestamp();
+    }
+
+    // Appends ratings that already have their ids, above every id in the list
+    private void append(List<RatingViewModel.DishRating> added) {
+        List<RatingJournal.Entry> entries = new ArrayList<>(added.size());
+        for (RatingViewModel.DishRating newRating : added) {
+            entries.add(RatingJournal.Entry.add(newRating));
+            aggregates.add(newRating);
+            rollups.add(newRating);
+            leaderboard.add(newRating);
+        }
+        rollups.downsample(System.currentTimeMillis());
+        ratings = ratings.plusAll(added);
+        if (writeBehind != null) {
+            writeBehind.enqueueAll(entries);
+        }
+        if (sync != null) {
+            sync.onRatingsChanged(restaurant.getId(), ratings, added.size());
+        }
+    }
+
+    /**
+     * Replaces the name, type and rating of a rating, keeping its id and timestamp, as a change
+     * that can be undone.
+     * @return The new version of the rating, or null if there is no rating with that id.
+     */
+    RatingViewModel.DishRating edit(long id, String dishName, String dishType, float rating) {
+        int position = RatingViewModel.indexOfId(ratings, id);
+        if (position < 0) {
+            return null;
+        }
+        RatingViewModel.DishRating before = ratings.get(position);
+        RatingViewModel.DishRating after = new RatingViewModel.DishRating(id, capped(dishName),
+                capped(dishType), rating, before.getTimestamp());
+        replace(position, after);
+        history.record(RatingHistory.Change.edit(before, after));
+        return after;
+    }
+
+    // Cuts a name or type to MAX_FIELD_LENGTH, without splitting a surrogate pair
+    static String capped(String value) {
+        if (value.length() <= MAX_FIELD_LENGTH) {
+            return value;
+        }
+        int end = MAX_FIELD_LENGTH;
+        if (Character.isHighSurrogate(value.charAt(end - 1))) {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    // Replaces the rating at a position with another version that has the same id
+    private void replace(int position, RatingViewModel.DishRating after) {
+        RatingViewModel.DishRating before = ratings.get(position);
+        ratings = ratings.minus(position).plus(position, after);
+        aggregates.remove(before);
+        aggregates.add(after);
+        rollups.remove(before);
+        rollups.add(after);
+        leaderboard.remove(before);
+        leaderboard.add(after);
+        persist(RatingJournal.Entry.edit(after));
+        if (sync != null) {
+            sync.onRatingEdited(restaurant.getId(), ratings, after.getId());
+        }
+    }
+
+    /**
+     * Removes the rating at a position of the list, as a change that can be undone.
+     * @return The removed rating.
+     */
+    RatingViewModel.DishRating removeAt(int position) {
+        RatingViewModel.DishRating removed = delete(position);
+        history.record(RatingHistory.Change.remove(removed));
+        return removed;
+    }
+
+    private RatingViewModel.DishRating delete(int position) {
+        RatingViewModel.DishRating removed = ratings.get(position);
+        ratings = ratings.minus(position);
+        aggregates.remove(removed);
+        rollups.remove(removed);
+        leaderboard.remove(removed);
+        persist(RatingJournal.Entry.remove(removed.getId()));
+        if (sync != null) {
+            sync.onRatingRemoved(restaurant.getId(), ratings, removed.getId());
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the ratings with the given ids, as one change that can be undone. Ids that are not
+     * in the list are ignored.
+     * @return The removed ratings, in list order.
+     */
+    List<RatingViewModel.DishRating> removeIds(Collection<Long> ids) {
+        List<RatingViewModel.DishRating> removed = deleteIds(ids);
+        record(removed);
+        return removed;
+    }
+
+    /**
+     * Removes every rating the filter accepts, as one change that can be undone.
+     * @return The removed ratings, in list order.
+     */
+    List<RatingViewModel.DishRating> removeIf(Predicate<RatingViewModel.DishRating> filter) {
+        int[] positions = new int[16];
+        int count = 0;
+        int position = 0;
+        for (RatingViewModel.DishRating rating : ratings) {
+            if (filter.test(rating)) {
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                }
+                positions[count++] = position;
+            }
+            position++;
+        }
+        List<RatingViewModel.DishRating> removed = deletePositions(positions, count);
+        record(removed);
+        return removed;
+    }
+
+    /**
+     * Removes every rating with the same dish name, type and stars as an older one, as one change
+     * that can be undone. Names are compared ignoring case and surrounding spaces.
+     * @return The removed ratings, in list order.
+     */
+    List<RatingViewModel.DishRating> removeDuplicates() {
+        final Set<String> seen = new HashSet<>();
+        // The list is sorted by id, so the first of each group is the oldest
+        return removeIf(rating -> !seen.add(rating.getDishName().trim().toLowerCase(Locale.ROOT)
+                + '\u0000' + rating.getDishType() + '\u0000' + Float.floatToIntBits(rating.getRating())));
+    }
+
+    private void record(List<RatingViewModel.DishRating> removed) {
+        if (removed.size() == 1) {
+            history.record(RatingHistory.Change.remove(removed.get(0)));
+        } else if (!removed.isEmpty()) {
+            history.record(RatingHistory.Change.removeAll(removed));
+        }
+    }
+
+    private List<RatingViewModel.DishRating> deleteIds(Collection<Long> ids) {
+        int[] positions = new int[ids.size()];
+        int count = 0;
+        for (long id : ids) {
+            int position = RatingViewModel.indexOfId(ratings, id);
+            if (position >= 0) {
+                positions[count++] = position;
+            }
+        }
+        Arrays.sort(positions, 0, count);
+        // Drop repeated ids
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || positions[i] != positions[unique - 1]) {
+                positions[unique++] = positions[i];
+            }
+        }
+        return deletePositions(positions, unique);
+    }
+
+    /**
+     * Removes the ratings at the given positions with one journal batch, one sync report and one
+     * new list, however many there are.
+     * @param positions Distinct positions in ascending order.
+     */
+    private List<RatingViewModel.DishRating> deletePositions(int[] positions, int count) {
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<RatingViewModel.DishRating> removed = new ArrayList<>(count);
+        if ((long) count * BULK_REMOVE_REBUILD_RATIO < ratings.size()) {
+            for (int i = 0; i < count; i++) {
+                removed.add(ratings.get(positions[i]));
+            }
+            // From the back, so earlier positions stay valid
+            for (int i = count - 1; i >= 0; i--) {
+                ratings = ratings.minus(positions[i]);
+            }
+        } else {
+            List<RatingViewModel.DishRating> kept = new ArrayList<>(ratings.size() - count);
+            int next = 0;
+            int position = 0;
+            for (RatingViewModel.DishRating rating : ratings) {
+                if (next < count && positions[next] == position) {
+                    removed.add(rating);
+                    next++;
+                } else {
+                    kept.add(rating);
+                }
+                position++;
+            }
+            ratings = ratings.cleared().plusAll(kept);
+        }
+
+        List<RatingJournal.Entry> entries = new ArrayList<>(count);
+        List<Long> removedIds = new ArrayList<>(count);
+        for (RatingViewModel.DishRating rating : removed) {
+            aggregates.remove(rating);
+            rollups.remove(rating);
+            leaderboard.remove(rating);
+            entries.add(RatingJournal.Entry.remove(rating.getId()));
+            removedIds.add(rating.getId());
+        }
+        if (writeBehind != null) {
+            writeBehind.enqueueAll(entries);
+        }
+        if (sync != null) {
+            sync.onRatingsRemoved(restaurant.getId(), ratings, removedIds);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every rating, as a change that can be undone.
+     */
+    void clear() {
+        if (!ratings.isEmpty()) {
+            // The list is immutable, so keeping it costs nothing
+            history.record(RatingHistory.Change.clear(ratings));
+        }
+        clearAll();
+    }
+
+    private void clearAll() {
+        aggregates.clear();
+        rollups.clear();
+        leaderboard.clear();
+        ratings = ratings.cleared();
+        persist(RatingJournal.Entry.clear(nextRatingId - 1));
+        if (sync != null && nextRatingId > 1) {
+            sync.onRatingsCleared(restaurant.getId(), ratings, nextRatingId - 1);
+        }
+    }
+
+    boolean canUndo() {
+        return history.canUndo();
+    }
+
+    boolean canRedo() {
+        return history.canRedo();
+    }
+
+    /**
+     * Reverses the most recent change that can still be undone. A change whose rating is gone,
+     * e.g. because it was removed by something other than the user, is skipped.
+     * @return What was done to the list, or null if there was nothing to undo.
+     */
+    Applied undo() {
+        RatingHistory.Change change;
+        while ((change = history.popUndo()) != null) {
+            Applied applied = apply(change, true);
+            if (applied != null) {
+                history.undone(change);
+                return applied;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Repeats the most recently undone change.
+     * @return What was done to the list, or null if there was nothing to redo.
+     */
+    Applied redo() {
+        RatingHistory.Change change;
+        while ((change = history.popRedo()) != null) {
+            Applied applied = apply(change, false);
+            if (applied != null) {
+                history.redone(change);
+                return applied;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Applies a change or its reverse without recording it. Ratings added back get new ids, which
+     * the history remembers for the changes that refer to them, and so land at the end of the
+     * list. O(log n) for one rating; undoing a clear or bulk removal adds every rating it removed
+     * back.
+     * @return What was done, or null if the rating the change refers to is gone.
+     */
+    private Applied apply(RatingHistory.Change change, boolean reverse) {
+        switch (change.kind) {
+            case ADD:
+            case REMOVE: {
+                // An undone add is a removal and an undone removal is an add
+                boolean adding = (change.kind == RatingHistory.Kind.ADD) != reverse;
+                RatingViewModel.DishRating rating = change.kind == RatingHistory.Kind.ADD ? change.after : change.before;
+                if (adding) {
+                    RatingViewModel.DishRating added = insertCopy(rating);
+                    history.moved(history.resolve(rating.getId()), added.getId());
+                    return new Applied(Collections.<RatingViewModel.DishRating>emptyList(),
+                            Collections.singletonList(added), false);
+                }
+                int position = RatingViewModel.indexOfId(ratings, history.resolve(rating.getId()));
+                if (position < 0) {
+                    return null;
+                }
+                return new Applied(Collections.singletonList(delete(position)),
+                        Collections.<RatingViewModel.DishRating>emptyList(), false);
+            }
+            case EDIT: {
+                RatingViewModel.DishRating target = reverse ? change.before : change.after;
+                int position = RatingViewModel.indexOfId(ratings, history.resolve(target.getId()));
+                if (position < 0) {
+                    return null;
+                }
+                RatingViewModel.DishRating current = ratings.get(position);
+                RatingViewModel.DishRating replacement = new RatingViewModel.DishRating(current.getId(),
+                        target.getDishName(), target.getDishType(), target.getRating(), current.getTimestamp());
+                replace(position, replacement);
+                return new Applied(Collections.singletonList(current), Collections.singletonList(replacement), false);
+            }
+            case REMOVE_ALL:
+            case CLEAR:
+            default: {
+                if (!reverse && change.kind == RatingHistory.Kind.CLEAR) {
+                    clearAll();
+                    return new Applied(Collections.<RatingViewModel.DishRating>emptyList(),
+                            Collections.<RatingViewModel.DishRating>emptyList(), true);
+                }
+                if (!reverse) {
+                    List<Long> ids = new ArrayList<>(change.ratings.size());
+                    for (RatingViewModel.DishRating rating : change.ratings) {
+                        ids.add(history.resolve(rating.getId()));
+                    }
+                    List<RatingViewModel.DishRating> removed = deleteIds(ids);
+                    return removed.isEmpty() ? null : new Applied(removed,
+                            Collections.<RatingViewModel.DishRating>emptyList(), false);
+                }
+                List<RatingViewModel.DishRating> added = addAll(change.ratings);
+                for (int i = 0; i < added.size(); i++) {
+                    history.moved(history.resolve(change.ratings.get(i).getId()), added.get(i).getId());
+                }
+                return new Applied(Collections.<RatingViewModel.DishRating>emptyList(), added, false);
+            }
+        }
+    }
+
+    // Queues a change for the background journal writer
+    private void persist(RatingJournal.Entry entry) {
+        if (writeBehind != null) {
+            writeBehind.enqueue(entry);
+        }
+    }
+
+    /**
+     * Runs on the write-behind writer thread: appends a batch as one group commit, then
+     * compacts the journal once removals have left it mostly dead records. If the commit fails
+     * the batch is not in the journal and the exception goes to the write-behind, which keeps the
+     * batch, retries it and reports the failure in its statistics.
+     */
+    private void commitToJournal(List<RatingJournal.Entry> batch) {
+        try {
+            journal.commit(batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not save " + batch.size() + " rating changes of "
+                    + restaurant.getName(), e);
+        }
+        long committed = journaledId;
+        for (RatingJournal.Entry entry : batch) {
+            if (entry.op == RatingJournal.OP_ADD) {
+                committed = Math.max(committed, entry.id);
+            }
+        }
+        journaledId = committed;
+        if (journal.shouldCompact()) {
+            try {
+                journal.compact();
+            } catch (IOException | RuntimeException e) {
+                // The batch is committed; the old journal stays in use and compaction is tried again
+                // after the next batch
+                Log.w(TAG, "Could not compact the rating journal of " + restaurant.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Commits every queued change and closes the journal. Blocks until the writer is done, so
+     * evicted shards are closed off the main thread. The shard must not be changed afterwards.
+     */
+    void close() {
+        sync = null;
+        if (writeBehind != null) {
+            try {
+                writeBehind.close();
+            } catch (IllegalStateException e) {
+                // The journal keeps what it had committed; the shard is going away either way
+                Log.w(TAG, "Could not save the last rating changes of " + restaurant.getName(), e.getCause());
+            } finally {
+                writeBehind = null;
+            }
+        }
+        closeQuietly(journal);
+        journal = null;
+    }
+
+    private static void closeQuietly(RatingJournal journal) {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close the rating journal", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.restaurantraterapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary form of a ratings list, small enough to keep in the saved instance state,
+ * optionally followed by the removals, edits and clears queued for the journal.
+ *
+ * Layout, all integers as unsigned LEB128 varints:
+ * <pre>
+ * version, count, string count, strings (UTF-8 length, bytes)...
+ * per rating: id delta, zigzag timestamp delta, dish type index, dish name index, rating byte
+ * change count, per change: journal op, then
+ *   removal: id; clear: highest id it removed; edit: id, zigzag timestamp, type, name, rating byte
+ * </pre>
+ * Version 1 snapshots have no changes. Dish names and types of ratings and edits go into one
+ * dictionary, so a name that recurs costs one or two bytes.
+ * Ids are stored as the gap to the previous id and timestamps as the signed difference to the
+ * previous timestamp, which for a list sorted by id are both small. Ratings are stored in tenths
+ * of a star in one byte; a rating that is not a whole number of tenths is written as the escape
+ * byte followed by its four float bytes, so every list round-trips exactly.
+ */
+final class RatingSnapshot {
+
+    private static final int VERSION = 2;
+
+    // Last version without the changes section, still read
+    private static final int VERSION_WITHOUT_CHANGES = 1;
+
+    // Rating byte that is followed by the rating's raw float bits
+    private static final int RATING_EXACT = 0xFF;
+
+    // Most tenths of a star that fit in the rating byte besides the escape
+    private static final int MAX_TENTHS = RATING_EXACT - 1;
+
+    private RatingSnapshot() {
+    }
+
+    /**
+     * What a snapshot holds.
+     */
+    static final class Contents {
+        // Sorted by id
+        final List<RatingViewModel.DishRating> ratings;
+        // Removals, edits and clears, in the order they were made
+        final List<RatingJournal.Entry> changes;
+
+        Contents(List<RatingViewModel.DishRating> ratings, List<RatingJournal.Entry> changes) {
+            this.ratings = ratings;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * @param ratings A list sorted by id, such as a shard's ratings.
+     */
+    static byte[] encode(List<RatingViewModel.DishRating> ratings) {
+        return encode(ratings, Collections.<RatingJournal.Entry>emptyList());
+    }
+
+    /**
+     * @param ratings A list sorted by id, such as a shard's ratings.
+     * @param changes Removals, edits and clears made after the ratings were added; a clear must
+     * carry the highest id it removed.
+     */
+    static byte[] encode(List<RatingViewModel.DishRating> ratings, List<RatingJournal.Entry> changes) {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteWriter rows = new ByteWriter(ratings.size() * 6 + 16);
+        long previousId = 0;
+        long previousTimestamp = 0;
+        for (RatingViewModel.DishRating rating : ratings) {
+            rows.writeVarint(rating.getId() - previousId);
+            rows.writeVarint(zigzag(rating.getTimestamp() - previousTimestamp));
+            rows.writeVarint(intern(dictionary, strings, rating.getDishType()));
+            rows.writeVarint(intern(dictionary, strings, rating.getDishName()));
+            writeRating(rows, rating.getRating());
+            previousId = rating.getId();
+            previousTimestamp = rating.getTimestamp();
+        }
+        rows.writeVarint(changes.size());
+        for (RatingJournal.Entry change : changes) {
+            rows.writeByte(change.op);
+            if (change.op == RatingJournal.OP_EDIT) {
+                RatingViewModel.DishRating rating = change.rating;
+                rows.writeVarint(rating.getId());
+                rows.writeVarint(zigzag(rating.getTimestamp()));
+                rows.writeVarint(intern(dictionary, strings, rating.getDishType()));
+                rows.writeVarint(intern(dictionary, strings, rating.getDishName()));
+                writeRating(rows, rating.getRating());
+            } else if (change.op == RatingJournal.OP_REMOVE || change.op == RatingJournal.OP_CLEAR) {
+                rows.writeVarint(change.id);
+            } else {
+                throw new IllegalArgumentException("Not a removal, edit or clear: " + change.op);
+            }
+        }
+
+        ByteWriter out = new ByteWriter(rows.size + strings.size() * 16 + 16);
+        out.writeVarint(VERSION);
+        out.writeVarint(ratings.size());
+        out.writeVarint(strings.size());
+        for (String value : strings) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.write(rows.bytes, 0, rows.size);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The ratings, sorted by id as they were encoded.
+     * @throws IOException If the data is truncated or not a snapshot of a known version.
+     */
+    static List<RatingViewModel.DishRating> decode(byte[] data) throws IOException {
+        return decodeContents(data).ratings;
+    }
+
+    /**
+     * @return The ratings and the changes, as they were encoded.
+     * @throws IOException If the data is truncated or not a snapshot of a known version.
+     */
+    static Contents decodeContents(byte[] data) throws IOException {
+        ByteReader in = new ByteReader(data);
+        long version = in.readVarint();
+        if (version != VERSION && version != VERSION_WITHOUT_CHANGES) {
+            throw new IOException("Unknown snapshot version");
+        }
+        int count = in.readCount();
+        String[] strings = new String[in.readCount()];
+        for (int i = 0; i < strings.length; i++) {
+            int length = in.readCount();
+            strings[i] = in.readString(length);
+        }
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>(count);
+        long id = 0;
+        long timestamp = 0;
+        for (int i = 0; i < count; i++) {
+            id += in.readVarint();
+            timestamp += unzigzag(in.readVarint());
+            String dishType = in.readString(strings);
+            String dishName = in.readString(strings);
+            float rating = readRating(in);
+            ratings.add(new RatingViewModel.DishRating(id, dishName, dishType, rating, timestamp));
+        }
+        List<RatingJournal.Entry> changes = version == VERSION_WITHOUT_CHANGES
+                ? Collections.<RatingJournal.Entry>emptyList() : readChanges(in, strings);
+        if (in.position != data.length) {
+            throw new IOException("Trailing bytes after the snapshot");
+        }
+        return new Contents(ratings, changes);
+    }
+
+    private static List<RatingJournal.Entry> readChanges(ByteReader in, String[] strings) throws IOException {
+        int count = in.readCount();
+        List<RatingJournal.Entry> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int op = in.readByte();
+            if (op == RatingJournal.OP_EDIT) {
+                long id = in.readVarint();
+                long timestamp = unzigzag(in.readVarint());
+                String dishType = in.readString(strings);
+                String dishName = in.readString(strings);
+                changes.add(RatingJournal.Entry.edit(
+                        new RatingViewModel.DishRating(id, dishName, dishType, readRating(in), timestamp)));
+            } else if (op == RatingJournal.OP_REMOVE) {
+                changes.add(RatingJournal.Entry.remove(in.readVarint()));
+            } else if (op == RatingJournal.OP_CLEAR) {
+                changes.add(RatingJournal.Entry.clear(in.readVarint()));
+            } else {
+                throw new IOException("Unknown change in snapshot: " + op);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return A checksum of encoded data, to tell a spill file apart from a stale one.
+     */
+    static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a snapshot too large for the saved state to a file. Written beside the file and
+     * renamed over it, so a reader never sees half a snapshot.
+     */
+    static void writeFile(File file, byte[] data) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+        }
+        if (!temp.renameTo(file)) {
+            throw new FileNotFoundException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Reads a spilled snapshot back.
+     * @param expectedChecksum The checksum of the data that was spilled.
+     * @throws IOException If the file is missing or holds other data, e.g. a later snapshot.
+     */
+    static byte[] readFile(File file, long expectedChecksum) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large");
+        }
+        byte[] data = new byte[(int) length];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    throw new IOException("Snapshot file truncated");
+                }
+                read += n;
+            }
+        }
+        if (checksum(data) != expectedChecksum) {
+            throw new IOException("Snapshot file does not match the saved state");
+        }
+        return data;
+    }
+
+    private static int intern(Map<String, Integer> dictionary, List<String> strings, String value) {
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = strings.size();
+            dictionary.put(value, index);
+            strings.add(value);
+        }
+        return index;
+    }
+
+    private static void writeRating(ByteWriter out, float rating) {
+        float tenths = rating * 10f;
+        int rounded = Math.round(tenths);
+        if (rounded >= 0 && rounded <= MAX_TENTHS && rounded / 10f == rating) {
+            out.writeByte(rounded);
+        } else {
+            out.writeByte(RATING_EXACT);
+            int bits = Float.floatToIntBits(rating);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                out.writeByte(bits >>> shift);
+            }
+        }
+    }
+
+    private static float readRating(ByteReader in) throws IOException {
+        int value = in.readByte();
+        if (value != RATING_EXACT) {
+            return value / 10f;
+        }
+        int bits = 0;
+        for (int i = 0; i < 4; i++) {
+            bits = (bits << 8) | in.readByte();
+        }
+        return Float.intBitsToFloat(bits);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Growable byte buffer with varint writes, cheaper than a ByteArrayOutputStream per byte
+    private static final class ByteWriter {
+        byte[] bytes;
+        int size;
+
+        ByteWriter(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void writeByte(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void write(byte[] source, int offset, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + length, size * 2));
+            }
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        byte[] toByteArray() {
+            return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static final class ByteReader {
+        final byte[] data;
+        int position;
+
+        ByteReader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() throws IOException {
+            if (position == data.length) {
+                throw new IOException("Snapshot truncated");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in snapshot");
+        }
+
+        // A length or count, which can never exceed the bytes left
+        int readCount() throws IOException {
+            long value = readVarint();
+            if (value > data.length - position) {
+                throw new IOException("Snapshot count out of range");
+            }
+            return (int) value;
+        }
+
+        String readString(int length) {
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readString(String[] strings) throws IOException {
+            long index = readVarint();
+            if (index >= strings.length) {
+                throw new IOException("Snapshot string index out of range");
+            }
+            return strings[(int) index];
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.restaurantraterapp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ratings of every restaurant in the chain, partitioned into one RatingShard per restaurant.
+ *
+ * Shards are loaded lazily, the first time their restaurant is shown, and kept in an LRU cache.
+ * The cache holds at most {@code maxShards} shards and, beyond the shard in use, no more than
+ * {@code maxCachedRatings} ratings in total; the least recently used shards are evicted first and
+ * their journals are flushed and closed in the background.
+ *
+ * Loading, closing and summarizing shards all run on one background thread, so a shard is never
+ * reloaded before its previous instance has finished writing. Everything else, including the
+ * cache itself, is confined to the main thread.
+ *
+ * For chain-wide views the store keeps the aggregates snapshot of every restaurant it has seen.
+ * Cached shards keep theirs current; {@link #summarizeAll} fills in the others by replaying their
+ * journals one at a time in the background.
+ */
+class RatingStore {
+
+    /**
+     * Receives a shard loaded in the background, on the main thread.
+     */
+    interface LoadCallback {
+        void onLoaded(RatingShard shard);
+    }
+
+    private final File journalDir;
+    private final int maxShards;
+    private final int maxCachedRatings;
+    private final Executor mainExecutor;
+    private final RatingWriteBehind.StatsListener statsListener;
+    private final RatingSyncEngine sync;
+
+    private final ExecutorService storeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RatingStore");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Loaded shards by restaurant id, least recently used first
+    private final LinkedHashMap<Long, RatingShard> shards = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Restaurants with a load in flight, with the callbacks waiting for it
+    private final Map<Long, List<LoadCallback>> pendingLoads = new HashMap<>();
+
+    // Latest aggregates of every restaurant seen so far, cached or not
+    private final Map<Long, RatingAggregates.Snapshot> summaries = new HashMap<>();
+
+    /**
+     * @param journalDir Directory holding the restaurants' journals, or null to keep ratings in memory only.
+     * @param maxShards Most shards kept loaded, including the one in use.
+     * @param maxCachedRatings Most ratings kept in the shards that are not in use.
+     * @param mainExecutor Runs load callbacks on the main thread.
+     * @param statsListener Receives write-behind statistics of every shard, may be null.
+     * @param sync Uploads the changes of every shard, may be null.
+     */
+    RatingStore(File journalDir, int maxShards, int maxCachedRatings, Executor mainExecutor,
+                RatingWriteBehind.StatsListener statsListener, RatingSyncEngine sync) {
+        if (maxShards < 1) {
+            throw new IllegalArgumentException("maxShards must be at least 1");
+        }
+        this.journalDir = journalDir;
+        this.maxShards = maxShards;
+        this.maxCachedRatings = maxCachedRatings;
+        this.mainExecutor = mainExecutor;
+        this.statsListener = statsListener;
+        this.sync = sync;
+    }
+
+    /**
+     * Loads a shard on the calling thread, for the restaurant shown on startup.
+     */
+    RatingShard loadNow(Restaurant restaurant) {
+        RatingShard shard = shards.get(restaurant.getId());
+        if (shard == null) {
+            shard = RatingShard.load(restaurant, journalDir, statsListener, sync);
+            install(shard);
+        }
+        return shard;
+    }
+
+    /**
+     * @return The restaurant's shard if it is cached, or null. Counts as a use for the LRU order.
+     */
+    RatingShard getIfLoaded(long restaurantId) {
+        return shards.get(restaurantId);
+    }
+
+    /**
+     * Loads a restaurant's shard in the background unless it is cached, then passes it to the
+     * callback on the main thread. Concurrent requests for the same restaurant share one load.
+     */
+    void load(Restaurant restaurant, LoadCallback callback) {
+        RatingShard cached = shards.get(restaurant.getId());
+        if (cached != null) {
+            callback.onLoaded(cached);
+            return;
+        }
+        List<LoadCallback> waiting = pendingLoads.get(restaurant.getId());
+        if (waiting != null) {
+            waiting.add(callback);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        pendingLoads.put(restaurant.getId(), waiting);
+        storeExecutor.execute(() -> {
+            RatingShard shard = RatingShard.load(restaurant, journalDir, statsListener, sync);
+            mainExecutor.execute(() -> {
+                List<LoadCallback> callbacks = pendingLoads.remove(restaurant.getId());
+                install(shard);
+                for (LoadCallback waitingCallback : callbacks) {
+                    waitingCallback.onLoaded(shard);
+                }
+            });
+        });
+    }
+
+    private void install(RatingShard shard) {
+        shards.put(shard.getRestaurant().getId(), shard);
+        updateSummary(shard.getRestaurant().getId(), shard.getAggregates().snapshot());
+    }
+
+    /**
+     * Records a restaurant's current aggregates for the chain-wide view, after a change to its shard.
+     */
+    void updateSummary(long restaurantId, RatingAggregates.Snapshot snapshot) {
+        summaries.put(restaurantId, snapshot);
+    }
+
+    /**
+     * Evicts least recently used shards until the cache fits its limits. The shard in use is
+     * never evicted; evicted shards are closed in the background.
+     */
+    void trim(RatingShard inUse) {
+        int cachedRatings = 0;
+        for (RatingShard shard : shards.values()) {
+            if (shard != inUse) {
+                cachedRatings += shard.size();
+            }
+        }
+        Iterator<RatingShard> leastRecentlyUsed = shards.values().iterator();
+        while (leastRecentlyUsed.hasNext() && (shards.size() > maxShards || cachedRatings > maxCachedRatings)) {
+            RatingShard shard = leastRecentlyUsed.next();
+            if (shard == inUse) {
+                continue;
+            }
+            leastRecentlyUsed.remove();
+            cachedRatings -= shard.size();
+            storeExecutor.execute(shard::close);
+        }
+    }
+
+    /**
+     * @return The ids of the cached shards, least recently used first.
+     */
+    List<Long> getCachedRestaurantIds() {
+        return new ArrayList<>(shards.keySet());
+    }
+
+    /**
+     * Combines the aggregates of every restaurant seen so far, without loading any shard.
+     */
+    RatingAggregates.Snapshot chainSummary() {
+        return RatingAggregates.combine(summaries.values());
+    }
+
+    /**
+     * Fills in the aggregates of restaurants that have not been seen yet by replaying their
+     * journals in the background, one at a time, without caching their shards. The callback
+     * runs on the main thread once every restaurant has a summary.
+     */
+    void summarizeAll(Collection<Restaurant> restaurants, Runnable callback) {
+        final List<Restaurant> missing = new ArrayList<>();
+        for (Restaurant restaurant : restaurants) {
+            if (!summaries.containsKey(restaurant.getId()) && !pendingLoads.containsKey(restaurant.getId())) {
+                missing.add(restaurant);
+            }
+        }
+        storeExecutor.execute(() -> {
+            final Map<Long, RatingAggregates.Snapshot> scanned = new HashMap<>();
+            for (Restaurant restaurant : missing) {
+                scanned.put(restaurant.getId(), RatingShard.summarize(restaurant, journalDir));
+            }
+            mainExecutor.execute(() -> {
+                for (Map.Entry<Long, RatingAggregates.Snapshot> entry : scanned.entrySet()) {
+                    // A shard loaded meanwhile has the newer numbers
+                    if (!shards.containsKey(entry.getKey())) {
+                        summaries.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                callback.run();
+            });
+        });
+    }
+
+    /**
+     * Closes every cached shard, committing their queued changes, and stops the background thread.
+     * Blocks until the writes are done.
+     */
+    void close() {
+        for (RatingShard shard : shards.values()) {
+            shard.close();
+        }
+        shards.clear();
+        storeExecutor.shutdown();
+    }
+}
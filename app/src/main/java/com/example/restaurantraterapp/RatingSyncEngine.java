@@ -0,0 +1,741 @@
+package com.example.restaurantraterapp;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads rating changes of every restaurant to a backend, as deltas.
+ *
+ * For each restaurant the engine keeps a high-water mark: the highest rating id the backend has
+ * acknowledged. Rating ids only ever increase, so the ratings still to upload are exactly those
+ * above the mark, and nothing below it is sent twice. Removals, clears and edits of ratings below
+ * the mark are kept as pending until acknowledged. The marks and pending changes are saved to a
+ * small state file, so a restart resumes where the last acknowledged batch ended.
+ *
+ * Shards report their changes from the main thread; that only queues them. A single sync thread
+ * collects them for up to flushDelayMs, then uploads in batches of at most maxBatchRatings changes
+ * and maxBatchBytes of JSON, each gzip-compressed. A failed batch is retried with the same bytes
+ * and idempotency key after an exponential backoff with jitter, so a batch whose response was
+ * lost is applied only once.
+ *
+ * A batch answered with 400, 413 or 422 is refused as sent, and retrying would block every change
+ * behind it. It is split in half instead, and the halves are uploaded in its place, until the
+ * refused change is alone in a batch; that change is skipped and counted in the status as rejected.
+ * It stays on the device, it is only never uploaded.
+ *
+ * Every change is commutative and idempotent on the backend: ratings are keyed by device,
+ * restaurant and id, an edit carries a version that only increases on this device and the highest
+ * version wins, and deletes are tombstones that win over uploads and edits of the same rating.
+ * Batches can therefore be applied in any order, any number of times, and devices never conflict.
+ *
+ * The batch body is JSON lines: a header object with the device, restaurant and optional
+ * clearThrough id, then one {"delete":id} object per removal, one rating object with a leading
+ * "edit":version per edit, and one rating object, in the same shape as the JSON export, per new
+ * rating.
+ */
+final class RatingSyncEngine {
+
+    private static final String TAG = "RatingSyncEngine";
+
+    private static final int STATE_VERSION = 2;
+    // State files written before edits were synced, still read
+    private static final int STATE_VERSION_WITHOUT_EDITS = 1;
+
+    // Share of each backoff delay that is randomized, so devices do not retry in lockstep
+    private static final double BACKOFF_JITTER = 0.5;
+
+    /**
+     * Batch and retry limits.
+     */
+    static final class Config {
+        static final Config DEFAULT = new Config(500, 256 * 1024, 5_000, 1_000, 5 * 60_000);
+
+        final int maxBatchRatings;
+        final int maxBatchBytes;
+        final long flushDelayMs;
+        final long initialBackoffMs;
+        final long maxBackoffMs;
+
+        /**
+         * @param maxBatchRatings Most changes per batch.
+         * @param maxBatchBytes Most bytes of JSON per batch before compression; a single larger
+         *                      rating still goes in a batch of its own.
+         * @param flushDelayMs How long changes are collected before they are uploaded.
+         * @param initialBackoffMs Delay before the first retry of a failed batch; doubles with each failure.
+         * @param maxBackoffMs Longest delay between retries.
+         */
+        Config(int maxBatchRatings, int maxBatchBytes, long flushDelayMs, long initialBackoffMs, long maxBackoffMs) {
+            if (maxBatchRatings < 1 || maxBatchBytes < 1 || initialBackoffMs < 1 || maxBackoffMs < initialBackoffMs) {
+                throw new IllegalArgumentException("Invalid sync limits");
+            }
+            this.maxBatchRatings = maxBatchRatings;
+            this.maxBatchBytes = maxBatchBytes;
+            this.flushDelayMs = flushDelayMs;
+            this.initialBackoffMs = initialBackoffMs;
+            this.maxBackoffMs = maxBackoffMs;
+        }
+    }
+
+    /**
+     * Progress of the sync, reported after every batch.
+     */
+    public static final class Status {
+        private final long pendingChanges;
+        private final long uploadedChanges;
+        private final long rejectedChanges;
+        private final int consecutiveFailures;
+        private final String lastError;
+
+        Status(long pendingChanges, long uploadedChanges, long rejectedChanges, int consecutiveFailures,
+               String lastError) {
+            this.pendingChanges = pendingChanges;
+            this.uploadedChanges = uploadedChanges;
+            this.rejectedChanges = rejectedChanges;
+            this.consecutiveFailures = consecutiveFailures;
+            this.lastError = lastError;
+        }
+
+        // Changes reported by the shards that the backend has not acknowledged yet
+        public long getPendingChanges() {
+            return pendingChanges;
+        }
+
+        // Changes acknowledged since the engine started
+        public long getUploadedChanges() {
+            return uploadedChanges;
+        }
+
+        // Changes the backend refused as invalid since the engine started; they are not retried
+        public long getRejectedChanges() {
+            return rejectedChanges;
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        // Why the last upload failed or was rejected, or null if it succeeded
+        public String getLastError() {
+            return lastError;
+        }
+    }
+
+    /**
+     * Receives the status on the sync thread.
+     */
+    interface StatusListener {
+        void onStatus(Status status);
+    }
+
+    /**
+     * Receives the failures the engine recovers from, on the sync thread. The app logs them to
+     * logcat; plain JVM tests pass their own, because android.util.Log is not available there.
+     */
+    interface Logger {
+        void warn(String message, Throwable error);
+    }
+
+    // Logs to logcat under the engine's tag
+    static final Logger ANDROID_LOG = (message, error) -> Log.w(TAG, message, error);
+
+    // A change reported by a shard: a new list snapshot, and possibly removals, a clear or an edit
+    private static final class Change {
+        final long restaurantId;
+        final List<RatingViewModel.DishRating> ratings;
+        final int addedCount;
+        final List<Long> removedIds;
+        final long clearedThroughId;
+        final long editedId;
+
+        Change(long restaurantId, List<RatingViewModel.DishRating> ratings, int addedCount,
+               List<Long> removedIds, long clearedThroughId, long editedId) {
+            this.restaurantId = restaurantId;
+            this.ratings = ratings;
+            this.addedCount = addedCount;
+            this.removedIds = removedIds;
+            this.clearedThroughId = clearedThroughId;
+            this.editedId = editedId;
+        }
+    }
+
+    // Sync progress of one restaurant; only used on the sync thread
+    private static final class RestaurantState {
+        // Every rating up to this id has been acknowledged by the backend
+        long uploadedThroughId;
+        // Ids removed locally whose deletion has not been acknowledged
+        final TreeSet<Long> pendingDeletes = new TreeSet<>();
+        // Clear of every rating up to this id, not acknowledged yet; 0 if none
+        long pendingClearThroughId;
+        // Ids edited locally whose edit has not been acknowledged, mapped to the sequence number of
+        // their latest edit. Ratings above the mark wait until they are uploaded themselves.
+        final TreeMap<Long, Long> pendingEdits = new TreeMap<>();
+        // Latest ratings list of the restaurant's shard, sorted by id; null until it has loaded
+        List<RatingViewModel.DishRating> ratings;
+    }
+
+    // One upload, kept as sent so a retry repeats it byte for byte
+    private static final class Batch {
+        final long restaurantId;
+        final String idempotencyKey;
+        final byte[] body;
+        final long lastUploadedId;
+        final List<Long> deletes;
+        final long clearThroughId;
+        // Edited ids sent, with the edit sequence number they were sent at
+        final Map<Long, Long> edits;
+
+        Batch(long restaurantId, String idempotencyKey, byte[] body, long lastUploadedId,
+              List<Long> deletes, long clearThroughId, Map<Long, Long> edits) {
+            this.restaurantId = restaurantId;
+            this.idempotencyKey = idempotencyKey;
+            this.body = body;
+            this.lastUploadedId = lastUploadedId;
+            this.deletes = deletes;
+            this.clearThroughId = clearThroughId;
+            this.edits = edits;
+        }
+
+        int changeCount(RestaurantState state) {
+            // Uploaded ratings are counted from the mark they move
+            int uploaded = 0;
+            if (state.ratings != null && lastUploadedId > state.uploadedThroughId) {
+                uploaded = firstIndexAbove(state.ratings, lastUploadedId) - firstIndexAbove(state.ratings, state.uploadedThroughId);
+            }
+            return uploaded + deletes.size() + edits.size() + (clearThroughId > 0 ? 1 : 0);
+        }
+    }
+
+    private final SyncTransport transport;
+    private final File stateFile;
+    private final Config config;
+    private final StatusListener statusListener;
+    private final Logger logger;
+    private final Random random = new Random();
+
+    private final ScheduledThreadPoolExecutor syncExecutor;
+
+    // Changes handed over by the shards, drained on the sync thread
+    private final ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong pendingChanges = new AtomicLong();
+
+    // Everything below is only used on the sync thread
+    private String deviceId;
+    private final Map<Long, RestaurantState> restaurants = new TreeMap<>();
+    private boolean stateDirty;
+    private Batch inFlight;
+    private int consecutiveFailures;
+    private long retryAtMillis;
+    private long uploadedChanges;
+    private long rejectedChanges;
+    // Most changes in the next batch: maxBatchRatings, or less while a rejected batch is being split
+    private int batchLimit;
+    // Version of the latest edit sent; see nextEditVersion()
+    private long lastEditVersion;
+    // Counts edits as they are drained, so an edit made after a batch was built stays pending
+    private long editSequence;
+
+    /**
+     * @param stateFile Where the high-water marks and pending changes are kept, or null to keep
+     *                  them in memory only.
+     * @param statusListener Receives progress on the sync thread, may be null.
+     * @param logger Receives failed uploads and state file errors; {@link #ANDROID_LOG} in the app.
+     */
+    RatingSyncEngine(SyncTransport transport, File stateFile, Config config, StatusListener statusListener,
+                     Logger logger) {
+        this.transport = transport;
+        this.stateFile = stateFile;
+        this.config = config;
+        this.statusListener = statusListener;
+        this.logger = logger;
+        batchLimit = config.maxBatchRatings;
+        syncExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "RatingSync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Pending retries are dropped on close; the next start picks them up from the state file
+        syncExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        syncExecutor.execute(this::loadState);
+    }
+
+    /**
+     * Reports a restaurant's new ratings list, e.g. after ratings were added or its shard loaded.
+     * Safe to call from any thread.
+     * @param ratings The whole list, sorted by id. Must not change afterwards.
+     * @param addedCount How many ratings were added since the last report.
+     */
+    void onRatingsChanged(long restaurantId, List<RatingViewModel.DishRating> ratings, int addedCount) {
+        report(new Change(restaurantId, ratings, addedCount, Collections.<Long>emptyList(), 0, -1));
+    }
+
+    /**
+     * Reports the removal of a rating, with the list that no longer holds it.
+     */
+    void onRatingRemoved(long restaurantId, List<RatingViewModel.DishRating> ratings, long removedId) {
+        report(new Change(restaurantId, ratings, 0, Collections.singletonList(removedId), 0, -1));
+    }
+
+    /**
+     * Reports the removal of many ratings at once, with the list that no longer holds them.
+     */
+    void onRatingsRemoved(long restaurantId, List<RatingViewModel.DishRating> ratings, List<Long> removedIds) {
+        report(new Change(restaurantId, ratings, 0, removedIds, 0, -1));
+    }
+
+    /**
+     * Reports that every rating of a restaurant up to the given id was removed.
+     */
+    void onRatingsCleared(long restaurantId, List<RatingViewModel.DishRating> ratings, long clearedThroughId) {
+        report(new Change(restaurantId, ratings, 0, Collections.<Long>emptyList(), clearedThroughId, -1));
+    }
+
+    /**
+     * Reports that the rating with the given id was replaced by the version in the list.
+     */
+    void onRatingEdited(long restaurantId, List<RatingViewModel.DishRating> ratings, long editedId) {
+        report(new Change(restaurantId, ratings, 0, Collections.<Long>emptyList(), 0, editedId));
+    }
+
+    private void report(Change change) {
+        changes.add(change);
+        int count = change.addedCount + change.removedIds.size() + (change.clearedThroughId > 0 ? 1 : 0)
+                + (change.editedId >= 0 ? 1 : 0);
+        pendingChanges.addAndGet(count);
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                syncExecutor.schedule(this::flush, config.flushDelayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed; the change is already in the journal and is picked up on the next start
+            }
+        }
+    }
+
+    /**
+     * Saves the sync state and stops the sync thread. Changes not uploaded yet are uploaded
+     * after the next start, from the state file and the journals.
+     */
+    void close() {
+        syncExecutor.execute(() -> {
+            drainChanges();
+            saveStateIfDirty();
+        });
+        syncExecutor.shutdown();
+    }
+
+    /**
+     * Waits for the sync thread to finish after {@link #close()}, for tests.
+     */
+    boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return syncExecutor.awaitTermination(timeout, unit);
+    }
+
+    // Runs on the sync thread: uploads everything pending, one batch after another
+    private void flush() {
+        flushScheduled.set(false);
+        drainChanges();
+        if (System.currentTimeMillis() < retryAtMillis) {
+            // A retry is already scheduled
+            saveStateIfDirty();
+            return;
+        }
+        while (true) {
+            Batch batch = inFlight != null ? inFlight : nextBatch();
+            if (batch == null) {
+                // Caught up; batches split after a rejection go back to full size
+                batchLimit = config.maxBatchRatings;
+                break;
+            }
+            inFlight = batch;
+            String error;
+            try {
+                int status = transport.upload(batch.idempotencyKey, batch.body);
+                if (isRejection(status)) {
+                    reject(batch, status);
+                    continue;
+                }
+                // 409: the backend has already applied this key
+                error = (status >= 200 && status < 300) || status == 409 ? null : "HTTP " + status;
+            } catch (IOException e) {
+                error = e.toString();
+            }
+            if (error != null) {
+                consecutiveFailures++;
+                long delay = backoffDelay(consecutiveFailures, config.initialBackoffMs, config.maxBackoffMs, random);
+                retryAtMillis = System.currentTimeMillis() + delay;
+                logger.warn("Sync upload failed (" + error + "), retrying in " + delay + " ms", null);
+                saveStateIfDirty();
+                reportStatus(error);
+                syncExecutor.schedule(this::retry, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            uploadedChanges += acknowledge(batch);
+            inFlight = null;
+            consecutiveFailures = 0;
+            retryAtMillis = 0;
+            saveStateIfDirty();
+            reportStatus(null);
+            drainChanges();
+        }
+        saveStateIfDirty();
+    }
+
+    private void retry() {
+        retryAtMillis = 0;
+        flush();
+    }
+
+    // Statuses that mean the batch will never be accepted as sent, however often it is retried
+    private static boolean isRejection(int status) {
+        return status == 400 || status == 413 || status == 422;
+    }
+
+    // Splits a rejected batch, or skips it once it holds a single change
+    private void reject(Batch batch, int status) {
+        inFlight = null;
+        int changes = batch.changeCount(restaurants.get(batch.restaurantId));
+        if (changes > 1) {
+            // The next batches are built afresh, half the size, under new idempotency keys
+            batchLimit = changes / 2;
+            logger.warn("Sync batch of " + changes + " changes rejected with HTTP " + status + ", splitting it", null);
+            return;
+        }
+        rejectedChanges += acknowledge(batch);
+        batchLimit = config.maxBatchRatings;
+        consecutiveFailures = 0;
+        retryAtMillis = 0;
+        logger.warn("Sync change rejected with HTTP " + status + ", skipping it", null);
+        saveStateIfDirty();
+        reportStatus("HTTP " + status + " rejected");
+    }
+
+    // Moves the marks past a batch the backend is done with; returns the changes it held
+    private long acknowledge(Batch batch) {
+        RestaurantState state = restaurants.get(batch.restaurantId);
+        long acknowledged = batch.changeCount(state);
+        state.uploadedThroughId = Math.max(state.uploadedThroughId, batch.lastUploadedId);
+        state.pendingDeletes.removeAll(batch.deletes);
+        for (Map.Entry<Long, Long> edit : batch.edits.entrySet()) {
+            // Edited again since the batch was built: the newer edit is still to be sent
+            if (edit.getValue().equals(state.pendingEdits.get(edit.getKey()))) {
+                state.pendingEdits.remove(edit.getKey());
+            }
+        }
+        if (batch.clearThroughId > 0 && state.pendingClearThroughId == batch.clearThroughId) {
+            state.pendingClearThroughId = 0;
+        }
+        stateDirty = true;
+        // Never below zero: changes from before a restart were not counted when reported
+        long pending;
+        do {
+            pending = pendingChanges.get();
+        } while (!pendingChanges.compareAndSet(pending, Math.max(0, pending - acknowledged)));
+        return acknowledged;
+    }
+
+    private void reportStatus(String error) {
+        if (statusListener != null) {
+            statusListener.onStatus(new Status(pendingChanges.get(), uploadedChanges, rejectedChanges,
+                    consecutiveFailures, error));
+        }
+    }
+
+    // Applies the queued changes to the per-restaurant state
+    private void drainChanges() {
+        Change change;
+        while ((change = changes.poll()) != null) {
+            RestaurantState state = stateFor(change.restaurantId);
+            state.ratings = change.ratings;
+            for (long removedId : change.removedIds) {
+                state.pendingDeletes.add(removedId);
+                state.pendingEdits.remove(removedId);
+                stateDirty = true;
+            }
+            if (change.clearedThroughId > 0) {
+                state.pendingClearThroughId = Math.max(state.pendingClearThroughId, change.clearedThroughId);
+                // The clear covers these
+                state.pendingDeletes.headSet(change.clearedThroughId, true).clear();
+                state.pendingEdits.headMap(change.clearedThroughId, true).clear();
+                stateDirty = true;
+            }
+            if (change.editedId >= 0) {
+                state.pendingEdits.put(change.editedId, ++editSequence);
+                stateDirty = true;
+            }
+        }
+    }
+
+    private RestaurantState stateFor(long restaurantId) {
+        RestaurantState state = restaurants.get(restaurantId);
+        if (state == null) {
+            state = new RestaurantState();
+            restaurants.put(restaurantId, state);
+        }
+        return state;
+    }
+
+    // Builds the next batch of the first restaurant with pending changes, or returns null
+    private Batch nextBatch() {
+        for (Map.Entry<Long, RestaurantState> entry : restaurants.entrySet()) {
+            Batch batch = buildBatch(entry.getKey(), entry.getValue());
+            if (batch != null) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private Batch buildBatch(long restaurantId, RestaurantState state) {
+        int firstNew = state.ratings == null ? 0 : firstIndexAbove(state.ratings, state.uploadedThroughId);
+        boolean hasNew = state.ratings != null && firstNew < state.ratings.size();
+        // Edits need the current versions of the ratings, so they wait until the shard has loaded
+        boolean hasEdits = state.ratings != null && !state.pendingEdits.isEmpty()
+                && state.pendingEdits.firstKey() <= state.uploadedThroughId;
+        if (!hasNew && !hasEdits && state.pendingDeletes.isEmpty() && state.pendingClearThroughId == 0) {
+            return null;
+        }
+        StringBuilder json = new StringBuilder(Math.min(config.maxBatchBytes, 64 * 1024));
+        json.append("{\"device\":");
+        RatingTransfer.appendJsonString(json, deviceId);
+        json.append(",\"restaurant\":").append(restaurantId);
+        if (state.pendingClearThroughId > 0) {
+            json.append(",\"clearThrough\":").append(state.pendingClearThroughId);
+        }
+        json.append("}\n");
+
+        int count = state.pendingClearThroughId > 0 ? 1 : 0;
+        CRC32 deleteHash = new CRC32();
+        List<Long> deletes = new ArrayList<>();
+        Iterator<Long> pendingDeletes = state.pendingDeletes.iterator();
+        while (pendingDeletes.hasNext() && count < batchLimit && json.length() < config.maxBatchBytes) {
+            long id = pendingDeletes.next();
+            json.append("{\"delete\":").append(id).append("}\n");
+            deletes.add(id);
+            updateHash(deleteHash, id);
+            count++;
+        }
+
+        CRC32 editHash = new CRC32();
+        Map<Long, Long> edits = new TreeMap<>();
+        if (hasEdits) {
+            Iterator<Map.Entry<Long, Long>> pendingEdits =
+                    state.pendingEdits.headMap(state.uploadedThroughId, true).entrySet().iterator();
+            while (pendingEdits.hasNext() && count < batchLimit && json.length() < config.maxBatchBytes) {
+                Map.Entry<Long, Long> edit = pendingEdits.next();
+                edits.put(edit.getKey(), edit.getValue());
+                int position = RatingViewModel.indexOfId(state.ratings, edit.getKey());
+                if (position < 0) {
+                    // No longer in the list; acknowledging the batch drops the edit
+                    continue;
+                }
+                long version = nextEditVersion();
+                json.append("{\"edit\":").append(version).append(',');
+                appendRatingFields(json, state.ratings.get(position));
+                updateHash(editHash, edit.getKey());
+                updateHash(editHash, version);
+                count++;
+            }
+        }
+
+        long lastUploadedId = 0;
+        long firstUploadedId = 0;
+        if (hasNew) {
+            int lineStart = json.length();
+            for (int i = firstNew; i < state.ratings.size() && count < batchLimit; i++) {
+                RatingViewModel.DishRating rating = state.ratings.get(i);
+                lineStart = json.length();
+                json.append('{');
+                appendRatingFields(json, rating);
+                if (json.length() > config.maxBatchBytes && count > 0) {
+                    // Over the size limit; this rating starts the next batch
+                    json.setLength(lineStart);
+                    break;
+                }
+                if (firstUploadedId == 0) {
+                    firstUploadedId = rating.getId();
+                }
+                lastUploadedId = rating.getId();
+                count++;
+            }
+        }
+
+        // The key names the exact contents, so a rebuilt batch with other contents never reuses it
+        String key = deviceId + "/" + restaurantId + "/" + firstUploadedId + "-" + lastUploadedId
+                + "/" + deletes.size() + "-" + Long.toHexString(deleteHash.getValue())
+                + "/" + edits.size() + "-" + Long.toHexString(editHash.getValue())
+                + "/" + state.pendingClearThroughId;
+        return new Batch(restaurantId, key, gzip(json), lastUploadedId, deletes, state.pendingClearThroughId, edits);
+    }
+
+    // Appends a rating's fields and closes its JSON object and line
+    private static void appendRatingFields(StringBuilder json, RatingViewModel.DishRating rating) {
+        json.append("\"id\":").append(rating.getId()).append(",\"dishName\":");
+        RatingTransfer.appendJsonString(json, rating.getDishName());
+        json.append(",\"dishType\":");
+        RatingTransfer.appendJsonString(json, rating.getDishType());
+        json.append(",\"rating\":").append(rating.getRating())
+                .append(",\"timestamp\":").append(rating.getTimestamp()).append("}\n");
+    }
+
+    /**
+     * Versions only increase, even across restarts that lost the state file: each is at least
+     * the wall clock in microseconds and above the previous one.
+     */
+    private long nextEditVersion() {
+        lastEditVersion = Math.max(lastEditVersion + 1, System.currentTimeMillis() * 1000);
+        stateDirty = true;
+        return lastEditVersion;
+    }
+
+    private static void updateHash(CRC32 hash, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            hash.update((int) (value >>> shift));
+        }
+    }
+
+    private static byte[] gzip(CharSequence text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 4 + 64);
+        try (OutputStream out = new GZIPOutputStream(bytes, 8192)) {
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return Position of the first rating with an id above the given one, in a list sorted by id.
+     */
+    static int firstIndexAbove(List<RatingViewModel.DishRating> ratings, long id) {
+        int low = 0;
+        int high = ratings.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ratings.get(mid).getId() <= id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Exponential backoff: initialMs doubled for each failure after the first, capped at maxMs,
+     * with up to BACKOFF_JITTER of it taken off at random.
+     * @param failures Consecutive failures so far, at least 1.
+     */
+    static long backoffDelay(int failures, long initialMs, long maxMs, Random random) {
+        long delay = maxMs;
+        if (failures - 1 < 62 && initialMs <= maxMs >> (failures - 1)) {
+            delay = initialMs << (failures - 1);
+        }
+        return delay - (long) (delay * BACKOFF_JITTER * random.nextDouble());
+    }
+
+    private void loadState() {
+        if (stateFile == null || !stateFile.exists()) {
+            deviceId = UUID.randomUUID().toString();
+            stateDirty = true;
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            int version = in.readInt();
+            if (version != STATE_VERSION && version != STATE_VERSION_WITHOUT_EDITS) {
+                throw new IOException("Unknown sync state version");
+            }
+            deviceId = in.readUTF();
+            if (version == STATE_VERSION) {
+                lastEditVersion = in.readLong();
+            }
+            int restaurantCount = in.readInt();
+            for (int i = 0; i < restaurantCount; i++) {
+                RestaurantState state = stateFor(in.readLong());
+                state.uploadedThroughId = in.readLong();
+                state.pendingClearThroughId = in.readLong();
+                int deleteCount = in.readInt();
+                for (int j = 0; j < deleteCount; j++) {
+                    state.pendingDeletes.add(in.readLong());
+                }
+                int editCount = version == STATE_VERSION ? in.readInt() : 0;
+                for (int j = 0; j < editCount; j++) {
+                    state.pendingEdits.put(in.readLong(), 0L);
+                }
+            }
+        } catch (IOException e) {
+            // Starting over re-uploads ratings the backend already has, which it ignores
+            logger.warn("Could not read the sync state, syncing everything again", e);
+            restaurants.clear();
+            if (deviceId == null) {
+                deviceId = UUID.randomUUID().toString();
+            }
+            stateDirty = true;
+        }
+    }
+
+    private void saveStateIfDirty() {
+        if (!stateDirty || stateFile == null) {
+            return;
+        }
+        // Written beside the old file and renamed over it, so a crash never leaves half a state
+        File temp = new File(stateFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(STATE_VERSION);
+                out.writeUTF(deviceId);
+                out.writeLong(lastEditVersion);
+                out.writeInt(restaurants.size());
+                for (Map.Entry<Long, RestaurantState> entry : restaurants.entrySet()) {
+                    RestaurantState state = entry.getValue();
+                    out.writeLong(entry.getKey());
+                    out.writeLong(state.uploadedThroughId);
+                    out.writeLong(state.pendingClearThroughId);
+                    out.writeInt(state.pendingDeletes.size());
+                    for (long id : state.pendingDeletes) {
+                        out.writeLong(id);
+                    }
+                    out.writeInt(state.pendingEdits.size());
+                    for (long id : state.pendingEdits.keySet()) {
+                        out.writeLong(id);
+                    }
+                }
+            }
+            if (!temp.renameTo(stateFile)) {
+                throw new FileNotFoundException("Could not replace " + stateFile);
+            }
+            stateDirty = false;
+        } catch (IOException e) {
+            logger.warn("Could not save the sync state", e);
+        }
+    }
+}
@@ -0,0 +1,653 @@
+package com.example.restaurantraterapp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming import and export of ratings as CSV or JSON.
+ *
+ * CSV files have a header row naming the columns; dish_name, dish_type and rating are required,
+ * timestamp is optional and any other column (such as the exported id) is ignored:
+ * <pre>
+ *   id,dish_name,dish_type,rating,timestamp
+ *   1,Pad Thai,Main,4.5,1700000000000
+ * </pre>
+ * JSON files hold one array of objects with the keys dishName, dishType, rating and optionally
+ * timestamp; other keys are skipped. Ratings must be between 0 and 5 and are rounded to the
+ * nearest half star.
+ *
+ * Both readers pull characters through a fixed buffer and parse one row at a time, handing rows
+ * to a {@link BatchConsumer} in batches, so memory use depends on the batch size and not on the
+ * size of the file. Imported ratings get id 0 here; RatingViewModel assigns real ids when the
+ * batch is added.
+ */
+public final class RatingTransfer {
+
+    /**
+     * The supported file formats.
+     */
+    public enum Format {
+        CSV("text/csv"),
+        JSON("application/json");
+
+        private final String mimeType;
+
+        Format(String mimeType) {
+            this.mimeType = mimeType;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @return JSON for JSON MIME types, CSV for anything else, since spreadsheet exports come
+         * with a variety of text types.
+         */
+        public static Format forMimeType(String mimeType) {
+            return mimeType != null && mimeType.toLowerCase(Locale.ROOT).contains("json") ? JSON : CSV;
+        }
+    }
+
+    /**
+     * Receives parsed ratings. Each batch is a new list that the consumer may keep.
+     */
+    public interface BatchConsumer {
+        void accept(List<RatingViewModel.DishRating> batch) throws IOException;
+    }
+
+    // Longest dish name or type accepted, which keeps a malformed file from growing a field without bound
+    static final int MAX_FIELD_LENGTH = 1024;
+
+    static final String CSV_HEADER = "id,dish_name,dish_type,rating,timestamp";
+
+    private RatingTransfer() {
+    }
+
+    /**
+     * Parses ratings and hands them to the consumer in batches of {@code batchSize}, the last one
+     * possibly smaller. Parsing stops at the first malformed row; batches before it have already
+     * been handed over.
+     * @return The number of ratings read.
+     * @throws IOException If reading fails or the input is malformed; the message names the line.
+     */
+    public static long read(Reader in, Format format, int batchSize, BatchConsumer consumer) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        RowParser parser = format == Format.JSON ? new JsonParser(new Input(in)) : new CsvParser(new Input(in));
+        long timestamp = System.currentTimeMillis();
+        long count = 0;
+        List<RatingViewModel.DishRating> batch = new ArrayList<>(batchSize);
+        RatingViewModel.DishRating rating;
+        while ((rating = parser.next(timestamp)) != null) {
+            batch.add(rating);
+            count++;
+            if (batch.size() == batchSize) {
+                consumer.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+        return count;
+    }
+
+    /**
+     * Writes ratings in the given format. The writer is not closed.
+     */
+    public static void write(Writer out, Format format, Iterable<RatingViewModel.DishRating> ratings) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        if (format == Format.JSON) {
+            out.write("[");
+            boolean first = true;
+            for (RatingViewModel.DishRating rating : ratings) {
+                line.setLength(0);
+                line.append(first ? "\n" : ",\n")
+                        .append("{\"id\":").append(rating.getId())
+                        .append(",\"dishName\":");
+                appendJsonString(line, rating.getDishName());
+                line.append(",\"dishType\":");
+                appendJsonString(line, rating.getDishType());
+                line.append(",\"rating\":").append(rating.getRating())
+                        .append(",\"timestamp\":").append(rating.getTimestamp())
+                        .append('}');
+                out.append(line);
+                first = false;
+            }
+            out.write("\n]\n");
+        } else {
+            out.write(CSV_HEADER);
+            out.write("\n");
+            for (RatingViewModel.DishRating rating : ratings) {
+                line.setLength(0);
+                line.append(rating.getId()).append(',');
+                appendCsvField(line, rating.getDishName());
+                line.append(',');
+                appendCsvField(line, rating.getDishType());
+                line.append(',').append(rating.getRating())
+                        .append(',').append(rating.getTimestamp())
+                        .append('\n');
+                out.append(line);
+            }
+        }
+        out.flush();
+    }
+
+    private static void appendCsvField(StringBuilder line, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    static void appendJsonString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c == '\r') {
+                line.append("\\r");
+            } else if (c == '\t') {
+                line.append("\\t");
+            } else if (c < 0x20) {
+                line.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    // Checks the fields of one row and builds the rating
+    private static RatingViewModel.DishRating toRating(Input input, String dishName, String dishType,
+                                                       float rating, long timestamp) throws IOException {
+        dishName = dishName == null ? "" : dishName.trim();
+        dishType = dishType == null ? "" : dishType.trim();
+        if (dishName.isEmpty()) {
+            throw input.error("dish name is missing");
+        }
+        if (dishType.isEmpty()) {
+            throw input.error("dish type is missing");
+        }
+        if (!(rating >= 0f && rating <= 5f)) {
+            throw input.error("rating must be between 0 and 5");
+        }
+        return new RatingViewModel.DishRating(0, dishName, dishType, RatingAggregates.toHalfStar(rating), timestamp);
+    }
+
+    private static float parseRating(Input input, String text) throws IOException {
+        try {
+            return Float.parseFloat(text.trim());
+        } catch (NumberFormatException e) {
+            throw input.error("rating \"" + text + "\" is not a number");
+        }
+    }
+
+    private static long parseTimestamp(Input input, String text, long defaultTimestamp) throws IOException {
+        if (text == null || text.trim().isEmpty()) {
+            return defaultTimestamp;
+        }
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw input.error("timestamp \"" + text + "\" is not a number");
+        }
+    }
+
+    // Reads one rating per call, or returns null at the end of the input
+    private interface RowParser {
+        RatingViewModel.DishRating next(long defaultTimestamp) throws IOException;
+    }
+
+    /**
+     * Buffered character source that tracks the line number for error messages.
+     */
+    private static final class Input {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private int line = 1;
+        // Line reported in errors if set, e.g. where the current CSV record started
+        private int recordLine;
+
+        Input(Reader reader) {
+            this.reader = reader;
+        }
+
+        // The next character without consuming it, or -1 at the end
+        int peek() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position];
+        }
+
+        int read() throws IOException {
+            int c = peek();
+            if (c >= 0) {
+                position++;
+                if (c == '\n') {
+                    line++;
+                }
+            }
+            return c;
+        }
+
+        void startRecord() {
+            recordLine = line;
+        }
+
+        IOException error(String message) {
+            return new IOException("Line " + (recordLine > 0 ? recordLine : line) + ": " + message);
+        }
+    }
+
+    /**
+     * RFC 4180 CSV: comma separated, fields optionally quoted with doubled quotes inside,
+     * LF or CRLF line ends. A leading byte order mark and blank lines are ignored.
+     */
+    private static final class CsvParser implements RowParser {
+        private final Input input;
+        private final StringBuilder field = new StringBuilder();
+        private final List<String> fields = new ArrayList<>();
+        private int nameColumn = -1;
+        private int typeColumn = -1;
+        private int ratingColumn = -1;
+        private int timestampColumn = -1;
+        private boolean headerRead;
+
+        CsvParser(Input input) {
+            this.input = input;
+        }
+
+        @Override
+        public RatingViewModel.DishRating next(long defaultTimestamp) throws IOException {
+            if (!headerRead) {
+                if (input.peek() == '\uFEFF') {
+                    input.read();
+                }
+                if (!readRecord()) {
+                    return null;
+                }
+                readHeader();
+                headerRead = true;
+            }
+            if (!readRecord()) {
+                return null;
+            }
+            return toRating(input, column(nameColumn), column(typeColumn),
+                    parseRating(input, column(ratingColumn)),
+                    parseTimestamp(input, timestampColumn < 0 ? null : column(timestampColumn), defaultTimestamp));
+        }
+
+        private void readHeader() throws IOException {
+            for (int i = 0; i < fields.size(); i++) {
+                String name = fields.get(i).trim().toLowerCase(Locale.ROOT).replace(' ', '_');
+                switch (name) {
+                    case "dish_name":
+                        nameColumn = i;
+                        break;
+                    case "dish_type":
+                        typeColumn = i;
+                        break;
+                    case "rating":
+                        ratingColumn = i;
+                        break;
+                    case "timestamp":
+                        timestampColumn = i;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (nameColumn < 0 || typeColumn < 0 || ratingColumn < 0) {
+                throw input.error("the header must name the dish_name, dish_type and rating columns");
+            }
+        }
+
+        private String column(int index) throws IOException {
+            if (index >= fields.size()) {
+                throw input.error("expected at least " + (index + 1) + " columns");
+            }
+            return fields.get(index);
+        }
+
+        // Reads the next non-blank record into fields; false at the end of the input
+        private boolean readRecord() throws IOException {
+            fields.clear();
+            while (true) {
+                int c = input.peek();
+                if (c < 0) {
+                    return false;
+                }
+                if (c == '\r' || c == '\n') {
+                    input.read();
+                } else {
+                    break;
+                }
+            }
+            input.startRecord();
+            while (true) {
+                field.setLength(0);
+                int c = input.read();
+                if (c == '"') {
+                    c = readQuoted();
+                } else {
+                    while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                        append((char) c);
+                        c = input.read();
+                    }
+                }
+                fields.add(field.toString());
+                if (c != ',') {
+                    if (c == '\r' && input.peek() == '\n') {
+                        input.read();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        // Reads the rest of a quoted field and returns the character after its closing quote
+        private int readQuoted() throws IOException {
+            while (true) {
+                int c = input.read();
+                if (c < 0) {
+                    throw input.error("unterminated quoted field");
+                }
+                if (c == '"') {
+                    if (input.peek() != '"') {
+                        int next = input.read();
+                        if (next >= 0 && next != ',' && next != '\n' && next != '\r') {
+                            throw input.error("unexpected character after a quoted field");
+                        }
+                        return next;
+                    }
+                    input.read();
+                }
+                append((char) c);
+            }
+        }
+
+        private void append(char c) throws IOException {
+            if (field.length() == MAX_FIELD_LENGTH) {
+                throw input.error("field longer than " + MAX_FIELD_LENGTH + " characters");
+            }
+            field.append(c);
+        }
+    }
+
+    /**
+     * Pull parser for a JSON array of flat rating objects. Values under unknown keys, including
+     * nested objects and arrays, are skipped without being kept.
+     */
+    private static final class JsonParser implements RowParser {
+        // Deepest nesting skipped inside an unknown value
+        private static final int MAX_DEPTH = 32;
+
+        private final Input input;
+        private final StringBuilder text = new StringBuilder();
+        private boolean started;
+        private boolean finished;
+
+        JsonParser(Input input) {
+            this.input = input;
+        }
+
+        @Override
+        public RatingViewModel.DishRating next(long defaultTimestamp) throws IOException {
+            if (finished) {
+                return null;
+            }
+            if (!started) {
+                skipWhitespace();
+                if (input.peek() == '\uFEFF') {
+                    input.read();
+                    skipWhitespace();
+                }
+                expect('[');
+                started = true;
+                skipWhitespace();
+                if (input.peek() == ']') {
+                    input.read();
+                    return finish();
+                }
+            } else {
+                skipWhitespace();
+                int c = input.read();
+                if (c == ']') {
+                    return finish();
+                }
+                if (c != ',') {
+                    throw input.error("expected ',' or ']' between ratings");
+                }
+                skipWhitespace();
+            }
+            return readRating(defaultTimestamp);
+        }
+
+        private RatingViewModel.DishRating finish() throws IOException {
+            finished = true;
+            skipWhitespace();
+            if (input.peek() >= 0) {
+                throw input.error("unexpected content after the ratings array");
+            }
+            return null;
+        }
+
+        private RatingViewModel.DishRating readRating(long defaultTimestamp) throws IOException {
+            expect('{');
+            String dishName = null;
+            String dishType = null;
+            float rating = Float.NaN;
+            long timestamp = defaultTimestamp;
+            skipWhitespace();
+            if (input.peek() == '}') {
+                input.read();
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    expect('"');
+                    String key = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    switch (key) {
+                        case "dishName":
+                            dishName = readStringValue(key);
+                            break;
+                        case "dishType":
+                            dishType = readStringValue(key);
+                            break;
+                        case "rating":
+                            rating = parseRating(input, readNumber(key));
+                            break;
+                        case "timestamp":
+                            timestamp = parseTimestamp(input, readNumber(key), defaultTimestamp);
+                            break;
+                        default:
+                            skipValue(0);
+                            break;
+                    }
+                    skipWhitespace();
+                    int c = input.read();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw input.error("expected ',' or '}' in a rating");
+                    }
+                }
+            }
+            if (Float.isNaN(rating)) {
+                throw input.error("rating is missing");
+            }
+            return toRating(input, dishName, dishType, rating, timestamp);
+        }
+
+        private String readStringValue(String key) throws IOException {
+            if (input.read() != '"') {
+                throw input.error(key + " must be a string");
+            }
+            return readString();
+        }
+
+        // Reads a string after its opening quote, decoding escapes
+        private String readString() throws IOException {
+            text.setLength(0);
+            while (true) {
+                int c = input.read();
+                if (c < 0 || c == '\n') {
+                    throw input.error("unterminated string");
+                }
+                if (c == '"') {
+                    return text.toString();
+                }
+                if (c == '\\') {
+                    c = readEscape();
+                }
+                if (text.length() == MAX_FIELD_LENGTH) {
+                    throw input.error("string longer than " + MAX_FIELD_LENGTH + " characters");
+                }
+                text.append((char) c);
+            }
+        }
+
+        private int readEscape() throws IOException {
+            int c = input.read();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(input.read(), 16);
+                        if (digit < 0) {
+                            throw input.error("invalid \\u escape");
+                        }
+                        value = value * 16 + digit;
+                    }
+                    return value;
+                default:
+                    throw input.error("invalid escape in string");
+            }
+        }
+
+        private String readNumber(String key) throws IOException {
+            text.setLength(0);
+            int c = input.peek();
+            while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+                if (text.length() == 32) {
+                    throw input.error(key + " is too long");
+                }
+                text.append((char) input.read());
+                c = input.peek();
+            }
+            if (text.length() == 0) {
+                throw input.error(key + " must be a number");
+            }
+            return text.toString();
+        }
+
+        private void skipValue(int depth) throws IOException {
+            if (depth > MAX_DEPTH) {
+                throw input.error("nested too deeply");
+            }
+            int c = input.peek();
+            if (c == '"') {
+                input.read();
+                readString();
+            } else if (c == '{' || c == '[') {
+                int close = c == '{' ? '}' : ']';
+                input.read();
+                skipWhitespace();
+                if (input.peek() == close) {
+                    input.read();
+                    return;
+                }
+                while (true) {
+                    skipWhitespace();
+                    if (close == '}') {
+                        expect('"');
+                        readString();
+                        skipWhitespace();
+                        expect(':');
+                        skipWhitespace();
+                    }
+                    skipValue(depth + 1);
+                    skipWhitespace();
+                    int next = input.read();
+                    if (next == close) {
+                        return;
+                    }
+                    if (next != ',') {
+                        throw input.error("expected ',' or '" + (char) close + "'");
+                    }
+                }
+            } else if (c == 't' || c == 'f' || c == 'n') {
+                // true, false or null
+                while (Character.isLetter(input.peek())) {
+                    input.read();
+                }
+            } else {
+                readNumber("value");
+            }
+        }
+
+        private void skipWhitespace() throws IOException {
+            int c = input.peek();
+            while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                input.read();
+                c = input.peek();
+            }
+        }
+
+        private void expect(char expected) throws IOException {
+            int c = input.read();
+            if (c != expected) {
+                throw input.error("expected '" + expected + "'");
+            }
+        }
+    }
+}
@@ -1,31 +1,142 @@
 package com.example.restaurantraterapp;
 
+import android.app.Application;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.SavedStateHandle;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
  * Shared ViewModel scoped to the MainActivity to hold and communicate rating data
  * between RestaurantFragment and DishRatingFragment using LiveData.
+ * Ratings are kept per restaurant in a RatingStore; the LiveData always reflects the shard of
+ * the selected restaurant. Each shard is persisted to its own RatingJournal in the app's files
+ * directory. Changes are applied in memory straight away and written to the journal in the
+ * background by a RatingWriteBehind queue, so no disk I/O happens on the main thread after startup.
+ *
+ * The ratings state is confined to the main thread: submitRating and the other mutators must be
+ * called there. Background sources use {@link #ingestRating} instead, which queues ratings
+ * without locking and applies whatever has piled up in one batch on the main thread.
  */
-public class RatingViewModel extends ViewModel {
+public class RatingViewModel extends AndroidViewModel {
+
+    private static final String TAG = "RatingViewModel";
+
+    // Name of the rating journal inside the app's private files directory
+    static final String JOURNAL_FILE_NAME = "ratings.journal";
+
+    // Name of the file holding how far each restaurant has been synced to the backend
+    static final String SYNC_STATE_FILE_NAME = "sync.state";
+
+    // Key of the ratings snapshot in the SavedStateHandle, and the keys inside its Bundle
+    private static final String STATE_RATINGS_SNAPSHOT = "ratings_snapshot";
+    private static final String STATE_RESTAURANT_ID = "restaurant_id";
+    private static final String STATE_RATINGS = "ratings";
+    private static final String STATE_SPILL_CHECKSUM = "spill_checksum";
+
+    // Largest snapshot kept in the saved state itself. The whole saved state goes through one
+    // Binder transaction of at most 1 MB, shared with every other fragment and view, so larger
+    // snapshots are written to SNAPSHOT_FILE_NAME in the cache directory instead.
+    static final int MAX_SAVED_SNAPSHOT_BYTES = 64 * 1024;
+    static final String SNAPSHOT_FILE_NAME = "ratings.snapshot";
+
+    // Length of the best dishes leaderboard
+    static final int TOP_DISHES_COUNT = 10;
+
+    // Number of dishes suggested for a dish the user picks
+    static final int RECOMMENDATIONS_COUNT = 5;
+
+    // Restaurant shards kept loaded: at most this many, holding at most this many ratings besides
+    // the shard on screen
+    private static final int MAX_CACHED_SHARDS = 4;
+    private static final int MAX_CACHED_RATINGS = 200_000;
+
+    // Imports are applied in batches of this many ratings, with at most this many parsed batches
+    // waiting for the main thread, which bounds the memory an import of any size needs
+    static final int IMPORT_BATCH_SIZE = 1000;
+    private static final int IMPORT_MAX_PENDING_BATCHES = 2;
+
+    // Most ingested ratings applied in one main thread pass; a larger backlog takes several passes
+    static final int INGEST_MAX_BATCH_SIZE = 5000;
+
+    // A rating from a background source, waiting for the main thread to add it to its restaurant
+    private static final class IngestedRating {
+        final long restaurantId;
+        final DishRating rating;
+
+        IngestedRating(long restaurantId, DishRating rating) {
+            this.restaurantId = restaurantId;
+            this.rating = rating;
+        }
+    }
 
     // Inner class to represent a single dish rating
     public static class DishRating {
-        private String dishName;
-        private String dishType;
-        private float rating;
-        private long timestamp; // To track when the rating was made
+        // Final, so a rating cached by a list leaf can be read on the diff thread without locking
+        private final long id; // Unique id, increasing in submission order
+        private final String dishName;
+        private final String dishType;
+        private final float rating;
+        private final long timestamp; // To track when the rating was made
+        private String formattedRating; // Built on first use, since the fields never change
 
-        public DishRating(String dishName, String dishType, float rating) {
+        public DishRating(long id, String dishName, String dishType, float rating) {
+            this.id = id;
             this.dishName = dishName;
             this.dishType = dishType;
             this.rating = rating;
             this.timestamp = System.currentTimeMillis();
         }
 
+        // Used when restoring or importing a rating that was submitted earlier
+        DishRating(long id, String dishName, String dishType, float rating, long timestamp) {
+            this.id = id;
+            this.dishName = dishName;
+            this.dishType = dishType;
+            this.rating = rating;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Returns the rating's id. Unlike the timestamp it is unique, even for ratings
+         * submitted in the same millisecond, so it is used to identify list items.
+         */
+        public long getId() {
+            return id;
+        }
+
         public String getDishName() {
             return dishName;
         }
@@ -44,28 +155,276 @@ public class RatingViewModel extends ViewModel {
 
         /**
          * Returns a formatted string representation of this rating.
+         * The text is built once and cached.
          */
         public String getFormattedRating() {
-            return "Dish: " + dishName + "\n" +
-                    "Type: " + dishType + "\n" +
-                    "Rating: " + String.format("%.1f", rating) + " stars";
+            if (formattedRating == null) {
+                StringBuilder text = new StringBuilder(32 + dishName.length() + dishType.length())
+                        .append("Dish: ").append(dishName).append('\n')
+                        .append("Type: ").append(dishType).append('\n')
+                        .append("Rating: ");
+                formattedRating = RatingFormat.appendOneDecimal(text, rating).append(" stars").toString();
+            }
+            return formattedRating;
         }
     }
 
-    // MutableLiveData to hold the list of all ratings
-    private final MutableLiveData<List<DishRating>> ratingsList = new MutableLiveData<>(new ArrayList<>());
+    // Ratings of every restaurant, one lazily loaded shard each
+    private final RatingStore store;
+
+    // Shard of the selected restaurant. Its list is always sorted by id, since new ratings are
+    // appended with increasing ids.
+    private RatingShard shard;
+
+    // Restaurant most recently asked for; loads finishing for any other are not shown
+    private long requestedRestaurantId;
+
+    // The restaurant whose ratings are shown
+    private final MutableLiveData<Restaurant> currentRestaurant = new MutableLiveData<>();
+
+    // MutableLiveData to hold the list of all ratings of the selected restaurant
+    private final MutableLiveData<List<DishRating>> ratingsList = new MutableLiveData<>();
 
     // Optional: LiveData for the most recent rating (for backward compatibility)
     private final MutableLiveData<String> latestRatingResult = new MutableLiveData<>();
 
+    // LiveData snapshot of the selected restaurant's running totals (count, average, min/max, star histogram)
+    private final MutableLiveData<RatingAggregates.Snapshot> ratingSummary =
+            new MutableLiveData<>(RatingAggregates.Snapshot.EMPTY);
+
+    // Running totals of every restaurant combined
+    private final MutableLiveData<RatingAggregates.Snapshot> chainSummary =
+            new MutableLiveData<>(RatingAggregates.Snapshot.EMPTY);
+
+    // Queue depth and commit latency of the write-behind queues
+    private final MutableLiveData<RatingWriteBehind.Stats> writeBehindStats = new MutableLiveData<>();
+
+    // LiveData of the selected restaurant's best dishes, best first
+    private final MutableLiveData<List<DishLeaderboard.Entry>> topDishes =
+            new MutableLiveData<>(Collections.<DishLeaderboard.Entry>emptyList());
+
+    // Whether the selected restaurant has a change to undo, and one to redo
+    private final MutableLiveData<Boolean> canUndo = new MutableLiveData<>(false);
+    private final MutableLiveData<Boolean> canRedo = new MutableLiveData<>(false);
+
+    // Prefix search over the selected restaurant's dish names, indexed on its own background thread
+    private final RatingSearch search = new RatingSearch();
+
+    // Runs imports and exports: parsing and writing happen here, imported batches are applied on mainExecutor
+    private final ExecutorService transferExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RatingTransfer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Executor mainExecutor;
+
+    // Outcome of the last import or export, as a message for the user
+    private final MutableLiveData<String> transferStatus = new MutableLiveData<>();
+
+    // Ratings offered by any thread, applied in batches on mainExecutor
+    private final IngestQueue<IngestedRating> ingestQueue;
+
+    // Set once the ViewModel is cleared; ingested ratings still queued are dropped
+    private boolean cleared;
+
+    // Uploads every restaurant's changes to the backend, or null when no backend is configured
+    private final RatingSyncEngine sync;
+
+    // Progress of the upload to the backend
+    private final MutableLiveData<RatingSyncEngine.Status> syncStatus = new MutableLiveData<>();
+
+    // Saved instance state, or null when the ViewModel is not restored after process death
+    private final SavedStateHandle savedState;
+
+    // Where a snapshot too large for the saved state is written, or null to drop it instead
+    private final File snapshotFile;
+
+    public RatingViewModel(@NonNull Application application, @NonNull SavedStateHandle savedState) {
+        this(application, application.getFilesDir(), ContextCompat.getMainExecutor(application),
+                createSyncTransport(), RatingSyncEngine.Config.DEFAULT,
+                savedState, new File(application.getCacheDir(), SNAPSHOT_FILE_NAME));
+    }
+
+    RatingViewModel(@NonNull Application application, File journalDir, Executor mainExecutor) {
+        this(application, journalDir, mainExecutor, null, RatingSyncEngine.Config.DEFAULT);
+    }
+
+    RatingViewModel(@NonNull Application application, File journalDir, Executor mainExecutor,
+                    SyncTransport syncTransport, RatingSyncEngine.Config syncConfig) {
+        this(application, journalDir, mainExecutor, syncTransport, syncConfig, null, null);
+    }
+
+    /**
+     * Creates the ViewModel with the restaurants' journals in the given directory, or in memory
+     * only if it is null. Used by the JVM tests and benchmarks, which have no files directory or
+     * main looper.
+     * @param mainExecutor Runs background results on the thread that owns the LiveData.
+     * @param syncTransport Carries uploads to the backend, or null to keep ratings on the device.
+     * @param syncConfig Batch and retry limits of the upload.
+     * @param savedState Saved instance state to restore from and save to, or null for none.
+     * @param snapshotFile Where a snapshot too large for the saved state goes, or null.
+     */
+    RatingViewModel(@NonNull Application application, File journalDir, Executor mainExecutor,
+                    SyncTransport syncTransport, RatingSyncEngine.Config syncConfig,
+                    SavedStateHandle savedState, File snapshotFile) {
+        super(application);
+        this.mainExecutor = mainExecutor;
+        this.savedState = savedState;
+        this.snapshotFile = snapshotFile;
+        ingestQueue = new IngestQueue<>(mainExecutor, INGEST_MAX_BATCH_SIZE, this::applyIngested);
+        sync = syncTransport == null ? null : new RatingSyncEngine(syncTransport,
+                journalDir == null ? null : new File(journalDir, SYNC_STATE_FILE_NAME),
+                syncConfig, syncStatus::postValue, RatingSyncEngine.ANDROID_LOG);
+        store = new RatingStore(journalDir, MAX_CACHED_SHARDS, MAX_CACHED_RATINGS, mainExecutor,
+                writeBehindStats::postValue, sync);
+        // The restaurant shown before process death, or else the first one, is shown straight
+        // away, so its ratings are restored on startup
+        Bundle saved = savedState == null ? null : savedState.<Bundle>get(STATE_RATINGS_SNAPSHOT);
+        Restaurant first = saved == null ? null : Restaurant.byId(saved.getLong(STATE_RESTAURANT_ID));
+        if (first == null) {
+            first = Restaurant.ALL.get(0);
+        }
+        requestedRestaurantId = first.getId();
+        RatingShard initial = store.loadNow(first);
+        if (saved != null) {
+            restoreSnapshot(initial, saved);
+        }
+        show(initial);
+        if (savedState != null) {
+            savedState.setSavedStateProvider(STATE_RATINGS_SNAPSHOT, this::saveSnapshot);
+        }
+    }
+
+    /**
+     * Runs when the activity saves its state: keeps the shown restaurant and a compact snapshot of
+     * the changes its journal has not committed yet: the added ratings and the queued removals,
+     * edits and clears, which are all a restart can lose. That is usually a handful, so the main
+     * thread neither pays for the whole list nor waits for the disk; only a snapshot too large for
+     * the saved state is written out, on the transfer thread.
+     */
+    private Bundle saveSnapshot() {
+        Bundle state = new Bundle();
+        state.putLong(STATE_RESTAURANT_ID, shard.getRestaurant().getId());
+        byte[] snapshot = RatingSnapshot.encode(shard.getUnjournaledRatings(), shard.getUnjournaledChanges());
+        if (snapshot.length <= MAX_SAVED_SNAPSHOT_BYTES) {
+            state.putByteArray(STATE_RATINGS, snapshot);
+        } else if (snapshotFile != null) {
+            state.putLong(STATE_SPILL_CHECKSUM, RatingSnapshot.checksum(snapshot));
+            transferExecutor.execute(() -> {
+                try {
+                    RatingSnapshot.writeFile(snapshotFile, snapshot);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not write the ratings snapshot", e);
+                }
+            });
+        }
+        return state;
+    }
+
+    // Applies the ratings and changes the saved snapshot holds but the journal may never have received
+    private void restoreSnapshot(RatingShard initial, Bundle saved) {
+        long start = System.nanoTime();
+        byte[] snapshot = saved.getByteArray(STATE_RATINGS);
+        try {
+            if (snapshot == null && saved.containsKey(STATE_SPILL_CHECKSUM) && snapshotFile != null) {
+                snapshot = RatingSnapshot.readFile(snapshotFile, saved.getLong(STATE_SPILL_CHECKSUM));
+            }
+            if (snapshot == null) {
+                return;
+            }
+            RatingSnapshot.Contents contents = RatingSnapshot.decodeContents(snapshot);
+            List<DishRating> restored = initial.restoreNewer(contents.ratings);
+            int changed = initial.restoreChanges(contents.changes);
+            Log.i(TAG, String.format(Locale.US, "Restored %d ratings and %d changes from a %d byte snapshot in %.1f ms",
+                    restored.size(), changed, snapshot.length, (System.nanoTime() - start) / 1e6));
+        } catch (IOException e) {
+            // The journal still has everything it had committed
+            Log.w(TAG, "Could not restore the ratings snapshot", e);
+        }
+    }
+
+    // Syncs with the backend configured for this build, if any
+    private static SyncTransport createSyncTransport() {
+        if (BuildConfig.SYNC_URL.isEmpty()) {
+            return null;
+        }
+        try {
+            return new HttpSyncTransport(new URL(BuildConfig.SYNC_URL));
+        } catch (MalformedURLException e) {
+            Log.w(TAG, "Invalid sync URL, ratings stay on the device", e);
+            return null;
+        }
+    }
+
     /**
      * Exposes the LiveData list for Fragments to observe.
-     * @return LiveData object holding the list of all dish ratings.
+     * @return LiveData object holding the list of all dish ratings of the selected restaurant.
      */
     public LiveData<List<DishRating>> getRatingsList() {
         return ratingsList;
     }
 
+    /**
+     * Exposes the restaurant whose ratings are shown.
+     * @return LiveData object holding the selected restaurant.
+     */
+    public LiveData<Restaurant> getCurrentRestaurant() {
+        return currentRestaurant;
+    }
+
+    /**
+     * @return Every restaurant of the chain, in display order.
+     */
+    public List<Restaurant> getRestaurants() {
+        return Restaurant.ALL;
+    }
+
+    /**
+     * Switches to another restaurant. Its ratings are loaded in the background the first time
+     * and kept cached afterwards; the LiveData switch over once they are ready.
+     * @param restaurantId The id of one of {@link #getRestaurants()}.
+     */
+    public void selectRestaurant(long restaurantId) {
+        Restaurant restaurant = Restaurant.byId(restaurantId);
+        if (restaurant == null || restaurantId == requestedRestaurantId) {
+            return;
+        }
+        requestedRestaurantId = restaurantId;
+        store.load(restaurant, loaded -> {
+            // Ignore a slow load that another selection has overtaken
+            if (loaded.getRestaurant().getId() == requestedRestaurantId) {
+                show(loaded);
+            }
+        });
+    }
+
+    // Publishes a shard's state to every LiveData and evicts shards beyond the cache limits
+    private void show(RatingShard shown) {
+        shard = shown;
+        store.trim(shown);
+        currentRestaurant.setValue(shown.getRestaurant());
+        search.clear();
+        search.addAll(shown.getRatings());
+        publish();
+    }
+
+    // Publishes the current shard's list, summary and leaderboard after a change
+    private void publish() {
+        RatingAggregates.Snapshot summary = shard.getAggregates().snapshot();
+        store.updateSummary(shard.getRestaurant().getId(), summary);
+        ratingSummary.setValue(summary);
+        chainSummary.setValue(store.chainSummary());
+        topDishes.setValue(shard.getLeaderboard().top(TOP_DISHES_COUNT));
+        canUndo.setValue(shard.canUndo());
+        canRedo.setValue(shard.canRedo());
+
+        long dispatchStart = LatencyMetrics.now();
+        ratingsList.setValue(shard.getRatings());
+        LatencyMetrics.record(LatencyMetrics.Stage.LIVE_DATA_DISPATCH, dispatchStart);
+
+        refreshSearch();
+    }
+
     /**
      * Exposes the latest rating result as a formatted string.
      * @return LiveData object holding the most recent rating result string.
@@ -75,30 +434,180 @@ public class RatingViewModel extends ViewModel {
     }
 
     /**
-     * Submits a new rating, adds it to the list, and updates the LiveData.
+     * Exposes the aggregate summary of the selected restaurant's ratings, overall and per dish type.
+     * @return LiveData object holding the latest aggregate snapshot.
+     */
+    public LiveData<RatingAggregates.Snapshot> getRatingSummary() {
+        return ratingSummary;
+    }
+
+    /**
+     * Exposes the aggregate summary of the whole chain, combined from each restaurant's totals.
+     * Restaurants that have not been shown yet are included once {@link #refreshChainSummary()} ran.
+     * @return LiveData object holding the combined aggregate snapshot.
+     */
+    public LiveData<RatingAggregates.Snapshot> getChainSummary() {
+        return chainSummary;
+    }
+
+    /**
+     * Reads the totals of every restaurant not seen yet in the background, without keeping their
+     * ratings loaded, and then updates {@link #getChainSummary()}.
+     */
+    public void refreshChainSummary() {
+        store.summarizeAll(Restaurant.ALL, () -> chainSummary.setValue(store.chainSummary()));
+    }
+
+    /**
+     * Aggregates the selected restaurant's ratings submitted between two times, answered from
+     * hourly or daily rollups rather than a scan of the list. Cheap enough for the main thread.
+     * @param dishType Limits the range to one dish type, or null for all of them.
+     * @param dishName Limits the range to one dish, or null for all of them.
+     * @see RatingRollups#getStats
+     */
+    public RatingAggregates.Stats getRatingStats(RatingRollups.Granularity granularity, String dishType,
+                                                 String dishName, long fromMillis, long toMillis) {
+        return shard.getRollups().getStats(granularity, dishType, dishName, fromMillis, toMillis);
+    }
+
+    /**
+     * Lists the selected restaurant's ratings per hour, day or week between two times, e.g. the
+     * weekly averages of one dish.
+     * @see RatingRollups#getSeries
+     */
+    public List<RatingRollups.Point> getRatingSeries(RatingRollups.Granularity granularity, String dishType,
+                                                     String dishName, long fromMillis, long toMillis) {
+        return shard.getRollups().getSeries(granularity, dishType, dishName, fromMillis, toMillis);
+    }
+
+    /**
+     * Tells whether ratings are improving or getting worse between two times.
+     * @return The change in average rating per hour, day or week; negative when getting worse.
+     * @see RatingRollups#getTrend
+     */
+    public float getRatingTrend(RatingRollups.Granularity granularity, String dishType,
+                                String dishName, long fromMillis, long toMillis) {
+        return shard.getRollups().getTrend(granularity, dishType, dishName, fromMillis, toMillis);
+    }
+
+    /**
+     * Exposes the progress of uploading ratings to the backend. Never set when sync is off.
+     * @return LiveData object holding the latest sync status.
+     */
+    public LiveData<RatingSyncEngine.Status> getSyncStatus() {
+        return syncStatus;
+    }
+
+    /**
+     * Exposes queue depth, commit latency and failed commits of the background journal writers.
+     * While {@link RatingWriteBehind.Stats#getLastError()} is set, the queued changes are only in
+     * memory; the writer keeps retrying them.
+     * @return LiveData object holding the latest write-behind statistics.
+     */
+    public LiveData<RatingWriteBehind.Stats> getWriteBehindStats() {
+        return writeBehindStats;
+    }
+
+    /**
+     * Exposes the selected restaurant's best-rated dishes, ranked by mean rating smoothed towards
+     * a prior so that a single 5-star vote does not top the list.
+     * @return LiveData object holding up to TOP_DISHES_COUNT dishes, best first.
+     */
+    public LiveData<List<DishLeaderboard.Entry>> getTopDishes() {
+        return topDishes;
+    }
+
+    /**
+     * Exposes whether {@link #undo()} has anything to undo in the selected restaurant.
+     */
+    public LiveData<Boolean> getCanUndo() {
+        return canUndo;
+    }
+
+    /**
+     * Exposes whether {@link #redo()} has anything to redo in the selected restaurant.
+     */
+    public LiveData<Boolean> getCanRedo() {
+        return canRedo;
+    }
+
+    /**
+     * Exposes the outcome of the last import or export.
+     * @return LiveData object holding a message such as "Imported 120 ratings".
+     */
+    public LiveData<String> getTransferStatus() {
+        return transferStatus;
+    }
+
+    /**
+     * Exposes the results of the current dish search.
+     * @return LiveData object holding the matching ratings sorted by id, or null when no search is active.
+     */
+    public LiveData<List<DishRating>> getSearchResults() {
+        return search.getResults();
+    }
+
+    /**
+     * Exposes the dishes suggested by {@link #recommendDishesLike(DishRating)}.
+     * @return LiveData object holding up to RECOMMENDATIONS_COUNT dishes, best first, or null when
+     * there are none to show.
+     */
+    public LiveData<DishSimilarityIndex.Recommendations> getRecommendations() {
+        return search.getRecommendations();
+    }
+
+    /**
+     * Suggests dishes of the selected restaurant that the user may also like: ones eaten at the
+     * same meals as the rated dish, or sharing words with its name, ranked by how well they were
+     * rated. They are looked up in the background and published through {@link #getRecommendations()}.
+     */
+    public void recommendDishesLike(DishRating rating) {
+        search.recommend(rating.getDishName(), RECOMMENDATIONS_COUNT);
+    }
+
+    /**
+     * Clears the suggestions once they were shown, so a recreated view does not show them again.
+     */
+    public void recommendationsShown() {
+        search.dismissRecommendations();
+    }
+
+    /**
+     * Searches dish names in the background. Each word of the query matches the start of a word in
+     * the dish name, ignoring case and accents. A blank query ends the search.
+     * @param query The text typed into the search box.
+     */
+    public void searchRatings(String query) {
+        searchRatings(query, null);
+    }
+
+    /**
+     * Searches dish names in the background, limited to one dish type.
+     * @param query The text typed into the search box.
+     * @param dishType The dish type to search, or null for all types.
+     */
+    public void searchRatings(String query, String dishType) {
+        search.search(query, dishType, shard.getRatings());
+    }
+
+    /**
+     * Submits a new rating for the selected restaurant, adds it to the list, and updates the LiveData.
      * This update is immediately reflected in any observing fragment.
      * @param dishName The name of the dish.
      * @param dishType The selected type of the dish (e.g., Entrée).
      * @param rating The star rating (1.0 to 5.0).
      */
     public void submitRating(String dishName, String dishType, float rating) {
-        // Create a new DishRating object
-        DishRating newRating = new DishRating(dishName, dishType, rating);
+        long start = LatencyMetrics.now();
 
-        // Get the current list (create a new list to trigger LiveData observers)
-        List<DishRating> currentList = ratingsList.getValue();
-        if (currentList == null) {
-            currentList = new ArrayList<>();
-        } else {
-            // Create a new list to ensure LiveData detects the change
-            currentList = new ArrayList<>(currentList);
-        }
+        // Add the rating to the shard, which also updates its totals and queues the journal write
+        DishRating newRating = shard.add(dishName, dishType, rating);
+        LatencyMetrics.markSubmitted(newRating.getId(), start);
+        search.add(newRating);
+        LatencyMetrics.record(LatencyMetrics.Stage.VIEW_MODEL_UPDATE, start);
 
-        // Add the new rating to the list
-        currentList.add(newRating);
-
-        // Update the LiveData with the new list
-        ratingsList.setValue(currentList);
+        // Publish the new list, totals and search results
+        publish();
 
         // Also update the latest rating result for backward compatibility
         String resultText = "Successfully rated!\n" + newRating.getFormattedRating();
@@ -106,37 +615,217 @@ public class RatingViewModel extends ViewModel {
     }
 
     /**
-     * Gets the total number of ratings.
+     * Adds many ratings to the selected restaurant at once, e.g. an imported batch, with a single
+     * update of each LiveData instead of one per rating. The ratings get new ids in list order;
+     * their names, types, ratings and timestamps are kept.
+     * @param batch The ratings to add; their ids are ignored.
+     */
+    public void submitRatings(List<DishRating> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        search.addAll(shard.addAll(batch));
+        publish();
+    }
+
+    /**
+     * Adds a rating from a background source, such as sync, to any restaurant. Safe to call from
+     * any thread at the same time as the user submits ratings: it never blocks and never loses a
+     * rating. The rating is applied on the main thread together with everything else ingested
+     * meanwhile, with one LiveData update for the whole batch. It gets a new id when applied.
+     * @param restaurantId The id of one of {@link #getRestaurants()}.
+     * @param rating Between 0 and 5; rounded to the nearest half star.
+     * @param timestamp When the rating was made, in milliseconds since the epoch.
+     */
+    public void ingestRating(long restaurantId, String dishName, String dishType, float rating, long timestamp) {
+        requireRestaurant(restaurantId);
+        ingestQueue.offer(new IngestedRating(restaurantId,
+                new DishRating(0, dishName, dishType, toHalfStar(rating), timestamp)));
+    }
+
+    /**
+     * Adds many ratings from a background source to one restaurant; see {@link #ingestRating}.
+     * They are applied together unless the backlog exceeds INGEST_MAX_BATCH_SIZE.
+     * @param ratings The ratings to add; their ids are ignored and their ratings are rounded to the
+     * nearest half star.
+     */
+    public void ingestRatings(long restaurantId, List<DishRating> ratings) {
+        requireRestaurant(restaurantId);
+        List<IngestedRating> items = new ArrayList<>(ratings.size());
+        for (DishRating rating : ratings) {
+            float halfStar = toHalfStar(rating.getRating());
+            if (halfStar != rating.getRating()) {
+                rating = new DishRating(0, rating.getDishName(), rating.getDishType(), halfStar, rating.getTimestamp());
+            }
+            items.add(new IngestedRating(restaurantId, rating));
+        }
+        ingestQueue.offerAll(items);
+    }
+
+    private static void requireRestaurant(long restaurantId) {
+        if (Restaurant.byId(restaurantId) == null) {
+            throw new IllegalArgumentException("Unknown restaurant " + restaurantId);
+        }
+    }
+
+    // Rounds an ingested rating to the half-star steps the aggregates count
+    private static float toHalfStar(float rating) {
+        if (!(rating >= 0f && rating <= 5f)) {
+            throw new IllegalArgumentException("Rating must be between 0 and 5: " + rating);
+        }
+        return RatingAggregates.toHalfStar(rating);
+    }
+
+    // Runs on the main thread: adds a batch of ingested ratings to their shards and publishes once
+    private void applyIngested(List<IngestedRating> batch) {
+        if (cleared) {
+            return;
+        }
+        // Group by restaurant, keeping the order of each restaurant's ratings
+        Map<Long, List<DishRating>> byRestaurant = new LinkedHashMap<>();
+        for (IngestedRating item : batch) {
+            List<DishRating> ratings = byRestaurant.get(item.restaurantId);
+            if (ratings == null) {
+                ratings = new ArrayList<>();
+                byRestaurant.put(item.restaurantId, ratings);
+            }
+            ratings.add(item.rating);
+        }
+        boolean shownChanged = false;
+        for (Map.Entry<Long, List<DishRating>> entry : byRestaurant.entrySet()) {
+            final List<DishRating> ratings = entry.getValue();
+            RatingShard target = store.getIfLoaded(entry.getKey());
+            if (target == shard) {
+                search.addAll(shard.addAll(ratings));
+                shownChanged = true;
+            } else if (target != null) {
+                addToHiddenShard(target, ratings);
+            } else {
+                // Not cached: load it in the background and add the ratings once it is ready
+                store.load(Restaurant.byId(entry.getKey()), loaded -> {
+                    if (cleared) {
+                        return;
+                    }
+                    if (loaded == shard) {
+                        submitRatings(ratings);
+                    } else {
+                        addToHiddenShard(loaded, ratings);
+                        chainSummary.setValue(store.chainSummary());
+                    }
+                    store.trim(shard);
+                });
+            }
+        }
+        if (shownChanged) {
+            publish();
+        } else {
+            chainSummary.setValue(store.chainSummary());
+        }
+    }
+
+    private void addToHiddenShard(RatingShard target, List<DishRating> ratings) {
+        target.addAll(ratings);
+        store.updateSummary(target.getRestaurant().getId(), target.getAggregates().snapshot());
+    }
+
+    /**
+     * Imports ratings for the selected restaurant from a CSV or JSON stream in the background.
+     * Ratings are applied in batches of IMPORT_BATCH_SIZE through {@link #submitRatings(List)} as
+     * they are parsed, so a file that turns out to be malformed part way keeps the batches before
+     * the bad row. Switching restaurants stops the import. The outcome is reported through
+     * {@link #getTransferStatus()} from the main thread once the last batch has been applied, with
+     * the number of ratings actually added. The stream is closed when done.
+     */
+    public void importRatings(InputStream in, RatingTransfer.Format format) {
+        final RatingShard target = shard;
+        transferExecutor.execute(() -> {
+            // Keeps the parser from running ahead of the main thread by more than a few batches
+            Semaphore pendingBatches = new Semaphore(IMPORT_MAX_PENDING_BATCHES);
+            AtomicBoolean switchedAway = new AtomicBoolean();
+            // Ratings added on the main thread so far; batches dropped by a switch are not counted
+            AtomicLong applied = new AtomicLong();
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                RatingTransfer.read(reader, format, IMPORT_BATCH_SIZE, batch -> {
+                    try {
+                        pendingBatches.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Import cancelled", e);
+                    }
+                    if (switchedAway.get()) {
+                        throw new IOException("another restaurant was selected");
+                    }
+                    mainExecutor.execute(() -> {
+                        if (shard != target) {
+                            switchedAway.set(true);
+                        } else if (!transferExecutor.isShutdown()) {
+                            submitRatings(batch);
+                            applied.addAndGet(batch.size());
+                        }
+                        pendingBatches.release();
+                    });
+                });
+                // Queued behind the last batch, so the count includes it
+                mainExecutor.execute(() -> {
+                    if (switchedAway.get()) {
+                        transferStatus.setValue("Import stopped after " + applied.get()
+                                + " ratings: another restaurant was selected");
+                    } else {
+                        transferStatus.setValue("Imported " + applied.get() + " ratings");
+                    }
+                });
+            } catch (IOException e) {
+                // Status first, so the import is never left unreported if logging fails
+                mainExecutor.execute(() -> transferStatus.setValue(
+                        "Import stopped after " + applied.get() + " ratings: " + e.getMessage()));
+                Log.w(TAG, "Could not import ratings", e);
+            }
+        });
+    }
+
+    /**
+     * Writes every current rating of the selected restaurant to a CSV or JSON stream in the
+     * background. Ratings added while the export runs are not included. The outcome is reported
+     * through {@link #getTransferStatus()}. The stream is closed when done.
+     */
+    public void exportRatings(OutputStream out, RatingTransfer.Format format) {
+        // The list is immutable, so the background thread can read this version while it changes
+        final List<DishRating> snapshot = shard.getRatings();
+        transferExecutor.execute(() -> {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                RatingTransfer.write(writer, format, snapshot);
+                transferStatus.postValue("Exported " + snapshot.size() + " ratings");
+            } catch (IOException e) {
+                transferStatus.postValue("Export failed: " + e.getMessage());
+                Log.w(TAG, "Could not export ratings", e);
+            }
+        });
+    }
+
+    /**
+     * Gets the total number of ratings of the selected restaurant.
      * @return The count of all ratings submitted.
      */
     public int getRatingsCount() {
-        List<DishRating> list = ratingsList.getValue();
-        return list != null ? list.size() : 0;
+        return shard.size();
     }
 
     /**
-     * Calculates the average rating across all dishes.
+     * Returns the average rating of the selected restaurant from the running totals.
      * @return The average rating, or 0.0 if no ratings exist.
      */
     public float getAverageRating() {
-        List<DishRating> list = ratingsList.getValue();
-        if (list == null || list.isEmpty()) {
-            return 0.0f;
-        }
-
-        float sum = 0;
-        for (DishRating rating : list) {
-            sum += rating.getRating();
-        }
-        return sum / list.size();
+        return shard.getAggregates().getAverage();
     }
 
     /**
-     * Clears all ratings from the list.
+     * Clears all ratings of the selected restaurant.
      */
     public void clearAllRatings() {
-        ratingsList.setValue(new ArrayList<>());
+        shard.clear();
+        search.clear();
         latestRatingResult.setValue("");
+        publish();
     }
 
     /**
@@ -144,11 +833,179 @@ public class RatingViewModel extends ViewModel {
      * @param position The position of the rating to remove.
      */
     public void removeRating(int position) {
-        List<DishRating> currentList = ratingsList.getValue();
-        if (currentList != null && position >= 0 && position < currentList.size()) {
-            currentList = new ArrayList<>(currentList);
-            currentList.remove(position);
-            ratingsList.setValue(currentList);
+        if (position >= 0 && position < shard.size()) {
+            removeAt(position);
+        }
+    }
+
+    /**
+     * Removes a rating by its id. Unlike a list position, the id cannot go stale when other
+     * rows are added or removed between the click and the call.
+     * @param id The id of the rating to remove.
+     * @return True if a rating with that id was found and removed.
+     */
+    public boolean removeRatingById(long id) {
+        int position = indexOfId(shard.getRatings(), id);
+        if (position < 0) {
+            return false;
+        }
+        removeAt(position);
+        return true;
+    }
+
+    private void removeAt(int position) {
+        search.remove(shard.removeAt(position));
+        publish();
+    }
+
+    /**
+     * Removes every rating whose id is in the set, e.g. the rows selected in the list. Unlike
+     * repeated single removals, the list is rebuilt at most once and the LiveData emit once, so
+     * the adapter diffs one update. Undo brings all of them back.
+     * @param ids Ids of ratings of the selected restaurant; ids not in the list are ignored.
+     * @return How many ratings were removed.
+     */
+    public int removeRatings(Collection<Long> ids) {
+        return removed(shard.removeIds(ids));
+    }
+
+    /**
+     * Removes every rating of a dish type in one pass; see {@link #removeRatings(Collection)}.
+     * @return How many ratings were removed.
+     */
+    public int removeRatingsOfType(String dishType) {
+        return removeRatingsIf(rating -> rating.getDishType().equals(dishType));
+    }
+
+    /**
+     * Removes every rating made in a time range in one pass; see {@link #removeRatings(Collection)}.
+     * @param fromMillis Start of the range, inclusive, in milliseconds since the epoch.
+     * @param toMillis End of the range, exclusive.
+     * @return How many ratings were removed.
+     */
+    public int removeRatingsBetween(long fromMillis, long toMillis) {
+        return removeRatingsIf(rating -> rating.getTimestamp() >= fromMillis && rating.getTimestamp() < toMillis);
+    }
+
+    /**
+     * Removes every rating the filter accepts in one pass; see {@link #removeRatings(Collection)}.
+     * The filter runs on the main thread once per rating.
+     * @return How many ratings were removed.
+     */
+    public int removeRatingsIf(Predicate<DishRating> filter) {
+        return removed(shard.removeIf(filter));
+    }
+
+    /**
+     * Removes ratings that repeat an older rating's dish name, type and stars, keeping the oldest
+     * of each, in one pass; see {@link #removeRatings(Collection)}. Names are compared ignoring
+     * case and surrounding spaces.
+     * @return How many ratings were removed.
+     */
+    public int removeDuplicateRatings() {
+        return removed(shard.removeDuplicates());
+    }
+
+    // Drops removed ratings from the search index and publishes the new list, if anything changed
+    private int removed(List<DishRating> removed) {
+        if (removed.isEmpty()) {
+            return 0;
+        }
+        search.removeAll(removed);
+        publish();
+        return removed.size();
+    }
+
+    /**
+     * Changes the name, type and rating of a rating. It keeps its id and timestamp.
+     * @param id The id of the rating to edit.
+     * @return True if a rating with that id was found and edited.
+     */
+    public boolean editRating(long id, String dishName, String dishType, float rating) {
+        int position = indexOfId(shard.getRatings(), id);
+        if (position < 0) {
+            return false;
+        }
+        DishRating before = shard.getRatings().get(position);
+        DishRating after = shard.edit(id, dishName, dishType, rating);
+        search.remove(before);
+        search.add(after);
+        publish();
+        return true;
+    }
+
+    /**
+     * Undoes the most recent submit, edit, removal or clear the user made in the selected
+     * restaurant. Imported and ingested ratings are not part of the history. A rating brought
+     * back by an undo gets a new id, so it reappears at the end of the list.
+     * @return True if something was undone.
+     */
+    public boolean undo() {
+        return applyToSearch(shard.undo());
+    }
+
+    /**
+     * Redoes the most recently undone change of the selected restaurant. Any new change made
+     * after the undo discards what could be redone.
+     * @return True if something was redone.
+     */
+    public boolean redo() {
+        return applyToSearch(shard.redo());
+    }
+
+    // Brings the search index in step with an undo or redo and publishes it
+    private boolean applyToSearch(RatingShard.Applied applied) {
+        if (applied == null) {
+            return false;
+        }
+        if (applied.cleared) {
+            search.clear();
+            latestRatingResult.setValue("");
+        }
+        search.removeAll(applied.removed);
+        search.addAll(applied.added);
+        publish();
+        return true;
+    }
+
+    private void refreshSearch() {
+        if (search.isActive()) {
+            search.refresh(shard.getRatings());
+        }
+    }
+
+    /**
+     * Finds a rating by binary search, relying on the list being sorted by id.
+     * @return The position of the rating with the given id, or -1 if there is none.
+     */
+    static int indexOfId(List<DishRating> ratings, long id) {
+        int low = 0;
+        int high = ratings.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = ratings.get(mid).getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        cleared = true;
+        search.close();
+        // Interrupts a running import; batches it already handed to the main thread are dropped
+        transferExecutor.shutdownNow();
+        // Commit every queued change before the journals are closed
+        store.close();
+        if (sync != null) {
+            sync.close();
         }
     }
-}
\ No newline at end of file
+}
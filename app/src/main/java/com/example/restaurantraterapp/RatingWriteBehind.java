@@ -0,0 +1,346 @@
+package com.example.restaurantraterapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue between RatingViewModel and the rating journal.
+ *
+ * The ViewModel updates its in-memory state straight away and enqueues the matching journal
+ * entry here. A single background writer thread drains the queue in FIFO order and hands it to
+ * the sink in batches of at most {@code maxBatchSize} entries, so many submissions share one
+ * group commit. A batch is written once the oldest entry has waited {@code flushIntervalMs}, or
+ * straight away once {@code maxBatchSize} entries are waiting. A batch the sink fails to commit
+ * goes back to the head of the queue and is retried after another {@code flushIntervalMs}.
+ */
+public class RatingWriteBehind {
+
+    /**
+     * Receives batches on the writer thread, in the order the entries were enqueued.
+     * An exception thrown here means nothing of the batch was kept: the batch stays queued and is
+     * retried, and the exception is reported to flush() and in the statistics.
+     */
+    public interface Sink {
+        void commit(List<RatingJournal.Entry> batch);
+    }
+
+    /**
+     * Notified with fresh statistics after every enqueue and commit, on the calling thread.
+     */
+    public interface StatsListener {
+        void onStats(Stats stats);
+    }
+
+    /**
+     * Queue depth and latency of the most recent commit.
+     */
+    public static final class Stats {
+        private final int queueDepth;
+        private final int lastBatchSize;
+        private final long lastCommitNanos;
+        private final long lastWaitNanos;
+        private final long committedCount;
+        private final long failedCommitCount;
+        private final Throwable lastError;
+
+        Stats(int queueDepth, int lastBatchSize, long lastCommitNanos, long lastWaitNanos, long committedCount,
+              long failedCommitCount, Throwable lastError) {
+            this.queueDepth = queueDepth;
+            this.lastBatchSize = lastBatchSize;
+            this.lastCommitNanos = lastCommitNanos;
+            this.lastWaitNanos = lastWaitNanos;
+            this.committedCount = committedCount;
+            this.failedCommitCount = failedCommitCount;
+            this.lastError = lastError;
+        }
+
+        // Number of entries waiting to be committed
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getLastBatchSize() {
+            return lastBatchSize;
+        }
+
+        // Time the sink took to commit the last batch
+        public long getLastCommitNanos() {
+            return lastCommitNanos;
+        }
+
+        // Time from enqueueing the oldest entry of the last batch until it was committed
+        public long getLastWaitNanos() {
+            return lastWaitNanos;
+        }
+
+        public long getCommittedCount() {
+            return committedCount;
+        }
+
+        // Commits the sink failed, each of which is retried
+        public long getFailedCommitCount() {
+            return failedCommitCount;
+        }
+
+        // Why the last commit failed, or null once a commit has succeeded since
+        public Throwable getLastError() {
+            return lastError;
+        }
+    }
+
+    // An entry together with the time it was enqueued
+    private static final class Pending {
+        final RatingJournal.Entry entry;
+        final long enqueuedAt;
+
+        Pending(RatingJournal.Entry entry, long enqueuedAt) {
+            this.entry = entry;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final Sink sink;
+    private final StatsListener statsListener;
+    private final long flushIntervalMs;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService writer;
+    private final Runnable drainTask = this::drain;
+
+    // Guarded by itself
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    // The batch the writer is committing, or null; guarded by pending
+    private List<Pending> inFlight;
+    private boolean flushScheduled;
+    private boolean closed;
+
+    // Written on the writer thread, read when publishing stats from any thread
+    private volatile int lastBatchSize;
+    private volatile long lastCommitNanos;
+    private volatile long lastWaitNanos;
+    private volatile long committedCount;
+    private volatile long failedCommitCount;
+    private volatile Throwable lastError;
+
+    /**
+     * @param sink Receives each batch on the writer thread.
+     * @param flushIntervalMs Longest time an entry waits before its batch is committed.
+     * @param maxBatchSize Largest number of entries committed together.
+     * @param statsListener Receives queue statistics, may be null.
+     */
+    public RatingWriteBehind(Sink sink, long flushIntervalMs, int maxBatchSize, StatsListener statsListener) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.sink = sink;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxBatchSize = maxBatchSize;
+        this.statsListener = statsListener;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RatingWriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues an entry for the next group commit. Safe to call from any thread.
+     */
+    public void enqueue(RatingJournal.Entry entry) {
+        int depth;
+        synchronized (pending) {
+            if (closed) {
+                throw new IllegalStateException("RatingWriteBehind is closed");
+            }
+            pending.add(new Pending(entry, System.nanoTime()));
+            depth = pending.size();
+            if (depth == maxBatchSize) {
+                // A full batch is waiting, so commit it without waiting for the timer
+                writer.execute(drainTask);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                writer.schedule(drainTask, flushIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        publishStats(depth);
+    }
+
+    /**
+     * Queues several entries at once, e.g. a batch of imported ratings, taking the lock and
+     * publishing statistics once instead of per entry. Safe to call from any thread.
+     */
+    public void enqueueAll(List<RatingJournal.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        int depth;
+        synchronized (pending) {
+            if (closed) {
+                throw new IllegalStateException("RatingWriteBehind is closed");
+            }
+            long now = System.nanoTime();
+            int before = pending.size();
+            for (RatingJournal.Entry entry : entries) {
+                pending.add(new Pending(entry, now));
+            }
+            depth = pending.size();
+            if (before < maxBatchSize && depth >= maxBatchSize) {
+                writer.execute(drainTask);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                writer.schedule(drainTask, flushIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        publishStats(depth);
+    }
+
+    /**
+     * Blocks until every entry enqueued before this call has been committed.
+     * @throws IllegalStateException If a commit failed; its entries stay queued for a retry.
+     */
+    public void flush() {
+        awaitWriter(writer.submit(drainTask));
+    }
+
+    /**
+     * Commits everything still queued and stops the writer thread. Entries can no longer
+     * be enqueued afterwards.
+     * @throws IllegalStateException If the last commit failed; its entries are not retried.
+     */
+    public void close() {
+        synchronized (pending) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * @return Every entry not committed yet, in the order it was enqueued, including the batch
+     * the writer is committing at the moment. Safe to call from any thread.
+     */
+    public List<RatingJournal.Entry> getUncommitted() {
+        synchronized (pending) {
+            List<RatingJournal.Entry> entries = new ArrayList<>(
+                    pending.size() + (inFlight == null ? 0 : inFlight.size()));
+            if (inFlight != null) {
+                for (Pending item : inFlight) {
+                    entries.add(item.entry);
+                }
+            }
+            for (Pending item : pending) {
+                entries.add(item.entry);
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * @return The number of entries waiting to be committed.
+     */
+    public int getQueueDepth() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    // Runs on the writer thread: commits batches until the queue is empty
+    private void drain() {
+        List<Pending> taken = new ArrayList<>(maxBatchSize);
+        List<RatingJournal.Entry> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            synchronized (pending) {
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                while (taken.size() < maxBatchSize && !pending.isEmpty()) {
+                    Pending next = pending.poll();
+                    taken.add(next);
+                    batch.add(next.entry);
+                }
+                inFlight = taken;
+            }
+
+            long start = System.nanoTime();
+            try {
+                sink.commit(batch);
+            } catch (RuntimeException e) {
+                requeue(taken, e);
+                throw e;
+            }
+            long end = System.nanoTime();
+            synchronized (pending) {
+                inFlight = null;
+            }
+
+            lastBatchSize = batch.size();
+            lastCommitNanos = end - start;
+            lastWaitNanos = end - taken.get(0).enqueuedAt;
+            committedCount += batch.size();
+            lastError = null;
+            taken.clear();
+            batch.clear();
+            publishStats(getQueueDepth());
+        }
+    }
+
+    // Puts a batch the sink failed to commit back at the head of the queue, in order, and retries
+    // it after the flush interval unless the queue is closing
+    private void requeue(List<Pending> taken, RuntimeException error) {
+        failedCommitCount++;
+        lastError = error;
+        int depth;
+        synchronized (pending) {
+            inFlight = null;
+            for (int i = taken.size() - 1; i >= 0; i--) {
+                pending.addFirst(taken.get(i));
+            }
+            depth = pending.size();
+            if (!flushScheduled && !closed) {
+                flushScheduled = true;
+                writer.schedule(drainTask, flushIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        publishStats(depth);
+    }
+
+    private void publishStats(int depth) {
+        if (statsListener != null) {
+            statsListener.onStats(new Stats(depth, lastBatchSize, lastCommitNanos, lastWaitNanos, committedCount,
+                    failedCommitCount, lastError));
+        }
+    }
+
+    private static void awaitWriter(Future<?> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    // Keep waiting; losing queued ratings is worse than a delayed interrupt
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Rating write-behind commit failed", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,19 +1,43 @@
 package com.example.restaurantraterapp;
 
 import android.view.LayoutInflater;
+import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
 import androidx.recyclerview.widget.DiffUtil;
-import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.restaurantraterapp.databinding.ItemRatingBinding;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Adapter for displaying dish ratings in a RecyclerView.
+ *
+ * List updates are diffed off the main thread by a RatingListDiffer, which also takes a fast
+ * path for single inserts and removals. When given a RatingPagedList, the adapter requests
+ * pages as rows are bound and shows unloaded rows as blank placeholders.
+ *
+ * The adapter's bind code allocates nothing: each ViewHolder sets its click listeners once, when
+ * it is created, and looks up its rating when clicked. Rows come from RatingColumns, which hands
+ * out the same DishRating and interned strings every time a row is read, so a holder skips every
+ * view whose text it already shows, and rebinding a row to the rating it shows (a page load, a
+ * selection change) touches no view at all. Only a row that really shows new text pays for
+ * TextView.setText. A row whose rating changed but whose dish did not is rebound through the
+ * {@link #PAYLOAD_RATING} payload, which only touches the stars and their text. ViewHolders do not hold on to their adapter, so they can be shared through
+ * {@link #createViewPool()} by every list of ratings in an activity.
+ *
+ * A long press starts selection mode, in which clicks select and deselect rows instead, so
+ * several ratings can be acted on at once. Selection is kept by rating id and shown through the
+ * {@link #PAYLOAD_SELECTION} payload, so rows keep their selection while the list changes.
  */
-public class RatingsAdapter extends ListAdapter<RatingViewModel.DishRating, RatingsAdapter.RatingViewHolder> {
+public class RatingsAdapter extends RecyclerView.Adapter<RatingsAdapter.RatingViewHolder> {
 
     // An optional interface for handling item clicks
     public interface OnRatingClickListener {
@@ -21,12 +45,44 @@ public class RatingsAdapter extends ListAdapter<RatingViewModel.DishRating, Rati
         void onDeleteClick(RatingViewModel.DishRating rating, int position);
     }
 
+    // Receives the number of selected rows whenever the selection changes
+    public interface OnSelectionChangedListener {
+        void onSelectionChanged(int selectedCount);
+    }
+
+    // Change payload of a row whose rating changed while its dish name and type stayed the same
+    static final Object PAYLOAD_RATING = new Object();
+
+    // Change payload of a row that was selected or deselected
+    static final Object PAYLOAD_SELECTION = new Object();
+
+    // The one view type of this adapter, and how many spare rows of it a shared pool keeps. The
+    // default of 5 is less than a screenful, so a fast fling or a tab coming back inflates rows
+    // that a larger pool would have reused.
+    static final int VIEW_TYPE_RATING = 0;
+    static final int MAX_POOLED_ROWS = 30;
+
     // Listener variable to handle click actions from outside the adapter
     private OnRatingClickListener listener;
 
-    // Constructor to pass the DiffUtil callback
+    // Computes list updates in the background and dispatches them to this adapter
+    private final RatingListDiffer differ;
+
+    // Whether clicks select rows, and the ids of the selected ratings
+    private boolean selectionMode;
+    private final Set<Long> selectedIds = new HashSet<>();
+    private OnSelectionChangedListener selectionListener;
+
+    // Constructor using the shared diff executor
     public RatingsAdapter() {
-        super(DIFF_CALLBACK);
+        this(RatingListDiffer.defaultConfig(DIFF_CALLBACK));
+    }
+
+    // Constructor taking a custom differ config, e.g. a different background executor
+    public RatingsAdapter(@NonNull AsyncDifferConfig<RatingViewModel.DishRating> config) {
+        differ = new RatingListDiffer(new AdapterListUpdateCallback(this), config);
+        // Rating ids are unique, so RecyclerView can keep track of rows across updates
+        setHasStableIds(true);
     }
 
     // Setter to assign a click listener from the fragment or activity
@@ -34,14 +90,114 @@ public class RatingsAdapter extends ListAdapter<RatingViewModel.DishRating, Rati
         this.listener = listener;
     }
 
+    // Setter for the listener told about selection changes, e.g. to show a contextual action bar
+    public void setOnSelectionChangedListener(OnSelectionChangedListener selectionListener) {
+        this.selectionListener = selectionListener;
+    }
+
+    public boolean isSelectionMode() {
+        return selectionMode;
+    }
+
+    /**
+     * Ends selection mode and deselects every row. Selection mode starts with a long press.
+     */
+    public void endSelectionMode() {
+        if (!selectionMode) {
+            return;
+        }
+        selectionMode = false;
+        selectedIds.clear();
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+        notifySelectionChanged();
+    }
+
+    /**
+     * Selects every rating of a list, e.g. the whole list behind the paged rows on screen.
+     */
+    public void selectAll(List<RatingViewModel.DishRating> ratings) {
+        selectionMode = true;
+        for (RatingViewModel.DishRating rating : ratings) {
+            selectedIds.add(rating.getId());
+        }
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+        notifySelectionChanged();
+    }
+
+    /**
+     * @return A copy of the ids of the selected ratings.
+     */
+    public Set<Long> getSelectedIds() {
+        return new HashSet<>(selectedIds);
+    }
+
+    // Only looks up the set while something is selected, so binds outside selection mode never box an id
+    private boolean isSelected(RatingViewModel.DishRating rating) {
+        return rating != null && !selectedIds.isEmpty() && selectedIds.contains(rating.getId());
+    }
+
+    private void notifySelectionChanged() {
+        if (selectionListener != null) {
+            selectionListener.onSelectionChanged(selectedIds.size());
+        }
+    }
+
+    // Setter for a hook that receives the duration and list sizes of every diff
+    public void setDiffListener(RatingListDiffer.DiffListener diffListener) {
+        differ.setDiffListener(diffListener);
+    }
+
+    // Submits a new list to be diffed against the one currently displayed
+    public void submitList(List<RatingViewModel.DishRating> list) {
+        if (list instanceof RatingPagedList) {
+            RatingPagedList pagedList = (RatingPagedList) list;
+            // Rebind rows as their pages load or are dropped, but only while the list is on screen
+            pagedList.setCallback((position, count) -> {
+                if (differ.getCurrentList() == pagedList) {
+                    notifyItemRangeChanged(position, count);
+                }
+            });
+        }
+        differ.submitList(list);
+    }
+
+    // The list currently displayed, which lags behind submitList until its diff is dispatched
+    public List<RatingViewModel.DishRating> getCurrentList() {
+        return differ.getCurrentList();
+    }
+
+    /**
+     * @return A pool for sharing rating rows between RecyclerViews, e.g. across the views a tab
+     * fragment creates over its lifetime. Scope it to the activity, since rows hold its context.
+     */
+    public static RecyclerView.RecycledViewPool createViewPool() {
+        RecyclerView.RecycledViewPool pool = new RecyclerView.RecycledViewPool();
+        pool.setMaxRecycledViews(VIEW_TYPE_RATING, MAX_POOLED_ROWS);
+        return pool;
+    }
+
+    // Returns the rating at a position, or null for a placeholder whose page is not loaded yet
+    protected RatingViewModel.DishRating getItem(int position) {
+        List<RatingViewModel.DishRating> list = differ.getCurrentList();
+        if (list instanceof RatingPagedList) {
+            ((RatingPagedList) list).loadAround(position);
+        }
+        return list.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
     // DiffUtil callback for efficient list updates
-    private static final DiffUtil.ItemCallback<RatingViewModel.DishRating> DIFF_CALLBACK =
+    static final DiffUtil.ItemCallback<RatingViewModel.DishRating> DIFF_CALLBACK =
             new DiffUtil.ItemCallback<RatingViewModel.DishRating>() {
                 @Override
                 public boolean areItemsTheSame(@NonNull RatingViewModel.DishRating oldItem,
                                                @NonNull RatingViewModel.DishRating newItem) {
-                    // Compare by timestamp since each rating is unique
-                    return oldItem.getTimestamp() == newItem.getTimestamp();
+                    // Compare by id; timestamps can repeat when ratings arrive in the same millisecond
+                    return oldItem.getId() == newItem.getId();
                 }
 
                 @Override
@@ -51,6 +207,18 @@ public class RatingsAdapter extends ListAdapter<RatingViewModel.DishRating, Rati
                             oldItem.getDishType().equals(newItem.getDishType()) &&
                             oldItem.getRating() == newItem.getRating();
                 }
+
+                @Nullable
+                @Override
+                public Object getChangePayload(@NonNull RatingViewModel.DishRating oldItem,
+                                               @NonNull RatingViewModel.DishRating newItem) {
+                    // Same dish with a new rating: rebind only the stars
+                    if (oldItem.getDishName().equals(newItem.getDishName()) &&
+                            oldItem.getDishType().equals(newItem.getDishType())) {
+                        return PAYLOAD_RATING;
+                    }
+                    return null;
+                }
             };
 
     @NonNull
@@ -62,37 +230,196 @@ public class RatingsAdapter extends ListAdapter<RatingViewModel.DishRating, Rati
         return new RatingViewHolder(binding);
     }
 
+    // Stable id of the row at a position, used by RecyclerView since setHasStableIds is on.
+    // Rating ids are positive, so placeholders get negative ids of their own, derived from the
+    // position and never NO_ID.
+    @Override
+    public long getItemId(int position) {
+        RatingViewModel.DishRating rating = differ.getCurrentList().get(position);
+        return rating != null ? rating.getId() : placeholderId(position);
+    }
+
+    static long placeholderId(int position) {
+        return -2L - position;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return VIEW_TYPE_RATING;
+    }
+
     // Called to display the data at a specific position in the list.
     @Override
     public void onBindViewHolder(@NonNull RatingViewHolder holder, int position) {
+        long start = LatencyMetrics.now();
+        RatingViewModel.DishRating rating = getItem(position);
+        holder.bind(rating);
+        holder.bindSelection(isSelected(rating));
+        if (rating != null) {
+            LatencyMetrics.onBound(rating.getId());
+        }
+        LatencyMetrics.record(LatencyMetrics.Stage.BIND, start);
+    }
+
+    // Called instead of the above when the diff gave payloads; rebinds only what they name
+    @Override
+    public void onBindViewHolder(@NonNull RatingViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!onlyPartialChanges(payloads)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        long start = LatencyMetrics.now();
         RatingViewModel.DishRating rating = getItem(position);
-        holder.bind(rating, position);
+        if (rating == null) {
+            holder.bind(null);
+        } else if (payloads.contains(PAYLOAD_RATING)) {
+            holder.bindRating(rating);
+            LatencyMetrics.onBound(rating.getId());
+        }
+        holder.bindSelection(isSelected(rating));
+        LatencyMetrics.record(LatencyMetrics.Stage.BIND, start);
+    }
+
+    // Indexed loop, since a for-each would allocate an iterator per bind
+    private static boolean onlyPartialChanges(List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < payloads.size(); i++) {
+            Object payload = payloads.get(i);
+            if (payload != PAYLOAD_RATING && payload != PAYLOAD_SELECTION) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Runs a click on the row at a position; placeholders and stale positions are ignored
+    private void onRowClick(int position, boolean delete) {
+        RatingViewModel.DishRating rating = ratingAt(position);
+        if (rating == null) {
+            return;
+        }
+        if (selectionMode && !delete) {
+            toggleSelection(rating, position);
+            return;
+        }
+        if (listener == null) {
+            return;
+        }
+        if (delete) {
+            listener.onDeleteClick(rating, position);
+        } else {
+            listener.onRatingClick(rating, position);
+        }
     }
 
-    // Holds references to item views.
-    class RatingViewHolder extends RecyclerView.ViewHolder {
+    // A long press starts selection mode with the pressed row selected
+    private boolean onRowLongClick(int position) {
+        RatingViewModel.DishRating rating = ratingAt(position);
+        if (rating == null) {
+            return false;
+        }
+        selectionMode = true;
+        toggleSelection(rating, position);
+        return true;
+    }
+
+    private void toggleSelection(RatingViewModel.DishRating rating, int position) {
+        if (!selectedIds.remove(rating.getId())) {
+            selectedIds.add(rating.getId());
+        }
+        notifyItemChanged(position, PAYLOAD_SELECTION);
+        notifySelectionChanged();
+    }
+
+    // Returns the loaded rating at a position, or null for placeholders and stale positions
+    private RatingViewModel.DishRating ratingAt(int position) {
+        List<RatingViewModel.DishRating> list = differ.getCurrentList();
+        if (position < 0 || position >= list.size()) {
+            return null;
+        }
+        return list.get(position);
+    }
+
+    // Holds references to item views. Static, so a pooled row can be bound by another adapter.
+    static class RatingViewHolder extends RecyclerView.ViewHolder
+            implements View.OnClickListener, View.OnLongClickListener {
         private final ItemRatingBinding binding;
+        // What the views show, compared by identity to skip setting the same text again
+        private String shownName;
+        private String shownType;
+        private float shownRating = Float.NaN;
 
         public RatingViewHolder(@NonNull ItemRatingBinding binding) {
             super(binding.getRoot());
             this.binding = binding;
+            // Set once; the clicked rating is looked up by position when the click happens
+            binding.getRoot().setOnClickListener(this);
+            binding.getRoot().setOnLongClickListener(this);
+            binding.btnDelete.setOnClickListener(this);
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            int position = getBindingAdapterPosition();
+            RecyclerView.Adapter<?> adapter = getBindingAdapter();
+            return position != RecyclerView.NO_POSITION && adapter instanceof RatingsAdapter
+                    && ((RatingsAdapter) adapter).onRowLongClick(position);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getBindingAdapterPosition();
+            RecyclerView.Adapter<?> adapter = getBindingAdapter();
+            if (position != RecyclerView.NO_POSITION && adapter instanceof RatingsAdapter) {
+                ((RatingsAdapter) adapter).onRowClick(position, view == binding.btnDelete);
+            }
         }
 
-        public void bind(RatingViewModel.DishRating rating, int position) {
+        public void bind(RatingViewModel.DishRating rating) {
+            if (rating == null) {
+                bindPlaceholder();
+                return;
+            }
+
             // Display dish information
-            binding.tvDishName.setText(rating.getDishName());
-            binding.tvDishType.setText(rating.getDishType());
-            binding.tvRating.setText(String.format("%.1f stars", rating.getRating()));
-            binding.ratingBar.setRating(rating.getRating());
-
-            // Set click listeners
-            if (listener != null) {
-                binding.getRoot().setOnClickListener(v ->
-                        listener.onRatingClick(rating, getAdapterPosition()));
-
-                binding.btnDelete.setOnClickListener(v ->
-                        listener.onDeleteClick(rating, getAdapterPosition()));
+            if (rating.getDishName() != shownName) {
+                shownName = rating.getDishName();
+                binding.tvDishName.setText(shownName);
+            }
+            if (rating.getDishType() != shownType) {
+                shownType = rating.getDishType();
+                binding.tvDishType.setText(shownType);
+            }
+            bindRating(rating);
+        }
+
+        // Updates only the stars and their text, for a row whose dish is unchanged
+        void bindRating(RatingViewModel.DishRating rating) {
+            if (rating.getRating() == shownRating) {
+                return;
             }
+            shownRating = rating.getRating();
+            // Looked up from a table instead of String.format, which allocates a Formatter per call
+            binding.tvRating.setText(RatingFormat.stars(shownRating));
+            binding.ratingBar.setRating(shownRating);
+        }
+
+        // Shows whether the row is selected; a no-op when it already shows that
+        void bindSelection(boolean selected) {
+            binding.getRoot().setChecked(selected);
+        }
+
+        // Blank row shown until the page holding this position is loaded
+        private void bindPlaceholder() {
+            shownName = null;
+            shownType = null;
+            shownRating = Float.NaN;
+            binding.tvDishName.setText("");
+            binding.tvDishType.setText("");
+            binding.tvRating.setText("");
+            binding.ratingBar.setRating(0f);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.example.restaurantraterapp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One location of the restaurant chain. Each restaurant's ratings live in their own RatingShard.
+ */
+public final class Restaurant {
+
+    // Hardcoded chain locations; the first one is shown on startup
+    public static final List<Restaurant> ALL = Collections.unmodifiableList(Arrays.asList(
+            new Restaurant(1, "The Local Bistro", "123 Main Street, Anytown"),
+            new Restaurant(2, "The Local Bistro Riverside", "8 Quay Road, Anytown"),
+            new Restaurant(3, "The Local Bistro Old Town", "41 Market Square, Oldbury"),
+            new Restaurant(4, "The Local Bistro Station", "2 Station Approach, Millbrook"),
+            new Restaurant(5, "The Local Bistro Harbour", "17 Harbour Walk, Seaview")));
+
+    private final long id;
+    private final String name;
+    private final String address;
+
+    public Restaurant(long id, String name, String address) {
+        this.id = id;
+        this.name = name;
+        this.address = address;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return The restaurant with the given id, or null if there is none.
+     */
+    public static Restaurant byId(long id) {
+        for (Restaurant restaurant : ALL) {
+            if (restaurant.id == id) {
+                return restaurant;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The name of this restaurant's rating journal. The first restaurant keeps the file
+     * used before the app knew about more than one location, so its ratings carry over.
+     */
+    String getJournalFileName() {
+        return id == ALL.get(0).id ? RatingViewModel.JOURNAL_FILE_NAME : "ratings-" + id + ".journal";
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -1,19 +1,41 @@
 package com.example.restaurantraterapp;
 
+import android.content.pm.ApplicationInfo;
+import android.net.Uri;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
 import com.example.restaurantraterapp.databinding.FragmentRestaurantBinding;
+import com.google.android.material.snackbar.Snackbar;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class RestaurantFragment extends Fragment {
 
@@ -21,9 +43,25 @@ public class RestaurantFragment extends Fragment {
     private RatingViewModel viewModel;
     private RatingsAdapter adapter;
 
-    // Hardcoded restaurant data as required
-    private static final String RESTAURANT_NAME = "The Local Bistro";
-    private static final String RESTAURANT_ADDRESS = "123 Main Street, Anytown";
+    // Contextual action bar shown while rows are selected, or null outside selection mode
+    private ActionMode selectionActionMode;
+
+    private static final String TAG = "RestaurantFragment";
+
+    // File types offered when picking a file to import
+    private static final String[] IMPORT_MIME_TYPES = {"text/*", "application/json"};
+
+    // System file pickers for importing and exporting ratings
+    private final ActivityResultLauncher<String[]> importLauncher =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::importFrom);
+    private final ActivityResultLauncher<String> exportLauncher = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument(RatingTransfer.Format.CSV.getMimeType()), this::exportTo);
+
+    // Change in daily average, in stars per day, below which the recent trend counts as flat
+    private static final float RECENT_TREND_THRESHOLD = 0.05f;
+
+    // Pages of 20 rows, fetched when the user is within 20 rows of the loaded edge, at most 6 pages kept
+    private static final RatingPagedList.Config PAGE_CONFIG = RatingPagedList.Config.DEFAULT;
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
@@ -40,57 +78,206 @@ public class RestaurantFragment extends Fragment {
         // Initialize the shared ViewModel scoped to the Activity
         viewModel = new ViewModelProvider(requireActivity()).get(RatingViewModel.class);
 
-        // Display static restaurant info
-        binding.tvRestaurantName.setText(RESTAURANT_NAME);
-        binding.tvRestaurantAddress.setText(RESTAURANT_ADDRESS);
+        // Display the selected restaurant and let the user switch to another location
+        setupRestaurantSelector();
 
         // Setup RecyclerView
         setupRecyclerView();
 
         // Observe the ViewModel for all ratings
         observeRatingsList();
+
+        // Observe the running totals for the summary line
+        observeRatingSummary();
+
+        // Search dish names as the user types
+        setupSearch();
+
+        // Import and export ratings as CSV or JSON files
+        setupTransferButtons();
+
+        // Debug builds only: long-press the restaurant name to dump the latency histograms
+        setupLatencyDump();
+    }
+
+    private void setupRestaurantSelector() {
+        List<Restaurant> restaurants = viewModel.getRestaurants();
+        ArrayAdapter<Restaurant> selectorAdapter =
+                new ArrayAdapter<>(requireContext(), android.R.layout.simple_spinner_item, restaurants);
+        selectorAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        binding.spinnerRestaurant.setAdapter(selectorAdapter);
+        binding.spinnerRestaurant.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                // Loads the restaurant's ratings in the background the first time
+                viewModel.selectRestaurant(restaurants.get(position).getId());
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        viewModel.getCurrentRestaurant().observe(getViewLifecycleOwner(), restaurant -> {
+            binding.tvRestaurantName.setText(restaurant.getName());
+            binding.tvRestaurantAddress.setText(restaurant.getAddress());
+            binding.spinnerRestaurant.setSelection(restaurants.indexOf(restaurant));
+        });
+
+        // Totals across every location, read from the other restaurants' journals in the background
+        viewModel.getChainSummary().observe(getViewLifecycleOwner(), summary -> {
+            RatingAggregates.Stats overall = summary.getOverall();
+            binding.tvChainSummary.setText("All locations: " + overall.getCount() + " ratings, "
+                    + RatingFormat.average(overall.getAverage()));
+        });
+        viewModel.refreshChainSummary();
     }
 
     private void setupRecyclerView() {
         // Initialize adapter
         adapter = new RatingsAdapter();
 
-        // Set up RecyclerView
-        binding.rvRatings.setLayoutManager(new LinearLayoutManager(requireContext()));
+        // Set up RecyclerView. Rows prefetch while the main thread idles between scroll frames,
+        // and go back to the activity's shared pool when this view is destroyed, so the next view
+        // of this tab reuses them instead of inflating its first screen of rows again.
+        LinearLayoutManager layoutManager = new LinearLayoutManager(requireContext());
+        layoutManager.setItemPrefetchEnabled(true);
+        layoutManager.setRecycleChildrenOnDetach(true);
+        binding.rvRatings.setLayoutManager(layoutManager);
+        if (requireActivity() instanceof MainActivity) {
+            binding.rvRatings.setRecycledViewPool(((MainActivity) requireActivity()).getRatingViewPool());
+        }
         binding.rvRatings.setAdapter(adapter);
 
         // Optional: Add item click listeners (e.g., for deleting ratings)
         adapter.setOnRatingClickListener(new RatingsAdapter.OnRatingClickListener() {
             @Override
             public void onRatingClick(RatingViewModel.DishRating rating, int position) {
-                // Handle item click if needed
-                // For example, show details in a dialog
+                // Suggest dishes like this one; the dialog opens when they are ready
+                viewModel.recommendDishesLike(rating);
             }
 
             @Override
             public void onDeleteClick(RatingViewModel.DishRating rating, int position) {
-                // Delete the rating
-                viewModel.removeRating(position);
+                // Delete the rating by id, since the position may have shifted since the click
+                if (viewModel.removeRatingById(rating.getId())) {
+                    showUndo("Rating removed");
+                }
             }
         });
+
+        // Long-press a row to select several and delete them at once
+        adapter.setOnSelectionChangedListener(this::onSelectionChanged);
+
+        viewModel.getRecommendations().observe(getViewLifecycleOwner(), this::showRecommendations);
+    }
+
+    private void showRecommendations(DishSimilarityIndex.Recommendations recommendations) {
+        if (recommendations == null) {
+            return;
+        }
+        viewModel.recommendationsShown();
+        List<DishSimilarityIndex.Suggestion> suggestions = recommendations.getSuggestions();
+        if (suggestions.isEmpty()) {
+            Toast.makeText(requireContext(), "No similar dishes rated yet", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] items = new String[suggestions.size()];
+        for (int i = 0; i < items.length; i++) {
+            DishSimilarityIndex.Suggestion suggestion = suggestions.get(i);
+            items[i] = suggestion.getDishName() + " (" + suggestion.getDishType() + ") - "
+                    + RatingFormat.average(suggestion.getAverage());
+        }
+        new AlertDialog.Builder(requireContext())
+                .setTitle("Liked " + recommendations.getDishName().trim() + "? You might also like")
+                .setItems(items, null)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    private void showUndo(String message) {
+        Snackbar.make(binding.getRoot(), message, Snackbar.LENGTH_LONG)
+                .setAction("Undo", v -> viewModel.undo())
+                .show();
     }
 
+    private void onSelectionChanged(int selectedCount) {
+        if (!adapter.isSelectionMode()) {
+            if (selectionActionMode != null) {
+                selectionActionMode.finish();
+            }
+            return;
+        }
+        if (selectionActionMode == null) {
+            selectionActionMode = ((AppCompatActivity) requireActivity()).startSupportActionMode(selectionCallback);
+        }
+        if (selectionActionMode != null) {
+            selectionActionMode.setTitle(selectedCount + " selected");
+        }
+    }
+
+    // Bulk actions on the selected rows; each is one ViewModel call, one list update and one undo step
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_rating_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            int itemId = item.getItemId();
+            if (itemId == R.id.action_delete_selected) {
+                int removed = viewModel.removeRatings(adapter.getSelectedIds());
+                mode.finish();
+                if (removed > 0) {
+                    showUndo(removed == 1 ? "Rating removed" : removed + " ratings removed");
+                }
+                return true;
+            } else if (itemId == R.id.action_select_all) {
+                // The whole list or search result, not just the pages loaded into the adapter
+                List<RatingViewModel.DishRating> shown = viewModel.getSearchResults().getValue();
+                adapter.selectAll(shown != null ? shown : viewModel.getRatingsList().getValue());
+                return true;
+            } else if (itemId == R.id.action_remove_duplicates) {
+                int removed = viewModel.removeDuplicateRatings();
+                mode.finish();
+                if (removed > 0) {
+                    showUndo(removed == 1 ? "1 duplicate removed" : removed + " duplicates removed");
+                } else {
+                    Toast.makeText(requireContext(), "No duplicates found", Toast.LENGTH_SHORT).show();
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionActionMode = null;
+            adapter.endSelectionMode();
+        }
+    };
+
     private void observeRatingsList() {
         // Observe the list of all ratings
         viewModel.getRatingsList().observe(getViewLifecycleOwner(), ratings -> {
+            // Submit a paged view of the list to the adapter so only a window of rows is held by the UI,
+            // unless search results are showing; those are refreshed by the ViewModel
+            if (viewModel.getSearchResults().getValue() == null) {
+                adapter.submitList(pagedList(ratings));
+            }
+
             if (ratings != null && !ratings.isEmpty()) {
                 // Show RecyclerView, hide empty state
                 binding.rvRatings.setVisibility(View.VISIBLE);
                 binding.tvEmptyState.setVisibility(View.GONE);
                 binding.summarySection.setVisibility(View.VISIBLE);
-
-                // Submit list to adapter
-                adapter.submitList(ratings);
-
-                // Update summary information
-                binding.tvTotalRatings.setText("Total: " + ratings.size() + " ratings");
-                binding.tvAverageRating.setText(String.format("Avg: %.1f ★",
-                        viewModel.getAverageRating()));
             } else {
                 // Show empty state, hide RecyclerView
                 binding.rvRatings.setVisibility(View.GONE);
@@ -100,9 +287,137 @@ public class RestaurantFragment extends Fragment {
         });
     }
 
+    private void setupTransferButtons() {
+        binding.btnImport.setOnClickListener(v -> importLauncher.launch(IMPORT_MIME_TYPES));
+        binding.btnExport.setOnClickListener(v -> exportLauncher.launch("ratings.csv"));
+
+        viewModel.getTransferStatus().observe(getViewLifecycleOwner(), status -> {
+            if (status != null) {
+                Toast.makeText(requireContext(), status, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void importFrom(Uri uri) {
+        // Null when the user backed out of the picker
+        if (uri == null) {
+            return;
+        }
+        try {
+            InputStream in = requireContext().getContentResolver().openInputStream(uri);
+            if (in == null) {
+                throw new IOException("No content at " + uri);
+            }
+            RatingTransfer.Format format =
+                    RatingTransfer.Format.forMimeType(requireContext().getContentResolver().getType(uri));
+            viewModel.importRatings(in, format);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open " + uri, e);
+            Toast.makeText(requireContext(), "Could not open the file", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void exportTo(Uri uri) {
+        if (uri == null) {
+            return;
+        }
+        try {
+            OutputStream out = requireContext().getContentResolver().openOutputStream(uri);
+            if (out == null) {
+                throw new IOException("No content at " + uri);
+            }
+            viewModel.exportRatings(out, RatingTransfer.Format.CSV);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open " + uri, e);
+            Toast.makeText(requireContext(), "Could not create the file", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void setupLatencyDump() {
+        if ((requireContext().getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return;
+        }
+        binding.tvRestaurantName.setOnLongClickListener(v -> {
+            File file = new File(requireContext().getCacheDir(), "latency.txt");
+            try {
+                LatencyMetrics.dump(file);
+                Log.i(TAG, "Latency histograms:\n" + LatencyMetrics.report());
+                Toast.makeText(requireContext(), "Latency written to " + file, Toast.LENGTH_SHORT).show();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not write " + file, e);
+            }
+            return true;
+        });
+    }
+
+    private void setupSearch() {
+        binding.etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // The query runs in the background and its results arrive through getSearchResults()
+                viewModel.searchRatings(s.toString());
+            }
+        });
+
+        viewModel.getSearchResults().observe(getViewLifecycleOwner(), results -> {
+            if (results != null) {
+                adapter.submitList(results);
+            } else {
+                // Search ended, go back to the full list
+                adapter.submitList(pagedList(viewModel.getRatingsList().getValue()));
+            }
+        });
+    }
+
+    // Wraps a ratings snapshot in a paged list that starts loading around the first visible row
+    private List<RatingViewModel.DishRating> pagedList(List<RatingViewModel.DishRating> ratings) {
+        if (ratings == null || ratings.isEmpty()) {
+            return ratings;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) binding.rvRatings.getLayoutManager();
+        int firstVisible = Math.max(0, layoutManager.findFirstVisibleItemPosition());
+        Executor mainExecutor = ContextCompat.getMainExecutor(requireContext());
+        return new RatingPagedList(new RatingPageSource.Snapshot(ratings), PAGE_CONFIG, firstVisible,
+                RatingPagedList.sharedFetchExecutor(), mainExecutor);
+    }
+
+    private void observeRatingSummary() {
+        // The summary is kept up to date incrementally by the ViewModel, so no list scan is needed here
+        viewModel.getRatingSummary().observe(getViewLifecycleOwner(), summary -> {
+            RatingAggregates.Stats overall = summary.getOverall();
+            binding.tvTotalRatings.setText("Total: " + overall.getCount() + " ratings");
+            binding.tvAverageRating.setText(RatingFormat.average(overall.getAverage()));
+            showRecentTrend();
+        });
+    }
+
+    // Last week's totals and direction, from the daily rollups
+    private void showRecentTrend() {
+        long now = System.currentTimeMillis();
+        long weekAgo = now - 7 * RatingRollups.DAY_MS;
+        RatingAggregates.Stats recent =
+                viewModel.getRatingStats(RatingRollups.Granularity.DAY, null, null, weekAgo, now);
+        float trend = viewModel.getRatingTrend(RatingRollups.Granularity.DAY, null, null, weekAgo, now);
+        String direction = trend > RECENT_TREND_THRESHOLD ? ", improving"
+                : trend < -RECENT_TREND_THRESHOLD ? ", getting worse" : "";
+        binding.tvRecentRatings.setText("Last 7 days: " + recent.getCount() + " ratings, "
+                + RatingFormat.average(recent.getAverage()) + direction);
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        if (selectionActionMode != null) {
+            selectionActionMode.finish();
+        }
         binding = null; // Clean up binding reference
     }
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.example.restaurantraterapp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interning dictionary that maps repeated strings (dish names and types) to small int ids,
+ * so columnar storage can keep an int per row instead of a String reference.
+ *
+ * Ids are only ever added. Interning is synchronized; lookups by id are lock-free, so leaves
+ * can be read on background threads (for example by DiffUtil) while the main thread adds ratings.
+ */
+public class StringDictionary {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Each slot is written once before its id is handed out; growing swaps in a larger copy
+    private volatile String[] values = new String[16];
+    private int size;
+
+    /**
+     * @return The id of the given string, adding it to the dictionary if it is new.
+     */
+    public synchronized int intern(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        values = current;
+        ids.put(value, size);
+        return size++;
+    }
+
+    /**
+     * @return The string for an id previously returned by {@link #intern(String)}.
+     */
+    public String get(int id) {
+        return values[id];
+    }
+
+    /**
+     * @return The number of distinct strings in the dictionary.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.restaurantraterapp;
+
+import java.io.IOException;
+
+/**
+ * Carries one upload batch of RatingSyncEngine to the backend. Kept behind an interface so tests
+ * can sync against an in-process stub server instead of the network.
+ */
+public interface SyncTransport {
+
+    /**
+     * Sends one batch. May be called again with the same key and body after a failure; the
+     * backend must apply a key at most once and answer repeats as if it had just applied it.
+     * @param idempotencyKey Identifies the batch contents; equal keys always carry equal bodies.
+     * @param gzippedBody The batch as gzip-compressed JSON lines.
+     * @return The HTTP status code of the response.
+     * @throws IOException If the batch could not be sent or no response arrived. It may or may not
+     * have been applied.
+     */
+    int upload(String idempotencyKey, byte[] gzippedBody) throws IOException;
+}
@@ -0,0 +1,127 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the incremental leaderboard against grouping and sorting the whole list from scratch.
+ */
+public class DishLeaderboardTest {
+
+    private static final String[] NAMES = {"Pizza", "pizza ", "Burger", "Crème brûlée", "Creme Brulee",
+            "Soup", "Steak", "Tea", "Chocolate  cake", "chocolate cake", "Salad", "Pasta", "Curry", "Tart"};
+
+    @Test
+    public void fewVotes_arePulledTowardsPrior() {
+        DishLeaderboard leaderboard = new DishLeaderboard(3.0, 5, 1);
+        leaderboard.add(rating(1, "Soup", 5.0f));
+        for (int i = 0; i < 20; i++) {
+            leaderboard.add(rating(10 + i, "Steak", 4.5f));
+        }
+
+        List<DishLeaderboard.Entry> top = leaderboard.top(2);
+        assertEquals("Steak", top.get(0).getDishName());
+        assertEquals("Soup", top.get(1).getDishName());
+        assertEquals(5.0f, top.get(1).getAverage(), 0.0f);
+        assertEquals(20.0f / 6, top.get(1).getScore(), 1e-5);
+    }
+
+    @Test
+    public void minVotes_hidesDishesUntilReached() {
+        DishLeaderboard leaderboard = new DishLeaderboard(0, 0, 2);
+        leaderboard.add(rating(1, "Soup", 5.0f));
+        assertTrue(leaderboard.top(5).isEmpty());
+
+        leaderboard.add(rating(2, "soup", 4.0f));
+        assertEquals(1, leaderboard.top(5).size());
+        assertEquals(2, leaderboard.top(5).get(0).getCount());
+
+        leaderboard.remove(rating(1, "Soup", 5.0f));
+        assertTrue(leaderboard.top(5).isEmpty());
+        assertEquals(1, leaderboard.getDishCount());
+    }
+
+    @Test
+    public void randomOperations_matchBruteForceRecompute() {
+        Random random = new Random(21);
+        for (int minVotes = 1; minVotes <= 3; minVotes++) {
+            DishLeaderboard leaderboard = new DishLeaderboard(3.0, 4, minVotes);
+            List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+            for (int step = 0; step < 10_000; step++) {
+                int op = random.nextInt(100);
+                if (op < 60 || ratings.isEmpty()) {
+                    RatingViewModel.DishRating rating = rating(step, NAMES[random.nextInt(NAMES.length)],
+                            random.nextInt(11) / 2f);
+                    ratings.add(rating);
+                    leaderboard.add(rating);
+                } else if (op < 99) {
+                    leaderboard.remove(ratings.remove(random.nextInt(ratings.size())));
+                } else {
+                    ratings.clear();
+                    leaderboard.clear();
+                }
+
+                if (step % 50 == 0) {
+                    assertMatchesBruteForce(ratings, leaderboard, 3.0, 4, minVotes);
+                }
+            }
+        }
+    }
+
+    private static void assertMatchesBruteForce(List<RatingViewModel.DishRating> ratings,
+                                                DishLeaderboard leaderboard,
+                                                double priorMean, double priorWeight, int minVotes) {
+        Map<String, double[]> totals = new HashMap<>();
+        for (RatingViewModel.DishRating rating : ratings) {
+            double[] total = totals.get(DishLeaderboard.keyOf(rating.getDishName()));
+            if (total == null) {
+                total = new double[2];
+                totals.put(DishLeaderboard.keyOf(rating.getDishName()), total);
+            }
+            total[0]++;
+            total[1] += rating.getRating();
+        }
+        List<String> expected = new ArrayList<>();
+        List<Double> scores = new ArrayList<>();
+        for (Map.Entry<String, double[]> entry : totals.entrySet()) {
+            double[] total = entry.getValue();
+            if (total[0] >= minVotes) {
+                expected.add(entry.getKey());
+            }
+        }
+        expected.sort((a, b) -> {
+            double scoreA = score(totals.get(a), priorMean, priorWeight);
+            double scoreB = score(totals.get(b), priorMean, priorWeight);
+            int byScore = Double.compare(scoreB, scoreA);
+            return byScore != 0 ? byScore : a.compareTo(b);
+        });
+        for (String key : expected) {
+            scores.add(score(totals.get(key), priorMean, priorWeight));
+        }
+
+        int k = 5;
+        List<DishLeaderboard.Entry> top = leaderboard.top(k);
+        assertEquals(Math.min(k, expected.size()), top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(expected.get(i), DishLeaderboard.keyOf(top.get(i).getDishName()));
+            assertEquals(scores.get(i), top.get(i).getScore(), 1e-5);
+            assertEquals((int) totals.get(expected.get(i))[0], top.get(i).getCount());
+        }
+        assertEquals(totals.size(), leaderboard.getDishCount());
+    }
+
+    private static double score(double[] total, double priorMean, double priorWeight) {
+        return (priorMean * priorWeight + total[1]) / (priorWeight + total[0]);
+    }
+
+    private static RatingViewModel.DishRating rating(long id, String name, float stars) {
+        return new RatingViewModel.DishRating(id, name, "Main", stars, id);
+    }
+}
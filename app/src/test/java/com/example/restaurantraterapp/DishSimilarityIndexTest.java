@@ -0,0 +1,316 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks DishSimilarityIndex against similarities computed from scratch after random adds and
+ * removes, and, with -Pbenchmark, measures lookup latency over 100k ratings.
+ */
+public class DishSimilarityIndexTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final String[] WORDS = {"chicken", "curry", "garlic", "naan", "lemon", "tart", "rice",
+            "spicy", "soup", "tomato", "basil", "pasta", "beef", "stew", "crème", "brûlée"};
+
+    @Test
+    public void dishesEatenTogetherOrSharingWords_areSuggested() {
+        DishSimilarityIndex index = new DishSimilarityIndex(UTC);
+        index.add(rating("Margherita pizza", 5f, 0));
+        index.add(rating("Tiramisu", 5f, 0));
+        index.add(rating("pizza, Margherita", 4f, 1));
+        index.add(rating("Tiramisu", 4f, 1));
+        index.add(rating("Chicken curry", 5f, 2));
+        index.add(rating("Garlic naan", 4f, 2));
+        index.add(rating("Chicken tikka", 4f, 3));
+        index.add(rating("Lemon tart", 2f, 4));
+        index.add(rating("Margherita Pizza ", 5f, 4));
+
+        // Eaten together on both of the tiramisu's days, out of the pizza's three; the tart is disliked
+        List<DishSimilarityIndex.Suggestion> pizza = index.recommend("PIZZA margherita", 5).getSuggestions();
+        assertEquals(1, pizza.size());
+        assertEquals("Tiramisu", pizza.get(0).getDishName());
+        assertEquals(2 / Math.sqrt(6) / 1.5, pizza.get(0).getSimilarity(), 1e-6);
+        assertEquals(4.5f, pizza.get(0).getAverage(), 0f);
+
+        List<DishSimilarityIndex.Suggestion> tiramisu = index.recommend("Tiramisu", 5).getSuggestions();
+        assertEquals("Margherita Pizza", tiramisu.get(0).getDishName());
+        assertEquals(3, tiramisu.get(0).getCount());
+
+        // The naan was eaten with the curry; the tikka only shares a word with it
+        List<DishSimilarityIndex.Suggestion> curry = index.recommend("chicken curry", 5).getSuggestions();
+        assertEquals(Arrays.asList("Garlic naan", "Chicken tikka"), names(curry));
+        assertEquals(1 / 1.5, curry.get(0).getSimilarity(), 1e-6);
+        assertEquals(0.5 / 3 / 1.5, curry.get(1).getSimilarity(), 1e-6);
+        assertEquals(Arrays.asList("Garlic naan"), names(index.recommend("chicken curry", 1).getSuggestions()));
+
+        assertTrue(index.recommend("Paella", 5).getSuggestions().isEmpty());
+        assertTrue(index.recommend("  ", 5).getSuggestions().isEmpty());
+        assertEquals(6, index.getDishCount());
+    }
+
+    @Test
+    public void busyDay_pairsDishesOfTheSameMeal() {
+        DishSimilarityIndex index = new DishSimilarityIndex(UTC);
+        // Twenty dishes over lunch and twenty more over dinner: too many for one visit, but not per meal
+        for (int i = 0; i < 20; i++) {
+            index.add(rating("lunch" + i, 4f, 0, 12 * 60 + i * 5));
+            index.add(rating("dinner" + i, 4f, 0, 19 * 60 + i * 5));
+        }
+        List<DishSimilarityIndex.Suggestion> lunch = index.recommend("lunch0", 100).getSuggestions();
+        assertEquals(19, lunch.size());
+        for (DishSimilarityIndex.Suggestion suggestion : lunch) {
+            assertTrue(suggestion.getDishName(), suggestion.getDishName().startsWith("lunch"));
+        }
+        assertEquals(19, index.recommend("dinner0", 100).getSuggestions().size());
+
+        // The same dishes on the next day's lunch and the first lunch are two visits of each
+        index.add(rating("lunch0", 4f, 1, 13 * 60));
+        index.add(rating("lunch1", 4f, 1, 13 * 60 + 30));
+        DishSimilarityIndex.Suggestion first = index.recommend("lunch0", 1).getSuggestions().get(0);
+        assertEquals("lunch1", first.getDishName());
+        assertEquals(1 / 1.5, first.getSimilarity(), 1e-6);
+
+        // Ratings an hour either side of a window boundary fall in different visits
+        index.add(rating("late snack", 4f, 2, 20 * 60 + 30));
+        index.add(rating("late drink", 4f, 2, 21 * 60 + 30));
+        DishSimilarityIndex.Suggestion drink = index.recommend("late snack", 5).getSuggestions().get(0);
+        assertEquals("late drink", drink.getDishName());
+        assertEquals(DishSimilarityIndex.NAME_WEIGHT / 3 / 1.5, drink.getSimilarity(), 1e-6);
+    }
+
+    @Test
+    public void crowdedVisit_pairsNoDishes() {
+        DishSimilarityIndex index = new DishSimilarityIndex(UTC);
+        for (int i = 0; i <= DishSimilarityIndex.MAX_VISIT_DISHES; i++) {
+            index.add(rating("x" + i, 4f, 0));
+        }
+        assertTrue(index.recommend("x0", 100).getSuggestions().isEmpty());
+
+        // Back to the size of a meal, the remaining dishes pair again
+        index.remove(rating("x" + DishSimilarityIndex.MAX_VISIT_DISHES, 4f, 0));
+        assertEquals(DishSimilarityIndex.MAX_VISIT_DISHES - 1, index.recommend("x0", 100).getSuggestions().size());
+        index.add(rating("x" + DishSimilarityIndex.MAX_VISIT_DISHES, 4f, 0));
+        assertTrue(index.recommend("x0", 100).getSuggestions().isEmpty());
+
+        // A second rating of a dish already in the visit does not change it
+        index.remove(rating("x" + DishSimilarityIndex.MAX_VISIT_DISHES, 4f, 0));
+        index.add(rating("x0", 5f, 0));
+        index.remove(rating("x0", 4f, 0));
+        assertEquals(DishSimilarityIndex.MAX_VISIT_DISHES - 1, index.recommend("x1", 100).getSuggestions().size());
+        assertEquals(5f, index.recommend("x1", 100).getSuggestions().get(0).getAverage(), 0f);
+    }
+
+    @Test
+    public void removingEveryRating_forgetsTheDish() {
+        DishSimilarityIndex index = new DishSimilarityIndex(UTC);
+        index.add(rating("Beef stew", 4f, 0));
+        index.add(rating("Rice", 4f, 0));
+        index.remove(rating("Beef stew", 4f, 0));
+        assertTrue(index.recommend("Rice", 5).getSuggestions().isEmpty());
+        assertTrue(index.recommend("Beef stew", 5).getSuggestions().isEmpty());
+        assertEquals(1, index.getDishCount());
+        index.clear();
+        assertEquals(0, index.getDishCount());
+    }
+
+    @Test
+    public void randomOperations_matchSimilaritiesComputedFromScratch() {
+        Random random = new Random(11);
+        DishSimilarityIndex index = new DishSimilarityIndex(UTC);
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+
+        for (int step = 0; step < 5_000; step++) {
+            if (random.nextInt(10) < 7 || ratings.isEmpty()) {
+                // A tenth of the ratings land on one crowded lunch, the others at any time of day
+                boolean crowded = random.nextInt(10) == 0;
+                RatingViewModel.DishRating rating = rating(randomName(random), 1 + random.nextInt(9) * 0.5f,
+                        crowded ? 0 : 1 + random.nextInt(100), crowded ? 12 * 60 : random.nextInt(24 * 60));
+                ratings.add(rating);
+                index.add(rating);
+            } else {
+                index.remove(ratings.remove(random.nextInt(ratings.size())));
+            }
+
+            if (step % 250 == 0 || step == 4_999) {
+                Set<String> keys = new HashSet<>();
+                for (RatingViewModel.DishRating rating : ratings) {
+                    keys.add(key(rating.getDishName()));
+                }
+                for (String dish : keys) {
+                    assertEquals(dish, fromScratch(ratings, dish, 10), summary(index.recommend(dish, 10)));
+                }
+                assertEquals(keys.size(), index.getDishCount());
+            }
+        }
+    }
+
+    /**
+     * Latency benchmark: suggestions for every dish of a restaurant with 100k ratings, taken over
+     * four dishes a day, plus one day of 5k imported ratings.
+     */
+    @Test
+    public void recommendLatency_over100kRatings() {
+        RatingBenchmark.assumeEnabled();
+        Random random = new Random(5);
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+        for (int i = 0; i < 95_000; i++) {
+            ratings.add(rating(randomName(random), 1 + random.nextInt(9) * 0.5f, i / 4));
+        }
+        for (int i = 0; i < 5_000; i++) {
+            ratings.add(rating(randomName(random), 4f, 30_000));
+        }
+        DishSimilarityIndex index = new DishSimilarityIndex(UTC);
+        for (RatingViewModel.DishRating rating : ratings) {
+            index.add(rating);
+        }
+
+        String[] dishes = new String[1_000];
+        for (int i = 0; i < dishes.length; i++) {
+            dishes[i] = ratings.get(random.nextInt(ratings.size())).getDishName();
+        }
+        for (int i = 0; i < 2_000; i++) {
+            index.recommend(dishes[i % dishes.length], 5);
+        }
+        long worst = 0;
+        for (String dish : dishes) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                long lookupStart = System.nanoTime();
+                index.recommend(dish, 5);
+                best = Math.min(best, System.nanoTime() - lookupStart);
+            }
+            worst = Math.max(worst, best);
+        }
+        assertTrue("slowest lookup took " + worst / 1e6 + " ms", worst < 5_000_000);
+    }
+
+    // The same suggestions, computed by grouping every remaining rating
+    private static List<String> fromScratch(List<RatingViewModel.DishRating> ratings, String dish, int limit) {
+        Map<String, double[]> totals = new HashMap<>();
+        Map<Long, Set<String>> windows = new HashMap<>();
+        for (RatingViewModel.DishRating rating : ratings) {
+            String key = key(rating.getDishName());
+            double[] total = totals.get(key);
+            if (total == null) {
+                total = new double[2];
+                totals.put(key, total);
+            }
+            total[0]++;
+            total[1] += rating.getRating();
+            long window = Math.floorDiv(rating.getTimestamp(), DishSimilarityIndex.VISIT_WINDOW_MS);
+            if (!windows.containsKey(window)) {
+                windows.put(window, new HashSet<>());
+            }
+            windows.get(window).add(key);
+        }
+        Map<String, Integer> visits = new HashMap<>();
+        Map<String, Integer> together = new HashMap<>();
+        for (Set<String> visit : windows.values()) {
+            if (visit.size() > DishSimilarityIndex.MAX_VISIT_DISHES) {
+                continue;
+            }
+            for (String key : visit) {
+                visits.merge(key, 1, Integer::sum);
+            }
+            if (visit.contains(dish)) {
+                for (String key : visit) {
+                    together.merge(key, 1, Integer::sum);
+                }
+            }
+        }
+
+        List<Object[]> scored = new ArrayList<>();
+        Set<String> words = new HashSet<>(Arrays.asList(dish.split(" ")));
+        for (Map.Entry<String, double[]> entry : totals.entrySet()) {
+            String key = entry.getKey();
+            double[] total = entry.getValue();
+            if (key.equals(dish) || total[1] < DishSimilarityIndex.MIN_AVERAGE * total[0]) {
+                continue;
+            }
+            int both = together.getOrDefault(key, 0);
+            Set<String> otherWords = new HashSet<>(Arrays.asList(key.split(" ")));
+            int shared = 0;
+            for (String word : otherWords) {
+                shared += words.contains(word) ? 1 : 0;
+            }
+            if (both == 0 && shared == 0) {
+                continue;
+            }
+            double similarity = 0;
+            if (both > 0) {
+                similarity += both / Math.sqrt((double) visits.get(dish) * visits.get(key));
+            }
+            if (shared > 0) {
+                similarity += DishSimilarityIndex.NAME_WEIGHT * shared / (double) (words.size() + otherWords.size() - shared);
+            }
+            similarity /= 1 + DishSimilarityIndex.NAME_WEIGHT;
+            // Smoothed like the index, by a prior mean of 3 worth 2 votes
+            double score = similarity * ((3.0 * 2.0 + total[1]) / (2.0 + total[0]));
+            scored.add(new Object[]{key, score, (float) similarity, (int) total[0], (float) (total[1] / total[0])});
+        }
+        scored.sort((a, b) -> {
+            int byScore = Double.compare((double) b[1], (double) a[1]);
+            return byScore != 0 ? byScore : ((String) a[0]).compareTo((String) b[0]);
+        });
+        List<String> summary = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, scored.size()); i++) {
+            Object[] row = scored.get(i);
+            summary.add(row[0] + " " + row[2] + " " + row[3] + " " + row[4]);
+        }
+        return summary;
+    }
+
+    private static List<String> summary(DishSimilarityIndex.Recommendations recommendations) {
+        List<String> summary = new ArrayList<>();
+        for (DishSimilarityIndex.Suggestion suggestion : recommendations.getSuggestions()) {
+            summary.add(key(suggestion.getDishName()) + " " + suggestion.getSimilarity() + " "
+                    + suggestion.getCount() + " " + suggestion.getAverage());
+        }
+        return summary;
+    }
+
+    private static String key(String dishName) {
+        return String.join(" ", DishSimilarityIndex.wordsOf(dishName));
+    }
+
+    private static List<String> names(List<DishSimilarityIndex.Suggestion> suggestions) {
+        List<String> names = new ArrayList<>();
+        for (DishSimilarityIndex.Suggestion suggestion : suggestions) {
+            names.add(suggestion.getDishName());
+        }
+        return names;
+    }
+
+    private static String randomName(Random random) {
+        int words = 1 + random.nextInt(3);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                name.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            name.append(random.nextBoolean() ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        }
+        return name.toString();
+    }
+
+    private static RatingViewModel.DishRating rating(String name, float value, int day) {
+        return rating(name, value, day, 12 * 60);
+    }
+
+    private static RatingViewModel.DishRating rating(String name, float value, int day, int minuteOfDay) {
+        return new RatingViewModel.DishRating(0, name, "Main", value, day * RatingRollups.DAY_MS + minuteOfDay * 60_000L);
+    }
+}
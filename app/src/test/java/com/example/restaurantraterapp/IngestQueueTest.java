@@ -0,0 +1,207 @@
+package com.example.restaurantraterapp;
+
+import android.app.Application;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests for concurrent ingestion: many producer threads racing each other and the
+ * applier must neither drop nor duplicate an item, and bursts must be coalesced into batches.
+ */
+public class IngestQueueTest {
+
+    private static final int PRODUCERS = 8;
+    private static final int ITEMS_PER_PRODUCER = 50_000;
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+
+    // Plays the main thread
+    private final ExecutorService mainThread = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        mainThread.shutdownNow();
+    }
+
+    @Test
+    public void manyProducers_everyItemAppliedOnceInProducerOrder() throws Exception {
+        // Applied on mainThread only, so plain collections are enough
+        int[] lastSeen = new int[PRODUCERS];
+        Arrays.fill(lastSeen, -1);
+        BitSet seen = new BitSet();
+        AtomicInteger applied = new AtomicInteger();
+        AtomicInteger batches = new AtomicInteger();
+        List<String> errors = new ArrayList<>();
+        IngestQueue<Integer> queue = new IngestQueue<>(mainThread, 1000, batch -> {
+            batches.incrementAndGet();
+            if (batch.size() > 1000) {
+                errors.add("batch of " + batch.size());
+            }
+            for (int item : batch) {
+                int producer = item / ITEMS_PER_PRODUCER;
+                int sequence = item % ITEMS_PER_PRODUCER;
+                if (seen.get(item)) {
+                    errors.add("duplicate " + item);
+                }
+                if (sequence <= lastSeen[producer]) {
+                    errors.add("out of order " + item);
+                }
+                seen.set(item);
+                lastSeen[producer] = sequence;
+            }
+            applied.addAndGet(batch.size());
+        });
+
+        runProducers(producer -> {
+            for (int i = 0; i < ITEMS_PER_PRODUCER; i++) {
+                int item = producer * ITEMS_PER_PRODUCER + i;
+                if (i % 100 == 0 && i + 10 <= ITEMS_PER_PRODUCER) {
+                    List<Integer> chunk = new ArrayList<>();
+                    for (int j = 0; j < 10; j++) {
+                        chunk.add(item + j);
+                    }
+                    queue.offerAll(chunk);
+                    i += 9;
+                } else {
+                    queue.offer(item);
+                }
+            }
+        });
+        awaitOnMainThread(() -> applied.get() == PRODUCERS * ITEMS_PER_PRODUCER);
+
+        assertEquals(new ArrayList<String>(), errors);
+        assertEquals(PRODUCERS * ITEMS_PER_PRODUCER, seen.cardinality());
+        assertTrue("expected coalesced batches, got " + batches.get(), batches.get() < PRODUCERS * ITEMS_PER_PRODUCER / 10);
+        assertTrue(mainThread.submit(queue::isEmpty).get());
+    }
+
+    @Test
+    public void viewModel_concurrentIngestAndSubmitLoseNothing() throws Exception {
+        RatingViewModel viewModel = mainThread.submit(
+                () -> new RatingViewModel(new Application(), null, mainThread)).get();
+        AtomicInteger emissions = new AtomicInteger();
+        mainThread.submit(() -> viewModel.getRatingsList().observeForever(ratings -> emissions.incrementAndGet())).get();
+        long shown = Restaurant.ALL.get(0).getId();
+        long hidden = Restaurant.ALL.get(1).getId();
+        int perProducer = 5_000;
+
+        runProducers(producer -> {
+            for (int i = 0; i < perProducer; i++) {
+                String name = "p" + producer + "-" + i;
+                if (producer == 0) {
+                    // The user tapping submit on the main thread at the same time
+                    if (i % 50 == 0) {
+                        mainThread.execute(() -> viewModel.submitRating(name, "Main", 4f));
+                    } else {
+                        viewModel.ingestRating(shown, name, "Main", 4f, i);
+                    }
+                } else {
+                    viewModel.ingestRating(producer % 2 == 0 ? shown : hidden, name, "Starter", 2f, i);
+                }
+            }
+        });
+        int expectedShown = perProducer * (1 + (PRODUCERS - 1) / 2);
+        int expectedTotal = PRODUCERS * perProducer;
+        awaitOnMainThread(() -> viewModel.getRatingsCount() == expectedShown
+                && viewModel.getChainSummary().getValue().getOverall().getCount() == expectedTotal);
+
+        List<RatingViewModel.DishRating> ratings = mainThread.submit(() -> viewModel.getRatingsList().getValue()).get();
+        Set<Long> ids = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        for (RatingViewModel.DishRating rating : ratings) {
+            assertTrue("duplicate id " + rating.getId(), ids.add(rating.getId()));
+            assertTrue("duplicate " + rating.getDishName(), names.add(rating.getDishName()));
+        }
+        assertEquals(expectedShown, names.size());
+        assertTrue("expected coalesced updates, got " + emissions.get(), emissions.get() < expectedShown / 10);
+
+        mainThread.submit(() -> viewModel.selectRestaurant(hidden)).get();
+        awaitOnMainThread(() -> viewModel.getCurrentRestaurant().getValue().getId() == hidden);
+        assertEquals(expectedTotal - expectedShown, (int) mainThread.submit(viewModel::getRatingsCount).get());
+        mainThread.submit(viewModel::onCleared).get();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ingest_rejectsUnknownRestaurant() {
+        new RatingViewModel(new Application(), null, Runnable::run).ingestRating(-1, "Soup", "Starter", 3f, 0);
+    }
+
+    @Test
+    public void ingest_roundsRatingsToHalfStars() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        long restaurant = viewModel.getCurrentRestaurant().getValue().getId();
+
+        viewModel.ingestRating(restaurant, "Soup", "Starter", 3.7f, 0);
+        viewModel.ingestRatings(restaurant, Arrays.asList(new RatingViewModel.DishRating(0, "Stew", "Main", 1.2f, 1)));
+
+        List<RatingViewModel.DishRating> ratings = viewModel.getRatingsList().getValue();
+        assertEquals(3.5f, ratings.get(0).getRating(), 0f);
+        assertEquals(1f, ratings.get(1).getRating(), 0f);
+        viewModel.onCleared();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ingest_rejectsRatingsAboveFiveStars() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        viewModel.ingestRating(viewModel.getCurrentRestaurant().getValue().getId(), "Soup", "Starter", 7f, 0);
+    }
+
+    private interface Producer {
+        void run(int producer);
+    }
+
+    // Starts every producer at once and waits for all of them to finish offering
+    private static void runProducers(Producer body) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                body.run(producer);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    // Polls a condition on the main thread, where the applied state lives
+    private void awaitOnMainThread(Condition condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!mainThread.submit(condition::isMet).get()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.restaurantraterapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks LatencyHistogram's bucketing and percentiles, that recording is safe from several
+ * threads and allocates nothing, and LatencyMetrics' end-to-end matching and dump.
+ */
+public class LatencyHistogramTest {
+
+    @After
+    public void tearDown() {
+        LatencyMetrics.setEnabled(true);
+        LatencyMetrics.reset();
+    }
+
+    @Test
+    public void buckets_coverEveryValueWithinOneSixteenth() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            long lowest = LatencyHistogram.lowestValueOf(bucket);
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lowest));
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            if (bucket > 0) {
+                assertEquals(LatencyHistogram.highestValueOf(bucket - 1) + 1, lowest);
+            }
+            assertTrue("bucket " + bucket + " too wide", highest - lowest <= Math.max(0, lowest / 16));
+        }
+    }
+
+    @Test
+    public void percentiles_matchSortedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Roughly log-normal around 1 ms, like frame work
+            values[i] = (long) (1_000_000 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMaxNanos());
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = snapshot.getPercentileNanos(percentile);
+            assertTrue("p" + percentile + " " + reported + " below " + exact, reported >= exact);
+            assertTrue("p" + percentile + " " + reported + " too far above " + exact, reported <= exact + exact / 16);
+        }
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getPercentileNanos(99));
+    }
+
+    @Test
+    public void concurrentRecording_losesNothing() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 250_000; i++) {
+                    histogram.record(random.nextInt(10_000_000));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1_000_000, histogram.snapshot().getCount());
+    }
+
+    /**
+     * The hooks run on the bind path, so recording must not allocate once warmed up. Their speed is
+     * measured by RatingBenchmark.
+     */
+    @Test
+    public void record_allocatesNothing() {
+        for (int i = 0; i < 20_000; i++) {
+            LatencyMetrics.record(LatencyMetrics.Stage.BIND, LatencyMetrics.now());
+            LatencyMetrics.markSubmitted(i, LatencyMetrics.now());
+            LatencyMetrics.onBound(i);
+        }
+
+        long allocatedBefore = AllocationMeter.allocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            LatencyMetrics.record(LatencyMetrics.Stage.BIND, LatencyMetrics.now());
+        }
+        long allocated = AllocationMeter.allocatedBytes() - allocatedBefore;
+
+        // Allow for the meter's own bookkeeping, far below one byte per call
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void endToEnd_recordsWhenSubmittedRowIsBound() {
+        LatencyMetrics.markSubmitted(7, LatencyMetrics.now());
+        LatencyMetrics.onBound(3);
+        assertEquals(0, LatencyMetrics.snapshot(LatencyMetrics.Stage.SUBMIT_TO_BIND).getCount());
+
+        LatencyMetrics.onBound(7);
+        LatencyMetrics.onBound(7);
+        assertEquals(1, LatencyMetrics.snapshot(LatencyMetrics.Stage.SUBMIT_TO_BIND).getCount());
+    }
+
+    @Test
+    public void disabled_recordsNothing() {
+        LatencyMetrics.setEnabled(false);
+        LatencyMetrics.record(LatencyMetrics.Stage.DIFF, LatencyMetrics.now());
+        LatencyMetrics.recordDuration(LatencyMetrics.Stage.DIFF, 1_000);
+        LatencyMetrics.markSubmitted(1, System.nanoTime());
+        LatencyMetrics.onBound(1);
+
+        assertEquals(0, LatencyMetrics.snapshot(LatencyMetrics.Stage.DIFF).getCount());
+        assertEquals(0, LatencyMetrics.snapshot(LatencyMetrics.Stage.SUBMIT_TO_BIND).getCount());
+    }
+
+    @Test
+    public void dump_writesReportAndBuckets() throws IOException {
+        LatencyMetrics.recordDuration(LatencyMetrics.Stage.DIFF, 2_000_000);
+        LatencyMetrics.recordDuration(LatencyMetrics.Stage.DIFF, 2_000_000);
+
+        File file = File.createTempFile("latency", ".txt");
+        try {
+            LatencyMetrics.dump(file);
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            assertTrue(text, text.contains("SUBMIT_TO_BIND"));
+            long bucketLowest = LatencyHistogram.lowestValueOf(LatencyHistogram.bucketOf(2_000_000));
+            assertTrue(text, text.contains("DIFF," + bucketLowest + ",2\n"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks PersistentList against an ArrayList model, and compares its allocation cost
+ * with the copy-on-write ArrayList that RatingViewModel used before.
+ */
+public class PersistentListTest {
+
+    @Test
+    public void randomInsertsAndRemovals_matchArrayList() {
+        Random random = new Random(7);
+        PersistentList<Integer> list = PersistentList.empty();
+        List<Integer> model = new ArrayList<>();
+
+        for (int step = 0; step < 50_000; step++) {
+            int op = random.nextInt(10);
+            if (op < 5 || model.isEmpty()) {
+                list = list.plus(step);
+                model.add(step);
+            } else if (op < 7) {
+                int index = random.nextInt(model.size() + 1);
+                list = list.plus(index, step);
+                model.add(index, step);
+            } else {
+                int index = random.nextInt(model.size());
+                list = list.minus(index);
+                model.remove(index);
+            }
+        }
+
+        assertEquals(model, list);
+        assertEquals(model, new ArrayList<>(list));
+    }
+
+    @Test
+    public void updates_leavePreviousVersionsUntouched() {
+        PersistentList<String> first = PersistentList.copyOf(Arrays.asList("a", "b", "c"));
+        PersistentList<String> second = first.plus("d");
+        PersistentList<String> third = second.minus(0);
+
+        assertNotSame(first, second);
+        assertEquals(Arrays.asList("a", "b", "c"), first);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), second);
+        assertEquals(Arrays.asList("b", "c", "d"), third);
+    }
+
+    @Test
+    public void copyOf_buildsListAcrossManyLevels() {
+        List<Integer> model = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            model.add(i);
+        }
+
+        PersistentList<Integer> list = PersistentList.copyOf(model);
+
+        assertEquals(model.size(), list.size());
+        Iterator<Integer> iterator = list.iterator();
+        for (int i = 0; i < model.size(); i++) {
+            assertEquals(model.get(i), list.get(i));
+            assertEquals(model.get(i), iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void removingEverything_returnsEmptyList() {
+        PersistentList<Integer> list = PersistentList.empty();
+        for (int i = 0; i < 1000; i++) {
+            list = list.plus(i);
+        }
+        while (!list.isEmpty()) {
+            list = list.minus(list.size() / 2);
+        }
+        assertSame(PersistentList.empty(), list);
+    }
+
+    @Test
+    public void shrinkingList_getsShallower() {
+        Random random = new Random(3);
+        List<Integer> model = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            model.add(i);
+        }
+        PersistentList<Integer> list = PersistentList.copyOf(model);
+        assertEquals(4, list.depth());
+
+        // Random removals down to 500 elements: without merging, most leaves would keep a few
+        while (model.size() > 500) {
+            int index = random.nextInt(model.size());
+            list = list.minus(index);
+            model.remove(index);
+        }
+        assertEquals(model, list);
+        // 500 elements in leaves at least half full fit in two levels
+        assertEquals(2, list.depth());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listMutators_areUnsupported() {
+        PersistentList.<String>empty().add("a");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfRange_throws() {
+        PersistentList.copyOf(Arrays.asList(1, 2)).get(2);
+    }
+
+    /**
+     * Allocation benchmark: a burst of appends, then removals from the middle, measured against
+     * copying an ArrayList for every update. The copy approach allocates O(n) per update, so the
+     * total grows quadratically with the burst size.
+     */
+    @Test
+    public void burstOfUpdates_allocatesFarLessThanCopyOnWrite() {
+        int count = 2_000;
+
+        long start = AllocationMeter.allocatedBytes();
+        List<Integer> copied = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            copied = new ArrayList<>(copied);
+            copied.add(i);
+        }
+        for (int i = 0; i < count / 2; i++) {
+            copied = new ArrayList<>(copied);
+            copied.remove(copied.size() / 2);
+        }
+        long copyBytes = AllocationMeter.allocatedBytes() - start;
+
+        start = AllocationMeter.allocatedBytes();
+        PersistentList<Integer> persistent = PersistentList.empty();
+        for (int i = 0; i < count; i++) {
+            persistent = persistent.plus(i);
+        }
+        for (int i = 0; i < count / 2; i++) {
+            persistent = persistent.minus(persistent.size() / 2);
+        }
+        long persistentBytes = AllocationMeter.allocatedBytes() - start;
+
+        assertEquals(copied, persistent);
+        assertTrue("persistent list should allocate at least 10x less",
+                persistentBytes * 10 < copyBytes);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the incremental aggregates against a brute-force recompute over the same ratings.
+ */
+public class RatingAggregatesTest {
+
+    private static final String[] DISH_TYPES = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+
+    @Test
+    public void emptyAggregates_areZero() {
+        RatingAggregates aggregates = new RatingAggregates();
+        RatingAggregates.Snapshot snapshot = aggregates.snapshot();
+
+        assertEquals(0, snapshot.getOverall().getCount());
+        assertEquals(0.0f, snapshot.getOverall().getAverage(), 0.0f);
+        assertTrue(snapshot.getDishTypes().isEmpty());
+        assertEquals(0, snapshot.getDishTypeStats("Main").getCount());
+    }
+
+    @Test
+    public void minAndMax_recoverAfterRemovingExtremes() {
+        RatingAggregates aggregates = new RatingAggregates();
+        RatingViewModel.DishRating low = new RatingViewModel.DishRating(1, "Soup", "Starter", 1.0f);
+        RatingViewModel.DishRating mid = new RatingViewModel.DishRating(2, "Steak", "Main", 3.0f);
+        RatingViewModel.DishRating high = new RatingViewModel.DishRating(3, "Cake", "Dessert", 5.0f);
+        aggregates.add(low);
+        aggregates.add(mid);
+        aggregates.add(high);
+
+        aggregates.remove(low);
+        aggregates.remove(high);
+
+        RatingAggregates.Stats overall = aggregates.snapshot().getOverall();
+        assertEquals(3.0f, overall.getMin(), 0.0f);
+        assertEquals(3.0f, overall.getMax(), 0.0f);
+        assertEquals(1, overall.getStarCount(3));
+        assertFalse(aggregates.snapshot().getDishTypes().contains("Starter"));
+    }
+
+    @Test
+    public void randomOperations_matchBruteForceRecompute() {
+        Random random = new Random(42);
+        RatingAggregates aggregates = new RatingAggregates();
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+
+        for (int step = 0; step < 20_000; step++) {
+            int op = random.nextInt(100);
+            if (op < 65 || ratings.isEmpty()) {
+                RatingViewModel.DishRating rating = new RatingViewModel.DishRating(step,
+                        "Dish " + random.nextInt(50),
+                        DISH_TYPES[random.nextInt(DISH_TYPES.length)],
+                        random.nextInt(11) / 2f);
+                ratings.add(rating);
+                aggregates.add(rating);
+            } else if (op < 99) {
+                aggregates.remove(ratings.remove(random.nextInt(ratings.size())));
+            } else {
+                ratings.clear();
+                aggregates.clear();
+            }
+
+            if (step % 500 == 0) {
+                assertMatchesBruteForce(ratings, aggregates.snapshot());
+            }
+        }
+        assertMatchesBruteForce(ratings, aggregates.snapshot());
+    }
+
+    @Test
+    public void combine_matchesAggregatesOfAllGroups() {
+        Random random = new Random(7);
+        List<RatingViewModel.DishRating> all = new ArrayList<>();
+        List<RatingAggregates.Snapshot> groups = new ArrayList<>();
+        groups.add(RatingAggregates.Snapshot.EMPTY);
+        for (int group = 0; group < 4; group++) {
+            RatingAggregates aggregates = new RatingAggregates();
+            for (int i = 0; i < 300; i++) {
+                RatingViewModel.DishRating rating = new RatingViewModel.DishRating(all.size(),
+                        "Dish " + random.nextInt(50),
+                        DISH_TYPES[random.nextInt(DISH_TYPES.length - group)],
+                        random.nextInt(11) / 2f);
+                all.add(rating);
+                aggregates.add(rating);
+            }
+            groups.add(aggregates.snapshot());
+        }
+
+        assertMatchesBruteForce(all, RatingAggregates.combine(groups));
+        assertSame(RatingAggregates.Snapshot.EMPTY,
+                RatingAggregates.combine(Collections.singletonList(RatingAggregates.Snapshot.EMPTY)));
+    }
+
+    private static void assertMatchesBruteForce(List<RatingViewModel.DishRating> ratings,
+                                                RatingAggregates.Snapshot snapshot) {
+        assertStatsEqual(ratings, null, snapshot.getOverall());
+        for (String dishType : DISH_TYPES) {
+            assertStatsEqual(ratings, dishType, snapshot.getDishTypeStats(dishType));
+        }
+    }
+
+    private static void assertStatsEqual(List<RatingViewModel.DishRating> ratings, String dishType,
+                                         RatingAggregates.Stats stats) {
+        int count = 0;
+        double sum = 0;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        int[] stars = new int[RatingAggregates.STAR_BUCKETS];
+        for (RatingViewModel.DishRating rating : ratings) {
+            if (dishType != null && !dishType.equals(rating.getDishType())) {
+                continue;
+            }
+            count++;
+            sum += rating.getRating();
+            min = Math.min(min, rating.getRating());
+            max = Math.max(max, rating.getRating());
+            stars[RatingAggregates.starBucket(rating.getRating()) - 1]++;
+        }
+
+        assertEquals(count, stats.getCount());
+        if (count == 0) {
+            return;
+        }
+        assertEquals(sum / count, stats.getAverage(), 1e-4);
+        assertEquals(min, stats.getMin(), 0.0f);
+        assertEquals(max, stats.getMax(), 0.0f);
+        for (int star = 1; star <= RatingAggregates.STAR_BUCKETS; star++) {
+            assertEquals(stars[star - 1], stats.getStarCount(star));
+        }
+    }
+}
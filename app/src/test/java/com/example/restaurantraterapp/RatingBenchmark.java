@@ -0,0 +1,673 @@
+package com.example.restaurantraterapp;
+
+import android.app.Application;
+
+import androidx.arch.core.executor.ArchTaskExecutor;
+import androidx.arch.core.executor.TaskExecutor;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Microbenchmarks for the rating data path, runnable on a plain JVM.
+ *
+ * Covers submitRating, removeRating, a bulk removeRatings of one rating in ten, undo and redo of
+ * single removals, getAverageRating, the first DishRating.getFormattedRating of a row and the
+ * RatingsAdapter.DIFF_CALLBACK comparisons at 1k, 10k and 100k ratings, a full sync upload of
+ * that many ratings, encoding and decoding a saved-state snapshot of them and restoring it into a
+ * shard, plus RatingFormat.stars and one LatencyMetrics hook, which do not depend on
+ * the number of ratings. Each benchmark is warmed up, then timed over several iterations;
+ * throughput is taken from the median iteration and the allocation rate from the bytes allocated
+ * by the benchmark thread. Benchmarks that write data also report the bytes written per operation.
+ * Results are written as JSON so runs on different commits can be compared.
+ *
+ * Skipped in normal test runs. Run with:
+ * ./gradlew :app:testDebugUnitTest --tests '*RatingBenchmark' -Pbenchmark
+ * which writes app/build/benchmarks/rating-benchmarks.json, or call {@link #main(String[])}.
+ */
+public class RatingBenchmark {
+
+    private static final int[] SIZES = {1_000, 10_000, 100_000};
+    private static final int WARMUP_ITERATIONS = 10;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    private static final String[] DISH_TYPES = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+
+    /**
+     * Skips the calling test unless benchmarks were requested with -Pbenchmark. Timing and scale
+     * tests elsewhere call it too, so the default suite stays fast and free of wall-clock asserts.
+     */
+    static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks only run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void runBenchmarks() throws IOException {
+        assumeEnabled();
+        String output = System.getProperty("benchmark.output", "build/benchmarks/rating-benchmarks.json");
+        run(new File(output));
+    }
+
+    public static void main(String[] args) throws IOException {
+        run(new File(args.length > 0 ? args[0] : "rating-benchmarks.json"));
+    }
+
+    private static void run(File output) throws IOException {
+        // LiveData checks that it is updated on the main thread; treat the benchmark thread as main
+        ArchTaskExecutor.getInstance().setDelegate(new TaskExecutor() {
+            @Override
+            public void executeOnDiskIO(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public void postToMainThread(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public boolean isMainThread() {
+                return true;
+            }
+        });
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (int size : SIZES) {
+                results.add(measure(new SubmitRating(), size));
+                results.add(measure(new RemoveRating(), size));
+                results.add(measure(new RemoveRatings(), size));
+                results.add(measure(new UndoRedo(), size));
+                results.add(measure(new GetAverageRating(), size));
+                results.add(measure(new GetFormattedRating(), size));
+                results.add(measure(new DiffCallback(), size));
+                results.add(measure(new SyncRatings(size), size));
+                results.add(measure(new EncodeSnapshot(size), size));
+                results.add(measure(new DecodeSnapshot(size), size));
+                results.add(measure(new RestoreSnapshot(size), size));
+            }
+            results.add(measure(new FormatStars(), 0));
+            results.add(measure(new RecordLatency(), 0));
+        } finally {
+            ArchTaskExecutor.getInstance().setDelegate(null);
+        }
+
+        for (Result result : results) {
+            System.out.printf(Locale.ROOT, "%-20s %7d ratings: %,14.0f ops/s %10.1f B/op %9.1f MB/s%s%n",
+                    result.name, result.size, result.opsPerSecond, result.bytesPerOp, result.allocationMbPerSecond,
+                    Double.isNaN(result.writtenBytesPerOp) ? ""
+                            : String.format(Locale.ROOT, " %8.1f B written/op", result.writtenBytesPerOp));
+        }
+        writeJson(output, results);
+        System.out.println("Benchmark results written to " + output.getAbsolutePath());
+    }
+
+    private static Result measure(Benchmark benchmark, int size) {
+        benchmark.setUp(size);
+        long[] times = new long[MEASURED_ITERATIONS];
+        long allocated = 0;
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            benchmark.beforeIteration();
+            long allocatedBefore = AllocationMeter.allocatedBytes();
+            long start = System.nanoTime();
+            sink += benchmark.iteration();
+            long elapsed = System.nanoTime() - start;
+            long allocatedDuring = AllocationMeter.allocatedBytes() - allocatedBefore;
+            benchmark.afterIteration();
+            if (i >= WARMUP_ITERATIONS) {
+                times[i - WARMUP_ITERATIONS] = elapsed;
+                allocated += allocatedDuring;
+            }
+        }
+        benchmark.tearDown();
+
+        Arrays.sort(times);
+        long median = times[times.length / 2];
+        long totalTime = 0;
+        for (long time : times) {
+            totalTime += time;
+        }
+        long ops = (long) benchmark.opsPerIteration * MEASURED_ITERATIONS;
+        Result result = new Result(benchmark.name, size,
+                benchmark.opsPerIteration * 1e9 / median,
+                (double) allocated / ops,
+                allocated / 1e6 / (totalTime / 1e9),
+                benchmark.writtenBytesPerOp());
+        // Keeps the JIT from discarding the benchmarked work
+        if (sink == 42) {
+            System.out.println();
+        }
+        return result;
+    }
+
+    private static void writeJson(File output, List<Result> results) throws IOException {
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write(String.format(Locale.ROOT, "  \"timestamp\": %d,%n", System.currentTimeMillis()));
+            writer.write(String.format(Locale.ROOT, "  \"javaVersion\": \"%s\",%n", System.getProperty("java.version")));
+            writer.write(String.format(Locale.ROOT, "  \"warmupIterations\": %d,%n", WARMUP_ITERATIONS));
+            writer.write(String.format(Locale.ROOT, "  \"measuredIterations\": %d,%n", MEASURED_ITERATIONS));
+            writer.write("  \"results\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                writer.write(String.format(Locale.ROOT,
+                        "    {\"benchmark\": \"%s\", \"size\": %d, \"opsPerSecond\": %.1f, "
+                                + "\"bytesPerOp\": %.1f, \"allocationMbPerSecond\": %.1f, \"writtenBytesPerOp\": %s}%s%n",
+                        result.name, result.size, result.opsPerSecond, result.bytesPerOp,
+                        result.allocationMbPerSecond,
+                        Double.isNaN(result.writtenBytesPerOp) ? "null"
+                                : String.format(Locale.ROOT, "%.1f", result.writtenBytesPerOp),
+                        i < results.size() - 1 ? "," : ""));
+            }
+            writer.write("  ]\n}\n");
+        }
+    }
+
+    private static final class Result {
+        final String name;
+        final int size;
+        final double opsPerSecond;
+        final double bytesPerOp;
+        final double allocationMbPerSecond;
+        // NaN for benchmarks that write nothing
+        final double writtenBytesPerOp;
+
+        Result(String name, int size, double opsPerSecond, double bytesPerOp, double allocationMbPerSecond,
+               double writtenBytesPerOp) {
+            this.name = name;
+            this.size = size;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+            this.allocationMbPerSecond = allocationMbPerSecond;
+            this.writtenBytesPerOp = writtenBytesPerOp;
+        }
+    }
+
+    /**
+     * One benchmark. Only iteration() is timed; the other hooks restore the state between iterations.
+     */
+    private abstract static class Benchmark {
+        final String name;
+        final int opsPerIteration;
+
+        Benchmark(String name, int opsPerIteration) {
+            this.name = name;
+            this.opsPerIteration = opsPerIteration;
+        }
+
+        abstract void setUp(int size);
+
+        void beforeIteration() {
+        }
+
+        // Runs opsPerIteration operations and returns something derived from their results
+        abstract long iteration();
+
+        void afterIteration() {
+        }
+
+        void tearDown() {
+        }
+
+        // Bytes the last iteration wrote per operation, e.g. to a stream or the network; NaN if none
+        double writtenBytesPerOp() {
+            return Double.NaN;
+        }
+    }
+
+    // Base for benchmarks that drive an in-memory RatingViewModel holding `size` ratings
+    private abstract static class ViewModelBenchmark extends Benchmark {
+        RatingViewModel viewModel;
+        int size;
+
+        ViewModelBenchmark(String name, int opsPerIteration) {
+            super(name, opsPerIteration);
+        }
+
+        @Override
+        void setUp(int size) {
+            this.size = size;
+            viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+            submit(size);
+        }
+
+        void submit(int count) {
+            for (int i = 0; i < count; i++) {
+                int n = viewModel.getRatingsCount();
+                viewModel.submitRating("Dish number " + (n % 500), DISH_TYPES[n % DISH_TYPES.length], 1 + n % 5);
+            }
+        }
+
+        @Override
+        void tearDown() {
+            viewModel.onCleared();
+        }
+    }
+
+    private static final class SubmitRating extends ViewModelBenchmark {
+        private final String[] names = new String[1_000];
+
+        SubmitRating() {
+            super("submitRating", 1_000);
+            for (int i = 0; i < names.length; i++) {
+                names[i] = "Dish number " + i;
+            }
+        }
+
+        @Override
+        long iteration() {
+            for (int i = 0; i < opsPerIteration; i++) {
+                viewModel.submitRating(names[i], DISH_TYPES[i % DISH_TYPES.length], 1 + i % 5);
+            }
+            return viewModel.getRatingsCount();
+        }
+
+        @Override
+        void afterIteration() {
+            // Back to `size` ratings by dropping the ones just added
+            while (viewModel.getRatingsCount() > size) {
+                viewModel.removeRating(viewModel.getRatingsCount() - 1);
+            }
+        }
+    }
+
+    private static final class RemoveRating extends ViewModelBenchmark {
+        private final int[] positions = new int[1_000];
+        private final Random random = new Random(5);
+
+        RemoveRating() {
+            super("removeRating", 1_000);
+        }
+
+        @Override
+        void beforeIteration() {
+            // Refill so the list holds `size` ratings after the timed removals
+            submit(size + opsPerIteration - viewModel.getRatingsCount());
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = random.nextInt(size + opsPerIteration - i);
+            }
+        }
+
+        @Override
+        long iteration() {
+            for (int position : positions) {
+                viewModel.removeRating(position);
+            }
+            return viewModel.getRatingsCount();
+        }
+    }
+
+    // One bulk removal of every tenth rating, which rebuilds the persistent list once
+    private static final class RemoveRatings extends ViewModelBenchmark {
+        private final List<Long> ids = new ArrayList<>();
+
+        RemoveRatings() {
+            super("removeRatings", 1);
+        }
+
+        @Override
+        void beforeIteration() {
+            submit(size - viewModel.getRatingsCount());
+            ids.clear();
+            List<RatingViewModel.DishRating> ratings = viewModel.getRatingsList().getValue();
+            for (int i = 0; i < ratings.size(); i += 10) {
+                ids.add(ratings.get(i).getId());
+            }
+        }
+
+        @Override
+        long iteration() {
+            return viewModel.removeRatings(ids);
+        }
+    }
+
+    // Undoes and redoes a full history of single removals, which leaves the list as it was
+    private static final class UndoRedo extends ViewModelBenchmark {
+        UndoRedo() {
+            super("undoRedo", 2 * RatingHistory.MAX_DEPTH);
+        }
+
+        @Override
+        void setUp(int size) {
+            super.setUp(size);
+            // The removals push the submits out of the history
+            for (int i = 0; i < RatingHistory.MAX_DEPTH; i++) {
+                viewModel.removeRating(i);
+            }
+        }
+
+        @Override
+        long iteration() {
+            for (int i = 0; i < RatingHistory.MAX_DEPTH; i++) {
+                viewModel.undo();
+            }
+            for (int i = 0; i < RatingHistory.MAX_DEPTH; i++) {
+                viewModel.redo();
+            }
+            return viewModel.getRatingsCount();
+        }
+    }
+
+    private static final class GetAverageRating extends ViewModelBenchmark {
+        GetAverageRating() {
+            super("getAverageRating", 100_000);
+        }
+
+        @Override
+        long iteration() {
+            float sum = 0;
+            for (int i = 0; i < opsPerIteration; i++) {
+                sum += viewModel.getAverageRating();
+            }
+            return (long) sum;
+        }
+    }
+
+    // The first call on each row, which builds the text; later calls only read the cached string
+    private static final class GetFormattedRating extends Benchmark {
+        private RatingViewModel.DishRating[] ratings;
+        private final RatingViewModel.DishRating[] fresh = new RatingViewModel.DishRating[10_000];
+
+        GetFormattedRating() {
+            super("getFormattedRating", 10_000);
+        }
+
+        @Override
+        void setUp(int size) {
+            ratings = new RatingViewModel.DishRating[size];
+            for (int i = 0; i < size; i++) {
+                ratings[i] = new RatingViewModel.DishRating(i, "Dish number " + (i % 500),
+                        DISH_TYPES[i % DISH_TYPES.length], (i % 9) / 2f + 1, i);
+            }
+        }
+
+        @Override
+        void beforeIteration() {
+            // New rows have no cached text yet
+            for (int i = 0; i < fresh.length; i++) {
+                RatingViewModel.DishRating rating = ratings[(int) ((i * 7919L) % ratings.length)];
+                fresh[i] = new RatingViewModel.DishRating(rating.getId(), rating.getDishName(),
+                        rating.getDishType(), rating.getRating(), rating.getTimestamp());
+            }
+        }
+
+        @Override
+        long iteration() {
+            long length = 0;
+            for (RatingViewModel.DishRating rating : fresh) {
+                length += rating.getFormattedRating().length();
+            }
+            return length;
+        }
+    }
+
+    // The rating text of a bound row, over star ratings and averages that are not whole tenths
+    private static final class FormatStars extends Benchmark {
+        private final float[] values = new float[1_000];
+
+        FormatStars() {
+            super("formatStars", 100_000);
+        }
+
+        @Override
+        void setUp(int size) {
+            Random random = new Random(11);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i % 2 == 0 ? (1 + random.nextInt(9)) / 2f : 1 + random.nextFloat() * 4;
+            }
+        }
+
+        @Override
+        long iteration() {
+            long length = 0;
+            for (int i = 0; i < opsPerIteration; i++) {
+                length += RatingFormat.stars(values[i % values.length]).length();
+            }
+            return length;
+        }
+    }
+
+    private static final class DiffCallback extends Benchmark {
+        private RatingViewModel.DishRating[] oldItems;
+        private RatingViewModel.DishRating[] newItems;
+
+        DiffCallback() {
+            super("diffCallback", 100_000);
+        }
+
+        @Override
+        void setUp(int size) {
+            // Equal ratings in distinct objects, as two LiveData emissions produce them
+            oldItems = new RatingViewModel.DishRating[size];
+            newItems = new RatingViewModel.DishRating[size];
+            for (int i = 0; i < size; i++) {
+                String name = "Dish number " + (i % 500);
+                oldItems[i] = new RatingViewModel.DishRating(i, name, DISH_TYPES[i % DISH_TYPES.length], 4.0f, i);
+                newItems[i] = new RatingViewModel.DishRating(i, new String(name), DISH_TYPES[i % DISH_TYPES.length], 4.0f, i);
+            }
+        }
+
+        @Override
+        long iteration() {
+            long same = 0;
+            for (int i = 0; i < opsPerIteration; i++) {
+                int index = i % oldItems.length;
+                if (RatingsAdapter.DIFF_CALLBACK.areItemsTheSame(oldItems[index], newItems[index])
+                        && RatingsAdapter.DIFF_CALLBACK.areContentsTheSame(oldItems[index], newItems[index])) {
+                    same++;
+                }
+            }
+            return same;
+        }
+    }
+
+    // Uploads `size` new ratings through the sync engine until the backend acknowledged them all.
+    // Batching and gzip run on the sync thread, so the allocation columns miss them.
+    private static final class SyncRatings extends Benchmark {
+        private static final RatingSyncEngine.Config CONFIG = new RatingSyncEngine.Config(500, 256 * 1024, 0, 1, 20);
+
+        private final AtomicLong sentBytes = new AtomicLong();
+        private List<RatingViewModel.DishRating> ratings;
+        private RatingSyncEngine engine;
+        private CountDownLatch synced;
+
+        SyncRatings(int size) {
+            super("syncRatings", size);
+        }
+
+        @Override
+        void setUp(int size) {
+            ratings = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                long id = i + 1;
+                ratings.add(new RatingViewModel.DishRating(id, "Dish number " + (i % 500),
+                        DISH_TYPES[i % DISH_TYPES.length], 1 + i % 5, 1_700_000_000_000L + i));
+            }
+        }
+
+        @Override
+        void beforeIteration() {
+            sentBytes.set(0);
+            CountDownLatch latch = new CountDownLatch(1);
+            synced = latch;
+            // A backend that accepts everything, so only the engine is measured
+            SyncTransport backend = (idempotencyKey, gzippedBody) -> {
+                sentBytes.addAndGet(gzippedBody.length);
+                return 200;
+            };
+            engine = new RatingSyncEngine(backend, null, CONFIG, status -> {
+                if (status.getPendingChanges() == 0 && status.getUploadedChanges() == ratings.size()) {
+                    latch.countDown();
+                }
+            }, (message, error) -> {
+                // Nothing fails against this backend
+            });
+        }
+
+        @Override
+        long iteration() {
+            engine.onRatingsChanged(1, ratings, ratings.size());
+            try {
+                if (!synced.await(60, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Sync of " + ratings.size() + " ratings timed out");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return sentBytes.get();
+        }
+
+        @Override
+        void afterIteration() {
+            engine.close();
+            try {
+                engine.awaitClosed(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        double writtenBytesPerOp() {
+            return (double) sentBytes.get() / ratings.size();
+        }
+    }
+
+    private static List<RatingViewModel.DishRating> snapshotRatings(int size) {
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ratings.add(new RatingViewModel.DishRating(i + 1, "Dish number " + (i % 500),
+                    DISH_TYPES[i % DISH_TYPES.length], (i % 9) / 2f + 1, 1_700_000_000_000L + i * 60_000L));
+        }
+        return ratings;
+    }
+
+    // The saved-state snapshot of `size` ratings, one op per rating
+    private static final class EncodeSnapshot extends Benchmark {
+        private List<RatingViewModel.DishRating> ratings;
+        private int encodedLength;
+
+        EncodeSnapshot(int size) {
+            super("encodeSnapshot", size);
+        }
+
+        @Override
+        void setUp(int size) {
+            ratings = snapshotRatings(size);
+        }
+
+        @Override
+        long iteration() {
+            encodedLength = RatingSnapshot.encode(ratings).length;
+            return encodedLength;
+        }
+
+        @Override
+        double writtenBytesPerOp() {
+            return (double) encodedLength / ratings.size();
+        }
+    }
+
+    private static final class DecodeSnapshot extends Benchmark {
+        private byte[] snapshot;
+
+        DecodeSnapshot(int size) {
+            super("decodeSnapshot", size);
+        }
+
+        @Override
+        void setUp(int size) {
+            snapshot = RatingSnapshot.encode(snapshotRatings(size));
+        }
+
+        @Override
+        long iteration() {
+            try {
+                return RatingSnapshot.decode(snapshot).size();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // What a restart after process death does with the snapshot: decode it and add its ratings to
+    // the restaurant's shard, here an empty one without a journal
+    private static final class RestoreSnapshot extends Benchmark {
+        private byte[] snapshot;
+        private RatingShard shard;
+
+        RestoreSnapshot(int size) {
+            super("restoreSnapshot", size);
+        }
+
+        @Override
+        void setUp(int size) {
+            snapshot = RatingSnapshot.encode(snapshotRatings(size));
+        }
+
+        @Override
+        void beforeIteration() {
+            shard = RatingShard.load(Restaurant.ALL.get(0), null, null, null);
+        }
+
+        @Override
+        long iteration() {
+            try {
+                RatingSnapshot.Contents contents = RatingSnapshot.decodeContents(snapshot);
+                return shard.restoreNewer(contents.ratings).size() + shard.restoreChanges(contents.changes);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void afterIteration() {
+            shard.close();
+        }
+    }
+
+    // One now()/record() pair, as every instrumented stage runs it
+    private static final class RecordLatency extends Benchmark {
+        RecordLatency() {
+            super("recordLatency", 100_000);
+        }
+
+        @Override
+        void setUp(int size) {
+            LatencyMetrics.reset();
+        }
+
+        @Override
+        long iteration() {
+            for (int i = 0; i < opsPerIteration; i++) {
+                LatencyMetrics.record(LatencyMetrics.Stage.BIND, LatencyMetrics.now());
+            }
+            return LatencyMetrics.snapshot(LatencyMetrics.Stage.BIND).getCount();
+        }
+
+        @Override
+        void tearDown() {
+            LatencyMetrics.reset();
+        }
+    }
+}
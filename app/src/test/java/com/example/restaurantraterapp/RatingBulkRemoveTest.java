@@ -0,0 +1,173 @@
+package com.example.restaurantraterapp;
+
+import android.app.Application;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bulk removals through RatingViewModel: by id set, dish type, time range and duplicates. Each
+ * must update the list, totals and journal like the single removals it replaces, emit the list
+ * once, and undo as one step. Also checks a bulk removal against the same rows removed one by one.
+ */
+public class RatingBulkRemoveTest {
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void removeRatings_byIdsTypeAndTimeRange() throws Exception {
+        File dir = folder.newFolder();
+        RatingViewModel viewModel = new RatingViewModel(new Application(), dir, Runnable::run);
+        viewModel.submitRatings(ratings(100));
+        List<RatingViewModel.DishRating> ratings = viewModel.getRatingsList().getValue();
+        int[] emissions = new int[1];
+        viewModel.getRatingsList().observeForever(list -> emissions[0]++);
+        emissions[0] = 0;
+
+        // Unknown and repeated ids are ignored
+        long first = ratings.get(0).getId();
+        assertEquals(3, viewModel.removeRatings(Arrays.asList(first, first + 1, first + 2, first, -5L)));
+        assertEquals(1, emissions[0]);
+        assertEquals(0, viewModel.removeRatings(Arrays.asList(first, -5L)));
+        assertEquals(1, emissions[0]);
+
+        // Ratings 3 to 99 are left; every fifth is a dessert
+        assertEquals(19, viewModel.removeRatingsOfType("Dessert"));
+        assertEquals(2, emissions[0]);
+        for (RatingViewModel.DishRating rating : viewModel.getRatingsList().getValue()) {
+            assertNotEquals("Dessert", rating.getDishType());
+        }
+
+        // Timestamps are the index times 1000; removes ratings 10 to 19 that are still there
+        assertEquals(8, viewModel.removeRatingsBetween(10_000, 20_000));
+        assertEquals(3, emissions[0]);
+        assertEquals(70, viewModel.getRatingsCount());
+        assertEquals(70, viewModel.getRatingSummary().getValue().getOverall().getCount());
+
+        List<String> before = names(viewModel.getRatingsList().getValue());
+        viewModel.onCleared();
+        viewModel = new RatingViewModel(new Application(), dir, Runnable::run);
+        assertEquals(before, names(viewModel.getRatingsList().getValue()));
+        viewModel.onCleared();
+    }
+
+    @Test
+    public void removeDuplicates_keepsTheOldestOfEach() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.submitRating(" soup ", "Starter", 4f);
+        viewModel.submitRating("Soup", "Starter", 3f);
+        viewModel.submitRating("Soup", "Main", 4f);
+        viewModel.submitRating("SOUP", "Starter", 4f);
+        viewModel.submitRating("Stew", "Main", 2f);
+        viewModel.submitRating("Stew", "Main", 2f);
+
+        assertEquals(3, viewModel.removeDuplicateRatings());
+        List<RatingViewModel.DishRating> ratings = viewModel.getRatingsList().getValue();
+        assertEquals(Arrays.asList("Soup", "Soup", "Soup", "Stew"), names(ratings));
+        assertEquals(1, ratings.get(0).getId());
+        assertEquals(0, viewModel.removeDuplicateRatings());
+        viewModel.onCleared();
+    }
+
+    @Test
+    public void bulkRemoval_undoesAsOneStep() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.submitRating("Stew", "Main", 2f);
+        viewModel.submitRating("Cake", "Dessert", 5f);
+        List<RatingViewModel.DishRating> ratings = viewModel.getRatingsList().getValue();
+
+        viewModel.removeRatings(Arrays.asList(ratings.get(0).getId(), ratings.get(2).getId()));
+        assertEquals(Arrays.asList("Stew"), names(viewModel.getRatingsList().getValue()));
+        assertTrue(viewModel.undo());
+        assertEquals(Arrays.asList("Stew", "Soup", "Cake"), names(viewModel.getRatingsList().getValue()));
+        assertEquals(11f / 3, viewModel.getAverageRating(), 1e-6f);
+        assertTrue(viewModel.redo());
+        assertEquals(Arrays.asList("Stew"), names(viewModel.getRatingsList().getValue()));
+        // Then the cake's submission, which finds the cake under the id it was restored with
+        assertTrue(viewModel.undo());
+        assertTrue(viewModel.undo());
+        assertEquals(Arrays.asList("Stew", "Soup"), names(viewModel.getRatingsList().getValue()));
+        viewModel.onCleared();
+    }
+
+    /**
+     * Removes the same rows one by one and in bulk. A small selection is removed from the
+     * persistent list row by row and a large one rebuilds it; both must match the single removals.
+     * Their cost is measured by RatingBenchmark.
+     */
+    @Test
+    public void bulkRemoval_matchesSingleRemovals() {
+        for (int selected : new int[]{10, 500}) {
+            RatingViewModel single = new RatingViewModel(new Application(), null, Runnable::run);
+            RatingViewModel bulk = new RatingViewModel(new Application(), null, Runnable::run);
+            single.submitRatings(ratings(2_000));
+            bulk.submitRatings(ratings(2_000));
+            List<Long> ids = new ArrayList<>();
+            List<RatingViewModel.DishRating> ratings = bulk.getRatingsList().getValue();
+            for (int i = 0; i < selected; i++) {
+                ids.add(ratings.get(i * (2_000 / selected)).getId());
+            }
+            int[] emissions = new int[2];
+            single.getRatingsList().observeForever(list -> emissions[0]++);
+            bulk.getRatingsList().observeForever(list -> emissions[1]++);
+            emissions[0] = 0;
+            emissions[1] = 0;
+
+            for (long id : ids) {
+                single.removeRatingById(id);
+            }
+            assertEquals(selected, bulk.removeRatings(new HashSet<>(ids)));
+
+            assertEquals(selected, emissions[0]);
+            assertEquals(1, emissions[1]);
+            assertEquals(ids(single.getRatingsList().getValue()), ids(bulk.getRatingsList().getValue()));
+            assertEquals(single.getAverageRating(), bulk.getAverageRating(), 1e-4f);
+            single.onCleared();
+            bulk.onCleared();
+        }
+    }
+
+    private static List<RatingViewModel.DishRating> ratings(int count) {
+        String[] types = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ratings.add(new RatingViewModel.DishRating(0, "Dish number " + i, types[i % types.length],
+                    1 + i % 5, i * 1000L));
+        }
+        return ratings;
+    }
+
+    private static List<String> names(List<RatingViewModel.DishRating> ratings) {
+        List<String> names = new ArrayList<>();
+        for (RatingViewModel.DishRating rating : ratings) {
+            names.add(rating.getDishName());
+        }
+        return names;
+    }
+
+    private static Set<Long> ids(List<RatingViewModel.DishRating> ratings) {
+        Set<Long> ids = new HashSet<>();
+        for (RatingViewModel.DishRating rating : ratings) {
+            ids.add(rating.getId());
+        }
+        return ids;
+    }
+}
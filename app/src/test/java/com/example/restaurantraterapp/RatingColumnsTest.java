@@ -0,0 +1,149 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the columnar leaf layout against plain DishRating objects and, with -Pbenchmark, measures
+ * its heap footprint.
+ */
+public class RatingColumnsTest {
+
+    private static final String[] DISH_TYPES = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+
+    @Test
+    public void columnarList_matchesObjectList() {
+        Random random = new Random(3);
+        PersistentList<RatingViewModel.DishRating> columns = RatingColumns.emptyList(new StringDictionary());
+        List<RatingViewModel.DishRating> model = new ArrayList<>();
+
+        for (int step = 0; step < 20_000; step++) {
+            if (random.nextInt(4) > 0 || model.isEmpty()) {
+                RatingViewModel.DishRating rating = new RatingViewModel.DishRating(step, "Dish " + random.nextInt(300),
+                        DISH_TYPES[random.nextInt(DISH_TYPES.length)], 1 + random.nextInt(5), step);
+                int index = random.nextInt(model.size() + 1);
+                columns = columns.plus(index, rating);
+                model.add(index, rating);
+            } else {
+                int index = random.nextInt(model.size());
+                columns = columns.minus(index);
+                model.remove(index);
+            }
+        }
+
+        assertEquals(model.size(), columns.size());
+        int i = 0;
+        for (RatingViewModel.DishRating view : columns) {
+            RatingViewModel.DishRating expected = model.get(i++);
+            assertEquals(expected.getId(), view.getId());
+            assertEquals(expected.getDishName(), view.getDishName());
+            assertEquals(expected.getDishType(), view.getDishType());
+            assertEquals(expected.getRating(), view.getRating(), 0.0f);
+            assertEquals(expected.getTimestamp(), view.getTimestamp());
+        }
+    }
+
+    @Test
+    public void repeatedStrings_areInterned() {
+        StringDictionary dictionary = new StringDictionary();
+        PersistentList<RatingViewModel.DishRating> columns = RatingColumns.emptyList(dictionary);
+        for (int i = 0; i < 1000; i++) {
+            columns = columns.plus(new RatingViewModel.DishRating(i, new String("Soup"), new String("Starter"), 4.0f, i));
+        }
+
+        assertEquals(2, dictionary.size());
+        assertSame(columns.get(0).getDishName(), columns.get(999).getDishName());
+        assertEquals(0, columns.cleared().size());
+    }
+
+    @Test
+    public void get_returnsTheSameViewUntilTheRowChanges() {
+        PersistentList<RatingViewModel.DishRating> columns = RatingColumns.emptyList(new StringDictionary());
+        for (int i = 0; i < 100; i++) {
+            columns = columns.plus(syntheticRating(i));
+        }
+        RatingViewModel.DishRating row = columns.get(5);
+        assertSame(row, columns.get(5));
+        assertSame(row.getFormattedRating(), columns.get(5).getFormattedRating());
+
+        // Copies of the leaf keep the views of unchanged rows, and an edited row gets a new one
+        assertSame(row, columns.minus(3).get(4));
+        assertSame(row, columns.plus(0, syntheticRating(100)).get(6));
+        PersistentList<RatingViewModel.DishRating> edited = columns.minus(5).plus(5, syntheticRating(500));
+        assertNotSame(row, edited.get(5));
+        assertEquals(500, edited.get(5).getId());
+
+        // Iteration reads cached views but keeps none of its own
+        List<RatingViewModel.DishRating> iterated = new ArrayList<>(columns);
+        assertSame(row, iterated.get(5));
+        assertNotSame(iterated.get(7), columns.get(7));
+    }
+
+    /**
+     * Heap footprint: 100k ratings as DishRating objects with their own strings (as they are after
+     * decoding from storage) against the same ratings in columnar leaves.
+     */
+    @Test
+    public void columnarStorage_retainsSeveralTimesLessHeap() {
+        RatingBenchmark.assumeEnabled();
+        int count = 100_000;
+        long baseline = usedHeapAfterGc();
+        List<RatingViewModel.DishRating> objects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            objects.add(syntheticRating(i));
+        }
+        long objectBytes = usedHeapAfterGc() - baseline;
+        assertEquals(count, objects.size());
+        objects = null;
+
+        baseline = usedHeapAfterGc();
+        PersistentList<RatingViewModel.DishRating> columns = RatingColumns.emptyList(new StringDictionary());
+        for (int i = 0; i < count; i++) {
+            columns = columns.plus(syntheticRating(i));
+        }
+        long columnBytes = usedHeapAfterGc() - baseline;
+        assertEquals(count, columns.size());
+
+        assertTrue("columns retain " + columnBytes / 1024 + " KB against " + objectBytes / 1024 + " KB of objects",
+                columnBytes * 3 < objectBytes);
+    }
+
+    private static RatingViewModel.DishRating syntheticRating(int i) {
+        // Fresh String instances per row, the way a decoder produces them
+        return new RatingViewModel.DishRating(i, "Dish number " + (i % 400), new String(DISH_TYPES[i % DISH_TYPES.length]),
+                1 + i % 5, 1_700_000_000_000L + i);
+    }
+
+    private static long usedHeapAfterGc() {
+        awaitSearchIndexers();
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Earlier tests can leave a search index building after their view model is cleared; its
+    // garbage would otherwise be collected in the middle of a measurement
+    private static void awaitSearchIndexers() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("RatingSearch".equals(thread.getName())) {
+                try {
+                    thread.join(10_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
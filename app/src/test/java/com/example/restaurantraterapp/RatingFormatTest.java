@@ -0,0 +1,88 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks RatingFormat against String.format and that the bind-path formatting allocates nothing.
+ */
+public class RatingFormatTest {
+
+    @Test
+    public void matchesStringFormat() {
+        for (int halfStars = 0; halfStars <= 10; halfStars++) {
+            float value = halfStars / 2f;
+            assertEquals(String.format("%.1f", value), RatingFormat.oneDecimal(value));
+            assertEquals(String.format("%.1f stars", value), RatingFormat.stars(value));
+            assertEquals(String.format("Avg: %.1f ★", value), RatingFormat.average(value));
+        }
+
+        Random random = new Random(17);
+        for (int i = 0; i < 100_000; i++) {
+            float value = random.nextFloat() * 12 - 3;
+            assertEquals(String.format("%.1f", value), RatingFormat.oneDecimal(value));
+        }
+        assertEquals(String.format("%.1f", 5.05f), RatingFormat.oneDecimal(5.05f));
+        assertEquals(String.format("%.1f", -0.04f), RatingFormat.oneDecimal(-0.04f));
+    }
+
+    @Test
+    public void followsDefaultLocale() {
+        Locale previous = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            assertEquals("4,5 stars", RatingFormat.stars(4.5f));
+            Locale.setDefault(Locale.US);
+            assertEquals("4.5 stars", RatingFormat.stars(4.5f));
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+
+    @Test
+    public void formattedRating_isCached() {
+        RatingViewModel.DishRating rating = new RatingViewModel.DishRating(1, "Soup", "Starter", 3.5f);
+        String text = rating.getFormattedRating();
+
+        assertEquals("Dish: Soup\nType: Starter\nRating: " + String.format("%.1f", 3.5f) + " stars", text);
+        assertSame(text, rating.getFormattedRating());
+    }
+
+    /**
+     * The text a row binds (the "x.x stars" label and, for the click handlers, the cached
+     * description) must not allocate once warmed up, read through the columnar list the adapter
+     * pages from so the cached description has to survive get().
+     */
+    @Test
+    public void bindFormatting_allocatesNothingAfterWarmUp() {
+        PersistentList<RatingViewModel.DishRating> ratings =
+                RatingColumns.emptyList(new StringDictionary());
+        for (int i = 0; i < 11; i++) {
+            ratings = ratings.plus(new RatingViewModel.DishRating(i, "Dish " + i, "Main", i / 2f));
+        }
+        int length = 0;
+        for (int i = 0; i < 20_000; i++) {
+            RatingViewModel.DishRating rating = ratings.get(i % ratings.size());
+            length += RatingFormat.stars(rating.getRating()).length();
+            length += RatingFormat.average(rating.getRating()).length();
+            length += rating.getFormattedRating().length();
+        }
+
+        long start = AllocationMeter.allocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            RatingViewModel.DishRating rating = ratings.get(i % ratings.size());
+            length += RatingFormat.stars(rating.getRating()).length();
+            length += RatingFormat.average(rating.getRating()).length();
+            length += rating.getFormattedRating().length();
+        }
+        long allocated = AllocationMeter.allocatedBytes() - start;
+
+        assertTrue(length > 0);
+        // Allow for the meter's own bookkeeping, far below one byte per bind
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
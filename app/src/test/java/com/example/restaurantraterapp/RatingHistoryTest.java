@@ -0,0 +1,174 @@
+package com.example.restaurantraterapp;
+
+import android.app.Application;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Edits, undo and redo through RatingViewModel: every step must restore the list the user saw,
+ * and the journaled result must survive a restart. RatingBenchmark times undo and redo.
+ */
+public class RatingHistoryTest {
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void undoAndRedo_walkThroughEveryKindOfChange() throws Exception {
+        File dir = folder.newFolder();
+        RatingViewModel viewModel = new RatingViewModel(new Application(), dir, Runnable::run);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.submitRating("Stew", "Main", 2f);
+        long soup = viewModel.getRatingsList().getValue().get(0).getId();
+        assertTrue(viewModel.editRating(soup, "Pea soup", "Starter", 5f));
+        viewModel.removeRating(1);
+        viewModel.clearAllRatings();
+        assertEquals(names(), names(viewModel));
+
+        assertTrue(viewModel.undo());
+        assertEquals(names("Pea soup"), names(viewModel));
+        assertTrue(viewModel.undo());
+        assertEquals(names("Pea soup", "Stew"), names(viewModel));
+        assertTrue(viewModel.undo());
+        assertEquals(names("Soup", "Stew"), names(viewModel));
+        assertEquals(3f, viewModel.getAverageRating(), 0f);
+        assertTrue(viewModel.undo());
+        assertEquals(names("Soup"), names(viewModel));
+        assertTrue(viewModel.undo());
+        assertEquals(names(), names(viewModel));
+        assertFalse(viewModel.undo());
+        assertFalse(viewModel.getCanUndo().getValue());
+        assertTrue(viewModel.getCanRedo().getValue());
+
+        assertTrue(viewModel.redo());
+        assertTrue(viewModel.redo());
+        assertTrue(viewModel.redo());
+        assertEquals(names("Pea soup", "Stew"), names(viewModel));
+        assertTrue(viewModel.redo());
+        assertEquals(names("Pea soup"), names(viewModel));
+        assertEquals(5f, viewModel.getAverageRating(), 0f);
+        viewModel.onCleared();
+
+        // The journal holds the same list, and ids given out by undo and redo are not reused
+        viewModel = new RatingViewModel(new Application(), dir, Runnable::run);
+        List<RatingViewModel.DishRating> ratings = viewModel.getRatingsList().getValue();
+        assertEquals(names("Pea soup"), names(viewModel));
+        viewModel.submitRating("Cake", "Dessert", 3f);
+        // The stew was added back above the soup before the last redo removed it again
+        assertEquals(ratings.get(0).getId() + 2, viewModel.getRatingsList().getValue().get(1).getId());
+        // The history is not persisted
+        viewModel.undo();
+        assertFalse(viewModel.undo());
+        viewModel.onCleared();
+    }
+
+    @Test
+    public void undoneRemoval_comesBackAtTheEndWithItsTimestamp() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.submitRating("Stew", "Main", 2f);
+        viewModel.submitRating("Tart", "Dessert", 5f);
+        RatingViewModel.DishRating soup = viewModel.getRatingsList().getValue().get(0);
+        viewModel.removeRating(0);
+
+        // The list is ordered by id and the soup gets a new one, so it moves below the tart
+        assertTrue(viewModel.undo());
+        assertEquals(names("Stew", "Tart", "Soup"), names(viewModel));
+        RatingViewModel.DishRating restored = viewModel.getRatingsList().getValue().get(2);
+        assertTrue(restored.getId() > soup.getId());
+        assertEquals(soup.getTimestamp(), restored.getTimestamp());
+    }
+
+    @Test
+    public void newChange_discardsRedo() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.undo();
+        assertTrue(viewModel.getCanRedo().getValue());
+        viewModel.submitRating("Stew", "Main", 2f);
+        assertFalse(viewModel.getCanRedo().getValue());
+        assertFalse(viewModel.redo());
+        assertEquals(names("Stew"), names(viewModel));
+    }
+
+    @Test
+    public void importedRatings_areNotPartOfTheHistory() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        long soup = viewModel.getRatingsList().getValue().get(0).getId();
+        viewModel.editRating(soup, "Pea soup", "Starter", 5f);
+        List<RatingViewModel.DishRating> batch = new ArrayList<>();
+        batch.add(new RatingViewModel.DishRating(0, "Tea", "Beverage", 3f, 1));
+        viewModel.submitRatings(batch);
+        // Clearing them is, though
+        viewModel.clearAllRatings();
+
+        viewModel.undo();
+        assertEquals(names("Pea soup", "Tea"), names(viewModel));
+        // The soup was added back under a new id, which the older changes still find
+        viewModel.undo();
+        assertEquals(names("Soup", "Tea"), names(viewModel));
+        viewModel.undo();
+        assertEquals(names("Tea"), names(viewModel));
+        assertFalse(viewModel.undo());
+        assertFalse(viewModel.editRating(soup, "Stale", "Main", 1f));
+    }
+
+    @Test
+    public void fullHistoryOfRemovals_undoesAndRedoesInRounds() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        List<RatingViewModel.DishRating> batch = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            batch.add(new RatingViewModel.DishRating(0, "Dish number " + i, "Main", 1 + i % 5, i));
+        }
+        viewModel.submitRatings(batch);
+        List<String> all = names(viewModel);
+        for (int i = 0; i < RatingHistory.MAX_DEPTH; i++) {
+            viewModel.removeRating(i);
+        }
+        List<String> removed = names(viewModel);
+
+        for (int round = 0; round < 3; round++) {
+            while (viewModel.undo()) {
+                // Undo every removal
+            }
+            // The removed ratings come back at the end, so compare contents rather than order
+            assertEquals(all.size(), viewModel.getRatingsCount());
+            assertEquals(new HashSet<>(all), new HashSet<>(names(viewModel)));
+            while (viewModel.redo()) {
+                // And remove them again
+            }
+            assertEquals(removed, names(viewModel));
+        }
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private static List<String> names(RatingViewModel viewModel) {
+        List<String> list = new ArrayList<>();
+        for (RatingViewModel.DishRating rating : viewModel.getRatingsList().getValue()) {
+            list.add(rating.getDishName());
+        }
+        return list;
+    }
+}
@@ -0,0 +1,447 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip, crash consistency and replay tests for RatingJournal, plus cold start benchmarks
+ * that run with -Pbenchmark.
+ */
+public class RatingJournalTest {
+
+    // Events in the replay benchmark, and the longest a benchmarked cold start may take
+    private static final int EVENT_LOG_SIZE = 1_000_000;
+    private static final long COLD_START_BUDGET_MS = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replay_restoresAddsRemovesAndClears() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            journal.appendAdd(rating("Old Soup", "Starter", 1.0f, 1L));
+            journal.appendClear();
+            journal.appendAdd(rating("Soup", "Starter", 4.0f, 10L));
+            journal.appendAdd(rating("Crème brûlée", "Dessert", 5.0f, 11L));
+            journal.appendAdd(rating("Steak", "Main", 2.0f, 12L));
+            journal.appendRemove(10L);
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            List<RatingViewModel.DishRating> ratings = journal.load();
+            assertEquals(2, ratings.size());
+            assertRating(ratings.get(0), "Crème brûlée", "Dessert", 5.0f, 11L);
+            assertRating(ratings.get(1), "Steak", "Main", 2.0f, 12L);
+        }
+    }
+
+    @Test
+    public void replay_appliesEditsToLiveRatingsOnly() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            journal.appendAdd(rating("Soup", "Starter", 4.0f, 10L));
+            journal.appendAdd(rating("Steak", "Main", 2.0f, 11L));
+            journal.appendEdit(rating("Pea soup", "Starter", 3.5f, 10L));
+            journal.appendRemove(11L);
+            // Edits of removed or unknown ratings are ignored
+            journal.appendEdit(rating("Ghost", "Main", 1.0f, 11L));
+            journal.appendEdit(rating("Ghost", "Main", 1.0f, 99L));
+            journal.appendEdit(rating("Pea soup", "Starter", 4.5f, 10L));
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            List<RatingViewModel.DishRating> ratings = journal.load();
+            assertEquals(1, ratings.size());
+            assertRating(ratings.get(0), "Pea soup", "Starter", 4.5f, 10L);
+            // Edits do not hand out ids
+            assertEquals(11L, journal.getMaxId());
+        }
+    }
+
+    @Test
+    public void tornWrite_isTruncatedAtEveryCutPoint() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            journal.appendAdd(rating("Soup", "Starter", 4.0f, 10L));
+            journal.appendAdd(rating("Steak", "Main", 3.0f, 11L));
+        }
+        long completeLength = file.length();
+        long lastRecordStart;
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            lastRecordStart = file.length();
+            journal.appendAdd(rating("Pie", "Dessert", 5.0f, 12L));
+        }
+        byte[] full = readAll(file);
+
+        // Simulate the process dying after every possible number of bytes of the last record
+        for (long cut = lastRecordStart; cut < full.length; cut++) {
+            writeAll(file, full, (int) cut);
+            try (RatingJournal journal = new RatingJournal(file)) {
+                List<RatingViewModel.DishRating> ratings = journal.load();
+                assertEquals("cut at " + cut, 2, ratings.size());
+                assertEquals(completeLength, file.length());
+
+                // The journal must accept new records after the torn tail was dropped
+                journal.appendAdd(rating("Tea", "Beverage", 3.0f, 13L));
+            }
+            try (RatingJournal journal = new RatingJournal(file)) {
+                List<RatingViewModel.DishRating> ratings = journal.load();
+                assertEquals(3, ratings.size());
+                assertEquals("Tea", ratings.get(2).getDishName());
+            }
+        }
+    }
+
+    @Test
+    public void corruptRecord_stopsReplayBeforeIt() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        long secondRecordStart;
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            journal.appendAdd(rating("Soup", "Starter", 4.0f, 10L));
+            secondRecordStart = file.length();
+            journal.appendAdd(rating("Steak", "Main", 3.0f, 11L));
+            journal.appendAdd(rating("Pie", "Dessert", 5.0f, 12L));
+        }
+
+        // Flip a byte inside the second record's payload
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long offset = secondRecordStart + 12;
+            raf.seek(offset);
+            int value = raf.read();
+            raf.seek(offset);
+            raf.write(value ^ 0xFF);
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            List<RatingViewModel.DishRating> ratings = journal.load();
+            assertEquals(1, ratings.size());
+            assertEquals("Soup", ratings.get(0).getDishName());
+            assertEquals(secondRecordStart, file.length());
+        }
+    }
+
+    @Test
+    public void commit_writesWholeBatch() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            List<RatingJournal.Entry> batch = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                batch.add(RatingJournal.Entry.add(rating("Dish " + i, "Main", 4.0f, i)));
+            }
+            batch.add(RatingJournal.Entry.remove(0));
+            journal.commit(batch);
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            List<RatingViewModel.DishRating> ratings = journal.load();
+            assertEquals(499, ratings.size());
+            assertEquals("Dish 1", ratings.get(0).getDishName());
+            assertEquals("Dish 499", ratings.get(498).getDishName());
+        }
+    }
+
+    @Test
+    public void compaction_keepsOnlyLiveRatings() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            for (int i = 0; i < 3000; i++) {
+                journal.appendAdd(rating("Dish " + i, "Main", 3.0f, i));
+            }
+            for (int i = 0; i < 2900; i++) {
+                journal.appendRemove(i);
+            }
+            assertTrue(journal.shouldCompact());
+
+            long before = file.length();
+            journal.compact();
+            assertTrue(file.length() < before / 10);
+            assertFalse(journal.shouldCompact());
+            journal.appendAdd(rating("After", "Main", 4.0f, 5000L));
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            List<RatingViewModel.DishRating> ratings = journal.load();
+            assertEquals(101, ratings.size());
+            assertEquals("Dish 2900", ratings.get(0).getDishName());
+            assertEquals("After", ratings.get(100).getDishName());
+            assertEquals(5000L, journal.getMaxId());
+        }
+    }
+
+    @Test
+    public void compaction_keepsHighestIdOfRemovedRatings() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            for (int i = 1; i <= 3000; i++) {
+                journal.appendAdd(rating("Dish " + i, "Main", 3.0f, i));
+            }
+            for (int i = 3000; i > 100; i--) {
+                journal.appendRemove(i);
+            }
+            journal.compact();
+            assertFalse(journal.shouldCompact());
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            assertEquals(100, journal.load().size());
+            // Otherwise the next rating would get id 101 again, which sync has already seen
+            assertEquals(3000L, journal.getMaxId());
+        }
+    }
+
+    @Test
+    public void compaction_keepsHighestIdAcrossClearsAndRepeatedCompactions() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            for (int i = 1; i <= 3000; i++) {
+                journal.appendAdd(rating("Dish " + i, "Main", 3.0f, i));
+            }
+            journal.appendClear();
+            journal.compact();
+            assertEquals(1, journal.getRecordCount());
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            assertTrue(journal.load().isEmpty());
+            assertEquals(3000L, journal.getMaxId());
+            // The mark left by the first compaction is carried into the next one
+            for (int i = 3001; i <= 4100; i++) {
+                journal.appendAdd(rating("Dish " + i, "Main", 3.0f, i));
+            }
+            for (int i = 3001; i <= 4000; i++) {
+                journal.appendRemove(i);
+            }
+            journal.compact();
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            assertEquals(100, journal.load().size());
+            assertEquals(4100L, journal.getMaxId());
+            assertEquals(100, journal.getRecordCount());
+        }
+    }
+
+    @Test
+    public void rejectedBatch_leavesJournalUsable() throws IOException {
+        File file = folder.newFile("ratings.journal");
+        StringBuilder huge = new StringBuilder();
+        while (huge.length() <= 0xFFFF) {
+            huge.append("Soup ");
+        }
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            journal.appendAdd(rating("Soup", "Starter", 4.0f, 1L));
+            int records = journal.getRecordCount();
+            List<RatingJournal.Entry> batch = new ArrayList<>();
+            batch.add(RatingJournal.Entry.add(rating("Stew", "Main", 2.0f, 2L)));
+            batch.add(RatingJournal.Entry.add(rating(huge.toString(), "Main", 3.0f, 3L)));
+            try {
+                journal.commit(batch);
+                fail("Expected the oversized name to be rejected");
+            } catch (IllegalArgumentException expected) {
+                // None of the batch was written
+            }
+            assertEquals(records, journal.getRecordCount());
+            journal.appendAdd(rating("Cake", "Dessert", 5.0f, 4L));
+        }
+
+        try (RatingJournal journal = new RatingJournal(file)) {
+            List<RatingViewModel.DishRating> ratings = journal.load();
+            assertEquals(2, ratings.size());
+            assertEquals("Soup", ratings.get(0).getDishName());
+            assertEquals("Cake", ratings.get(1).getDishName());
+        }
+    }
+
+    @Test
+    public void shardFieldCap_fitsTheJournal() throws IOException {
+        StringBuilder huge = new StringBuilder();
+        while (huge.length() <= 0xFFFF) {
+            huge.append("Crème brûlée \uD83C\uDF70 ");
+        }
+        String capped = RatingShard.capped(huge.toString());
+        assertTrue(capped.length() <= RatingShard.MAX_FIELD_LENGTH);
+        assertFalse(Character.isHighSurrogate(capped.charAt(capped.length() - 1)));
+        assertSame("Soup", RatingShard.capped("Soup"));
+
+        File file = folder.newFile("ratings.journal");
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            journal.appendAdd(rating(capped, capped, 4.0f, 1L));
+        }
+        try (RatingJournal journal = new RatingJournal(file)) {
+            assertEquals(capped, journal.load().get(0).getDishName());
+        }
+    }
+
+    /**
+     * Cold start benchmark: replays a journal of 100k ratings the way RatingViewModel does on startup.
+     */
+    @Test
+    public void coldStart_loads100kRatings() throws IOException {
+        RatingBenchmark.assumeEnabled();
+        File file = folder.newFile("ratings.journal");
+        String[] types = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+        try (RatingJournal journal = new RatingJournal(file)) {
+            journal.load();
+            for (int i = 0; i < 100_000; i++) {
+                journal.appendAdd(rating("Dish number " + (i % 500), types[i % types.length], 1 + i % 5, i));
+            }
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            try (RatingJournal journal = new RatingJournal(file)) {
+                PersistentList<RatingViewModel.DishRating> ratings = PersistentList.copyOf(journal.load());
+                assertEquals(100_000, ratings.size());
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        assertTrue("cold start took " + best / 1_000_000 + " ms", best < COLD_START_BUDGET_MS * 1_000_000L);
+    }
+
+    /**
+     * Replays a log of add, edit, remove and clear events, written with the snapshot policy the
+     * shards use, against the same log replayed in full. The log is long enough for several
+     * snapshots.
+     */
+    @Test
+    public void snapshot_replaysLikeTheFullLog() throws IOException {
+        replayEventLog(4 * RatingJournal.SNAPSHOT_INTERVAL_RECORDS, 1);
+    }
+
+    /**
+     * Cold start benchmark: the snapshot keeps the replay of a 1M event log to the live ratings
+     * plus at most one snapshot interval of tail, and within the cold start budget.
+     */
+    @Test
+    public void coldStart_replays1MEventLogWithinBudget() throws IOException {
+        RatingBenchmark.assumeEnabled();
+        long best = replayEventLog(EVENT_LOG_SIZE, 3);
+        assertTrue("cold start took " + best / 1_000_000 + " ms", best < COLD_START_BUDGET_MS * 1_000_000L);
+    }
+
+    /**
+     * Writes a random event log to a journal compacted the way the shards compact theirs and to
+     * one that is never compacted, then checks that both replay to the same ratings.
+     * @return The fastest of the given number of replays of the compacted journal, in nanoseconds.
+     */
+    private long replayEventLog(int events, int runs) throws IOException {
+        File file = folder.newFile("ratings.journal");
+        File fullFile = folder.newFile("full.journal");
+        String[] types = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+        Random random = new Random(42);
+        List<Long> liveIds = new ArrayList<>();
+        long nextId = 1;
+        try (RatingJournal journal = new RatingJournal(file); RatingJournal full = new RatingJournal(fullFile)) {
+            journal.load();
+            full.load();
+            for (int event = 0; event < events; event++) {
+                RatingJournal.Entry entry;
+                int kind = random.nextInt(100);
+                if (event == events / 2) {
+                    entry = RatingJournal.Entry.clear();
+                    liveIds.clear();
+                } else if (kind < 55 || liveIds.isEmpty()) {
+                    long id = nextId++;
+                    entry = RatingJournal.Entry.add(rating("Dish number " + (id % 500), types[(int) (id % 5)], 1 + id % 5, id));
+                    liveIds.add(id);
+                } else if (kind < 85) {
+                    long id = liveIds.get(random.nextInt(liveIds.size()));
+                    entry = RatingJournal.Entry.edit(rating("Edited dish " + (event % 500), "Main", 1 + event % 5, id));
+                } else {
+                    // Swap with the last id so removal from the live set is O(1)
+                    int position = random.nextInt(liveIds.size());
+                    long id = liveIds.get(position);
+                    liveIds.set(position, liveIds.get(liveIds.size() - 1));
+                    liveIds.remove(liveIds.size() - 1);
+                    entry = RatingJournal.Entry.remove(id);
+                }
+                journal.append(entry);
+                full.append(entry);
+                if (journal.shouldCompact()) {
+                    journal.compact();
+                }
+            }
+        }
+
+        List<RatingViewModel.DishRating> expected;
+        try (RatingJournal journal = new RatingJournal(fullFile)) {
+            expected = journal.load();
+        }
+        long best = Long.MAX_VALUE;
+        int records = 0;
+        List<RatingViewModel.DishRating> ratings = null;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            try (RatingJournal journal = new RatingJournal(file)) {
+                ratings = journal.load();
+                records = journal.getRecordCount();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        Collections.sort(liveIds);
+        assertEquals(liveIds.size(), ratings.size());
+        assertEquals(expected.size(), ratings.size());
+        for (int i = 0; i < ratings.size(); i++) {
+            assertEquals((long) liveIds.get(i), ratings.get(i).getId());
+            assertEquals(expected.get(i).getDishName(), ratings.get(i).getDishName());
+            assertEquals(expected.get(i).getRating(), ratings.get(i).getRating(), 0f);
+        }
+        // The live ratings, one interval of tail, and the record keeping the highest id
+        assertTrue(records + " records", records <= ratings.size() + RatingJournal.SNAPSHOT_INTERVAL_RECORDS + 1);
+        return best;
+    }
+
+    private static RatingViewModel.DishRating rating(String name, String type, float stars, long timestamp) {
+        // The timestamp doubles as the id, which keeps ids unique and increasing in these tests
+        return new RatingViewModel.DishRating(timestamp, name, type, stars, timestamp);
+    }
+
+    private static void assertRating(RatingViewModel.DishRating rating, String name, String type,
+                                     float stars, long timestamp) {
+        assertEquals(name, rating.getDishName());
+        assertEquals(type, rating.getDishType());
+        assertEquals(stars, rating.getRating(), 0.0f);
+        assertEquals(timestamp, rating.getTimestamp());
+        assertEquals(timestamp, rating.getId());
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    private static void writeAll(File file, byte[] bytes, int length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.write(bytes, 0, length);
+        }
+    }
+}
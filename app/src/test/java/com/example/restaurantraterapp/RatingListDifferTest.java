@@ -0,0 +1,125 @@
+package com.example.restaurantraterapp;
+
+import android.os.Looper;
+
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Differs sharing one diff executor: each keeps only its own newest pending diff, and never
+ * drops another differ's. Paged lists are diffed on all their rows, not just the loaded window.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class RatingListDifferTest {
+
+    @Test
+    public void pendingDiffs_coalescePerDiffer() {
+        List<Runnable> queued = new ArrayList<>();
+        AsyncDifferConfig<RatingViewModel.DishRating> config =
+                new AsyncDifferConfig.Builder<>(RatingsAdapter.DIFF_CALLBACK)
+                        .setBackgroundThreadExecutor(queued::add)
+                        .build();
+        CountingCallback firstUpdates = new CountingCallback();
+        CountingCallback secondUpdates = new CountingCallback();
+        RatingListDiffer first = new RatingListDiffer(firstUpdates, config);
+        RatingListDiffer second = new RatingListDiffer(secondUpdates, config);
+
+        // Filling an empty list needs no diff
+        first.submitList(ratings(3));
+        second.submitList(ratings(3));
+        assertTrue(queued.isEmpty());
+
+        first.submitList(ratings(4));
+        first.submitList(ratings(5));
+        second.submitList(ratings(2));
+        assertEquals(2, queued.size());
+
+        for (Runnable task : queued) {
+            task.run();
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(5, first.getCurrentList().size());
+        assertEquals(5, firstUpdates.inserted);
+        assertEquals(2, second.getCurrentList().size());
+        assertEquals(3, secondUpdates.inserted);
+        assertEquals(1, secondUpdates.removed);
+
+        // Once a differ's task has started, its next submission queues a new one
+        queued.clear();
+        first.submitList(ratings(6));
+        assertEquals(1, queued.size());
+        queued.get(0).run();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(6, first.getCurrentList().size());
+    }
+
+    @Test
+    public void pagedLists_areDiffedOnTheirSnapshotRows() {
+        AsyncDifferConfig<RatingViewModel.DishRating> config =
+                new AsyncDifferConfig.Builder<>(RatingsAdapter.DIFF_CALLBACK)
+                        .setBackgroundThreadExecutor(Runnable::run)
+                        .build();
+        CountingCallback updates = new CountingCallback();
+        RatingListDiffer differ = new RatingListDiffer(updates, config);
+        RatingPagedList.Config pages = RatingPagedList.Config.DEFAULT;
+        differ.submitList(new RatingPagedList(new RatingPageSource.Snapshot(ratings(1000)), pages, 0,
+                Runnable::run, Runnable::run));
+        assertEquals(1000, updates.inserted);
+
+        // The new list's window is somewhere else, but only the appended rating differs
+        differ.submitList(new RatingPagedList(new RatingPageSource.Snapshot(ratings(1001)), pages, 900,
+                Runnable::run, Runnable::run));
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(1001, updates.inserted);
+        assertEquals(0, updates.removed);
+        assertEquals(0, updates.changed);
+        assertEquals(1001, differ.getCurrentList().size());
+    }
+
+    private static List<RatingViewModel.DishRating> ratings(int count) {
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            ratings.add(new RatingViewModel.DishRating(id, "Dish " + id, "Main", 3f, 100L));
+        }
+        return ratings;
+    }
+
+    private static final class CountingCallback implements ListUpdateCallback {
+        int inserted;
+        int removed;
+        int changed;
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changed += count;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scrolls RatingPagedList over synthetic stores and checks that the loaded window stays bounded,
+ * and, with -Pbenchmark, that so does the heap it retains over 200k ratings.
+ */
+public class RatingPagedListTest {
+
+    private static final int RATING_COUNT = 200_000;
+    private static final RatingPagedList.Config CONFIG = new RatingPagedList.Config(20, 20, 6);
+
+    @Test
+    public void scrollingForward_keepsLoadedWindowBounded() {
+        ManualExecutor fetch = new ManualExecutor();
+        ManualExecutor notify = new ManualExecutor();
+        RatingPagedList list = new RatingPagedList(new SyntheticSource(10_000), CONFIG, 0, fetch, notify);
+        assertEquals(10_000, list.size());
+
+        assertTrue(scrollForward(list, fetch, notify, 0, 10_000) <= CONFIG.maxPages * CONFIG.pageSize);
+        assertNull(list.get(0));
+    }
+
+    @Test
+    public void scrollingThrough200k_keepsPeakMemoryFlat() {
+        RatingBenchmark.assumeEnabled();
+        ManualExecutor fetch = new ManualExecutor();
+        ManualExecutor notify = new ManualExecutor();
+        RatingPagedList list = new RatingPagedList(new SyntheticSource(RATING_COUNT), CONFIG, 0, fetch, notify);
+
+        long baseline = usedHeapAfterGc();
+        long peak = baseline;
+        int maxLoaded = 0;
+        for (int from = 0; from < RATING_COUNT; from += 25_000) {
+            maxLoaded = Math.max(maxLoaded, scrollForward(list, fetch, notify, from, from + 25_000));
+            peak = Math.max(peak, usedHeapAfterGc());
+        }
+
+        assertTrue(maxLoaded <= CONFIG.maxPages * CONFIG.pageSize);
+        // 200k materialized ratings would retain well over 10 MB
+        assertTrue("heap grew by " + (peak - baseline) / 1024 + " KB", peak - baseline < 2 * 1024 * 1024);
+    }
+
+    @Test
+    public void scrollingBackwards_loadsPagesByKey() {
+        ManualExecutor fetch = new ManualExecutor();
+        ManualExecutor notify = new ManualExecutor();
+        RatingPagedList list = new RatingPagedList(new SyntheticSource(10_000), CONFIG, 9_999, fetch, notify);
+        assertNull(list.get(0));
+
+        for (int position = 9_999; position >= 0; position--) {
+            list.loadAround(position);
+            drain(fetch, notify);
+            assertEquals(SyntheticSource.idAt(position), list.get(position).getId());
+            assertTrue(list.getLoadedCount() <= CONFIG.maxPages * CONFIG.pageSize);
+        }
+        assertNull(list.get(9_999));
+    }
+
+    @Test
+    public void jump_reloadsWindowAndReportsChanges() {
+        ManualExecutor fetch = new ManualExecutor();
+        ManualExecutor notify = new ManualExecutor();
+        RatingPagedList list = new RatingPagedList(new SyntheticSource(RATING_COUNT), CONFIG, 0, fetch, notify);
+        List<int[]> changes = new ArrayList<>();
+        list.setCallback((position, count) -> changes.add(new int[]{position, count}));
+
+        list.loadAround(150_000);
+        // Binding more rows near the target while the jump is in flight does not start another one
+        list.loadAround(150_001);
+        assertEquals(1, fetch.tasks.size());
+        assertNull(list.get(150_000));
+        drain(fetch, notify);
+
+        assertEquals(SyntheticSource.idAt(150_000), list.get(150_000).getId());
+        assertNull(list.get(0));
+        assertEquals(2, changes.size());
+        assertArrayEquals(new int[]{0, 60}, changes.get(0));
+        assertArrayEquals(new int[]{149_980, 60}, changes.get(1));
+    }
+
+    @Test
+    public void snapshot_isFrozen() {
+        ManualExecutor fetch = new ManualExecutor();
+        ManualExecutor notify = new ManualExecutor();
+        RatingPagedList list = new RatingPagedList(new SyntheticSource(1000), CONFIG, 0, fetch, notify);
+        RatingPagedList snapshot = list.snapshot();
+
+        list.loadAround(59);
+        drain(fetch, notify);
+        assertNotNull(list.get(70));
+        assertNull(snapshot.get(70));
+
+        snapshot.loadAround(500);
+        assertTrue(fetch.tasks.isEmpty());
+        // Only a snapshot source has every row at hand for the differ
+        assertNull(list.getSourceRows());
+    }
+
+    @Test
+    public void snapshotSource_pagesByKeyAcrossGaps() {
+        PersistentList<RatingViewModel.DishRating> ratings = RatingColumns.emptyList(new StringDictionary());
+        for (long id = 10; id <= 1000; id += 10) {
+            ratings = ratings.plus(new RatingViewModel.DishRating(id, "Dish " + id, "Main", 3.0f, id));
+        }
+        RatingPageSource source = new RatingPageSource.Snapshot(ratings);
+
+        assertEquals(100, source.count());
+        List<RatingViewModel.DishRating> after = source.loadAfter(55, 3);
+        assertEquals(60, after.get(0).getId());
+        assertEquals(80, after.get(2).getId());
+        List<RatingViewModel.DishRating> before = source.loadBefore(60, 3);
+        assertEquals(3, before.size());
+        assertEquals(30, before.get(0).getId());
+        assertEquals(50, before.get(2).getId());
+        assertEquals(2, source.loadBefore(30, 5).size());
+        assertTrue(source.loadAfter(1000, 5).isEmpty());
+        assertEquals(990, source.loadRange(98, 5).get(0).getId());
+
+        RatingPagedList list = new RatingPagedList(source, CONFIG, 0, Runnable::run, Runnable::run);
+        assertNull(list.get(99));
+        assertSame(ratings, list.getSourceRows());
+        assertSame(ratings, list.snapshot().getSourceRows());
+    }
+
+    // Shows every row from one position up to another, checking each, and returns the most rows
+    // the list held loaded at once
+    private static int scrollForward(RatingPagedList list, ManualExecutor fetch, ManualExecutor notify,
+                                     int from, int to) {
+        int maxLoaded = 0;
+        for (int position = from; position < to; position++) {
+            list.loadAround(position);
+            drain(fetch, notify);
+
+            RatingViewModel.DishRating rating = list.get(position);
+            assertNotNull("row " + position, rating);
+            assertEquals(SyntheticSource.idAt(position), rating.getId());
+            maxLoaded = Math.max(maxLoaded, list.getLoadedCount());
+        }
+        return maxLoaded;
+    }
+
+    // Runs every queued fetch and its result until no work is left
+    private static void drain(ManualExecutor fetch, ManualExecutor notify) {
+        while (!fetch.tasks.isEmpty() || !notify.tasks.isEmpty()) {
+            fetch.runAll();
+            notify.runAll();
+        }
+    }
+
+    private static final class ManualExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    // Creates ratings on demand, so the only ratings kept alive are the ones the paged list holds
+    private static final class SyntheticSource implements RatingPageSource {
+        private final int count;
+
+        SyntheticSource(int count) {
+            this.count = count;
+        }
+
+        // Ids are odd numbers, so keys and positions differ
+        static long idAt(int position) {
+            return 2L * position + 1;
+        }
+
+        private static int positionOf(long id) {
+            return (int) ((id - 1) / 2);
+        }
+
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public List<RatingViewModel.DishRating> loadRange(int position, int size) {
+            List<RatingViewModel.DishRating> page = new ArrayList<>(size);
+            for (int i = position; i < Math.min(count, position + size); i++) {
+                page.add(new RatingViewModel.DishRating(idAt(i), "Dish number " + i, "Main", 1 + i % 5, i));
+            }
+            return page;
+        }
+
+        @Override
+        public List<RatingViewModel.DishRating> loadAfter(long afterId, int size) {
+            return loadRange(positionOf(afterId) + 1, size);
+        }
+
+        @Override
+        public List<RatingViewModel.DishRating> loadBefore(long beforeId, int size) {
+            int end = positionOf(beforeId);
+            int start = Math.max(0, end - size);
+            return loadRange(start, end - start);
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks range queries on the rollups against brute-force scans of the same ratings, and the
+ * weekly series, trend and downsampling built on top of them.
+ */
+public class RatingRollupsTest {
+
+    private static final String[] DISH_TYPES = {"Starter", "Main", "Dessert"};
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    // Monday 2024-01-01 00:00 UTC
+    private static final long MONDAY = 1_704_067_200_000L;
+
+    @Test
+    public void randomOperations_matchBruteForceRanges() {
+        Random random = new Random(11);
+        RatingRollups rollups = new RatingRollups(TimeZone.getTimeZone("Europe/Berlin"));
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+
+        for (int step = 0; step < 5_000; step++) {
+            if (random.nextInt(100) < 75 || ratings.isEmpty()) {
+                RatingViewModel.DishRating rating = new RatingViewModel.DishRating(step,
+                        "Dish " + random.nextInt(20), DISH_TYPES[random.nextInt(DISH_TYPES.length)],
+                        random.nextInt(11) / 2f, MONDAY + (long) (random.nextDouble() * 60 * RatingRollups.DAY_MS));
+                ratings.add(rating);
+                rollups.add(rating);
+            } else {
+                rollups.remove(ratings.remove(random.nextInt(ratings.size())));
+            }
+        }
+
+        TimeZone berlin = TimeZone.getTimeZone("Europe/Berlin");
+        for (int query = 0; query < 200; query++) {
+            // Whole local days, so the brute force needs no rounding
+            long fromDay = random.nextInt(60);
+            long toDay = fromDay + 1 + random.nextInt(20);
+            long from = localMidnight(berlin, fromDay);
+            long to = localMidnight(berlin, toDay);
+            String dishType = random.nextBoolean() ? DISH_TYPES[random.nextInt(DISH_TYPES.length)] : null;
+            String dishName = dishType == null && random.nextBoolean() ? "dish  " + random.nextInt(20) : null;
+
+            RatingAggregates.Stats stats =
+                    rollups.getStats(RatingRollups.Granularity.DAY, dishType, dishName, from, to);
+            assertStats(bruteForce(ratings, dishType, dishName, from, to), stats);
+            assertEquals(stats.getCount(),
+                    rollups.getStats(RatingRollups.Granularity.HOUR, dishType, dishName, from, to).getCount());
+        }
+    }
+
+    @Test
+    public void weeklySeries_mergesDaysFromMonday() {
+        RatingRollups rollups = new RatingRollups(UTC);
+        rollups.add(rating(1, "Soup", 5f, MONDAY - RatingRollups.DAY_MS));
+        rollups.add(rating(2, "Soup", 4f, MONDAY));
+        rollups.add(rating(3, "Soup", 2f, MONDAY + 6 * RatingRollups.DAY_MS + 1));
+        rollups.add(rating(4, "Soup", 1f, MONDAY + 7 * RatingRollups.DAY_MS));
+
+        List<RatingRollups.Point> weeks = rollups.getSeries(RatingRollups.Granularity.WEEK, null, "soup",
+                MONDAY, MONDAY + 14 * RatingRollups.DAY_MS);
+
+        assertEquals(2, weeks.size());
+        assertEquals(MONDAY, weeks.get(0).getStartMillis());
+        assertEquals(2, weeks.get(0).getStats().getCount());
+        assertEquals(3f, weeks.get(0).getStats().getAverage(), 0f);
+        assertEquals(MONDAY + 7 * RatingRollups.DAY_MS, weeks.get(1).getStartMillis());
+        assertEquals(1f, weeks.get(1).getStats().getMin(), 0f);
+    }
+
+    @Test
+    public void trend_isNegativeForADishGettingWorse() {
+        RatingRollups rollups = new RatingRollups(UTC);
+        for (int day = 0; day < 10; day++) {
+            rollups.add(rating(2 * day, "Soup", 5f - day * 0.5f, MONDAY + day * RatingRollups.DAY_MS));
+            rollups.add(rating(2 * day + 1, "Salad", 3f, MONDAY + day * RatingRollups.DAY_MS));
+        }
+        long end = MONDAY + 10 * RatingRollups.DAY_MS;
+
+        assertEquals(-0.5f, rollups.getTrend(RatingRollups.Granularity.DAY, null, "Soup", MONDAY, end), 1e-4f);
+        assertEquals(0f, rollups.getTrend(RatingRollups.Granularity.DAY, null, "Salad", MONDAY, end), 1e-4f);
+        assertEquals(0f, rollups.getTrend(RatingRollups.Granularity.DAY, null, "Pie", MONDAY, end), 0f);
+    }
+
+    @Test
+    public void downsample_dropsOldHoursButKeepsDays() {
+        RatingRollups rollups = new RatingRollups(UTC);
+        RatingViewModel.DishRating old = rating(1, "Soup", 4f, MONDAY + 3 * RatingRollups.HOUR_MS);
+        rollups.add(old);
+        rollups.add(rating(2, "Soup", 2f, MONDAY + 30 * RatingRollups.DAY_MS));
+
+        rollups.downsample(MONDAY + 30 * RatingRollups.DAY_MS);
+        long dayEnd = MONDAY + RatingRollups.DAY_MS;
+        assertEquals(0, rollups.getStats(RatingRollups.Granularity.HOUR, null, null, MONDAY, dayEnd).getCount());
+        assertEquals(1, rollups.getStats(RatingRollups.Granularity.DAY, null, null, MONDAY, dayEnd).getCount());
+
+        // A late import or removal of a downsampled rating only touches its day
+        rollups.add(rating(3, "Soup", 5f, MONDAY + 4 * RatingRollups.HOUR_MS));
+        rollups.remove(old);
+        RatingAggregates.Stats day = rollups.getStats(RatingRollups.Granularity.DAY, null, null, MONDAY, dayEnd);
+        assertEquals(1, day.getCount());
+        assertEquals(5f, day.getAverage(), 0f);
+        assertEquals(0, rollups.getStats(RatingRollups.Granularity.HOUR, null, null, MONDAY, dayEnd).getCount());
+    }
+
+    private static RatingViewModel.DishRating rating(long id, String dishName, float value, long timestamp) {
+        return new RatingViewModel.DishRating(id, dishName, "Main", value, timestamp);
+    }
+
+    private static long localMidnight(TimeZone zone, long dayAfterMonday) {
+        long utcMidnight = MONDAY + dayAfterMonday * RatingRollups.DAY_MS;
+        return utcMidnight - zone.getOffset(utcMidnight);
+    }
+
+    private static RatingAggregates bruteForce(List<RatingViewModel.DishRating> ratings, String dishType,
+                                               String dishName, long from, long to) {
+        RatingAggregates expected = new RatingAggregates();
+        for (RatingViewModel.DishRating rating : ratings) {
+            boolean inRange = rating.getTimestamp() >= from && rating.getTimestamp() < to;
+            boolean matches = dishName != null ? DishLeaderboard.keyOf(rating.getDishName()).equals(DishLeaderboard.keyOf(dishName))
+                    : dishType == null || dishType.equals(rating.getDishType());
+            if (inRange && matches) {
+                expected.add(rating);
+            }
+        }
+        return expected;
+    }
+
+    private static void assertStats(RatingAggregates expected, RatingAggregates.Stats actual) {
+        RatingAggregates.Stats stats = expected.snapshot().getOverall();
+        assertEquals(stats.getCount(), actual.getCount());
+        assertEquals(stats.getSum(), actual.getSum(), 1e-6);
+        assertEquals(stats.getMin(), actual.getMin(), 0f);
+        assertEquals(stats.getMax(), actual.getMax(), 0f);
+        for (int stars = 1; stars <= RatingAggregates.STAR_BUCKETS; stars++) {
+            assertEquals(stats.getStarCount(stars), actual.getStarCount(stars));
+        }
+    }
+}
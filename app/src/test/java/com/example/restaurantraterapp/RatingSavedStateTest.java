@@ -0,0 +1,231 @@
+package com.example.restaurantraterapp;
+
+import android.app.Application;
+import android.os.Bundle;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+import androidx.lifecycle.SavedStateHandle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Simulates process death: the ViewModel's saved state is taken, the ViewModel is dropped
+ * without flushing its journals, and a new one is created from the saved state alone. With a
+ * journal, the saved state only carries what the journal has not committed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class RatingSavedStateTest {
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void processDeath_restoresRestaurantAndUnjournaledRatings() throws Exception {
+        File cache = folder.newFolder();
+        Restaurant second = Restaurant.ALL.get(1);
+        SavedStateHandle handle = new SavedStateHandle();
+        RatingViewModel viewModel = create(handle, cache);
+        viewModel.selectRestaurant(second.getId());
+        awaitRestaurant(viewModel, second);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.submitRating("Stew", "Main", 2.5f);
+        viewModel.removeRating(0);
+        viewModel.submitRating("Cake", "Dessert", 5f);
+
+        // In memory only, like ratings still queued for the journal when the process is killed
+        RatingViewModel restored = create(save(handle), cache);
+        assertEquals(second, restored.getCurrentRestaurant().getValue());
+        List<RatingViewModel.DishRating> ratings = restored.getRatingsList().getValue();
+        assertEquals(2, ratings.size());
+        assertEquals("Stew", ratings.get(0).getDishName());
+        assertEquals(2.5f, ratings.get(0).getRating(), 0f);
+        assertEquals(3, ratings.get(1).getId());
+        assertEquals(3.75f, restored.getAverageRating(), 0f);
+
+        // New ratings continue after the restored ids
+        restored.submitRating("Tea", "Beverage", 3f);
+        assertEquals(4, restored.getRatingsList().getValue().get(2).getId());
+    }
+
+    @Test
+    public void largeSnapshot_spillsToCacheFile() throws Exception {
+        File cache = folder.newFolder();
+        SavedStateHandle handle = new SavedStateHandle();
+        RatingViewModel viewModel = create(handle, cache);
+        List<RatingViewModel.DishRating> batch = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            batch.add(new RatingViewModel.DishRating(0, "Dish number " + i, "Main", 1 + i % 5, i * 1000L));
+        }
+        viewModel.submitRatings(batch);
+
+        SavedStateHandle saved = save(handle);
+        Bundle snapshot = saved.get("ratings_snapshot");
+        assertNull(snapshot.getByteArray("ratings"));
+        // The spill is written on the transfer thread
+        File spill = new File(cache, RatingViewModel.SNAPSHOT_FILE_NAME);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!spill.exists()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+
+        RatingViewModel restored = create(saved, cache);
+        assertEquals(50_000, restored.getRatingsCount());
+        assertEquals("Dish number 49999", restored.getRatingsList().getValue().get(49_999).getDishName());
+    }
+
+    @Test
+    public void snapshot_onlyHoldsRatingsTheJournalHasNotCommitted() throws Exception {
+        File journals = folder.newFolder();
+        File cache = folder.newFolder();
+        SavedStateHandle handle = new SavedStateHandle();
+        RatingViewModel viewModel = create(handle, journals, cache);
+        List<RatingViewModel.DishRating> batch = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            batch.add(new RatingViewModel.DishRating(0, "Dish number " + i, "Main", 1 + i % 5, i * 1000L));
+        }
+        viewModel.submitRatings(batch);
+
+        // Once the writer has caught up, saving the state encodes none of the 50k ratings.
+        // Until then the snapshot is too large for the saved state and spills.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        byte[] saved;
+        while ((saved = savedRatings(handle)) == null || !RatingSnapshot.decode(saved).isEmpty()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+
+        viewModel.submitRating("Tea", "Beverage", 3f);
+        SavedStateHandle state = save(handle);
+        List<RatingViewModel.DishRating> unjournaled = RatingSnapshot.decode(
+                state.<Bundle>get("ratings_snapshot").getByteArray("ratings"));
+        // Unless the writer was quick enough to commit it already
+        assertTrue(unjournaled.size() <= 1);
+        if (!unjournaled.isEmpty()) {
+            assertEquals("Tea", unjournaled.get(0).getDishName());
+        }
+        viewModel.onCleared();
+
+        RatingViewModel restored = create(state, journals, cache);
+        assertEquals(50_001, restored.getRatingsCount());
+        assertEquals("Tea", restored.getRatingsList().getValue().get(50_000).getDishName());
+        restored.onCleared();
+    }
+
+    @Test
+    public void processDeath_keepsQueuedRemovalsAndEdits() throws Exception {
+        File journals = folder.newFolder();
+        File cache = folder.newFolder();
+        SavedStateHandle handle = new SavedStateHandle();
+        RatingViewModel viewModel = create(handle, journals, cache);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.submitRating("Stew", "Main", 2.5f);
+        viewModel.submitRating("Cake", "Dessert", 5f);
+        awaitJournaled(handle);
+
+        viewModel.removeRating(0);
+        viewModel.editRating(2, "Beef stew", "Main", 4.5f);
+        viewModel.submitRating("Tea", "Beverage", 3f);
+        RatingViewModel restored = restartAfterDeath(viewModel, handle, journals, cache);
+
+        List<RatingViewModel.DishRating> ratings = restored.getRatingsList().getValue();
+        assertEquals(3, ratings.size());
+        assertEquals("Beef stew", ratings.get(0).getDishName());
+        assertEquals(4.5f, ratings.get(0).getRating(), 0f);
+        assertEquals(3, ratings.get(1).getId());
+        assertEquals("Tea", ratings.get(2).getDishName());
+        restored.onCleared();
+    }
+
+    @Test
+    public void processDeath_keepsQueuedClearButNotRatingsAddedAfterIt() throws Exception {
+        File journals = folder.newFolder();
+        File cache = folder.newFolder();
+        SavedStateHandle handle = new SavedStateHandle();
+        RatingViewModel viewModel = create(handle, journals, cache);
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.submitRating("Stew", "Main", 2.5f);
+        awaitJournaled(handle);
+
+        viewModel.clearAllRatings();
+        viewModel.submitRating("Tea", "Beverage", 3f);
+        RatingViewModel restored = restartAfterDeath(viewModel, handle, journals, cache);
+
+        List<RatingViewModel.DishRating> ratings = restored.getRatingsList().getValue();
+        assertEquals(1, ratings.size());
+        assertEquals("Tea", ratings.get(0).getDishName());
+        assertEquals(3, ratings.get(0).getId());
+        restored.onCleared();
+    }
+
+    // Waits until the journal has committed every rating, so the saved state holds none of them
+    private static void awaitJournaled(SavedStateHandle handle) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        byte[] saved;
+        while ((saved = savedRatings(handle)) == null || !RatingSnapshot.decode(saved).isEmpty()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // Saves the state and restarts from a copy of the journals taken right after, as if the process
+    // died then. Whatever the writer had not committed by the save is only in the saved state;
+    // what it committed after the save may be in both, and must not be applied twice.
+    private RatingViewModel restartAfterDeath(RatingViewModel viewModel, SavedStateHandle handle, File journals,
+                                              File cache) throws IOException {
+        SavedStateHandle state = save(handle);
+        File atDeath = folder.newFolder();
+        File[] files = journals.listFiles();
+        for (File file : files) {
+            Files.copy(file.toPath(), new File(atDeath, file.getName()).toPath());
+        }
+        viewModel.onCleared();
+        return create(state, atDeath, cache);
+    }
+
+    private static byte[] savedRatings(SavedStateHandle handle) {
+        Bundle snapshot = save(handle).get("ratings_snapshot");
+        return snapshot.getByteArray("ratings");
+    }
+
+    private static RatingViewModel create(SavedStateHandle handle, File journalDir, File cache) {
+        return new RatingViewModel(new Application(), journalDir, Runnable::run, null,
+                RatingSyncEngine.Config.DEFAULT, handle, new File(cache, RatingViewModel.SNAPSHOT_FILE_NAME));
+    }
+
+    private static RatingViewModel create(SavedStateHandle handle, File cache) {
+        return new RatingViewModel(new Application(), null, Runnable::run, null,
+                RatingSyncEngine.Config.DEFAULT, handle, new File(cache, RatingViewModel.SNAPSHOT_FILE_NAME));
+    }
+
+    private static void awaitRestaurant(RatingViewModel viewModel, Restaurant restaurant) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (viewModel.getCurrentRestaurant().getValue() != restaurant) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // What the activity saves, handed to the ViewModel of the restarted process
+    private static SavedStateHandle save(SavedStateHandle handle) {
+        return SavedStateHandle.createHandle(handle.savedStateProvider().saveState(), null);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks RatingSearchIndex against a brute-force scan, and with -Pbenchmark measures query latency
+ * over 100k ratings.
+ */
+public class RatingSearchIndexTest {
+
+    private static final String[] DISH_TYPES = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+    private static final String[] WORDS = {"chicken", "chili", "chocolate", "cake", "crème", "brûlée",
+            "soup", "salad", "steak", "spicy", "sweet", "tea", "tart", "lemon", "garlic", "bread"};
+
+    @Test
+    public void prefixSearch_ignoresCaseAndAccents() {
+        RatingSearchIndex index = new RatingSearchIndex();
+        index.add(rating(1, "Crème Brûlée", "Dessert"));
+        index.add(rating(2, "Chicken Curry", "Main"));
+        index.add(rating(3, "Hot Chocolate", "Beverage"));
+
+        assertArrayEquals(new long[]{1}, index.search("creme", null, 10));
+        assertArrayEquals(new long[]{1}, index.search("  BRU ", null, 10));
+        assertArrayEquals(new long[]{2, 3}, index.search("ch", null, 10));
+        assertArrayEquals(new long[]{3}, index.search("ch", "Beverage", 10));
+        assertArrayEquals(new long[]{2}, index.search("cu ch", null, 10));
+        assertArrayEquals(new long[0], index.search("curry cake", null, 10));
+        assertArrayEquals(new long[0], index.search("", null, 10));
+        assertArrayEquals(new long[]{2}, index.search("", "Main", 10));
+    }
+
+    @Test
+    public void remove_dropsRatingAndEmptyWords() {
+        RatingSearchIndex index = new RatingSearchIndex();
+        index.add(rating(1, "Soup soup", "Starter"));
+        index.add(rating(2, "Salad", "Starter"));
+        index.remove(rating(1, "Soup soup", "Starter"));
+
+        assertArrayEquals(new long[0], index.search("so", null, 10));
+        assertArrayEquals(new long[]{2}, index.search("", "Starter", 10));
+        assertEquals(1, index.getWordCount());
+    }
+
+    @Test
+    public void limit_keepsNewestMatches() {
+        RatingSearchIndex index = new RatingSearchIndex();
+        for (long id = 1; id <= 100; id++) {
+            index.add(rating(id, "Tea " + id, "Beverage"));
+        }
+        assertArrayEquals(new long[]{98, 99, 100}, index.search("tea", null, 3));
+    }
+
+    @Test
+    public void randomOperations_matchBruteForceScan() {
+        Random random = new Random(9);
+        RatingSearchIndex index = new RatingSearchIndex();
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+        long nextId = 1;
+
+        for (int step = 0; step < 5_000; step++) {
+            if (random.nextInt(4) > 0 || ratings.isEmpty()) {
+                RatingViewModel.DishRating rating = rating(nextId++, randomName(random),
+                        DISH_TYPES[random.nextInt(DISH_TYPES.length)]);
+                ratings.add(rating);
+                index.add(rating);
+            } else {
+                index.remove(ratings.remove(random.nextInt(ratings.size())));
+            }
+
+            if (step % 100 == 0) {
+                String query = WORDS[random.nextInt(WORDS.length)].substring(0, 1 + random.nextInt(3));
+                if (random.nextBoolean()) {
+                    query += " " + WORDS[random.nextInt(WORDS.length)].substring(0, 2);
+                }
+                String dishType = random.nextBoolean() ? DISH_TYPES[random.nextInt(DISH_TYPES.length)] : null;
+                assertArrayEquals(query + " / " + dishType, bruteForce(ratings, query, dishType),
+                        index.search(query, dishType, Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    @Test
+    public void removeAll_matchesRemovingOneByOne() {
+        Random random = new Random(21);
+        RatingSearchIndex bulk = new RatingSearchIndex();
+        RatingSearchIndex single = new RatingSearchIndex();
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+        for (long id = 1; id <= 3_000; id++) {
+            RatingViewModel.DishRating rating = rating(id, randomName(random),
+                    DISH_TYPES[random.nextInt(DISH_TYPES.length)]);
+            ratings.add(rating);
+            bulk.add(rating);
+            single.add(rating);
+        }
+        // Every rating of one type goes, so that type's posting list is dropped
+        ratings.add(rating(3_001, "Lonely scone", "Pastry"));
+        bulk.add(ratings.get(3_000));
+        single.add(ratings.get(3_000));
+
+        List<RatingViewModel.DishRating> removed = new ArrayList<>();
+        List<RatingViewModel.DishRating> kept = new ArrayList<>();
+        for (RatingViewModel.DishRating rating : ratings) {
+            (random.nextInt(3) == 0 || rating.getId() == 3_001 ? removed : kept).add(rating);
+        }
+        bulk.removeAll(removed);
+        for (RatingViewModel.DishRating rating : removed) {
+            single.remove(rating);
+        }
+
+        assertEquals(single.getWordCount(), bulk.getWordCount());
+        assertArrayEquals(new long[0], bulk.search("", "Pastry", Integer.MAX_VALUE));
+        assertArrayEquals(new long[0], bulk.search("lonely", null, Integer.MAX_VALUE));
+        for (String word : WORDS) {
+            for (String dishType : DISH_TYPES) {
+                String query = word.substring(0, 2);
+                assertArrayEquals(query, bruteForce(kept, query, dishType), bulk.search(query, dishType, Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    /**
+     * Latency benchmark: typical search-box queries over 100k indexed ratings. A wall-clock
+     * budget, so it only runs with -Pbenchmark.
+     */
+    @Test
+    public void queryLatency_over100kRatings() {
+        RatingBenchmark.assumeEnabled();
+        Random random = new Random(3);
+        RatingSearchIndex index = new RatingSearchIndex();
+        for (long id = 1; id <= 100_000; id++) {
+            index.add(rating(id, randomName(random) + " " + id % 2000, DISH_TYPES[(int) (id % DISH_TYPES.length)]));
+        }
+        String[] queries = {"cho", "chi", "tart lem", "sp st", "gar", "crè", "bread 17", "sweet tea"};
+
+        // Warm up, then keep the best of several rounds per query
+        for (int i = 0; i < 200; i++) {
+            index.search(queries[i % queries.length], null, RatingSearch.MAX_RESULTS);
+        }
+        long worst = 0;
+        String slowest = null;
+        for (String query : queries) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 20; run++) {
+                long start = System.nanoTime();
+                index.search(query, null, RatingSearch.MAX_RESULTS);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (best > worst) {
+                worst = best;
+                slowest = query;
+            }
+        }
+        assertTrue("\"" + slowest + "\" took " + worst / 1e6 + " ms", worst < 5_000_000);
+    }
+
+    private static long[] bruteForce(List<RatingViewModel.DishRating> ratings, String query, String dishType) {
+        List<String> prefixes = RatingSearchIndex.tokenize(query);
+        List<Long> ids = new ArrayList<>();
+        for (RatingViewModel.DishRating rating : ratings) {
+            if (dishType != null && !dishType.equals(rating.getDishType())) {
+                continue;
+            }
+            List<String> words = RatingSearchIndex.tokenize(rating.getDishName());
+            boolean all = true;
+            for (String prefix : prefixes) {
+                boolean any = false;
+                for (String word : words) {
+                    any |= word.startsWith(prefix);
+                }
+                all &= any;
+            }
+            if (all) {
+                ids.add(rating.getId());
+            }
+        }
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static String randomName(Random random) {
+        int words = 1 + random.nextInt(3);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                name.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            name.append(random.nextBoolean() ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        }
+        return name.toString();
+    }
+
+    private static RatingViewModel.DishRating rating(long id, String name, String type) {
+        return new RatingViewModel.DishRating(id, name, type, 4.0f, id);
+    }
+}
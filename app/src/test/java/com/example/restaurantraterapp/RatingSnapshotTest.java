@@ -0,0 +1,152 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips of the saved-state snapshot, and its size on a realistic list.
+ */
+public class RatingSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip_keepsEveryField() throws IOException {
+        List<RatingViewModel.DishRating> ratings = Arrays.asList(
+                new RatingViewModel.DishRating(1, "Soup", "Starter", 4f, 1_700_000_000_000L),
+                new RatingViewModel.DishRating(2, "Soup", "Starter", 4.5f, 1_699_999_000_000L),
+                new RatingViewModel.DishRating(7, "Crème brûlée 🍮", "Dessert", 3.7f, 1_700_000_500_000L),
+                new RatingViewModel.DishRating(9, "", "Main", 3.75f, -5L),
+                new RatingViewModel.DishRating(1L << 40, "Odd", "Main", Float.NaN, Long.MAX_VALUE));
+
+        List<RatingViewModel.DishRating> decoded = RatingSnapshot.decode(RatingSnapshot.encode(ratings));
+
+        assertEquals(ratings.size(), decoded.size());
+        for (int i = 0; i < ratings.size(); i++) {
+            RatingViewModel.DishRating expected = ratings.get(i);
+            RatingViewModel.DishRating actual = decoded.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getDishName(), actual.getDishName());
+            assertEquals(expected.getDishType(), actual.getDishType());
+            assertEquals(Float.floatToIntBits(expected.getRating()), Float.floatToIntBits(actual.getRating()));
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        }
+        assertTrue(RatingSnapshot.decode(RatingSnapshot.encode(
+                Collections.<RatingViewModel.DishRating>emptyList())).isEmpty());
+    }
+
+    @Test
+    public void queuedChanges_roundTripAfterTheRatings() throws IOException {
+        List<RatingJournal.Entry> changes = Arrays.asList(
+                RatingJournal.Entry.remove(2),
+                RatingJournal.Entry.edit(new RatingViewModel.DishRating(1, "Soup", "Starter", 2.5f, 1_700_000_000_000L)),
+                RatingJournal.Entry.clear(9),
+                RatingJournal.Entry.edit(new RatingViewModel.DishRating(12, "Tea", "Beverage", 3.7f, 5L)));
+
+        RatingSnapshot.Contents contents = RatingSnapshot.decodeContents(RatingSnapshot.encode(ratings(3), changes));
+
+        assertEquals(3, contents.ratings.size());
+        assertEquals(changes.size(), contents.changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            RatingJournal.Entry expected = changes.get(i);
+            RatingJournal.Entry actual = contents.changes.get(i);
+            assertEquals(expected.op, actual.op);
+            assertEquals(expected.id, actual.id);
+            if (expected.rating != null) {
+                assertEquals(expected.rating.getDishName(), actual.rating.getDishName());
+                assertEquals(expected.rating.getDishType(), actual.rating.getDishType());
+                assertEquals(expected.rating.getRating(), actual.rating.getRating(), 0f);
+                assertEquals(expected.rating.getTimestamp(), actual.rating.getTimestamp());
+            }
+        }
+
+        // A version 1 snapshot, saved before changes were kept, is the same without the change count
+        byte[] current = RatingSnapshot.encode(ratings(3));
+        byte[] first = Arrays.copyOf(current, current.length - 1);
+        first[0] = 1;
+        RatingSnapshot.Contents old = RatingSnapshot.decodeContents(first);
+        assertEquals(3, old.ratings.size());
+        assertTrue(old.changes.isEmpty());
+    }
+
+    @Test
+    public void truncatedOrCorrupt_isRejected() {
+        byte[] data = RatingSnapshot.encode(ratings(200));
+        for (int length = 0; length < data.length; length++) {
+            try {
+                RatingSnapshot.decode(Arrays.copyOf(data, length));
+                fail("decoded " + length + " of " + data.length + " bytes");
+            } catch (IOException expected) {
+                // Expected
+            }
+        }
+        byte[] longer = Arrays.copyOf(data, data.length + 1);
+        try {
+            RatingSnapshot.decode(longer);
+            fail("decoded trailing bytes");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void spillFile_onlyReadBackWithMatchingChecksum() throws IOException {
+        File file = new File(folder.getRoot(), RatingViewModel.SNAPSHOT_FILE_NAME);
+        byte[] first = RatingSnapshot.encode(ratings(10));
+        byte[] second = RatingSnapshot.encode(ratings(20));
+        RatingSnapshot.writeFile(file, first);
+        assertArrayEquals(first, RatingSnapshot.readFile(file, RatingSnapshot.checksum(first)));
+
+        RatingSnapshot.writeFile(file, second);
+        try {
+            RatingSnapshot.readFile(file, RatingSnapshot.checksum(first));
+            fail("read a later snapshot as the saved one");
+        } catch (IOException expected) {
+            // Expected
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    /**
+     * Size of 10k ratings, against what a Parcelable list would need: at least the two strings as
+     * UTF-16 plus the numbers, about 70 bytes a rating here.
+     */
+    @Test
+    public void encode10k_isCompact() throws IOException {
+        List<RatingViewModel.DishRating> ratings = ratings(10_000);
+        byte[] data = RatingSnapshot.encode(ratings);
+        assertTrue("snapshot of " + data.length + " bytes", data.length < ratings.size() * 10);
+
+        List<RatingViewModel.DishRating> decoded = RatingSnapshot.decode(data);
+        assertEquals(ratings.size(), decoded.size());
+        for (int i = 0; i < ratings.size(); i++) {
+            assertEquals(ratings.get(i).getId(), decoded.get(i).getId());
+            assertEquals(ratings.get(i).getDishName(), decoded.get(i).getDishName());
+            assertEquals(ratings.get(i).getTimestamp(), decoded.get(i).getTimestamp());
+        }
+    }
+
+    private static List<RatingViewModel.DishRating> ratings(int count) {
+        String[] types = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>(count);
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 1; i <= count; i++) {
+            // A rating every few minutes, with a few ids skipped by removals
+            timestamp += 60_000 + (i * 7919L) % 600_000;
+            ratings.add(new RatingViewModel.DishRating(i + i / 10, "Dish number " + (i % 500),
+                    types[i % types.length], 1 + i % 5, timestamp));
+        }
+        return ratings;
+    }
+}
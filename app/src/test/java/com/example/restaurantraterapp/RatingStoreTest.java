@@ -0,0 +1,163 @@
+package com.example.restaurantraterapp;
+
+import android.app.Application;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that restaurants load lazily into their own shards, that the shard cache stays within its
+ * limits, and that the chain-wide summary combines every restaurant's totals.
+ */
+public class RatingStoreTest {
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Stands in for the main looper: background results queue up until the test runs them
+    private final BlockingQueue<Runnable> mainQueue = new LinkedBlockingQueue<>();
+    private final Executor mainExecutor = mainQueue::add;
+
+    @Test
+    public void restaurants_keepSeparateRatingsAcrossRestarts() throws Exception {
+        File dir = folder.newFolder();
+        RatingViewModel viewModel = new RatingViewModel(new Application(), dir, mainExecutor);
+        assertEquals(Restaurant.ALL.get(0), viewModel.getCurrentRestaurant().getValue());
+        viewModel.submitRating("Soup", "Starter", 4f);
+
+        selectAndWait(viewModel, Restaurant.ALL.get(1));
+        assertEquals(0, viewModel.getRatingsCount());
+        viewModel.submitRating("Stew", "Main", 2f);
+        viewModel.submitRating("Cake", "Dessert", 5f);
+        assertEquals(3, viewModel.getChainSummary().getValue().getOverall().getCount());
+        viewModel.onCleared();
+
+        assertTrue(new File(dir, RatingViewModel.JOURNAL_FILE_NAME).exists());
+        viewModel = new RatingViewModel(new Application(), dir, mainExecutor);
+        assertEquals(1, viewModel.getRatingsCount());
+        assertEquals("Soup", viewModel.getRatingsList().getValue().get(0).getDishName());
+        selectAndWait(viewModel, Restaurant.ALL.get(1));
+        assertEquals(2, viewModel.getRatingsCount());
+        assertEquals(3.5f, viewModel.getAverageRating(), 0f);
+        viewModel.onCleared();
+    }
+
+    @Test
+    public void load_isLazyAndShared() throws Exception {
+        RatingStore store = new RatingStore(folder.newFolder(), 4, 1000, mainExecutor, null, null);
+        Restaurant restaurant = Restaurant.ALL.get(2);
+        RatingShard[] loaded = new RatingShard[2];
+
+        store.load(restaurant, shard -> loaded[0] = shard);
+        store.load(restaurant, shard -> loaded[1] = shard);
+        assertNull(store.getIfLoaded(restaurant.getId()));
+        runMainQueue();
+
+        assertNotNull(loaded[0]);
+        assertSame(loaded[0], loaded[1]);
+        assertSame(loaded[0], store.getIfLoaded(restaurant.getId()));
+        store.close();
+    }
+
+    @Test
+    public void trim_evictsLeastRecentlyUsedBeyondShardCount() throws Exception {
+        RatingStore store = new RatingStore(null, 2, 1000, mainExecutor, null, null);
+        RatingShard first = store.loadNow(Restaurant.ALL.get(0));
+        RatingShard second = store.loadNow(Restaurant.ALL.get(1));
+        store.getIfLoaded(first.getRestaurant().getId());
+        RatingShard third = store.loadNow(Restaurant.ALL.get(2));
+
+        store.trim(third);
+
+        assertEquals(Arrays.asList(1L, 3L), store.getCachedRestaurantIds());
+        assertNull(store.getIfLoaded(second.getRestaurant().getId()));
+        store.close();
+    }
+
+    @Test
+    public void trim_evictsBeyondRatingsBudgetButKeepsShardInUse() {
+        RatingStore store = new RatingStore(null, 5, 100, mainExecutor, null, null);
+        RatingShard first = store.loadNow(Restaurant.ALL.get(0));
+        RatingShard second = store.loadNow(Restaurant.ALL.get(1));
+        RatingShard third = store.loadNow(Restaurant.ALL.get(2));
+        fill(first, 80);
+        fill(second, 80);
+        fill(third, 500);
+
+        store.trim(third);
+
+        // The shard in use may be over budget on its own; only the others count
+        assertEquals(Arrays.asList(2L, 3L), store.getCachedRestaurantIds());
+        store.close();
+    }
+
+    @Test
+    public void summarizeAll_readsJournalsWithoutCaching() throws Exception {
+        File dir = folder.newFolder();
+        for (int i = 0; i < 3; i++) {
+            RatingShard shard = RatingShard.load(Restaurant.ALL.get(i), dir, null, null);
+            fill(shard, 10 * (i + 1));
+            shard.close();
+        }
+        RatingStore store = new RatingStore(dir, 2, 1000, mainExecutor, null, null);
+        RatingShard shown = store.loadNow(Restaurant.ALL.get(0));
+        shown.add("Soup", "Starter", 1f);
+        store.updateSummary(shown.getRestaurant().getId(), shown.getAggregates().snapshot());
+        boolean[] done = {false};
+
+        store.summarizeAll(Restaurant.ALL, () -> done[0] = true);
+        while (!done[0]) {
+            runNext();
+        }
+
+        RatingAggregates.Snapshot chain = store.chainSummary();
+        assertEquals(11 + 20 + 30, chain.getOverall().getCount());
+        assertEquals(1f, chain.getOverall().getMin(), 0f);
+        assertEquals(Collections.singletonList(1L), store.getCachedRestaurantIds());
+        store.close();
+    }
+
+    private void selectAndWait(RatingViewModel viewModel, Restaurant restaurant) throws InterruptedException {
+        viewModel.selectRestaurant(restaurant.getId());
+        while (viewModel.getCurrentRestaurant().getValue() != restaurant) {
+            runNext();
+        }
+    }
+
+    private void runMainQueue() throws InterruptedException {
+        runNext();
+        Runnable task;
+        while ((task = mainQueue.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void runNext() throws InterruptedException {
+        Runnable task = mainQueue.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for the store", task);
+        task.run();
+    }
+
+    private static void fill(RatingShard shard, int count) {
+        for (int i = 0; i < count; i++) {
+            shard.add("Dish " + i, "Main", 2 + i % 3);
+        }
+    }
+}
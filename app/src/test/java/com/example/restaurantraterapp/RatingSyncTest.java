@@ -0,0 +1,566 @@
+package com.example.restaurantraterapp;
+
+import android.app.Application;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Syncs against an in-process stub server that applies batches the way the backend does, with
+ * injected failures and lost responses, to check batching, retries, restarts and that replayed
+ * batches converge.
+ */
+public class RatingSyncTest {
+
+    // Short delays so retries happen within the test
+    private static final RatingSyncEngine.Config FAST = new RatingSyncEngine.Config(500, 256 * 1024, 0, 1, 20);
+
+    private static final long RESTAURANT = 1;
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // What the engine logged, in place of logcat
+    private final List<String> warnings = Collections.synchronizedList(new ArrayList<String>());
+    private final RatingSyncEngine.Logger log = (message, error) -> warnings.add(message);
+
+    @Test
+    public void upload_10kRatingsInBoundedCompressedBatches() throws Exception {
+        StubServer server = new StubServer();
+        List<RatingViewModel.DishRating> ratings = ratings(1, 10_000);
+        RatingSyncEngine engine = new RatingSyncEngine(server, null, FAST, null, log);
+
+        engine.onRatingsChanged(RESTAURANT, ratings, ratings.size());
+        awaitVisible(server, RESTAURANT, 10_000);
+        close(engine);
+
+        assertEquals(10_000 / FAST.maxBatchRatings, server.requests);
+        long compressed = 0;
+        long uncompressed = 0;
+        for (int i = 0; i < server.bodies.size(); i++) {
+            assertTrue(server.texts.get(i).length() <= FAST.maxBatchBytes);
+            compressed += server.bodies.get(i).length;
+            uncompressed += server.texts.get(i).length();
+        }
+        assertTrue("expected gzip to pay off", compressed < uncompressed / 3);
+    }
+
+    @Test
+    public void oversizedRatings_splitBySize() throws Exception {
+        StubServer server = new StubServer();
+        char[] longName = new char[1000];
+        Arrays.fill(longName, 'x');
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            ratings.add(new RatingViewModel.DishRating(i, new String(longName), "Main", 3f, i));
+        }
+        RatingSyncEngine engine = new RatingSyncEngine(server, null,
+                new RatingSyncEngine.Config(500, 4096, 0, 1, 20), null, log);
+        engine.onRatingsChanged(RESTAURANT, ratings, ratings.size());
+        awaitVisible(server, RESTAURANT, 50);
+        close(engine);
+
+        // Three ratings of about 1 KB fit under 4 KB
+        assertEquals(17, server.requests);
+        for (String text : server.texts) {
+            assertTrue(text.length() <= 4096);
+        }
+    }
+
+    @Test
+    public void deletesAndClears_appliedOnceDespiteLostResponses() throws Exception {
+        StubServer server = new StubServer();
+        RatingSyncEngine engine = new RatingSyncEngine(server, null, FAST, null, log);
+        List<RatingViewModel.DishRating> ratings = ratings(1, 10);
+        engine.onRatingsChanged(RESTAURANT, ratings, 10);
+        awaitVisible(server, RESTAURANT, 10);
+
+        // Every batch is applied, but the first two responses never arrive
+        server.loseResponses = 2;
+        List<RatingViewModel.DishRating> remaining = new ArrayList<>(ratings);
+        remaining.remove(2);
+        engine.onRatingRemoved(RESTAURANT, new ArrayList<>(remaining), 3);
+        awaitVisible(server, RESTAURANT, 9);
+        assertFalse(server.visible(RESTAURANT).contains(3L));
+        // Both lost responses make the engine send the batch again
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.duplicates < 2) {
+            assertTrue("expected the lost batch to be resent", System.nanoTime() < deadline);
+            Thread.sleep(2);
+        }
+
+        List<RatingViewModel.DishRating> afterClear = ratings(11, 2);
+        engine.onRatingsCleared(RESTAURANT, Collections.<RatingViewModel.DishRating>emptyList(), 10);
+        engine.onRatingsChanged(RESTAURANT, afterClear, 2);
+        awaitVisible(server, RESTAURANT, 2);
+        close(engine);
+
+        assertEquals(new TreeSet<>(Arrays.asList(11L, 12L)), server.visible(RESTAURANT));
+        assertEquals(server.appliedKeys.size(), server.requests - server.duplicates);
+    }
+
+    @Test
+    public void failedUpload_retriedWithSameKeyAndBody() throws Exception {
+        StubServer server = new StubServer();
+        server.failNext = 3;
+        server.failStatus = 503;
+        List<RatingSyncEngine.Status> statuses = Collections.synchronizedList(new ArrayList<RatingSyncEngine.Status>());
+        RatingSyncEngine engine = new RatingSyncEngine(server, null, FAST, statuses::add, log);
+        engine.onRatingsChanged(RESTAURANT, ratings(1, 5), 5);
+        awaitVisible(server, RESTAURANT, 5);
+        close(engine);
+
+        assertEquals(4, server.requests);
+        for (int i = 1; i < 4; i++) {
+            assertEquals(server.keys.get(0), server.keys.get(i));
+            assertArrayEquals(server.bodies.get(0), server.bodies.get(i));
+        }
+        synchronized (statuses) {
+            assertEquals(4, statuses.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i + 1, statuses.get(i).getConsecutiveFailures());
+                assertEquals("HTTP 503", statuses.get(i).getLastError());
+            }
+            RatingSyncEngine.Status last = statuses.get(3);
+            assertEquals(0, last.getConsecutiveFailures());
+            assertNull(last.getLastError());
+            assertEquals(0, last.getPendingChanges());
+            assertEquals(5, last.getUploadedChanges());
+        }
+        assertEquals(3, warnings.size());
+        assertTrue(warnings.get(0), warnings.get(0).startsWith("Sync upload failed (HTTP 503)"));
+    }
+
+    @Test
+    public void rejectedBatch_isSplitUntilTheInvalidChangeIsSkipped() throws Exception {
+        StubServer server = new StubServer();
+        server.invalidId = 7;
+        List<RatingSyncEngine.Status> statuses = Collections.synchronizedList(new ArrayList<RatingSyncEngine.Status>());
+        RatingSyncEngine engine = new RatingSyncEngine(server, null, FAST, statuses::add, log);
+        engine.onRatingsChanged(RESTAURANT, ratings(1, 10), 10);
+        awaitVisible(server, RESTAURANT, 9);
+
+        // Every change behind the invalid one still gets through, in batches back at full size
+        engine.onRatingsChanged(RESTAURANT, ratings(1, 20), 10);
+        awaitVisible(server, RESTAURANT, 19);
+        close(engine);
+
+        Set<Long> expected = new TreeSet<>();
+        for (long id = 1; id <= 20; id++) {
+            if (id != 7) {
+                expected.add(id);
+            }
+        }
+        assertEquals(expected, server.visible(RESTAURANT));
+        // 1-10, then 1-5 and 6-10, then 6-7, then 6 and 7 alone, then 8-10, then 11-20
+        assertEquals(8, server.requests);
+        synchronized (statuses) {
+            RatingSyncEngine.Status skipped = statuses.get(2);
+            assertEquals("HTTP 422 rejected", skipped.getLastError());
+            assertEquals(1, skipped.getRejectedChanges());
+            assertEquals(0, skipped.getConsecutiveFailures());
+            RatingSyncEngine.Status last = statuses.get(statuses.size() - 1);
+            assertNull(last.getLastError());
+            assertEquals(0, last.getPendingChanges());
+            assertEquals(19, last.getUploadedChanges());
+            assertEquals(1, last.getRejectedChanges());
+        }
+        assertEquals("Sync change rejected with HTTP 422, skipping it", warnings.get(warnings.size() - 1));
+    }
+
+    @Test
+    public void backoffDelay_doublesUpToTheCapWithJitter() {
+        Random random = new Random(42);
+        for (int failures = 1; failures <= 100; failures++) {
+            long full = Math.min(60_000, 1000L << Math.min(failures - 1, 20));
+            for (int i = 0; i < 100; i++) {
+                long delay = RatingSyncEngine.backoffDelay(failures, 1000, 60_000, random);
+                assertTrue(delay + " for " + failures, delay <= full && delay >= full / 2);
+            }
+        }
+    }
+
+    @Test
+    public void restart_resumesFromHighWaterMark() throws Exception {
+        File stateFile = new File(folder.getRoot(), RatingViewModel.SYNC_STATE_FILE_NAME);
+        StubServer server = new StubServer();
+        RatingSyncEngine engine = new RatingSyncEngine(server, stateFile, FAST, null, log);
+        engine.onRatingsChanged(RESTAURANT, ratings(1, 1000), 1000);
+        awaitVisible(server, RESTAURANT, 1000);
+        // A removal the backend never hears about before the restart
+        server.failNext = Integer.MAX_VALUE;
+        List<RatingViewModel.DishRating> remaining = ratings(2, 999);
+        engine.onRatingRemoved(RESTAURANT, remaining, 1);
+        awaitRequests(server, server.requests + 1);
+        close(engine);
+        String device = server.devices.iterator().next();
+
+        server.failNext = 0;
+        int requestsBefore = server.requests;
+        int uploadedBefore = server.ratingLines;
+        List<RatingViewModel.DishRating> grown = new ArrayList<>(remaining);
+        grown.addAll(ratings(1001, 500));
+        engine = new RatingSyncEngine(server, stateFile, FAST, null, log);
+        engine.onRatingsChanged(RESTAURANT, grown, 0);
+        awaitVisible(server, RESTAURANT, 1499);
+        close(engine);
+
+        assertEquals(500, server.ratingLines - uploadedBefore);
+        assertEquals(2, server.requests - requestsBefore);
+        assertEquals(Collections.singleton(device), server.devices);
+        assertFalse(server.visible(RESTAURANT).contains(1L));
+    }
+
+    @Test
+    public void replayedBatches_convergeInAnyOrder() throws Exception {
+        StubServer server = new StubServer();
+        RatingSyncEngine engine = new RatingSyncEngine(server, null,
+                new RatingSyncEngine.Config(50, 256 * 1024, 0, 1, 20), null, log);
+        engine.onRatingsChanged(RESTAURANT, ratings(1, 300), 300);
+        awaitVisible(server, RESTAURANT, 300);
+        List<RatingViewModel.DishRating> remaining = ratings(1, 300);
+        for (long id = 290; id >= 200; id -= 10) {
+            remaining.remove((int) id - 1);
+            engine.onRatingRemoved(RESTAURANT, new ArrayList<>(remaining), id);
+        }
+        engine.onRatingsCleared(RESTAURANT, Collections.<RatingViewModel.DishRating>emptyList(), 300);
+        engine.onRatingsChanged(RESTAURANT, ratings(301, 120), 120);
+        engine.onRatingsChanged(2, ratings(1, 40), 40);
+        awaitVisible(server, RESTAURANT, 120);
+        awaitVisible(server, 2, 40);
+        close(engine);
+
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < server.bodies.size(); i++) {
+                order.add(i);
+                if (random.nextInt(4) == 0) {
+                    order.add(i);
+                }
+            }
+            Collections.shuffle(order, random);
+            StubServer replica = new StubServer();
+            for (int i : order) {
+                replica.upload(server.keys.get(i), server.bodies.get(i));
+            }
+            assertEquals(server.visible(RESTAURANT), replica.visible(RESTAURANT));
+            assertEquals(server.visible(2), replica.visible(2));
+        }
+    }
+
+    @Test
+    public void edits_latestVersionWinsAndSurvivesRestart() throws Exception {
+        File stateFile = new File(folder.getRoot(), RatingViewModel.SYNC_STATE_FILE_NAME);
+        StubServer server = new StubServer();
+        RatingSyncEngine engine = new RatingSyncEngine(server, stateFile, FAST, null, log);
+        List<RatingViewModel.DishRating> ratings = ratings(1, 10);
+        engine.onRatingsChanged(RESTAURANT, ratings, 10);
+        awaitVisible(server, RESTAURANT, 10);
+
+        ratings = edited(ratings, 3, "Pea soup", 2f);
+        engine.onRatingEdited(RESTAURANT, ratings, 3);
+        ratings = edited(ratings, 3, "Pea soup", 4.5f);
+        engine.onRatingEdited(RESTAURANT, ratings, 3);
+        // An edit of a rating removed before it was sent is dropped; the tombstone wins anyway
+        ratings = edited(ratings, 5, "Gone", 1f);
+        engine.onRatingEdited(RESTAURANT, ratings, 5);
+        ratings = new ArrayList<>(ratings);
+        ratings.remove(4);
+        engine.onRatingRemoved(RESTAURANT, ratings, 5);
+        awaitContent(server, RESTAURANT, 3, "\"dishName\":\"Pea soup\",\"dishType\":\"Beverage\",\"rating\":4.5");
+        awaitVisible(server, RESTAURANT, 9);
+
+        // An edit the backend never hears about before the restart
+        server.failNext = Integer.MAX_VALUE;
+        ratings = edited(ratings, 7, "Lamb", 3f);
+        engine.onRatingEdited(RESTAURANT, ratings, 7);
+        awaitRequests(server, server.requests + 1);
+        close(engine);
+
+        server.failNext = 0;
+        engine = new RatingSyncEngine(server, stateFile, FAST, null, log);
+        engine.onRatingsChanged(RESTAURANT, ratings, 0);
+        awaitContent(server, RESTAURANT, 7, "\"dishName\":\"Lamb\"");
+        close(engine);
+        assertTrue(server.content(RESTAURANT, 3).contains("\"rating\":4.5"));
+
+        // Replayed in any order, the highest version of every edit still wins
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < server.bodies.size(); i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+            StubServer replica = new StubServer();
+            for (int i : order) {
+                replica.upload(server.keys.get(i), server.bodies.get(i));
+            }
+            assertEquals(server.visible(RESTAURANT), replica.visible(RESTAURANT));
+            for (long id : server.visible(RESTAURANT)) {
+                assertEquals(server.content(RESTAURANT, id), replica.content(RESTAURANT, id));
+            }
+        }
+    }
+
+    @Test
+    public void viewModel_syncsEveryRestaurant() throws Exception {
+        File dir = folder.newFolder();
+        StubServer server = new StubServer();
+        RatingViewModel viewModel = new RatingViewModel(new Application(), dir, Runnable::run, server, FAST);
+        long first = Restaurant.ALL.get(0).getId();
+        viewModel.submitRating("Soup", "Starter", 4f);
+        viewModel.submitRating("Stew", "Main", 2f);
+        viewModel.submitRating("Cake", "Dessert", 5f);
+        viewModel.removeRating(1);
+        long second = Restaurant.ALL.get(1).getId();
+        viewModel.ingestRating(second, "Tea", "Beverage", 3f, 1);
+
+        awaitVisible(server, first, 2);
+        awaitVisible(server, second, 1);
+        viewModel.onCleared();
+        assertTrue(new File(dir, RatingViewModel.SYNC_STATE_FILE_NAME).exists());
+
+        // Nothing is uploaded twice after a restart
+        int requests = server.requests;
+        viewModel = new RatingViewModel(new Application(), dir, Runnable::run, server, FAST);
+        viewModel.clearAllRatings();
+        awaitVisible(server, first, 0);
+        viewModel.onCleared();
+        assertEquals(requests + 1, server.requests);
+    }
+
+    private static List<RatingViewModel.DishRating> ratings(long firstId, int count) {
+        String[] types = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = firstId + i;
+            ratings.add(new RatingViewModel.DishRating(id, "Dish number " + (id % 500),
+                    types[(int) (id % types.length)], 1 + id % 5, 1_700_000_000_000L + id));
+        }
+        return ratings;
+    }
+
+    // A copy of the list with one rating's name and stars changed
+    private static List<RatingViewModel.DishRating> edited(List<RatingViewModel.DishRating> ratings, long id,
+                                                           String dishName, float stars) {
+        List<RatingViewModel.DishRating> copy = new ArrayList<>(ratings);
+        int position = RatingViewModel.indexOfId(copy, id);
+        RatingViewModel.DishRating rating = copy.get(position);
+        copy.set(position, new RatingViewModel.DishRating(id, dishName, rating.getDishType(), stars, rating.getTimestamp()));
+        return copy;
+    }
+
+    private static void close(RatingSyncEngine engine) throws InterruptedException {
+        engine.close();
+        assertTrue(engine.awaitClosed(10, TimeUnit.SECONDS));
+    }
+
+    private static void awaitVisible(StubServer server, long restaurantId, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.visible(restaurantId).size() != count) {
+            assertTrue("timed out with " + server.visible(restaurantId).size(), System.nanoTime() < deadline);
+            Thread.sleep(2);
+        }
+    }
+
+    private static void awaitContent(StubServer server, long restaurantId, long id, String expected)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!server.content(restaurantId, id).contains(expected)) {
+            assertTrue("timed out with " + server.content(restaurantId, id), System.nanoTime() < deadline);
+            Thread.sleep(2);
+        }
+    }
+
+    private static void awaitRequests(StubServer server, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.requests < count) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(2);
+        }
+    }
+
+    /**
+     * Applies batches the way the backend does: once per idempotency key, ratings keyed by device,
+     * restaurant and id, edits by highest version, deletes as tombstones and clears as the highest
+     * id cleared.
+     */
+    private static final class StubServer implements SyncTransport {
+        private static final Pattern HEADER = Pattern.compile(
+                "\\{\"device\":\"([^\"]*)\",\"restaurant\":(\\d+)(?:,\"clearThrough\":(\\d+))?}");
+        private static final Pattern DELETE = Pattern.compile("\\{\"delete\":(\\d+)}");
+        private static final Pattern RATING = Pattern.compile("\\{\"id\":(\\d+),(.*)}");
+        private static final Pattern EDIT = Pattern.compile("\\{\"edit\":(\\d+),\"id\":(\\d+),(.*)}");
+
+        // Requests fail with failStatus while this is above zero
+        volatile int failNext;
+        volatile int failStatus = 500;
+        // Requests are applied but answered with an IOException while this is above zero
+        volatile int loseResponses;
+        // Requests uploading the rating with this id are refused with 422
+        volatile long invalidId = -1;
+
+        volatile int requests;
+        volatile int duplicates;
+        volatile int ratingLines;
+        final List<String> keys = new ArrayList<>();
+        final List<byte[]> bodies = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        final Set<String> appliedKeys = new HashSet<>();
+        final Set<String> devices = new HashSet<>();
+
+        // By device and restaurant
+        private final Map<String, TreeSet<Long>> ratings = new HashMap<>();
+        private final Map<String, Set<Long>> tombstones = new HashMap<>();
+        private final Map<String, Long> clearedThrough = new HashMap<>();
+        // Latest fields of each rating and the version they came with; 0 for the rating as uploaded
+        private final Map<String, Map<Long, String>> contents = new HashMap<>();
+        private final Map<String, Map<Long, Long>> versions = new HashMap<>();
+
+        @Override
+        public synchronized int upload(String idempotencyKey, byte[] gzippedBody) throws IOException {
+            requests++;
+            keys.add(idempotencyKey);
+            bodies.add(gzippedBody);
+            String text = gunzip(gzippedBody);
+            texts.add(text);
+            if (failNext > 0) {
+                failNext--;
+                return failStatus;
+            }
+            if (text.contains("{\"id\":" + invalidId + ",")) {
+                return 422;
+            }
+            if (appliedKeys.add(idempotencyKey)) {
+                apply(text);
+            } else {
+                duplicates++;
+            }
+            if (loseResponses > 0) {
+                loseResponses--;
+                throw new IOException("Connection reset");
+            }
+            return 200;
+        }
+
+        private void apply(String text) throws IOException {
+            String[] lines = text.split("\n");
+            Matcher header = HEADER.matcher(lines[0]);
+            if (!header.matches()) {
+                throw new IOException("Bad header " + lines[0]);
+            }
+            devices.add(header.group(1));
+            String key = header.group(1) + "/" + header.group(2);
+            if (header.group(3) != null) {
+                Long previous = clearedThrough.get(key);
+                clearedThrough.put(key, Math.max(previous == null ? 0 : previous, Long.parseLong(header.group(3))));
+            }
+            for (int i = 1; i < lines.length; i++) {
+                Matcher delete = DELETE.matcher(lines[i]);
+                Matcher rating = RATING.matcher(lines[i]);
+                Matcher edit = EDIT.matcher(lines[i]);
+                if (delete.matches()) {
+                    get(tombstones, key, new HashSet<Long>()).add(Long.parseLong(delete.group(1)));
+                } else if (edit.matches()) {
+                    setContent(key, Long.parseLong(edit.group(2)), Long.parseLong(edit.group(1)), edit.group(3));
+                } else if (rating.matches()) {
+                    long id = Long.parseLong(rating.group(1));
+                    get(ratings, key, new TreeSet<Long>()).add(id);
+                    setContent(key, id, 0, rating.group(2));
+                    ratingLines++;
+                } else {
+                    throw new IOException("Bad line " + lines[i]);
+                }
+            }
+        }
+
+        private void setContent(String key, long id, long version, String fields) {
+            Map<Long, Long> ratingVersions = get(versions, key, new HashMap<Long, Long>());
+            Long current = ratingVersions.get(id);
+            if (current == null || version > current) {
+                ratingVersions.put(id, version);
+                get(contents, key, new HashMap<Long, String>()).put(id, fields);
+            }
+        }
+
+        // Latest fields of a rating of a restaurant, or an empty string if there are none
+        synchronized String content(long restaurantId, long id) {
+            for (Map.Entry<String, Map<Long, String>> entry : contents.entrySet()) {
+                if (entry.getKey().endsWith("/" + restaurantId) && entry.getValue().containsKey(id)) {
+                    return entry.getValue().get(id);
+                }
+            }
+            return "";
+        }
+
+        // Ids of the ratings of a restaurant that are neither deleted nor cleared, across devices
+        synchronized TreeSet<Long> visible(long restaurantId) {
+            TreeSet<Long> visible = new TreeSet<>();
+            for (Map.Entry<String, TreeSet<Long>> entry : ratings.entrySet()) {
+                if (!entry.getKey().endsWith("/" + restaurantId)) {
+                    continue;
+                }
+                Long cleared = clearedThrough.get(entry.getKey());
+                Set<Long> deleted = tombstones.get(entry.getKey());
+                for (long id : entry.getValue()) {
+                    if ((cleared == null || id > cleared) && (deleted == null || !deleted.contains(id))) {
+                        visible.add(id);
+                    }
+                }
+            }
+            return visible;
+        }
+
+        private static <V> V get(Map<String, V> map, String key, V empty) {
+            V value = map.get(key);
+            if (value == null) {
+                value = empty;
+                map.put(key, value);
+            }
+            return value;
+        }
+
+        private static String gunzip(byte[] body) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.restaurantraterapp;
+
+import android.app.Application;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks CSV and JSON import and export, and that an import emits the ratings list once per batch.
+ * With -Pbenchmark, also checks that 1M rows stream through bounded memory.
+ */
+public class RatingTransferTest {
+
+    private static final int LARGE_ROW_COUNT = 1_000_000;
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutor = new InstantTaskExecutorRule();
+
+    @Test
+    public void roundTrip_keepsEveryField() throws IOException {
+        List<RatingViewModel.DishRating> ratings = Arrays.asList(
+                new RatingViewModel.DishRating(1, "Pad Thai", "Main", 4.5f, 1_700_000_000_000L),
+                new RatingViewModel.DishRating(2, "Fish, Chips \"Deluxe\"", "Main", 3f, 1_700_000_000_001L),
+                new RatingViewModel.DishRating(3, "Crème brûlée\nwith berries", "Dessert", 5f, 1_700_000_000_002L),
+                new RatingViewModel.DishRating(4, "Tab\there \\ slash", "Starter", 0.5f, 1_700_000_000_003L));
+
+        for (RatingTransfer.Format format : RatingTransfer.Format.values()) {
+            StringWriter out = new StringWriter();
+            RatingTransfer.write(out, format, ratings);
+
+            List<RatingViewModel.DishRating> read = readAll(out.toString(), format);
+            assertEquals(format.name(), ratings.size(), read.size());
+            for (int i = 0; i < ratings.size(); i++) {
+                assertEquals(ratings.get(i).getDishName(), read.get(i).getDishName());
+                assertEquals(ratings.get(i).getDishType(), read.get(i).getDishType());
+                assertEquals(ratings.get(i).getRating(), read.get(i).getRating(), 0f);
+                assertEquals(ratings.get(i).getTimestamp(), read.get(i).getTimestamp());
+            }
+        }
+    }
+
+    @Test
+    public void csv_acceptsSpreadsheetExports() throws IOException {
+        String csv = "\uFEFFDish Name,Rating,Dish Type,Notes\r\n"
+                + "Soup,4,Starter,\"hot, salty\"\r\n"
+                + "\r\n"
+                + "Cake,5,Dessert,\r\n";
+
+        List<RatingViewModel.DishRating> read = readAll(csv, RatingTransfer.Format.CSV);
+
+        assertEquals(2, read.size());
+        assertEquals("Soup", read.get(0).getDishName());
+        assertEquals("Dessert", read.get(1).getDishType());
+        assertEquals(5f, read.get(1).getRating(), 0f);
+    }
+
+    @Test
+    public void json_skipsUnknownKeys() throws IOException {
+        String json = "[ {\"id\": 9, \"dishName\": \"Soup\", \"tags\": [\"hot\", {\"a\": null}],"
+                + " \"dishType\": \"Starter\", \"rating\": 4.0, \"vegan\": true},\n"
+                + "{\"rating\": 2e0, \"dishType\": \"Main\", \"dishName\": \"Stew\", \"timestamp\": 12} ]";
+
+        List<RatingViewModel.DishRating> read = readAll(json, RatingTransfer.Format.JSON);
+
+        assertEquals(2, read.size());
+        assertEquals("Soup", read.get(0).getDishName());
+        assertEquals(2f, read.get(1).getRating(), 0f);
+        assertEquals(12, read.get(1).getTimestamp());
+    }
+
+    @Test
+    public void import_roundsRatingsToHalfStars() throws IOException {
+        String csv = "dish_name,dish_type,rating\nSoup,Starter,3.7\nStew,Main,4.2\nCake,Dessert,4.75\n";
+
+        List<RatingViewModel.DishRating> read = readAll(csv, RatingTransfer.Format.CSV);
+
+        assertEquals(3.5f, read.get(0).getRating(), 0f);
+        assertEquals(4f, read.get(1).getRating(), 0f);
+        assertEquals(5f, read.get(2).getRating(), 0f);
+        RatingAggregates aggregates = new RatingAggregates();
+        for (RatingViewModel.DishRating rating : read) {
+            aggregates.add(rating);
+        }
+        // Min and max are counted in half stars, so they now match stored ratings
+        assertEquals(3.5f, aggregates.snapshot().getOverall().getMin(), 0f);
+        assertEquals(5f, aggregates.snapshot().getOverall().getMax(), 0f);
+    }
+
+    @Test
+    public void malformedRows_reportTheirLine() {
+        assertImportFails("dish_name,dish_type,rating\nSoup,Starter,4\nStew,Main,nine\n",
+                RatingTransfer.Format.CSV, "Line 3");
+        assertImportFails("dish_name,dish_type,rating\nSoup,Starter,7\n", RatingTransfer.Format.CSV, "Line 2");
+        assertImportFails("dish_name,rating\nSoup,4\n", RatingTransfer.Format.CSV, "Line 1");
+        assertImportFails("dish_name,dish_type,rating\n\"Soup,Starter,4\n", RatingTransfer.Format.CSV, "unterminated");
+        assertImportFails("[{\"dishName\": \"Soup\", \"dishType\": \"Starter\"}]", RatingTransfer.Format.JSON,
+                "rating is missing");
+        assertImportFails("[{\"dishName\": \"Soup\",\n\"dishType\": \"Starter\", \"rating\": 4}\n{}]",
+                RatingTransfer.Format.JSON, "Line 3");
+    }
+
+    @Test
+    public void read_handsOverFullBatches() throws IOException {
+        StringBuilder csv = new StringBuilder(RatingTransfer.CSV_HEADER).append('\n');
+        for (int i = 0; i < 2500; i++) {
+            csv.append(i).append(",Dish ").append(i).append(",Main,3,").append(i).append('\n');
+        }
+        List<Integer> batchSizes = new ArrayList<>();
+
+        long count = RatingTransfer.read(new StringReader(csv.toString()), RatingTransfer.Format.CSV, 1000,
+                batch -> batchSizes.add(batch.size()));
+
+        assertEquals(2500, count);
+        assertEquals(Arrays.asList(1000, 1000, 500), batchSizes);
+    }
+
+    @Test
+    public void submitRatings_emitsOncePerBatch() {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        AtomicInteger emissions = new AtomicInteger();
+        viewModel.getRatingsList().observeForever(ratings -> emissions.incrementAndGet());
+        emissions.set(0);
+        viewModel.submitRating("Soup", "Starter", 4f);
+
+        viewModel.submitRatings(Arrays.asList(
+                new RatingViewModel.DishRating(0, "Stew", "Main", 3f, 10L),
+                new RatingViewModel.DishRating(0, "Cake", "Dessert", 5f, 11L)));
+
+        assertEquals(2, emissions.get());
+        List<RatingViewModel.DishRating> ratings = viewModel.getRatingsList().getValue();
+        assertEquals(3, ratings.size());
+        assertEquals(2, ratings.get(1).getId());
+        assertEquals(3, ratings.get(2).getId());
+        assertEquals(11L, ratings.get(2).getTimestamp());
+        assertEquals(4f, viewModel.getAverageRating(), 0f);
+        viewModel.onCleared();
+    }
+
+    /**
+     * Parsing a million rows must retain no more than a batch or two, whatever the file size.
+     */
+    @Test
+    public void millionRows_parseInBoundedMemory() throws IOException {
+        RatingBenchmark.assumeEnabled();
+        long baseline = usedHeapAfterGc();
+        long[] peak = {baseline};
+        AtomicInteger batches = new AtomicInteger();
+
+        long count = RatingTransfer.read(new SyntheticCsvReader(LARGE_ROW_COUNT), RatingTransfer.Format.CSV,
+                RatingViewModel.IMPORT_BATCH_SIZE, batch -> {
+                    if (batches.incrementAndGet() % 100 == 0) {
+                        peak[0] = Math.max(peak[0], usedHeapAfterGc());
+                    }
+                });
+
+        assertEquals(LARGE_ROW_COUNT, count);
+        // The CSV text alone is over 40 MB
+        assertTrue("heap grew by " + (peak[0] - baseline) / 1024 + " KB", peak[0] - baseline < 4 * 1024 * 1024);
+    }
+
+    @Test
+    public void import_emitsOncePerBatch() throws InterruptedException {
+        importIntoViewModel(20 * RatingViewModel.IMPORT_BATCH_SIZE);
+    }
+
+    @Test
+    public void millionRows_importIntoViewModel() throws InterruptedException {
+        RatingBenchmark.assumeEnabled();
+        importIntoViewModel(LARGE_ROW_COUNT);
+    }
+
+    @Test
+    public void import_reportsAppliedCountAfterLastBatch() throws InterruptedException {
+        LinkedBlockingQueue<Runnable> mainThread = new LinkedBlockingQueue<>();
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, mainThread::add);
+        int rows = 2 * RatingViewModel.IMPORT_BATCH_SIZE + 500;
+
+        viewModel.importRatings(new SyntheticCsvStream(rows), RatingTransfer.Format.CSV);
+        String status = runMainThreadUntilStatus(viewModel, mainThread);
+
+        assertEquals("Imported " + rows + " ratings", status);
+        assertEquals(rows, viewModel.getRatingsCount());
+        viewModel.onCleared();
+    }
+
+    @Test
+    public void import_reportsOnlyBatchesAppliedBeforeSwitch() throws InterruptedException {
+        LinkedBlockingQueue<Runnable> mainThread = new LinkedBlockingQueue<>();
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, mainThread::add);
+        long first = Restaurant.ALL.get(0).getId();
+        long second = Restaurant.ALL.get(1).getId();
+
+        viewModel.importRatings(new SyntheticCsvStream(20 * RatingViewModel.IMPORT_BATCH_SIZE),
+                RatingTransfer.Format.CSV);
+        while (viewModel.getRatingsCount() == 0) {
+            Runnable task = mainThread.poll(10, TimeUnit.SECONDS);
+            assertNotNull("import stalled", task);
+            task.run();
+        }
+        viewModel.selectRestaurant(second);
+        String status = runMainThreadUntilStatus(viewModel, mainThread);
+        viewModel.selectRestaurant(first);
+        runQueued(mainThread);
+
+        int applied = viewModel.getRatingsCount();
+        assertTrue(applied < 20 * RatingViewModel.IMPORT_BATCH_SIZE);
+        assertEquals("Import stopped after " + applied + " ratings: another restaurant was selected", status);
+        viewModel.onCleared();
+    }
+
+    // Imports whole batches of synthetic rows and checks the count and the list emissions
+    private static void importIntoViewModel(int rows) throws InterruptedException {
+        RatingViewModel viewModel = new RatingViewModel(new Application(), null, Runnable::run);
+        AtomicInteger emissions = new AtomicInteger();
+        viewModel.getRatingsList().observeForever(ratings -> emissions.incrementAndGet());
+        emissions.set(0);
+
+        viewModel.importRatings(new SyntheticCsvStream(rows), RatingTransfer.Format.CSV);
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+        while (viewModel.getTransferStatus().getValue() == null && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertEquals("Imported " + rows + " ratings", viewModel.getTransferStatus().getValue());
+        assertEquals(rows, viewModel.getRatingsCount());
+        assertEquals(rows / RatingViewModel.IMPORT_BATCH_SIZE, emissions.get());
+        viewModel.onCleared();
+    }
+
+    // Runs main thread tasks as they arrive until the import reports its outcome
+    private static String runMainThreadUntilStatus(RatingViewModel viewModel, LinkedBlockingQueue<Runnable> mainThread)
+            throws InterruptedException {
+        while (viewModel.getTransferStatus().getValue() == null) {
+            Runnable task = mainThread.poll(10, TimeUnit.SECONDS);
+            assertNotNull("import stalled", task);
+            task.run();
+        }
+        return viewModel.getTransferStatus().getValue();
+    }
+
+    private static void runQueued(LinkedBlockingQueue<Runnable> mainThread) {
+        Runnable task;
+        while ((task = mainThread.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static List<RatingViewModel.DishRating> readAll(String text, RatingTransfer.Format format) throws IOException {
+        List<RatingViewModel.DishRating> read = new ArrayList<>();
+        RatingTransfer.read(new StringReader(text), format, 3, read::addAll);
+        return read;
+    }
+
+    private static void assertImportFails(String text, RatingTransfer.Format format, String expectedMessage) {
+        try {
+            readAll(text, format);
+            fail("Expected " + expectedMessage + " for " + text);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Generates a CSV export row by row, so the file never exists in memory as a whole
+    private static final class SyntheticCsvReader extends Reader {
+        private static final String[] DISH_TYPES = {"Starter", "Main", "Dessert", "Beverage", "Side Dish"};
+
+        private final int rows;
+        private final StringBuilder line = new StringBuilder(RatingTransfer.CSV_HEADER).append('\n');
+        private int row;
+        private int linePosition;
+
+        SyntheticCsvReader(int rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (linePosition == line.length()) {
+                if (row == rows) {
+                    return -1;
+                }
+                line.setLength(0);
+                line.append(row).append(",\"Dish, number ").append(row % 5000).append('"')
+                        .append(',').append(DISH_TYPES[row % DISH_TYPES.length])
+                        .append(',').append(1 + (row % 9) / 2f)
+                        .append(',').append(1_700_000_000_000L + row).append('\n');
+                linePosition = 0;
+                row++;
+            }
+            int count = Math.min(length, line.length() - linePosition);
+            line.getChars(linePosition, linePosition + count, buffer, offset);
+            linePosition += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // The same rows as UTF-8 bytes, as a content resolver would hand them over
+    private static final class SyntheticCsvStream extends InputStream {
+        private final SyntheticCsvReader reader;
+        private final char[] chars = new char[256];
+        private byte[] bytes = new byte[0];
+        private int position;
+
+        SyntheticCsvStream(int rows) {
+            reader = new SyntheticCsvReader(rows);
+        }
+
+        @Override
+        public int read() {
+            if (position == bytes.length) {
+                int count = reader.read(chars, 0, chars.length);
+                if (count < 0) {
+                    return -1;
+                }
+                bytes = new String(chars, 0, count).getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            int first = read();
+            if (first < 0) {
+                return -1;
+            }
+            buffer[offset] = (byte) first;
+            int count = Math.min(length - 1, bytes.length - position);
+            System.arraycopy(bytes, position, buffer, offset + 1, count);
+            position += count;
+            return count + 1;
+        }
+    }
+}
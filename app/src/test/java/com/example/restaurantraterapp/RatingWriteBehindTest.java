@@ -0,0 +1,184 @@
+package com.example.restaurantraterapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ordering, batching and durability tests for RatingWriteBehind.
+ */
+public class RatingWriteBehindTest {
+
+    // Collects every committed entry and the size of each batch
+    private static class RecordingSink implements RatingWriteBehind.Sink {
+        final List<RatingJournal.Entry> committed = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void commit(List<RatingJournal.Entry> batch) {
+            committed.addAll(batch);
+            batchSizes.add(batch.size());
+        }
+    }
+
+    @Test
+    public void entries_areCommittedInOrderAndInBoundedBatches() {
+        RecordingSink sink = new RecordingSink();
+        RatingWriteBehind writeBehind = new RatingWriteBehind(sink, 50, 64, null);
+
+        List<RatingJournal.Entry> expected = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            RatingJournal.Entry entry = RatingJournal.Entry.remove(i);
+            expected.add(entry);
+            writeBehind.enqueue(entry);
+        }
+        writeBehind.flush();
+
+        assertEquals(expected, sink.committed);
+        for (int size : sink.batchSizes) {
+            assertTrue(size <= 64);
+        }
+        assertTrue("entries should share group commits", sink.batchSizes.size() < expected.size());
+        writeBehind.close();
+    }
+
+    @Test
+    public void flushInterval_commitsWithoutExplicitFlush() throws InterruptedException {
+        CountDownLatch committed = new CountDownLatch(1);
+        RatingWriteBehind writeBehind = new RatingWriteBehind(batch -> committed.countDown(), 20, 100, null);
+
+        writeBehind.enqueue(RatingJournal.Entry.clear());
+
+        assertTrue(committed.await(5, TimeUnit.SECONDS));
+        writeBehind.close();
+    }
+
+    @Test
+    public void close_commitsEverythingStillQueued() {
+        RecordingSink sink = new RecordingSink();
+        // A long flush interval, so only close() can commit the entries
+        RatingWriteBehind writeBehind = new RatingWriteBehind(sink, 60_000, 1000, null);
+        for (int i = 0; i < 500; i++) {
+            writeBehind.enqueue(RatingJournal.Entry.remove(i));
+        }
+
+        writeBehind.close();
+
+        assertEquals(500, sink.committed.size());
+        assertEquals(0, writeBehind.getQueueDepth());
+    }
+
+    @Test
+    public void failedCommits_areRetriedInOrderByTheTimer() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        AtomicInteger failures = new AtomicInteger(2);
+        List<RatingWriteBehind.Stats> stats = Collections.synchronizedList(new ArrayList<>());
+        RatingWriteBehind writeBehind = new RatingWriteBehind(batch -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("disk full");
+            }
+            sink.commit(batch);
+        }, 10, 100, stats::add);
+
+        List<RatingJournal.Entry> expected = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            RatingJournal.Entry entry = RatingJournal.Entry.remove(i);
+            expected.add(entry);
+            writeBehind.enqueue(entry);
+        }
+        // No flush: only the scheduled drains may commit, including the retries
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sink.committed.size() < expected.size()) {
+            assertTrue("committed " + sink.committed.size(), System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+
+        assertEquals(expected, sink.committed);
+        RatingWriteBehind.Stats last = stats.get(stats.size() - 1);
+        assertEquals(2, last.getFailedCommitCount());
+        assertNull(last.getLastError());
+        boolean reported = false;
+        for (RatingWriteBehind.Stats stat : stats) {
+            reported |= stat.getLastError() != null && "disk full".equals(stat.getLastError().getMessage());
+        }
+        assertTrue(reported);
+        writeBehind.close();
+    }
+
+    @Test
+    public void flush_reportsAFailedCommitAndKeepsItsEntries() {
+        // A long flush interval, so no retry runs while the test looks at the queue
+        RatingWriteBehind writeBehind = new RatingWriteBehind(batch -> {
+            throw new IllegalStateException("disk full");
+        }, 60_000, 100, null);
+        for (int i = 0; i < 3; i++) {
+            writeBehind.enqueue(RatingJournal.Entry.remove(i));
+        }
+
+        try {
+            writeBehind.flush();
+            fail("expected the commit failure");
+        } catch (IllegalStateException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        assertEquals(3, writeBehind.getQueueDepth());
+        try {
+            writeBehind.close();
+            fail("expected the commit failure");
+        } catch (IllegalStateException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void enqueueAfterClose_throws() {
+        RatingWriteBehind writeBehind = new RatingWriteBehind(new RecordingSink(), 10, 10, null);
+        writeBehind.close();
+        writeBehind.enqueue(RatingJournal.Entry.clear());
+    }
+
+    @Test
+    public void burstyProducers_loseNothingAndKeepPerProducerOrder() throws InterruptedException {
+        int producers = 8;
+        int perProducer = 20_000;
+        RecordingSink sink = new RecordingSink();
+        List<RatingWriteBehind.Stats> stats = Collections.synchronizedList(new ArrayList<>());
+        RatingWriteBehind writeBehind = new RatingWriteBehind(sink, 5, 128, stats::add);
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    // Encode the producer and sequence number in the id
+                    writeBehind.enqueue(RatingJournal.Entry.remove(producer * perProducer + i));
+                    if (i % 1000 == 0) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writeBehind.close();
+
+        assertEquals(producers * perProducer, sink.committed.size());
+        int[] next = new int[producers];
+        for (RatingJournal.Entry entry : sink.committed) {
+            int producer = (int) (entry.id / perProducer);
+            assertEquals(next[producer]++, entry.id % perProducer);
+        }
+
+        RatingWriteBehind.Stats last = stats.get(stats.size() - 1);
+        assertEquals(producers * perProducer, last.getCommittedCount());
+    }
+}
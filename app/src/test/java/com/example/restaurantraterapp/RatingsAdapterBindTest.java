@@ -0,0 +1,210 @@
+package com.example.restaurantraterapp;
+
+import android.os.Looper;
+import android.widget.RatingBar;
+import android.widget.TextView;
+
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+
+import com.google.android.material.card.MaterialCardView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Binds rating rows in MainActivity under Robolectric: listeners must survive rebinds, clicks
+ * must resolve the row's current rating, rating payloads must leave the dish untouched, selection
+ * must follow rating ids, and rebinding rows of the list the app submits must allocate nothing.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class RatingsAdapterBindTest {
+
+    private static final int RATINGS = 100;
+    // Rows bound in the allocation test, all within the paged list's initial window
+    private static final int BOUND_ROWS = 40;
+    private static final int WARMUP_BINDS = 10_000;
+    private static final int MEASURED_BINDS = 100_000;
+
+    private static final List<Object> RATING_PAYLOAD = Collections.singletonList(RatingsAdapter.PAYLOAD_RATING);
+    private static final List<Object> SELECTION_PAYLOAD = Collections.singletonList(RatingsAdapter.PAYLOAD_SELECTION);
+
+    @Test
+    public void bind_keepsListenersAndAllocatesNothing() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> {
+                RecyclerView parent = activity.findViewById(R.id.rv_ratings);
+                RatingsAdapter adapter = new RatingsAdapter();
+                // The list type the fragment submits: a paged list over the columnar ratings
+                adapter.submitList(new RatingPagedList(new RatingPageSource.Snapshot(columnarRatings()),
+                        RatingPagedList.Config.DEFAULT, 0, Runnable::run, Runnable::run));
+                RatingsAdapter.RatingViewHolder[] holders = new RatingsAdapter.RatingViewHolder[BOUND_ROWS];
+                for (int i = 0; i < holders.length; i++) {
+                    holders[i] = adapter.onCreateViewHolder(parent, RatingsAdapter.VIEW_TYPE_RATING);
+                }
+                Object rowListener = shadowOf(holders[0].itemView).getOnClickListener();
+                Object deleteListener = shadowOf(holders[0].itemView.findViewById(R.id.btn_delete)).getOnClickListener();
+                assertNotNull(rowListener);
+
+                // Each row first binds into its own holder; rebinding it, as page loads, selection
+                // changes and payloads do, must not allocate
+                for (int i = 0; i < WARMUP_BINDS; i++) {
+                    adapter.onBindViewHolder(holders[i % BOUND_ROWS], i % BOUND_ROWS);
+                    adapter.onBindViewHolder(holders[i % BOUND_ROWS], i % BOUND_ROWS, RATING_PAYLOAD);
+                }
+                long start = AllocationMeter.allocatedBytes();
+                for (int i = 0; i < MEASURED_BINDS; i++) {
+                    adapter.onBindViewHolder(holders[i % BOUND_ROWS], i % BOUND_ROWS);
+                    adapter.onBindViewHolder(holders[i % BOUND_ROWS], i % BOUND_ROWS, RATING_PAYLOAD);
+                }
+                long allocated = AllocationMeter.allocatedBytes() - start;
+
+                assertSame(rowListener, shadowOf(holders[0].itemView).getOnClickListener());
+                assertSame(deleteListener, shadowOf(holders[0].itemView.findViewById(R.id.btn_delete)).getOnClickListener());
+                // Allow for the meter's own bookkeeping, far below one byte per bind
+                assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+            });
+        }
+    }
+
+    @Test
+    public void ratingPayload_touchesOnlyTheStars() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> {
+                RecyclerView parent = activity.findViewById(R.id.rv_ratings);
+                RatingsAdapter adapter = new RatingsAdapter();
+                List<RatingViewModel.DishRating> ratings = ratings();
+                adapter.submitList(ratings);
+                RatingsAdapter.RatingViewHolder holder = adapter.onCreateViewHolder(parent, RatingsAdapter.VIEW_TYPE_RATING);
+                adapter.onBindViewHolder(holder, 3);
+                TextView name = holder.itemView.findViewById(R.id.tv_dish_name);
+                name.setText("untouched");
+
+                List<RatingViewModel.DishRating> rerated = new ArrayList<>(ratings);
+                rerated.set(3, new RatingViewModel.DishRating(4, "Dish 4", "Main", 1.5f, 4));
+                adapter.submitList(rerated);
+                shadowOf(Looper.getMainLooper()).idle();
+                adapter.onBindViewHolder(holder, 3, RATING_PAYLOAD);
+
+                assertEquals("untouched", name.getText().toString());
+                assertEquals(1.5f, ((RatingBar) holder.itemView.findViewById(R.id.rating_bar)).getRating(), 0f);
+            });
+        }
+    }
+
+    @Test
+    public void click_resolvesTheRatingAtTheCurrentPosition() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> {
+                RecyclerView list = activity.findViewById(R.id.rv_ratings);
+                RatingsAdapter adapter = (RatingsAdapter) list.getAdapter();
+                List<RatingViewModel.DishRating> clicked = new ArrayList<>();
+                adapter.setOnRatingClickListener(new RatingsAdapter.OnRatingClickListener() {
+                    @Override
+                    public void onRatingClick(RatingViewModel.DishRating rating, int position) {
+                        clicked.add(rating);
+                    }
+
+                    @Override
+                    public void onDeleteClick(RatingViewModel.DishRating rating, int position) {
+                        fail("delete clicked");
+                    }
+                });
+                RatingViewModel viewModel = new ViewModelProvider(activity).get(RatingViewModel.class);
+                viewModel.clearAllRatings();
+                for (int i = 0; i < 10; i++) {
+                    viewModel.submitRating("Dish " + i, "Main", 3f);
+                }
+                awaitItemCount(list, 10);
+                List<RatingViewModel.DishRating> ratings = viewModel.getRatingsList().getValue();
+
+                RecyclerView.ViewHolder second = list.findViewHolderForAdapterPosition(1);
+                // Remove the first row; the same holder now shows position 0
+                viewModel.removeRatingById(ratings.get(0).getId());
+                awaitItemCount(list, 9);
+                second.itemView.performClick();
+                viewModel.clearAllRatings();
+
+                assertEquals(1, clicked.size());
+                assertEquals(ratings.get(1).getId(), clicked.get(0).getId());
+            });
+        }
+    }
+
+    @Test
+    public void longPress_selectsRowsByIdUntilSelectionEnds() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> {
+                RecyclerView parent = activity.findViewById(R.id.rv_ratings);
+                RatingsAdapter adapter = new RatingsAdapter();
+                List<RatingViewModel.DishRating> ratings = ratings();
+                adapter.submitList(ratings);
+                List<Integer> counts = new ArrayList<>();
+                adapter.setOnSelectionChangedListener(counts::add);
+                RatingsAdapter.RatingViewHolder holder = adapter.onCreateViewHolder(parent, RatingsAdapter.VIEW_TYPE_RATING);
+                adapter.onBindViewHolder(holder, 4);
+                MaterialCardView card = (MaterialCardView) holder.itemView;
+
+                // A detached holder has no adapter position to click, so select through the adapter
+                adapter.selectAll(ratings.subList(4, 6));
+                adapter.onBindViewHolder(holder, 4, SELECTION_PAYLOAD);
+                assertTrue(adapter.isSelectionMode());
+                assertTrue(card.isChecked());
+                assertEquals(new HashSet<>(Arrays.asList(5L, 6L)), adapter.getSelectedIds());
+
+                // The list changes, but the selection follows the ids
+                List<RatingViewModel.DishRating> shifted = new ArrayList<>(ratings.subList(1, RATINGS));
+                adapter.submitList(shifted);
+                shadowOf(Looper.getMainLooper()).idle();
+                adapter.onBindViewHolder(holder, 3, SELECTION_PAYLOAD);
+                assertTrue(card.isChecked());
+                adapter.onBindViewHolder(holder, 0, SELECTION_PAYLOAD);
+                assertFalse(card.isChecked());
+
+                adapter.endSelectionMode();
+                adapter.onBindViewHolder(holder, 3);
+                assertFalse(card.isChecked());
+                assertFalse(adapter.isSelectionMode());
+                assertTrue(adapter.getSelectedIds().isEmpty());
+                assertEquals(Arrays.asList(2, 0), counts);
+            });
+        }
+    }
+
+    // Diffs run on a background thread and are dispatched through the main looper
+    private static void awaitItemCount(RecyclerView list, int count) {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (list.getAdapter().getItemCount() != count) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.yield();
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static PersistentList<RatingViewModel.DishRating> columnarRatings() {
+        PersistentList<RatingViewModel.DishRating> columns = RatingColumns.emptyList(new StringDictionary());
+        return columns.plusAll(ratings());
+    }
+
+    private static List<RatingViewModel.DishRating> ratings() {
+        List<RatingViewModel.DishRating> ratings = new ArrayList<>();
+        for (int i = 1; i <= RATINGS; i++) {
+            ratings.add(new RatingViewModel.DishRating(i, "Dish " + i, "Main", 1 + i % 5, i));
+        }
+        return ratings;
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.restaurantraterapp;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Diffs large rating lists whose timestamps repeat, as they do after a batch import, and checks
+ * that the id-based DIFF_CALLBACK produces exactly the inserts and removals that happened.
+ */
+public class RatingsAdapterDiffTest {
+
+    private static final int LIST_SIZE = 50_000;
+
+    @Test
+    public void duplicateTimestamps_produceExactUpdates() {
+        Random random = new Random(11);
+        List<RatingViewModel.DishRating> oldList = new ArrayList<>();
+        long nextId = 1;
+        for (int i = 0; i < LIST_SIZE; i++) {
+            // Only 50 distinct timestamps across the whole list
+            oldList.add(rating(nextId++, "Dish " + i, 1_700_000_000_000L + i / 1000));
+        }
+
+        // Remove some rows and append a batch that shares the last timestamp
+        List<RatingViewModel.DishRating> newList = new ArrayList<>(oldList);
+        Set<Long> removedIds = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            removedIds.add(newList.remove(random.nextInt(newList.size())).getId());
+        }
+        Set<Long> insertedIds = new HashSet<>();
+        long sharedTimestamp = oldList.get(oldList.size() - 1).getTimestamp();
+        for (int i = 0; i < 300; i++) {
+            insertedIds.add(nextId);
+            newList.add(rating(nextId++, "Imported " + i, sharedTimestamp));
+        }
+
+        RecordingCallback updates = applyDiff(oldList, newList);
+
+        assertEquals(removedIds.size(), updates.removed);
+        assertEquals(insertedIds.size(), updates.inserted);
+        assertEquals(0, updates.changed);
+        assertEquals(newList.size(), updates.ids.size());
+        for (int i = 0; i < newList.size(); i++) {
+            Long id = updates.ids.get(i);
+            if (id == null) {
+                assertTrue(insertedIds.contains(newList.get(i).getId()));
+            } else {
+                assertEquals(newList.get(i).getId(), id.longValue());
+            }
+        }
+    }
+
+    @Test
+    public void sameTimestampDifferentIds_areDifferentItems() {
+        RatingViewModel.DishRating first = rating(1, "Soup", 100L);
+        RatingViewModel.DishRating second = rating(2, "Soup", 100L);
+
+        assertFalse(RatingsAdapter.DIFF_CALLBACK.areItemsTheSame(first, second));
+        assertTrue(RatingsAdapter.DIFF_CALLBACK.areItemsTheSame(first, rating(1, "Soup", 100L)));
+    }
+
+    @Test
+    public void placeholderIds_areNegativeAndDistinct() {
+        Set<Long> ids = new HashSet<>();
+        for (int position = 0; position < 1000; position++) {
+            long id = RatingsAdapter.placeholderId(position);
+            assertTrue(id < 0);
+            assertNotEquals(RecyclerView.NO_ID, id);
+            assertTrue(ids.add(id));
+        }
+    }
+
+    @Test
+    public void singleAppendOrRemoval_takesFastPath() {
+        List<RatingViewModel.DishRating> oldList = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++) {
+            oldList.add(rating(id, "Dish " + id, 100L));
+        }
+
+        List<RatingViewModel.DishRating> appended = new ArrayList<>(oldList);
+        appended.add(rating(1001, "New", 100L));
+        assertEquals(1000, RatingListDiffer.findInsertedRange(oldList, appended, RatingsAdapter.DIFF_CALLBACK));
+
+        List<RatingViewModel.DishRating> removed = new ArrayList<>(oldList);
+        removed.remove(417);
+        assertEquals(417, RatingListDiffer.findInsertedRange(removed, oldList, RatingsAdapter.DIFF_CALLBACK));
+
+        removed.remove(0);
+        assertEquals(-1, RatingListDiffer.findInsertedRange(removed, oldList, RatingsAdapter.DIFF_CALLBACK));
+    }
+
+    @Test
+    public void bulkAppendOrRangeRemoval_takesFastPath() {
+        List<RatingViewModel.DishRating> oldList = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++) {
+            oldList.add(rating(id, "Dish " + id, 100L));
+        }
+
+        List<RatingViewModel.DishRating> appended = new ArrayList<>(oldList);
+        for (long id = 1001; id <= 1500; id++) {
+            appended.add(rating(id, "Imported " + id, 100L));
+        }
+        assertEquals(1000, RatingListDiffer.findInsertedRange(oldList, appended, RatingsAdapter.DIFF_CALLBACK));
+
+        List<RatingViewModel.DishRating> removed = new ArrayList<>(oldList);
+        removed.subList(200, 260).clear();
+        assertEquals(200, RatingListDiffer.findInsertedRange(removed, oldList, RatingsAdapter.DIFF_CALLBACK));
+
+        // Two separate gaps are not a single block
+        removed.remove(700);
+        assertEquals(-1, RatingListDiffer.findInsertedRange(removed, oldList, RatingsAdapter.DIFF_CALLBACK));
+    }
+
+    @Test
+    public void editedRowNextToAppend_fallsBackToFullDiff() {
+        List<RatingViewModel.DishRating> oldList = new ArrayList<>();
+        for (long id = 1; id <= 100; id++) {
+            oldList.add(rating(id, "Dish " + id, 100L));
+        }
+
+        List<RatingViewModel.DishRating> newList = new ArrayList<>(oldList);
+        newList.set(50, rating(51, "Renamed", 100L));
+        newList.add(rating(101, "New", 100L));
+
+        assertEquals(-1, RatingListDiffer.findInsertedRange(oldList, newList, RatingsAdapter.DIFF_CALLBACK));
+    }
+
+    @Test
+    public void ratingOnlyChange_rebindsWithRatingPayload() {
+        List<RatingViewModel.DishRating> oldList = new ArrayList<>();
+        for (long id = 1; id <= 100; id++) {
+            oldList.add(rating(id, "Dish " + id, 100L));
+        }
+
+        List<RatingViewModel.DishRating> newList = new ArrayList<>(oldList);
+        newList.set(10, new RatingViewModel.DishRating(11, "Dish 11", "Main", 2.5f, 100L));
+        newList.set(20, rating(21, "Renamed", 100L));
+        RecordingCallback updates = applyDiff(oldList, newList);
+
+        assertEquals(2, updates.changed);
+        assertTrue(updates.payloads.contains(RatingsAdapter.PAYLOAD_RATING));
+        assertTrue(updates.payloads.contains(null));
+    }
+
+    @Test
+    public void indexOfId_findsRatingsInIdOrder() {
+        PersistentList<RatingViewModel.DishRating> ratings = RatingColumns.emptyList(new StringDictionary());
+        for (long id = 1; id <= LIST_SIZE; id += 2) {
+            ratings = ratings.plus(rating(id, "Dish", 100L));
+        }
+
+        assertEquals(0, RatingViewModel.indexOfId(ratings, 1));
+        assertEquals(ratings.size() - 1, RatingViewModel.indexOfId(ratings, LIST_SIZE - 1));
+        assertEquals(1000, RatingViewModel.indexOfId(ratings, 2001));
+        assertEquals(-1, RatingViewModel.indexOfId(ratings, 2));
+    }
+
+    private static RecordingCallback applyDiff(final List<RatingViewModel.DishRating> oldList,
+                                               final List<RatingViewModel.DishRating> newList) {
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldList.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newList.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return RatingsAdapter.DIFF_CALLBACK.areItemsTheSame(oldList.get(oldPosition), newList.get(newPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return RatingsAdapter.DIFF_CALLBACK.areContentsTheSame(oldList.get(oldPosition), newList.get(newPosition));
+            }
+
+            @Override
+            public Object getChangePayload(int oldPosition, int newPosition) {
+                return RatingsAdapter.DIFF_CALLBACK.getChangePayload(oldList.get(oldPosition), newList.get(newPosition));
+            }
+        }, false);
+
+        RecordingCallback callback = new RecordingCallback(oldList);
+        result.dispatchUpdatesTo(callback);
+        return callback;
+    }
+
+    // Applies the dispatched updates to the old ids; inserted rows show up as nulls
+    private static class RecordingCallback implements ListUpdateCallback {
+        final List<Long> ids = new ArrayList<>();
+        final List<Object> payloads = new ArrayList<>();
+        int inserted;
+        int removed;
+        int changed;
+
+        RecordingCallback(List<RatingViewModel.DishRating> oldList) {
+            for (RatingViewModel.DishRating rating : oldList) {
+                ids.add(rating.getId());
+            }
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+            for (int i = 0; i < count; i++) {
+                ids.add(position, null);
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+            ids.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            ids.add(toPosition, ids.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changed += count;
+            payloads.add(payload);
+        }
+    }
+
+    private static RatingViewModel.DishRating rating(long id, String name, long timestamp) {
+        return new RatingViewModel.DishRating(id, name, "Main", 4.0f, timestamp);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.restaurantraterapp;
+
+import android.os.Looper;
+import android.view.View;
+
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentManager;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.test.core.app.ActivityScenario;
+
+import com.google.android.material.bottomnavigation.BottomNavigationView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs MainActivity under Robolectric to check that show/hide tab switching keeps each tab's views
+ * alive. With -Pbenchmark it also compares a tab switch round trip with 1000 ratings on screen
+ * against replacing the container's fragment, which is how the tabs used to be switched.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class TabSwitchTest {
+
+    private static final int RATINGS = 1000;
+    private static final int WARMUP_SWITCHES = 10;
+    private static final int MEASURED_SWITCHES = 50;
+
+    @Test
+    public void showHide_keepsViewsAndCapsHiddenTabAtStarted() {
+        try (ActivityScenario<MainActivity> scenario = launch()) {
+            scenario.onActivity(activity -> {
+                FragmentManager fragmentManager = activity.getSupportFragmentManager();
+                View ratingsList = activity.findViewById(R.id.rv_ratings);
+
+                select(activity, R.id.nav_rate);
+                Fragment restaurant = fragmentManager.findFragmentByTag(MainActivity.TAG_RESTAURANT);
+                Fragment rate = fragmentManager.findFragmentByTag(MainActivity.TAG_RATE);
+                assertTrue(restaurant.isHidden());
+                assertEquals(Lifecycle.State.STARTED, restaurant.getLifecycle().getCurrentState());
+                assertEquals(Lifecycle.State.RESUMED, rate.getLifecycle().getCurrentState());
+                View rateView = rate.getView();
+
+                select(activity, R.id.nav_restaurant);
+                assertSame(ratingsList, activity.findViewById(R.id.rv_ratings));
+                assertSame(rateView, rate.getView());
+                assertEquals(Lifecycle.State.STARTED, rate.getLifecycle().getCurrentState());
+            });
+        }
+    }
+
+    /**
+     * Wall-clock comparison, so it only runs with -Pbenchmark.
+     */
+    @Test
+    public void showHide_switchesFasterThanReplacing() {
+        RatingBenchmark.assumeEnabled();
+        long replaceNanos = measure(TabSwitchTest::replaceRoundTrip);
+        long showHideNanos = measure(activity -> {
+            select(activity, R.id.nav_rate);
+            select(activity, R.id.nav_restaurant);
+        });
+
+        assertTrue(String.format(Locale.US,
+                        "show/hide round trip took %.2f ms, replacing took %.2f ms, with %d ratings",
+                        showHideNanos / 1e6, replaceNanos / 1e6, RATINGS),
+                showHideNanos < replaceNanos);
+    }
+
+    // Switching to the rate tab and back by replacing the container's fragment, inflating each tab
+    // from scratch the way the tabs were switched before FragmentTabSwitcher
+    private static void replaceRoundTrip(MainActivity activity) {
+        replace(activity, MainActivity.TAG_RATE, new RatingFragment());
+        replace(activity, MainActivity.TAG_RESTAURANT, new RestaurantFragment());
+    }
+
+    private static void replace(MainActivity activity, String tag, Fragment fragment) {
+        activity.getSupportFragmentManager().beginTransaction()
+                .setReorderingAllowed(true)
+                .replace(R.id.fragment_container, fragment, tag)
+                .commitNow();
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private interface RoundTrip {
+        void run(MainActivity activity);
+    }
+
+    // Median time of a round trip to the rate tab and back, including the main thread work it queues
+    private static long measure(RoundTrip roundTrip) {
+        long[] times = new long[MEASURED_SWITCHES];
+        try (ActivityScenario<MainActivity> scenario = launch()) {
+            scenario.onActivity(activity -> {
+                RatingViewModel viewModel = new ViewModelProvider(activity).get(RatingViewModel.class);
+                viewModel.clearAllRatings();
+                for (int i = 0; i < RATINGS; i++) {
+                    viewModel.submitRating("Dish " + i, "Main", 1 + i % 5);
+                }
+                shadowOf(Looper.getMainLooper()).idle();
+
+                for (int i = 0; i < WARMUP_SWITCHES + MEASURED_SWITCHES; i++) {
+                    long start = System.nanoTime();
+                    roundTrip.run(activity);
+                    if (i >= WARMUP_SWITCHES) {
+                        times[i - WARMUP_SWITCHES] = System.nanoTime() - start;
+                    }
+                }
+                viewModel.clearAllRatings();
+            });
+        }
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    private static ActivityScenario<MainActivity> launch() {
+        ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class);
+        // Lets the idle-time preload of the other tab run
+        shadowOf(Looper.getMainLooper()).idle();
+        return scenario;
+    }
+
+    private static void select(MainActivity activity, int itemId) {
+        BottomNavigationView navigation = activity.findViewById(R.id.bottom_navigation);
+        navigation.setSelectedItemId(itemId);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}